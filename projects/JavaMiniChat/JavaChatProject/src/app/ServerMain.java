@@ -1,19 +1,97 @@
 package app;
 
+import server.archive.RetentionArchiver;
+import server.archive.RetentionPolicy;
+import server.cluster.ClusterConfig;
+import server.db.DbExecutor;
 import server.db.MongoManager;
+import server.db.MongoMetrics;
+import server.db.MongoPoolConfig;
 import server.net.Server;
+import server.net.SessionMetrics;
+import server.repo.ReadStateRepository;
 import server.repo.UserRepository;
+import server.search.SearchIndex;
 /**
  * Starts ONLY the server (recommended).
  *
  * - Connects to MongoDB (creates collections/indexes automatically)
- * - Resets all users to offline on startup (avoids stale online statuses after crashes)
+ * - Resets all users to offline on startup (avoids stale online statuses after crashes);
+ *   in cluster mode only the users this node had marked online
  * - Starts socket server on CHAT_PORT
  *
  * Environment variables (optional):
  * - CHAT_MONGO_URI (default: mongodb://localhost:27017)
  * - CHAT_DB_NAME   (default: chatdb)
  * - CHAT_PORT      (default: 9999)
+ * - CHAT_DB_THREADS (default: 16) threads running MongoDB calls for all sessions
+ *
+ * Mongo pool / timeouts (0 = driver default):
+ * - CHAT_MONGO_POOL_MAX, CHAT_MONGO_POOL_MIN, CHAT_MONGO_POOL_WAIT_MS
+ * - CHAT_MONGO_CONNECT_TIMEOUT_MS, CHAT_MONGO_READ_TIMEOUT_MS
+ * - CHAT_MONGO_SELECT_TIMEOUT_MS, CHAT_MONGO_HEARTBEAT_MS
+ * - CHAT_MONGO_METRICS_LOG_SEC (0 = off) prints pool usage + per-command latency
+ *
+ * Retention / cold archive (0 = keep forever, the default):
+ * - CHAT_RETENTION_BROADCAST_DAYS
+ * - CHAT_RETENTION_PRIVATE_DAYS
+ * - CHAT_RETENTION_GROUP_DAYS
+ * - CHAT_ARCHIVE_INTERVAL_MIN (default: 60)
+ *
+ * Full-text search:
+ * - CHAT_SEARCH_CACHE_CHATS (default: 256) chat indexes kept in memory
+ * - CHAT_SEARCH_FLUSH_SEC   (default: 30) how often new index segments are persisted
+ *
+ * Transcript export:
+ * - CHAT_EXPORT_MAX_CONCURRENT (default: 4) exports streaming at the same time
+ *
+ * Receipts:
+ * - CHAT_RECEIPT_WINDOW_MS (default: 250) delivered/read acks are coalesced per chat for this long
+ *
+ * Heartbeat / idle sessions (0 = off):
+ * - CHAT_HEARTBEAT_SEC    (default: 20) ping sessions that sent nothing for this long
+ * - CHAT_IDLE_TIMEOUT_SEC (default: 60) close sessions that sent nothing (not even a pong) for this long
+ * - CHAT_WRITE_TIMEOUT_MS (default: 10000) close sessions stuck in one socket write for this long
+ * - CHAT_SESSION_METRICS_LOG_SEC (0 = off) prints open/reaped sessions + heartbeat RTT
+ *
+ * Metrics:
+ * - CHAT_METRICS_LOG_SEC (0 = off) prints p50/p99/p999 per request type and DB call,
+ *   fan-out lag, messages/s and bytes in/out
+ * - CHAT_METRICS_PORT    (0 = off) HTTP port for /metrics (Prometheus text format),
+ *   /healthz and /readyz (503 while draining or without a MongoDB primary)
+ * - CHAT_TRACE_PERCENT   (0 = off) share of chat messages traced received -> validated ->
+ *   persisted -> enqueued -> flushed per recipient (stage histograms on /metrics)
+ * - CHAT_TRACE_SLOW_MS   (default: 250) traced messages at least this slow are kept for admin "traces"
+ * - CHAT_TRACE_RING      (default: 256) how many slow traces are kept
+ *
+ * JFR (continuous recording with the JVM "default" settings + chat events):
+ * - CHAT_JFR              (default: 0 = off, 1 = on)
+ * - CHAT_JFR_THRESHOLD_MS (default: 20) chat operations at least this slow are recorded
+ * - CHAT_JFR_MAX_AGE_MIN  (default: 30), CHAT_JFR_MAX_SIZE_MB (default: 250) rolling window kept
+ * - CHAT_JFR_DUMP         (default: none) file the recording is written to at shutdown
+ *
+ * Admin:
+ * - CHAT_ADMIN_USERS     (default: none) comma-separated users allowed to send admin requests
+ *
+ * Graceful shutdown (SIGTERM / Ctrl+C drains sessions instead of cutting them):
+ * - CHAT_DRAIN_DEADLINE_SEC (default: 20) the whole drain, final flushes included
+ * - CHAT_DRAIN_SPREAD_SEC   (default: 10) clients reconnect after a random delay up to this
+ * - CHAT_DRAIN_REDIRECT     (default: none) "host:port" clients should reconnect to
+ *
+ * Resumable sessions (reconnect with a signed token instead of the password):
+ * - CHAT_TOKEN_SECRET     (default: random per start) HMAC key, the same on every node
+ * - CHAT_TOKEN_TTL_SEC    (default: 900, 0 = no tokens) token lifetime, renewed while connected
+ * - CHAT_RESUME_GRACE_SEC (default: 30, 0 = no parking) a dropped session waits this long to be resumed
+ * - CHAT_RESUME_BUFFER    (default: 500) frames kept for a dropped session (more = it ends)
+ *
+ * Cluster (several nodes sharing one MongoDB; off unless CHAT_CLUSTER_PORT is set):
+ * - CHAT_NODE_ID       (default: node-<CHAT_PORT>) unique per node
+ * - CHAT_CLUSTER_PORT  (default: 0) port for the inter-node bus
+ * - CHAT_CLUSTER_BIND  (default: 127.0.0.1) interface the bus listens on (a private address for multi-host)
+ * - CHAT_CLUSTER_SECRET (required) shared by all nodes; peer links are authenticated with it
+ * - CHAT_CLUSTER_PEERS (default: none) bus addresses of the other nodes, "host:port,host:port"
+ * - CHAT_CLUSTER_GOSSIP_MS (default: 2000) presence digest / heartbeat interval
+ * - CHAT_CLUSTER_LEASE_MS  (default: 10000) a node not heard of for this long is dropped
  */
 public class ServerMain {
 
@@ -22,20 +100,72 @@ public class ServerMain {
     String dbName   = env("CHAT_DB_NAME", "chatdb");
     int port        = envInt("CHAT_PORT", 9999);
 
+    MongoPoolConfig pool = new MongoPoolConfig(
+        envInt("CHAT_MONGO_POOL_MAX", 0),
+        envInt("CHAT_MONGO_POOL_MIN", 0),
+        envInt("CHAT_MONGO_POOL_WAIT_MS", 0),
+        envInt("CHAT_MONGO_CONNECT_TIMEOUT_MS", 0),
+        envInt("CHAT_MONGO_READ_TIMEOUT_MS", 0),
+        envInt("CHAT_MONGO_SELECT_TIMEOUT_MS", 0),
+        envInt("CHAT_MONGO_HEARTBEAT_MS", 0));
+
     try {
-      MongoManager.init(mongoUri, dbName);
+      MongoManager.init(mongoUri, dbName, pool);
     } catch (Exception ex) {
       System.err.println("❌ Mongo init failed: " + ex.getMessage());
       ex.printStackTrace();
       return;
     }
 
+    MongoMetrics.INSTANCE.startLogging(envInt("CHAT_MONGO_METRICS_LOG_SEC", 0));
+    DbExecutor.init(envInt("CHAT_DB_THREADS", 16));
+
+    ClusterConfig cluster = ClusterConfig.parse(env("CHAT_NODE_ID", "node-" + port),
+        env("CHAT_CLUSTER_BIND", ClusterConfig.DEFAULT_BIND), envInt("CHAT_CLUSTER_PORT", 0),
+        env("CHAT_CLUSTER_PEERS", ""), env("CHAT_CLUSTER_SECRET", ""),
+        envInt("CHAT_CLUSTER_GOSSIP_MS", 0), envInt("CHAT_CLUSTER_LEASE_MS", 0));
+
     try {
-      UserRepository.resetAllOffline();
+      // cluster: the other nodes' users are still online; only reset what this node owned
+      if (cluster.enabled()) {
+        UserRepository.setOwnerNode(cluster.nodeId);
+        UserRepository.resetOfflineOwnedBy(cluster.nodeId);
+      } else {
+        UserRepository.resetAllOffline();
+      }
     } catch (Exception ex) {
       System.err.println("⚠️ Could not reset users offline: " + ex.getMessage());
     }
 
+    RetentionPolicy retention = new RetentionPolicy(
+        envInt("CHAT_RETENTION_BROADCAST_DAYS", 0),
+        envInt("CHAT_RETENTION_PRIVATE_DAYS", 0),
+        envInt("CHAT_RETENTION_GROUP_DAYS", 0));
+    RetentionArchiver.start(retention, envInt("CHAT_ARCHIVE_INTERVAL_MIN", 60));
+
+    Server.configureExports(envInt("CHAT_EXPORT_MAX_CONCURRENT", 4));
+    Server.configureReceipts(envInt("CHAT_RECEIPT_WINDOW_MS", 250));
+    Server.configureHeartbeat(envInt("CHAT_HEARTBEAT_SEC", 20), envInt("CHAT_IDLE_TIMEOUT_SEC", 60));
+    Server.configureWriteTimeout(envInt("CHAT_WRITE_TIMEOUT_MS", 10_000));
+    SessionMetrics.INSTANCE.startLogging(envInt("CHAT_SESSION_METRICS_LOG_SEC", 0));
+    Server.configureMetrics(envInt("CHAT_METRICS_LOG_SEC", 0), envInt("CHAT_METRICS_PORT", 0));
+    Server.configureTracing(envInt("CHAT_TRACE_PERCENT", 0), envInt("CHAT_TRACE_SLOW_MS", 250),
+        envInt("CHAT_TRACE_RING", 256));
+    Server.configureJfr(envInt("CHAT_JFR", 0) != 0, envInt("CHAT_JFR_THRESHOLD_MS", 20),
+        envInt("CHAT_JFR_MAX_AGE_MIN", 30), envInt("CHAT_JFR_MAX_SIZE_MB", 250), env("CHAT_JFR_DUMP", ""));
+    Server.configureAdmin(env("CHAT_ADMIN_USERS", ""));
+    Server.configureDrain(envInt("CHAT_DRAIN_DEADLINE_SEC", 20), envInt("CHAT_DRAIN_SPREAD_SEC", 10),
+        env("CHAT_DRAIN_REDIRECT", ""));
+    Server.configureResume(env("CHAT_TOKEN_SECRET", ""), envInt("CHAT_TOKEN_TTL_SEC", 900),
+        envInt("CHAT_RESUME_GRACE_SEC", 30), envInt("CHAT_RESUME_BUFFER", 500));
+    SearchIndex.configure(envInt("CHAT_SEARCH_CACHE_CHATS", 256), envInt("CHAT_SEARCH_FLUSH_SEC", 30));
+
+    Server.configureCluster(cluster);
+
+    // read positions / search segments are buffered in memory; persist what is left after the drain
+    Server.onShutdown(ReadStateRepository::flush);
+    Server.onShutdown(SearchIndex::flush);
+
     System.out.println("✅ Server starting on port " + port);
     Server.start(port);
   }
@@ -0,0 +1,291 @@
+package bench;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.JsonObject;
+
+import common.JsonUtil;
+import common.MessageFormat;
+import common.Protocol;
+import common.TextUtil;
+import server.metrics.CountingOutputStream;
+import server.metrics.Metrics;
+import server.net.FanOut;
+import server.net.Outbox;
+
+/**
+ * Allocation guardrail for the broadcast hot path (no MongoDB, no sockets).
+ *
+ * Routes a fixed workload (default: 10k broadcasts to 1k sessions) the way ClientHandler
+ * does, and counts the bytes allocated on EVERY thread (sender, fan-out lanes, writer pool)
+ * with ThreadMXBean.getThreadAllocatedBytes:
+ * - ingest:   read + parse the request frame, clean the text, store (an in-memory sequence
+ *             instead of MongoDB), format, serialize once, hand off to FanOut (sender thread)
+ * - delivery: queue the frame into every recipient's Outbox and write it through the same
+ *             writer stack as a real connection, into memory (all other threads)
+ *
+ * The numbers are compared with a stored budget; any metric over it fails the run (exit 1),
+ * so an allocation regression shows up before it shows up as GC pauses. Each run takes the
+ * lowest value out of --rounds rounds, which filters out JIT and warmup noise.
+ *
+ * Run:
+ *   java -cp "bin;lib/*" bench.AllocationBudget [--messages 10000] [--sessions 1000] [--rounds 3]
+ *     [--budget src/bench/allocation-budget.properties] [--record] [--headroom 10]
+ *
+ * --record writes the measured values plus headroom (%) as the new budget instead of checking.
+ */
+public final class AllocationBudget {
+
+  private static final String INGEST = "ingest.bytesPerMessage";
+  private static final String DELIVERY = "delivery.bytesPerRecipient";
+  private static final String[] KEYS = {INGEST, DELIVERY};
+  private static final int BATCH = 100; // messages in flight at most (bounds the queues)
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private static final class Options {
+    int messages = 10_000;
+    int sessions = 1_000;
+    int rounds = 3;
+    Path budget = Path.of("src", "bench", "allocation-budget.properties");
+    boolean record;
+    int headroomPercent = 10;
+
+    Options(String[] args) {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--record" -> record = true;
+          case "--messages" -> messages = Math.max(BATCH, Integer.parseInt(args[++i]));
+          case "--sessions" -> sessions = Math.max(1, Integer.parseInt(args[++i]));
+          case "--rounds" -> rounds = Math.max(1, Integer.parseInt(args[++i]));
+          case "--budget" -> budget = Path.of(args[++i]);
+          case "--headroom" -> headroomPercent = Math.max(0, Integer.parseInt(args[++i]));
+          default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+      }
+    }
+  }
+
+  /** In-memory socket: counts frames (one '\n' each), keeps nothing. */
+  private static final class SinkStream extends OutputStream {
+    // written by one Outbox drain at a time (the drains of a session are ordered)
+    volatile long frames;
+
+    @Override
+    public void write(int b) {
+      if (b == '\n') frames++;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+      long n = 0;
+      for (int i = off; i < off + len; i++) {
+        if (buf[i] == '\n') n++;
+      }
+      if (n > 0) frames += n;
+    }
+  }
+
+  /** One round's result, bytes per unit. */
+  private static final class Round {
+    final double ingest;
+    final double delivery;
+
+    Round(double ingest, double delivery) {
+      this.ingest = ingest;
+      this.delivery = delivery;
+    }
+  }
+
+  private final int sessions;
+  private final List<SinkStream> sinks = new ArrayList<>();
+  private final Outbox[][] byLane;
+  private long seq;
+
+  private AllocationBudget(int sessions) {
+    this.sessions = sessions;
+    List<Outbox> boxes = new ArrayList<>();
+    for (int i = 0; i < sessions; i++) {
+      SinkStream sink = new SinkStream();
+      sinks.add(sink);
+      // the writer stack of ClientHandler.run(), over memory instead of a socket
+      boxes.add(new Outbox(new BufferedWriter(new OutputStreamWriter(new CountingOutputStream(sink, Metrics.BYTES_OUT))), null));
+    }
+    byLane = FanOut.byLane(boxes);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options o = new Options(args);
+    if (!THREADS.isThreadAllocatedMemorySupported()) {
+      System.err.println("❌ This JVM has no per-thread allocation counter");
+      System.exit(2);
+    }
+    THREADS.setThreadAllocatedMemoryEnabled(true);
+
+    AllocationBudget b = new AllocationBudget(o.sessions);
+    System.out.println("Allocation budget: " + o.messages + " broadcasts to " + o.sessions + " sessions, "
+        + FanOut.lanes() + " lanes, best of " + o.rounds + " rounds");
+
+    b.route(b.wire(o.messages), o.messages); // warmup: JIT, lane + writer threads started
+    double ingest = Double.MAX_VALUE;
+    double delivery = Double.MAX_VALUE;
+    for (int r = 1; r <= o.rounds; r++) {
+      Round round = b.measure(o.messages);
+      System.out.printf(Locale.ROOT, "  round %d: ingest %.1f B/msg, delivery %.1f B/recipient%n", r, round.ingest,
+          round.delivery);
+      ingest = Math.min(ingest, round.ingest);
+      delivery = Math.min(delivery, round.delivery);
+    }
+    double[] measured = {ingest, delivery};
+    System.out.printf(Locale.ROOT, "Total: %.0f B per routed message (%d recipients)%n",
+        ingest + delivery * o.sessions, o.sessions);
+
+    if (o.record) {
+      record(o, measured);
+      return;
+    }
+    System.exit(check(o.budget, measured) ? 0 : 1);
+  }
+
+  // ---------------- workload ----------------
+
+  private Round measure(int messages) throws Exception {
+    BufferedReader in = wire(messages);
+    long[] ids = THREADS.getAllThreadIds();
+    long[] before = THREADS.getThreadAllocatedBytes(ids);
+    long mineBefore = THREADS.getCurrentThreadAllocatedBytes();
+
+    route(in, messages);
+
+    long mine = THREADS.getCurrentThreadAllocatedBytes() - mineBefore;
+    long all = allocatedSince(ids, before);
+    return new Round(mine / (double) messages, (all - mine) / ((double) messages * sessions));
+  }
+
+  /** What the clients sent (built before measuring), read like the session thread reads its socket. */
+  private BufferedReader wire(int messages) {
+    StringBuilder wire = new StringBuilder();
+    for (int i = 0; i < messages; i++) {
+      JsonObject req = new JsonObject();
+      req.addProperty(Protocol.TYPE, Protocol.BROADCAST);
+      req.addProperty("content", "hello from user" + (i % sessions) + " #" + i);
+      wire.append(JsonUtil.toLine(req)).append('\n');
+    }
+    return new BufferedReader(new StringReader(wire.toString()));
+  }
+
+  /** Route `messages` broadcasts and wait until every session has written all of them. */
+  private void route(BufferedReader in, int messages) throws Exception {
+    long target = delivered();
+    for (int i = 0; i < messages; i++) {
+      routeOne(in, "user" + (i % sessions));
+      target += sessions;
+      if ((i + 1) % BATCH == 0) awaitDelivered(target);
+    }
+    awaitDelivered(target);
+  }
+
+  /** ClientHandler's broadcast case with an in-memory store (MessageRepository.saveBroadcast). */
+  private void routeOne(BufferedReader in, String sender) throws IOException {
+    JsonObject req = JsonUtil.readObject(in);
+    if (!Protocol.BROADCAST.equals(Protocol.typeOf(req))) throw new IllegalStateException("bad frame");
+    String content = TextUtil.clamp(TextUtil.cleanOneLine(Protocol.getString(req, "content")), 2000);
+
+    long s = ++seq;
+    String formatted = "[" + LocalDateTime.now().format(MessageFormat.TS_PARSE) + "] " + sender + ": " + content;
+
+    String line = JsonUtil.toLine(Protocol.withSeq(Protocol.broadcastMsg(formatted), s));
+    FanOut.deliver(line, byLane);
+  }
+
+  private long delivered() {
+    long n = 0;
+    for (SinkStream s : sinks) n += s.frames;
+    return n;
+  }
+
+  private void awaitDelivered(long target) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while (delivered() < target) {
+      if (System.nanoTime() > deadline) throw new IllegalStateException("delivery did not complete");
+      LockSupport.parkNanos(50_000);
+    }
+  }
+
+  /** Bytes allocated by all threads since `before` (threads started since count from 0). */
+  private static long allocatedSince(long[] ids, long[] before) {
+    long[] nowIds = THREADS.getAllThreadIds();
+    long[] now = THREADS.getThreadAllocatedBytes(nowIds);
+    long total = 0;
+    for (int i = 0; i < nowIds.length; i++) {
+      if (now[i] < 0) continue; // died meanwhile
+      long start = 0;
+      for (int j = 0; j < ids.length; j++) {
+        if (ids[j] == nowIds[i]) {
+          start = Math.max(0, before[j]);
+          break;
+        }
+      }
+      total += now[i] - start;
+    }
+    return total;
+  }
+
+  // ---------------- budget ----------------
+
+  private static boolean check(Path file, double[] measured) throws IOException {
+    if (!Files.exists(file)) {
+      System.err.println("❌ No budget at " + file + " (create it with --record)");
+      return false;
+    }
+    Properties budget = new Properties();
+    try (var r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      budget.load(r);
+    }
+
+    boolean ok = true;
+    System.out.printf("%-30s %12s %12s%n", "metric", "measured", "budget");
+    for (int i = 0; i < KEYS.length; i++) {
+      String v = budget.getProperty(KEYS[i]);
+      double limit = v == null ? Double.NaN : Double.parseDouble(v.trim());
+      boolean over = !(measured[i] <= limit);
+      ok &= !over;
+      System.out.printf(Locale.ROOT, "%-30s %12.1f %12s %s%n", KEYS[i], measured[i], v == null ? "-" : v.trim(),
+          over ? "❌ over budget" : "✅");
+    }
+    System.out.println(ok ? "✅ Within budget" : "❌ Allocation budget exceeded (" + file + ")");
+    return ok;
+  }
+
+  private static void record(Options o, double[] measured) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append("# Allocation budget of bench.AllocationBudget (bytes, all threads).\n");
+    sb.append("# Recorded with ").append(o.messages).append(" broadcasts to ").append(o.sessions)
+        .append(" sessions, +").append(o.headroomPercent).append("% headroom.\n");
+    sb.append("# Raise it only for an allocation that is on purpose; re-record with --record.\n");
+    for (int i = 0; i < KEYS.length; i++) {
+      long limit = (long) Math.ceil(measured[i] * (100 + o.headroomPercent) / 100.0);
+      sb.append(KEYS[i]).append('=').append(limit).append('\n');
+    }
+    Path parent = o.budget.toAbsolutePath().getParent();
+    if (parent != null) Files.createDirectories(parent);
+    Files.writeString(o.budget, sb.toString(), StandardCharsets.UTF_8);
+    System.out.println("📝 Budget written to " + o.budget);
+  }
+}
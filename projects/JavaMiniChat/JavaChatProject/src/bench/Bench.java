@@ -0,0 +1,232 @@
+package bench;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Minimal micro-benchmark runner (JMH-style numbers without the JMH dependency).
+ *
+ * Per benchmark: warmup iterations, then measured iterations of a fixed duration, all on
+ * the calling thread. Reports:
+ * - throughput (ops/s, mean of the measured iterations, with min..max)
+ * - time per op
+ * - bytes allocated per op, from the thread's allocation counter
+ *   (com.sun.management.ThreadMXBean; same source as JMH's -prof gc "alloc.rate.norm")
+ *
+ * Results are consumed through consume(), which the JIT cannot prove dead, so the measured
+ * work is not optimized away.
+ *
+ * Common options (any order, before or after the benchmark's own arguments):
+ *   --warmup N      warmup iterations (default 3)
+ *   --iterations N  measured iterations (default 5)
+ *   --time-ms N     duration of one iteration (default 1000)
+ *   --filter TEXT   only benchmarks whose name contains TEXT
+ *   --json FILE     also write the results to FILE (JMH's JSON layout, so the usual JMH
+ *                   result viewers / trend scripts read it)
+ */
+final class Bench {
+
+  /** One benchmarked operation; the returned value is consumed. */
+  interface Op {
+    Object run() throws Exception;
+  }
+
+  static final class Result {
+    final String name;
+    final double opsPerSec;
+    final double minOpsPerSec;
+    final double maxOpsPerSec;
+    final double bytesPerOp; // -1 when the JVM has no allocation counter
+    final double[] rates;    // ops/s of each measured iteration, in run order
+
+    Result(String name, double[] rates, double bytesPerOp) {
+      this.name = name;
+      this.rates = rates;
+      double[] sorted = rates.clone();
+      Arrays.sort(sorted);
+      this.opsPerSec = Arrays.stream(rates).average().orElse(0);
+      this.minOpsPerSec = sorted[0];
+      this.maxOpsPerSec = sorted[sorted.length - 1];
+      this.bytesPerOp = bytesPerOp;
+    }
+
+    double nanosPerOp() {
+      return opsPerSec <= 0 ? 0 : 1e9 / opsPerSec;
+    }
+  }
+
+  // blackhole: a volatile read per op, never equal to a real result
+  private static volatile Object bait = new Object();
+  private static int hits;
+
+  private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+  final int warmup;
+  final int iterations;
+  final long iterationNanos;
+  final String filter;
+  final String jsonFile;
+  /** Arguments that were not common options, in order. */
+  final List<String> rest = new ArrayList<>();
+
+  private final List<Result> results = new ArrayList<>();
+
+  Bench(String[] args) {
+    int w = 3;
+    int i = 5;
+    long ms = 1000;
+    String f = null;
+    String json = null;
+    for (int a = 0; a < args.length; a++) {
+      String arg = args[a];
+      boolean hasValue = a + 1 < args.length;
+      if (arg.equals("--warmup") && hasValue) w = Integer.parseInt(args[++a]);
+      else if (arg.equals("--iterations") && hasValue) i = Integer.parseInt(args[++a]);
+      else if (arg.equals("--time-ms") && hasValue) ms = Long.parseLong(args[++a]);
+      else if (arg.equals("--filter") && hasValue) f = args[++a];
+      else if (arg.equals("--json") && hasValue) json = args[++a];
+      else rest.add(arg);
+    }
+    warmup = Math.max(0, w);
+    iterations = Math.max(1, i);
+    iterationNanos = Math.max(10, ms) * 1_000_000L;
+    filter = f;
+    jsonFile = json;
+  }
+
+  static void consume(Object o) {
+    if (o == bait) hits++;
+  }
+
+  void header(String title) {
+    System.out.println(title + " (" + warmup + " warmup + " + iterations + " x " + (iterationNanos / 1_000_000)
+        + " ms, " + Runtime.version() + ")");
+    System.out.printf("%-34s %14s %22s %12s %12s%n", "benchmark", "ops/s", "min..max", "ns/op", "B/op");
+  }
+
+  /** Runs op (unless filtered out), prints one row, returns the result (null if skipped). */
+  Result run(String name, Op op) throws Exception {
+    if (filter != null && !name.contains(filter)) return null;
+
+    for (int i = 0; i < warmup; i++) iteration(op);
+
+    double[] rates = new double[iterations];
+    long ops = 0;
+    long bytes = 0;
+    for (int i = 0; i < iterations; i++) {
+      long a0 = allocated();
+      long[] r = iteration(op);
+      long a1 = allocated();
+      rates[i] = r[0] * 1e9 / r[1];
+      ops += r[0];
+      bytes += a1 - a0;
+    }
+
+    double bytesPerOp = THREADS == null ? -1 : (double) bytes / ops;
+    Result res = new Result(name, rates, bytesPerOp);
+    results.add(res);
+
+    System.out.printf("%-34s %14s %22s %12s %12s%n", name, count(res.opsPerSec),
+        count(res.minOpsPerSec) + ".." + count(res.maxOpsPerSec),
+        String.format("%.1f", res.nanosPerOp()), bytesPerOp < 0 ? "n/a" : String.format("%.1f", bytesPerOp));
+    return res;
+  }
+
+  List<Result> results() {
+    return results;
+  }
+
+  /** Writes the results to the --json file, if one was given. Call once, after the last run. */
+  void finish(String prefix) throws IOException {
+    if (jsonFile == null) return;
+
+    JsonArray all = new JsonArray();
+    for (Result r : results) {
+      JsonObject o = new JsonObject();
+      o.addProperty("benchmark", prefix + "." + r.name);
+      o.addProperty("mode", "thrpt");
+      o.addProperty("threads", 1);
+      o.addProperty("forks", 0);
+      o.addProperty("jdkVersion", Runtime.version().toString());
+      o.addProperty("warmupIterations", warmup);
+      o.addProperty("warmupTime", (iterationNanos / 1_000_000) + " ms");
+      o.addProperty("measurementIterations", iterations);
+      o.addProperty("measurementTime", (iterationNanos / 1_000_000) + " ms");
+      o.addProperty("timestamp", System.currentTimeMillis());
+
+      JsonObject primary = new JsonObject();
+      primary.addProperty("score", r.opsPerSec);
+      JsonArray confidence = new JsonArray();
+      confidence.add(r.minOpsPerSec);
+      confidence.add(r.maxOpsPerSec);
+      primary.add("scoreConfidence", confidence);
+      primary.addProperty("scoreUnit", "ops/s");
+      JsonArray raw = new JsonArray();
+      for (double v : r.rates) raw.add(v);
+      JsonArray fork = new JsonArray();
+      fork.add(raw);
+      primary.add("rawData", fork);
+      o.add("primaryMetric", primary);
+
+      JsonObject secondary = new JsonObject();
+      if (r.bytesPerOp >= 0) {
+        JsonObject alloc = new JsonObject();
+        alloc.addProperty("score", r.bytesPerOp);
+        alloc.addProperty("scoreUnit", "B/op");
+        secondary.add("gc.alloc.rate.norm", alloc);
+      }
+      o.add("secondaryMetrics", secondary);
+      all.add(o);
+    }
+
+    Path path = Path.of(jsonFile);
+    Files.writeString(path, new GsonBuilder().setPrettyPrinting().create().toJson(all), StandardCharsets.UTF_8);
+    System.out.println("Results written to " + path.toAbsolutePath());
+  }
+
+  /** {ops, elapsedNanos} of one timed iteration; checks the clock every batch of ops. */
+  private long[] iteration(Op op) throws Exception {
+    long ops = 0;
+    int batch = 1;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      for (int i = 0; i < batch; i++) consume(op.run());
+      ops += batch;
+      elapsed = System.nanoTime() - start;
+      // grow the batch until one batch takes ~1/100 of the iteration, so the clock reads stay cheap
+      if (batch < 1 << 20 && elapsed < iterationNanos / 100) batch <<= 1;
+    } while (elapsed < iterationNanos);
+    return new long[] {ops, elapsed};
+  }
+
+  private static long allocated() {
+    return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+  }
+
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    try {
+      var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      if (!mx.isThreadAllocatedMemorySupported()) return null;
+      mx.setThreadAllocatedMemoryEnabled(true);
+      return mx;
+    } catch (RuntimeException ex) {
+      return null;
+    }
+  }
+
+  private static String count(double v) {
+    if (v >= 1e6) return String.format("%.2fM", v / 1e6);
+    if (v >= 1e3) return String.format("%.1fk", v / 1e3);
+    return String.format("%.1f", v);
+  }
+}
@@ -0,0 +1,136 @@
+package bench;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import common.JsonUtil;
+import common.Protocol;
+import server.net.FanOut;
+import server.net.Outbox;
+
+/**
+ * Group fan-out benchmark (no MongoDB, no sockets).
+ *
+ * For groups of 100, 1k and 10k online members, sends one group_msg at a time and measures:
+ * - sender: time until the sending thread is free again
+ * - all delivered: time until every member's writer has the frame
+ *
+ * Two engines over the same fake sockets (each flush costs ~FLUSH_COST_NS, like a syscall):
+ * - sequential: the old loop, one blocking write + flush per member on the sender's thread
+ * - fanout: serialize once, FanOut lanes enqueue into per-session Outboxes
+ *
+ * Run:
+ *   java -cp "bin;lib/*" bench.GroupFanOutBench [messagesPerSize]
+ */
+public final class GroupFanOutBench {
+
+  private static final int[] SIZES = {100, 1_000, 10_000};
+  private static final long FLUSH_COST_NS = 5_000;
+  private static final int WARMUP = 20;
+
+  /** Fake socket: counts frames, spins a little on flush. */
+  private static final class SinkWriter extends Writer {
+    final AtomicReference<CountDownLatch> latch;
+
+    SinkWriter(AtomicReference<CountDownLatch> latch) {
+      this.latch = latch;
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        if (buf[i] == '\n') latch.get().countDown();
+      }
+    }
+
+    @Override
+    public void write(int c) {
+      if (c == '\n') latch.get().countDown();
+    }
+
+    @Override
+    public void write(String s) {
+      write(s.toCharArray(), 0, s.length());
+    }
+
+    @Override
+    public void flush() {
+      long until = System.nanoTime() + FLUSH_COST_NS;
+      while (System.nanoTime() < until) Thread.onSpinWait();
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private GroupFanOutBench() {}
+
+  public static void main(String[] args) throws Exception {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+    System.out.println("Group fan-out, " + messages + " messages per size, " + FanOut.lanes() + " lanes, flush cost "
+        + (FLUSH_COST_NS / 1000) + "us");
+    System.out.printf("%-10s %8s %14s %14s %18s%n", "engine", "members", "sender p50", "sender p99", "all delivered p50");
+
+    for (int n : SIZES) {
+      run("sequential", n, messages, false);
+      run("fanout", n, messages, true);
+    }
+  }
+
+  private static void run(String engine, int members, int messages, boolean fanOut) throws Exception {
+    AtomicReference<CountDownLatch> latch = new AtomicReference<>(new CountDownLatch(0));
+
+    List<Writer> sockets = new ArrayList<>();
+    List<Outbox> boxes = new ArrayList<>();
+    for (int i = 0; i < members; i++) {
+      SinkWriter w = new SinkWriter(latch);
+      sockets.add(w);
+      boxes.add(new Outbox(w, null));
+    }
+    Outbox[][] byLane = FanOut.byLane(boxes);
+
+    long[] sender = new long[messages];
+    long[] delivered = new long[messages];
+
+    for (int m = -WARMUP; m < messages; m++) {
+      var msg = Protocol.withSeq(Protocol.groupMsg("bench", "[2025-01-01 12:00] alice: hello #" + m), m + 100L);
+      CountDownLatch done = new CountDownLatch(members);
+      latch.set(done);
+
+      long t0 = System.nanoTime();
+      if (fanOut) {
+        FanOut.deliver(JsonUtil.toLine(msg), byLane);
+      } else {
+        for (Writer w : sockets) {
+          synchronized (w) {
+            w.write(JsonUtil.toLine(msg));
+            w.write('\n');
+            w.flush();
+          }
+        }
+      }
+      long t1 = System.nanoTime();
+      if (!done.await(30, TimeUnit.SECONDS)) throw new IllegalStateException("fan-out did not complete");
+      long t2 = System.nanoTime();
+
+      if (m >= 0) {
+        sender[m] = t1 - t0;
+        delivered[m] = t2 - t0;
+      }
+    }
+
+    Arrays.sort(sender);
+    Arrays.sort(delivered);
+    System.out.printf("%-10s %8d %14s %14s %18s%n", engine, members,
+        ms(sender[messages / 2]), ms(sender[(int) (messages * 0.99)]), ms(delivered[messages / 2]));
+  }
+
+  private static String ms(long nanos) {
+    return String.format("%.3f ms", nanos / 1_000_000.0);
+  }
+}
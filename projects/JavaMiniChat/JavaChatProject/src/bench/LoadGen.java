@@ -0,0 +1,418 @@
+package bench;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import client.net.ChatClient;
+import common.Protocol;
+import server.metrics.Histogram;
+
+/**
+ * Headless load generator: N synthetic users on client.net.ChatClient (no Swing).
+ *
+ * 1. connect + log in every user (signup when the login fails), at --ramp connections/s
+ * 2. the first member of every block of --group-size users creates a group with the block
+ * 3. for --duration seconds, sends --rate actions/s in total, picked by --mix from:
+ *    broadcast, private (random other user), group (own group), typing, history fetch
+ *
+ * Every chat message carries the send time (System.nanoTime of this JVM) in its content;
+ * whoever receives it records send -> receive latency, so all numbers are end to end
+ * (client socket, server pipeline, Mongo insert, fan-out, recipient socket). History
+ * fetches are timed request -> response.
+ *
+ * Reports a line every 5 s and a summary at the end: percentiles per kind, throughput,
+ * errors (error frames, failed auths, dropped connections, sends on a dead connection).
+ *
+ * Tens of thousands of connections: one reader thread per connection with a small stack
+ * (--stack-kb), e.g. java -Xmx2g -cp ... bench.LoadGen --users 20000 --stack-kb 128;
+ * one source IP has ~28k ephemeral ports, so beyond that run several generators.
+ *
+ * Run:
+ *   java -cp "bin;lib/*" bench.LoadGen [--host localhost] [--port 9999] [--users 100] [--rate 200]
+ *     [--duration 60] [--ramp 200] [--group-size 20] [--prefix load] [--pass loadpass1]
+ *     [--mix broadcast=2,private=50,group=30,typing=13,history=5] [--stack-kb 256]
+ */
+public final class LoadGen {
+
+  private static final String MARK = "lg:";
+  private static final long AUTH_TIMEOUT_MS = 30_000;
+  private static final int REPORT_SEC = 5;
+
+  private enum Kind { BROADCAST, PRIVATE, GROUP, TYPING, HISTORY }
+
+  private static final class Options {
+    String host = "localhost";
+    int port = 9999;
+    int users = 100;
+    double rate = 200;
+    int durationSec = 60;
+    int ramp = 200;
+    int groupSize = 20;
+    String prefix = "load";
+    String pass = "loadpass1";
+    long stackBytes = 256 * 1024;
+    final Map<Kind, Integer> mix = new LinkedHashMap<>();
+
+    Options(String[] args) {
+      mix.put(Kind.BROADCAST, 2);
+      mix.put(Kind.PRIVATE, 50);
+      mix.put(Kind.GROUP, 30);
+      mix.put(Kind.TYPING, 13);
+      mix.put(Kind.HISTORY, 5);
+
+      for (int i = 0; i + 1 < args.length; i += 2) {
+        String v = args[i + 1];
+        switch (args[i]) {
+          case "--host" -> host = v;
+          case "--port" -> port = Integer.parseInt(v);
+          case "--users" -> users = Math.max(2, Integer.parseInt(v));
+          case "--rate" -> rate = Math.max(0.1, Double.parseDouble(v));
+          case "--duration" -> durationSec = Math.max(1, Integer.parseInt(v));
+          case "--ramp" -> ramp = Math.max(1, Integer.parseInt(v));
+          case "--group-size" -> groupSize = Math.max(2, Integer.parseInt(v));
+          case "--prefix" -> prefix = v;
+          case "--pass" -> pass = v;
+          case "--stack-kb" -> stackBytes = Math.max(64, Long.parseLong(v)) * 1024;
+          case "--mix" -> parseMix(v);
+          default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+      }
+    }
+
+    private void parseMix(String spec) {
+      mix.replaceAll((k, w) -> 0);
+      for (String part : spec.split(",")) {
+        String[] kv = part.split("=");
+        if (kv.length != 2) throw new IllegalArgumentException("Bad mix entry '" + part + "' (kind=weight)");
+        mix.put(Kind.valueOf(kv[0].trim().toUpperCase()), Math.max(0, Integer.parseInt(kv[1].trim())));
+      }
+      if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) throw new IllegalArgumentException("Empty mix");
+    }
+
+    Kind pick(int roll) {
+      int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+      int r = roll % total;
+      for (Map.Entry<Kind, Integer> e : mix.entrySet()) {
+        if (r < e.getValue()) return e.getKey();
+        r -= e.getValue();
+      }
+      return Kind.PRIVATE;
+    }
+  }
+
+  /** One synthetic user and its connection. */
+  private static final class User {
+    final String name;
+    final ChatClient client;
+    int slot; // position in the online list (picks the group)
+    volatile CompletableFuture<JsonObject> authReply = new CompletableFuture<>();
+    volatile boolean running;
+    volatile long historyAt; // nanoTime of the outstanding history request, 0 = none
+
+    User(String name, Options o) {
+      this.name = name;
+      this.client = new ChatClient(o.host, o.port);
+      this.client.setReaderStackSize(o.stackBytes);
+    }
+  }
+
+  private static final Map<Kind, Histogram> LATENCY = new LinkedHashMap<>();
+  private static final Map<Kind, LongAdder> SENT = new LinkedHashMap<>();
+  static {
+    for (Kind k : Kind.values()) {
+      LATENCY.put(k, new Histogram());
+      SENT.put(k, new LongAdder());
+    }
+  }
+  private static final LongAdder RECEIVED = new LongAdder();
+  private static final LongAdder ERROR_FRAMES = new LongAdder();
+  private static final LongAdder DISCONNECTS = new LongAdder();
+  private static final LongAdder DEAD_SENDS = new LongAdder();
+  private static final AtomicInteger AUTH_FAILED = new AtomicInteger();
+
+  private static AtomicReferenceArray<String> groupIds;
+
+  private LoadGen() {}
+
+  public static void main(String[] args) throws Exception {
+    Options o = new Options(args);
+    System.out.println("Load: " + o.users + " users -> " + o.host + ":" + o.port + ", " + o.rate + " actions/s for "
+        + o.durationSec + "s, mix " + o.mix);
+
+    List<User> users = new ArrayList<>();
+    for (int i = 0; i < o.users; i++) users.add(new User(o.prefix + i, o));
+
+    List<User> online = connectAll(users, o);
+    System.out.println("Online: " + online.size() + "/" + users.size() + " (auth failures " + AUTH_FAILED.get() + ")");
+    if (online.size() < 2) {
+      System.err.println("❌ Not enough users online, stopping");
+      users.forEach(u -> u.client.disconnect());
+      return;
+    }
+
+    createGroups(online, o);
+    drive(online, o);
+
+    for (User u : online) {
+      u.running = false;
+      u.client.disconnect();
+    }
+    report(o, true);
+  }
+
+  // ---------------- Setup ----------------
+
+  private static List<User> connectAll(List<User> users, Options o) throws InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(64, Math.max(4, o.ramp / 10)));
+    List<CompletableFuture<Boolean>> done = new ArrayList<>();
+    long pauseNanos = 1_000_000_000L / o.ramp;
+    long next = System.nanoTime();
+    for (User u : users) {
+      long wait = next - System.nanoTime();
+      if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+      next += pauseNanos;
+      done.add(CompletableFuture.supplyAsync(() -> auth(u, o), pool));
+    }
+
+    List<User> online = new ArrayList<>();
+    for (int i = 0; i < users.size(); i++) {
+      if (done.get(i).join()) {
+        users.get(i).slot = online.size();
+        online.add(users.get(i));
+      }
+    }
+    pool.shutdown();
+    return online;
+  }
+
+  /** Login, or signup when the login is refused (the server closes a refused socket). */
+  private static boolean auth(User u, Options o) {
+    for (boolean signup : new boolean[] {false, true}) {
+      try {
+        u.authReply = new CompletableFuture<>();
+        u.client.setOnMessage(msg -> onMessage(u, msg));
+        u.client.setOnDisconnect(ex -> {
+          if (u.running) DISCONNECTS.increment();
+          u.running = false;
+        });
+        u.client.connect();
+        if (signup) u.client.sendSignup(u.name, o.pass);
+        else u.client.sendLogin(u.name, o.pass);
+
+        JsonObject reply = u.authReply.get(AUTH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (Protocol.getBool(reply, Protocol.OK, false)) {
+          u.running = true;
+          return true;
+        }
+      } catch (Exception ex) {
+        // next attempt, or counted as failed below
+      }
+    }
+    AUTH_FAILED.incrementAndGet();
+    u.client.disconnect();
+    return false;
+  }
+
+  private static void createGroups(List<User> online, Options o) throws InterruptedException {
+    int groups = (online.size() + o.groupSize - 1) / o.groupSize;
+    groupIds = new AtomicReferenceArray<>(groups);
+    for (int g = 0; g < groups; g++) {
+      JsonArray members = new JsonArray();
+      for (int i = g * o.groupSize; i < Math.min(online.size(), (g + 1) * o.groupSize); i++) members.add(online.get(i).name);
+      online.get(g * o.groupSize).client.createGroup(o.prefix + "-group-" + g, members);
+    }
+
+    long until = System.currentTimeMillis() + AUTH_TIMEOUT_MS;
+    while (System.currentTimeMillis() < until && created() < groups) Thread.sleep(50);
+    System.out.println("Groups: " + created() + "/" + groups + " of " + o.groupSize);
+  }
+
+  private static int created() {
+    int n = 0;
+    for (int i = 0; i < groupIds.length(); i++) if (groupIds.get(i) != null) n++;
+    return n;
+  }
+
+  // ---------------- Traffic ----------------
+
+  private static void drive(List<User> online, Options o) throws InterruptedException {
+    // sends are socket writes; a few threads keep the pacing thread from blocking on them
+    ExecutorService senders = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+    long start = System.nanoTime();
+    lastReportAt = start;
+    long end = start + o.durationSec * 1_000_000_000L;
+    long nextReport = start + REPORT_SEC * 1_000_000_000L;
+    double due = 0;
+    long last = start;
+
+    while (true) {
+      long now = System.nanoTime();
+      if (now >= end) break;
+      due += (now - last) * o.rate / 1e9;
+      last = now;
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      for (; due >= 1; due--) {
+        User u = online.get(rnd.nextInt(online.size()));
+        Kind k = o.pick(rnd.nextInt(Integer.MAX_VALUE));
+        senders.execute(() -> act(u, k, online, o));
+      }
+      if (now >= nextReport) {
+        report(o, false);
+        nextReport += REPORT_SEC * 1_000_000_000L;
+      }
+      Thread.sleep(1);
+    }
+
+    senders.shutdown();
+    senders.awaitTermination(10, TimeUnit.SECONDS);
+    Thread.sleep(1000); // let the last messages arrive
+  }
+
+  private static void act(User u, Kind k, List<User> online, Options o) {
+    if (!u.running || !u.client.isConnected()) {
+      DEAD_SENDS.increment();
+      return;
+    }
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    String group = groupIds.get(u.slot / o.groupSize);
+    String content = MARK + System.nanoTime() + " load message from " + u.name;
+
+    switch (k) {
+      case BROADCAST -> u.client.sendBroadcast(content);
+      case PRIVATE -> u.client.sendPrivate(other(u, online, rnd).name, content);
+      case GROUP -> {
+        if (group == null) return;
+        u.client.sendGroupMessage(group, content);
+      }
+      case TYPING -> u.client.sendTyping(other(u, online, rnd).name, rnd.nextBoolean() ? "start" : "stop");
+      case HISTORY -> {
+        if (u.historyAt != 0) return; // one outstanding fetch per user
+        u.historyAt = System.nanoTime();
+        switch (rnd.nextInt(3)) {
+          case 0 -> u.client.requestBroadcastHistory();
+          case 1 -> u.client.requestPrivateHistory(other(u, online, rnd).name);
+          default -> {
+            if (group != null) u.client.requestGroupHistory(group);
+            else u.client.requestBroadcastHistory();
+          }
+        }
+      }
+    }
+    SENT.get(k).increment();
+  }
+
+  private static User other(User u, List<User> online, ThreadLocalRandom rnd) {
+    User v = online.get(rnd.nextInt(online.size()));
+    return v != u ? v : online.get((u.slot + 1) % online.size());
+  }
+
+  /** Reader thread of one user. */
+  private static void onMessage(User u, JsonObject msg) {
+    String type = Protocol.typeOf(msg);
+    if (type == null) return;
+    switch (type) {
+      case Protocol.AUTH -> u.authReply.complete(msg);
+      case Protocol.ERROR -> ERROR_FRAMES.increment();
+      case Protocol.BROADCAST_MSG -> received(Kind.BROADCAST, msg);
+      case Protocol.PRIVATE_MSG -> received(Kind.PRIVATE, msg);
+      case Protocol.GROUP_MSG -> received(Kind.GROUP, msg);
+      case Protocol.BROADCAST_HISTORY, Protocol.PRIVATE_HISTORY, Protocol.GROUP_HISTORY -> {
+        long at = u.historyAt;
+        if (at != 0) {
+          LATENCY.get(Kind.HISTORY).recordSince(at);
+          u.historyAt = 0;
+        }
+      }
+      case Protocol.GROUP_CREATED -> {
+        String id = Protocol.getString(msg, Protocol.GROUP_ID);
+        String name = Protocol.getString(msg, "name");
+        int dash = name == null ? -1 : name.lastIndexOf('-');
+        if (Protocol.getBool(msg, Protocol.OK, false) && id != null && dash >= 0 && groupIds != null) {
+          try {
+            groupIds.compareAndSet(Integer.parseInt(name.substring(dash + 1)), null, id);
+          } catch (RuntimeException ignored) {
+            // not one of ours
+          }
+        }
+      }
+      default -> {}
+    }
+  }
+
+  private static void received(Kind k, JsonObject msg) {
+    String text = Protocol.getString(msg, "message");
+    int at = text == null ? -1 : text.indexOf(MARK);
+    if (at < 0) return;
+    int from = at + MARK.length();
+    int to = text.indexOf(' ', from);
+    try {
+      long sentAt = Long.parseLong(to < 0 ? text.substring(from) : text.substring(from, to));
+      LATENCY.get(k).recordSince(sentAt);
+      RECEIVED.increment();
+    } catch (NumberFormatException ignored) {
+      // someone typed "lg:" by hand
+    }
+  }
+
+  // ---------------- Report ----------------
+
+  private static long lastSent;
+  private static long lastReceived;
+  private static long lastReportAt;
+
+  private static void report(Options o, boolean last) {
+    long now = System.nanoTime();
+    long sent = SENT.values().stream().mapToLong(LongAdder::sum).sum();
+    long received = RECEIVED.sum();
+    double secs = Math.max(1e-3, (now - lastReportAt) / 1e9);
+    long errors = ERROR_FRAMES.sum() + DISCONNECTS.sum() + DEAD_SENDS.sum();
+
+    if (!last) {
+      StringBuilder sb = new StringBuilder("📊 ")
+          .append("sent/s=").append(Math.round((sent - lastSent) / secs))
+          .append(" recv/s=").append(Math.round((received - lastReceived) / secs))
+          .append(" errors=").append(errors);
+      for (Kind k : new Kind[] {Kind.PRIVATE, Kind.GROUP, Kind.BROADCAST, Kind.HISTORY}) {
+        Histogram.Snapshot s = LATENCY.get(k).snapshot();
+        if (s.count == 0) continue;
+        sb.append(" | ").append(k.name().toLowerCase())
+            .append(" p50=").append(ms(s.percentile(0.5)))
+            .append(" p99=").append(ms(s.percentile(0.99)));
+      }
+      System.out.println(sb);
+      lastSent = sent;
+      lastReceived = received;
+      lastReportAt = now;
+      return;
+    }
+
+    System.out.println();
+    System.out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s%n", "kind", "sent", "received", "p50", "p90", "p99", "p999", "max");
+    for (Kind k : Kind.values()) {
+      Histogram.Snapshot s = LATENCY.get(k).snapshot();
+      System.out.printf("%-10s %10d %10d %10s %10s %10s %10s %10s%n", k.name().toLowerCase(), SENT.get(k).sum(), s.count,
+          ms(s.percentile(0.5)), ms(s.percentile(0.9)), ms(s.percentile(0.99)), ms(s.percentile(0.999)), ms(s.maxNanos));
+    }
+    System.out.printf("throughput: %.1f actions/s sent, %.1f messages/s received over %ds%n",
+        (double) sent / o.durationSec, (double) received / o.durationSec, o.durationSec);
+    System.out.printf("errors: %d error frames, %d dropped connections, %d sends on a dead connection, %d failed logins"
+        + " (%.3f%% of actions)%n", ERROR_FRAMES.sum(), DISCONNECTS.sum(), DEAD_SENDS.sum(), AUTH_FAILED.get(),
+        sent == 0 ? 0.0 : 100.0 * errors / sent);
+  }
+
+  private static String ms(long nanos) {
+    return String.format("%.2fms", nanos / 1_000_000.0);
+  }
+}
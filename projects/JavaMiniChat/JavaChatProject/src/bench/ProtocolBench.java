@@ -0,0 +1,113 @@
+package bench;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+
+import common.JsonUtil;
+import common.MessageFormat;
+import common.Protocol;
+import common.TextUtil;
+
+/**
+ * Protocol-layer micro-benchmarks (src/common only: no MongoDB, no sockets).
+ *
+ * Covers what every request and every delivered frame goes through:
+ * - JsonUtil.send (serialize + write one line) and JsonUtil.readObject (read + parse one line)
+ * - Protocol builders for the big frames: broadcast history (500 entries), users (10k names),
+ *   built and serialized, as the server does before queueing them
+ * - MessageFormat.parse of a stored message string
+ * - TextUtil.cleanOneLine / clampEllipsis (chat list previews, inputs)
+ *
+ * Prints throughput and bytes allocated per op, the baseline for judging protocol changes.
+ *
+ * Run:
+ *   java -cp "bin;lib/*" bench.ProtocolBench [--filter json] [--warmup 3] [--iterations 5] [--time-ms 1000] [--json out.json]
+ */
+public final class ProtocolBench {
+
+  private static final String MESSAGE = "[2025-01-01 12:00] alice: hello everyone, this is a normal chat message #42";
+
+  /** Discards everything (the socket side of send). */
+  private static final class NullWriter extends Writer {
+    @Override
+    public void write(char[] buf, int off, int len) {}
+
+    @Override
+    public void write(String s, int off, int len) {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+
+  /** Yields the same line forever (the socket side of readObject). */
+  private static final class RepeatingReader extends Reader {
+    private final char[] line;
+    private int pos;
+
+    RepeatingReader(String line) {
+      this.line = (line + "\n").toCharArray();
+    }
+
+    @Override
+    public int read(char[] buf, int off, int len) {
+      for (int i = 0; i < len; i++) {
+        buf[off + i] = line[pos];
+        pos = pos + 1 == line.length ? 0 : pos + 1;
+      }
+      return len;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  private ProtocolBench() {}
+
+  public static void main(String[] args) throws Exception {
+    Bench b = new Bench(args);
+    b.header("Protocol layer");
+
+    JsonObject msg = Protocol.withSeq(Protocol.broadcastMsg(MESSAGE), 123_456L);
+    PrintWriter out = new PrintWriter(new NullWriter());
+    b.run("json.send", () -> {
+      JsonUtil.send(out, msg);
+      return out;
+    });
+
+    BufferedReader in = new BufferedReader(new RepeatingReader(JsonUtil.toLine(msg)));
+    b.run("json.readObject", () -> JsonUtil.readObject(in));
+
+    List<String> history = new ArrayList<>();
+    for (int i = 0; i < 500; i++) history.add("[2025-01-01 12:" + (10 + i % 50) + "] user" + (i % 37) + ": message " + i);
+    b.run("protocol.broadcastHistory.500", () -> JsonUtil.toLine(Protocol.broadcastHistory(history)));
+
+    List<String> names = new ArrayList<>();
+    List<String> online = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      names.add("user" + i);
+      if (i % 10 == 0) online.add("user" + i);
+    }
+    b.run("protocol.users.10k", () -> JsonUtil.toLine(Protocol.users(names, online)));
+
+    b.run("messageFormat.parse", () -> MessageFormat.parse(MESSAGE));
+
+    String clean = "a perfectly ordinary one-line message";
+    String multi = "  first line\r\nsecond line\n\nthird line  ";
+    b.run("text.cleanOneLine.clean", () -> TextUtil.cleanOneLine(clean));
+    b.run("text.cleanOneLine.multiline", () -> TextUtil.cleanOneLine(multi));
+
+    String longText = MESSAGE + " " + MESSAGE + " " + MESSAGE;
+    b.run("text.clampEllipsis.short", () -> TextUtil.clampEllipsis(clean, 60));
+    b.run("text.clampEllipsis.long", () -> TextUtil.clampEllipsis(longText, 60));
+
+    b.finish("protocol");
+  }
+}
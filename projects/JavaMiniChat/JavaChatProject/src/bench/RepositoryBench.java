@@ -0,0 +1,156 @@
+package bench;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.JsonUtil;
+import common.Protocol;
+import server.db.MongoManager;
+import server.db.MongoPoolConfig;
+import server.net.FanOut;
+import server.net.Outbox;
+import server.repo.ClearMarkerRepository;
+import server.repo.GroupRepository;
+import server.repo.MessageRepository;
+
+/**
+ * Server hot-path benchmarks: per-request cost of the repository calls behind chat traffic,
+ * and of the fan-out that follows a group / broadcast message.
+ *
+ * Storage: a locally launched mongod (CHAT_MONGO_URI or --mongo, default localhost). The
+ * benchmark uses its own database (chatdb_bench), seeds it, and drops it at the end; the
+ * numbers include the driver round trip, which is what a request pays. Without a reachable
+ * mongod the repository benchmarks are skipped and only fan-out runs.
+ *
+ * - message.saveBroadcastAndFormat      seq allocation + insert + formatting
+ * - message.loadBroadcastHistory.50     clear marker lookup + newest 50 of 2k messages
+ * - group.isMember.hit / .miss          membership check done before every group send
+ * - clear.effectiveClearedAt.*          the two marker reads done before every history load
+ * - fanout.group.100 / .1000            serialize once + FanOut to outboxes, until every
+ *                                       outbox has written the frame (B/op is the sender's
+ *                                       share only; lanes and writers allocate on their threads)
+ *
+ * Run:
+ *   java -cp "bin;lib/*" bench.RepositoryBench [--mongo mongodb://localhost:27017] [--json repo.json]
+ *     (plus the common options, see Bench)
+ */
+public final class RepositoryBench {
+
+  private static final String DB_NAME = "chatdb_bench";
+  private static final int HISTORY_SEED = 2_000;
+  private static final int GROUP_SIZE = 200;
+
+  /** Fake socket: counts written frames. */
+  private static final class CountingWriter extends Writer {
+    final AtomicLong frames;
+
+    CountingWriter(AtomicLong frames) {
+      this.frames = frames;
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        if (buf[i] == '\n') frames.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void write(int c) {
+      if (c == '\n') frames.incrementAndGet();
+    }
+
+    @Override
+    public void write(String s, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        if (s.charAt(i) == '\n') frames.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+
+  private RepositoryBench() {}
+
+  public static void main(String[] args) throws Exception {
+    Bench b = new Bench(args);
+    String uri = System.getenv().getOrDefault("CHAT_MONGO_URI", "mongodb://localhost:27017");
+    for (int i = 0; i + 1 < b.rest.size(); i++) {
+      if (b.rest.get(i).equals("--mongo")) uri = b.rest.get(i + 1);
+    }
+
+    boolean mongo = connect(uri);
+    b.header("Server hot paths" + (mongo ? " (" + uri + " / " + DB_NAME + ")" : " (no MongoDB: fan-out only)"));
+
+    try {
+      if (mongo) repositories(b);
+      fanOut(b, 100);
+      fanOut(b, 1_000);
+    } finally {
+      if (mongo) {
+        MongoManager.db().drop();
+        MongoManager.close();
+      }
+    }
+    b.finish("server");
+  }
+
+  private static boolean connect(String uri) {
+    try {
+      // short selection timeout: fail fast when no mongod is running
+      MongoManager.init(uri, DB_NAME, new MongoPoolConfig(0, 0, 0, 2000, 0, 3000, 0));
+      MongoManager.db().drop();
+      MongoManager.close();
+      MongoManager.init(uri, DB_NAME, new MongoPoolConfig(0, 0, 0, 2000, 0, 3000, 0)); // indexes again
+      return true;
+    } catch (Exception ex) {
+      System.err.println("⚠️ MongoDB not reachable at " + uri + ", skipping repository benchmarks: " + ex.getMessage());
+      MongoManager.close();
+      return false;
+    }
+  }
+
+  private static void repositories(Bench b) throws Exception {
+    for (int i = 0; i < HISTORY_SEED; i++) MessageRepository.saveBroadcast("user" + (i % 50), "seed message number " + i);
+
+    List<String> members = new ArrayList<>();
+    for (int i = 0; i < GROUP_SIZE; i++) members.add("user" + i);
+    String groupId = GroupRepository.createGroup("bench", "user0", members);
+
+    long past = System.currentTimeMillis() - 86_400_000L;
+    ClearMarkerRepository.setClearedAt("user1", "all", "", past);
+    ClearMarkerRepository.setClearedAt("user1", "group", groupId, past + 1000);
+
+    b.run("message.loadBroadcastHistory.50", () -> MessageRepository.loadBroadcastHistoryForUser("user1", 50));
+    b.run("group.isMember.hit", () -> GroupRepository.isMember(groupId, "user" + (GROUP_SIZE - 1)));
+    b.run("group.isMember.miss", () -> GroupRepository.isMember(groupId, "stranger"));
+    b.run("clear.effectiveClearedAt.set", () -> ClearMarkerRepository.getEffectiveClearedAtMillis("user1", "group", groupId));
+    b.run("clear.effectiveClearedAt.none", () -> ClearMarkerRepository.getEffectiveClearedAtMillis("user2", "group", groupId));
+    // last: grows the collection the history benchmark reads
+    b.run("message.saveBroadcastAndFormat", () -> MessageRepository.saveBroadcastAndFormat("user3", "benchmark message"));
+  }
+
+  private static void fanOut(Bench b, int members) throws Exception {
+    AtomicLong frames = new AtomicLong();
+    List<Outbox> boxes = new ArrayList<>();
+    for (int i = 0; i < members; i++) boxes.add(new Outbox(new CountingWriter(frames), null));
+    Outbox[][] byLane = FanOut.byLane(boxes);
+
+    long[] seq = {0};
+    b.run("fanout.group." + members, () -> {
+      long target = frames.get() + members;
+      seq[0]++;
+      var msg = Protocol.withSeq(Protocol.groupMsg("bench", "[2025-01-01 12:00] alice: hello"), seq[0]);
+      FanOut.deliver(JsonUtil.toLine(msg), byLane);
+      while (frames.get() < target) Thread.onSpinWait();
+      return msg;
+    });
+
+    for (Outbox o : boxes) o.close(0);
+  }
+}
@@ -9,18 +9,20 @@ import common.TextUtil;
  * Parsed from your existing format:
  *   "[yyyy-MM-dd HH:mm] sender: content"
  *
- * Client-side only (used for Delete-for-me / Clear chat / Copy).
+ * seq is the server's per-chat sequence (0 = unknown); Delete-for-me sends it to the server.
  */
 public final class MessageItem {
 
   public final long id;              // local-only id for UI operations
+  public final long seq;             // server per-chat seq (0 = unknown / legacy message)
   public final String raw;           // original raw string (trimmed)
   public final LocalDateTime ts;     // can be null if parse fails
   public final String sender;        // may be "?"
   public final String content;       // message body (cleaned)
 
-  private MessageItem(long id, String raw, LocalDateTime ts, String sender, String content) {
+  private MessageItem(long id, long seq, String raw, LocalDateTime ts, String sender, String content) {
     this.id = id;
+    this.seq = seq;
     this.raw = raw;
     this.ts = ts;
     this.sender = sender;
@@ -29,15 +31,20 @@ public final class MessageItem {
 
   /** Parse a raw message and create a UI item with a local id. */
   public static MessageItem fromRaw(long id, String raw) {
+    return fromRaw(id, raw, 0L);
+  }
+
+  /** Same as fromRaw(id, raw) with the server seq attached. */
+  public static MessageItem fromRaw(long id, String raw, long seq) {
     raw = TextUtil.safe(raw).trim();
 
     MessageFormat.Parsed p = MessageFormat.parse(raw);
     if (p == null) {
       // Fallback: show raw as content
-      return new MessageItem(id, raw, null, "?", TextUtil.cleanOneLine(raw));
+      return new MessageItem(id, seq, raw, null, "?", TextUtil.cleanOneLine(raw));
     }
 
-    return new MessageItem(id, raw, p.ts, p.sender, p.content);
+    return new MessageItem(id, seq, raw, p.ts, p.sender, p.content);
   }
 
   /** True if this message belongs to the current user. */
@@ -25,7 +25,7 @@ public final class ChatClient {
   private final String host;
   private final int port;
 
-  private Socket socket;
+  private volatile Socket socket;
   private PrintWriter out;
   private BufferedReader in;
 
@@ -36,6 +36,9 @@ public final class ChatClient {
   private Consumer<Exception> onDisconnect = ex -> {};
   private Consumer<String> onLog = s -> {};
 
+  // 0 = JVM default; load tools with thousands of connections use small stacks
+  private volatile long readerStackSize;
+
   public ChatClient(String host, int port) {
     this.host = Objects.requireNonNull(host, "host");
     this.port = port;
@@ -53,6 +56,11 @@ public final class ChatClient {
     this.onLog = (onLog == null) ? (s -> {}) : onLog;
   }
 
+  /** Stack size of the reader thread started by connect() (bytes, 0 = JVM default). */
+  public void setReaderStackSize(long bytes) {
+    this.readerStackSize = Math.max(0L, bytes);
+  }
+
   // ---------------- Connection ----------------
 
   public synchronized void connect() throws Exception {
@@ -71,7 +79,8 @@ public final class ChatClient {
 
     running.set(true);
 
-    Thread t = new Thread(this::readerLoop, "chat-client-reader");
+    BufferedReader r = in;
+    Thread t = new Thread(null, () -> readerLoop(s, r), "chat-client-reader", readerStackSize);
     t.setDaemon(true);
     t.start();
 
@@ -102,14 +111,21 @@ public final class ChatClient {
         && in != null;
   }
 
-  private void readerLoop() {
+  /** Reads one connection; a later connect() replaces it, and then this loop only exits. */
+  private void readerLoop(Socket mine, BufferedReader reader) {
     Exception disconnectReason = null;
 
     try {
-      while (running.get()) {
+      while (running.get() && socket == mine) {
         try {
-          JsonObject msg = JsonUtil.readObject(in);
+          JsonObject msg = JsonUtil.readObject(reader);
           if (msg == null) break;
+
+          // heartbeat is answered here, the UI never sees it
+          if (Protocol.PING.equals(Protocol.typeOf(msg))) {
+            send(Protocol.pong(Protocol.getLong(msg, Protocol.TS, 0L)));
+            continue;
+          }
           onMessage.accept(msg);
         } catch (SocketTimeoutException timeout) {
           // keep looping
@@ -118,14 +134,23 @@ public final class ChatClient {
     } catch (Exception ex) {
       disconnectReason = ex;
     } finally {
-      running.set(false);
-      closeInternal(false);
+      boolean replaced;
+      synchronized (this) {
+        // reconnected meanwhile: the new connection is not ours to close or report
+        replaced = socket != mine && socket != null;
+        if (replaced) {
+          try { mine.close(); } catch (Exception ignored) {}
+        } else {
+          running.set(false);
+          closeInternal(false);
+        }
+      }
 
-      if (disconnectNotified.compareAndSet(false, true)) {
+      if (!replaced && disconnectNotified.compareAndSet(false, true)) {
         try { onDisconnect.accept(disconnectReason); } catch (Exception ignored) {}
       }
 
-      log("Disconnected" + (disconnectReason == null ? "" : (": " + disconnectReason.getMessage())));
+      if (!replaced) log("Disconnected" + (disconnectReason == null ? "" : (": " + disconnectReason.getMessage())));
     }
   }
 
@@ -177,15 +202,26 @@ public final class ChatClient {
   }
 
   public void requestBroadcastHistory() {
+    requestBroadcastHistory(0L, 0L);
+  }
+
+  /** before > 0 loads the page of messages older than (before, beforeSeq) — the server's "oldestTs"/"oldestSeq". */
+  public void requestBroadcastHistory(long before, long beforeSeq) {
     JsonObject o = new JsonObject();
     o.addProperty(Protocol.TYPE, Protocol.GET_BROADCAST_HISTORY);
+    addCursor(o, before, beforeSeq);
     send(o);
   }
 
   public void requestPrivateHistory(String with) {
+    requestPrivateHistory(with, 0L, 0L);
+  }
+
+  public void requestPrivateHistory(String with, long before, long beforeSeq) {
     JsonObject o = new JsonObject();
     o.addProperty(Protocol.TYPE, Protocol.GET_PRIVATE_HISTORY);
     o.addProperty(Protocol.WITH, with);
+    addCursor(o, before, beforeSeq);
     send(o);
   }
 
@@ -196,12 +232,23 @@ public final class ChatClient {
   }
 
   public void requestGroupHistory(String groupId) {
+    requestGroupHistory(groupId, 0L, 0L);
+  }
+
+  public void requestGroupHistory(String groupId, long before, long beforeSeq) {
     JsonObject o = new JsonObject();
     o.addProperty(Protocol.TYPE, Protocol.GET_GROUP_HISTORY);
     o.addProperty(Protocol.GROUP_ID, groupId);
+    addCursor(o, before, beforeSeq);
     send(o);
   }
 
+  private static void addCursor(JsonObject o, long before, long beforeSeq) {
+    if (before <= 0) return;
+    o.addProperty(Protocol.BEFORE, before);
+    if (beforeSeq > 0) o.addProperty(Protocol.BEFORE_SEQ, beforeSeq);
+  }
+
   public void sendBroadcast(String content) {
     JsonObject o = new JsonObject();
     o.addProperty(Protocol.TYPE, Protocol.BROADCAST);
@@ -233,6 +280,14 @@ public final class ChatClient {
     send(o);
   }
 
+  public void sendGroupTyping(String groupId, String state) {
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.TYPE, Protocol.TYPING);
+    o.addProperty(Protocol.GROUP_ID, groupId);
+    o.addProperty("state", state);
+    send(o);
+  }
+
   public void createGroup(String name, com.google.gson.JsonArray members) {
     JsonObject o = new JsonObject();
     o.addProperty(Protocol.TYPE, Protocol.CREATE_GROUP);
@@ -241,6 +296,91 @@ public final class ChatClient {
     send(o);
   }
 
+  /** Full-text search in one chat (results arrive as search_result). */
+  public void search(String scope, String with, String groupId, String query, int offset, int limit) {
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.TYPE, Protocol.SEARCH);
+    o.addProperty(Protocol.SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(Protocol.WITH, with);
+    if (groupId != null) o.addProperty(Protocol.GROUP_ID, groupId);
+    o.addProperty(Protocol.QUERY, query);
+    o.addProperty(Protocol.OFFSET, offset);
+    o.addProperty(Protocol.LIMIT, limit);
+    send(o);
+  }
+
+  /** Start a streamed transcript export (export_start / export_chunk* / export_end). */
+  public void requestExport(String scope, String with, String groupId, String exportId, int window) {
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.TYPE, Protocol.EXPORT);
+    o.addProperty(Protocol.SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(Protocol.WITH, with);
+    if (groupId != null) o.addProperty(Protocol.GROUP_ID, groupId);
+    o.addProperty(Protocol.EXPORT_ID, exportId);
+    o.addProperty(Protocol.WINDOW, window);
+    send(o);
+  }
+
+  /** Give the export stream `credit` more chunks. */
+  public void sendExportAck(String exportId, int credit) {
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.TYPE, Protocol.EXPORT_ACK);
+    o.addProperty(Protocol.EXPORT_ID, exportId);
+    o.addProperty(Protocol.CREDIT, credit);
+    send(o);
+  }
+
+  public void sendExportCancel(String exportId) {
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.TYPE, Protocol.EXPORT_CANCEL);
+    o.addProperty(Protocol.EXPORT_ID, exportId);
+    send(o);
+  }
+
+  /** Delete for me (server-side, synced across devices). Answer: hide_result. */
+  public void hideMessages(String scope, String with, String groupId, java.util.List<Long> seqs) {
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.TYPE, Protocol.HIDE_MESSAGES);
+    o.addProperty(Protocol.SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(Protocol.WITH, with);
+    if (groupId != null) o.addProperty(Protocol.GROUP_ID, groupId);
+    com.google.gson.JsonArray arr = new com.google.gson.JsonArray();
+    if (seqs != null) for (Long s : seqs) arr.add(s);
+    o.add(Protocol.SEQS, arr);
+    send(o);
+  }
+
+  /** Tell the server this chat is read up to seq (seq <= 0: everything so far). */
+  public void sendMarkRead(String scope, String with, String groupId, long seq) {
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.TYPE, Protocol.MARK_READ);
+    o.addProperty(Protocol.SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(Protocol.WITH, with);
+    if (groupId != null) o.addProperty(Protocol.GROUP_ID, groupId);
+    if (seq > 0) o.addProperty(Protocol.SEQ, seq);
+    send(o);
+  }
+
+  /** Delivery receipt: highest seq received in one chat (private/group). */
+  public void sendAckDelivered(String scope, String with, String groupId, long seq) {
+    if (seq <= 0) return;
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.TYPE, Protocol.ACK_DELIVERED);
+    o.addProperty(Protocol.SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(Protocol.WITH, with);
+    if (groupId != null) o.addProperty(Protocol.GROUP_ID, groupId);
+    o.addProperty(Protocol.SEQ, seq);
+    send(o);
+  }
+
+  /** Operator request (admin users only); answer: admin_result. */
+  public void sendAdmin(String action, JsonObject args) {
+    JsonObject o = args == null ? new JsonObject() : args.deepCopy();
+    o.addProperty(Protocol.TYPE, Protocol.ADMIN);
+    o.addProperty(Protocol.ACTION, action);
+    send(o);
+  }
+
   // NEW: clear-for-me helper
   public void sendClearChat(String scope, String with, String groupId) {
     JsonObject o = new JsonObject();
@@ -0,0 +1,128 @@
+package client.storage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import client.net.ChatClient;
+import common.Protocol;
+
+/**
+ * TranscriptExport:
+ * Writes one server export stream (export_start / export_chunk / export_end) to a text file.
+ *
+ * - Runs on the network reader thread (never the UI thread)
+ * - Each chunk is appended + flushed, THEN acknowledged: the server only sends more
+ *   when the disk has kept up, so no side holds the whole transcript in memory
+ * - Lines are written exactly as the chat shows them: "[yyyy-MM-dd HH:mm] sender: content"
+ */
+public final class TranscriptExport {
+
+  /** Window = chunks the server may send before our first ack. */
+  public static final int WINDOW = 4;
+
+  /** Progress callbacks (called on the network thread). */
+  public interface Listener {
+    void onProgress(long messagesWritten);
+    void onDone(boolean ok, long total, String error);
+  }
+
+  private final String exportId;
+  private final File file;
+  private final ChatClient client;
+  private final Listener listener;
+
+  private BufferedWriter writer;
+  private long written;
+  private boolean finished;
+
+  public TranscriptExport(String exportId, File file, ChatClient client, Listener listener) throws IOException {
+    this.exportId = exportId;
+    this.file = file;
+    this.client = client;
+    this.listener = listener;
+    this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+  }
+
+  public String exportId() {
+    return exportId;
+  }
+
+  public File file() {
+    return file;
+  }
+
+  /** Handle msg if it belongs to this export. Returns true if consumed. */
+  public synchronized boolean accept(JsonObject msg) {
+    String type = Protocol.typeOf(msg);
+    if (!Protocol.EXPORT_START.equals(type) && !Protocol.EXPORT_CHUNK.equals(type) && !Protocol.EXPORT_END.equals(type))
+      return false;
+    if (!exportId.equals(Protocol.getString(msg, Protocol.EXPORT_ID)))
+      return false;
+    if (finished)
+      return true;
+
+    try {
+      switch (type) {
+        case Protocol.EXPORT_START -> {
+          String scope = Protocol.getString(msg, Protocol.SCOPE);
+          String with = Protocol.getString(msg, Protocol.WITH);
+          String gid = Protocol.getString(msg, Protocol.GROUP_ID);
+          writer.write("# ChitChat export: " + scope
+              + (with != null ? " with " + with : "")
+              + (gid != null ? " group " + gid : ""));
+          writer.newLine();
+        }
+
+        case Protocol.EXPORT_CHUNK -> {
+          JsonArray arr = msg.getAsJsonArray("messages");
+          if (arr != null) {
+            for (JsonElement e : arr) {
+              if (e == null || e.isJsonNull()) continue;
+              writer.write(e.getAsString());
+              writer.newLine();
+              written++;
+            }
+          }
+          writer.flush();
+          client.sendExportAck(exportId, 1);
+          listener.onProgress(written);
+        }
+
+        case Protocol.EXPORT_END -> {
+          boolean ok = Protocol.getBool(msg, Protocol.OK, false);
+          close();
+          listener.onDone(ok, written, ok ? null : Protocol.getString(msg, "error"));
+        }
+      }
+    } catch (IOException ex) {
+      close();
+      client.sendExportCancel(exportId);
+      listener.onDone(false, written, "Write failed: " + ex.getMessage());
+    }
+    return true;
+  }
+
+  /** Stop early (logout / disconnect). The partial file is kept. */
+  public synchronized void cancel() {
+    if (finished) return;
+    close();
+    try {
+      client.sendExportCancel(exportId);
+    } catch (Exception ignored) {}
+  }
+
+  private void close() {
+    finished = true;
+    try {
+      if (writer != null) writer.close();
+    } catch (IOException ignored) {}
+    writer = null;
+  }
+}
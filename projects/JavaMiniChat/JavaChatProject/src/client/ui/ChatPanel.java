@@ -67,7 +67,14 @@ public class ChatPanel extends JPanel {
   // Local ids for delete-for-me (UI-only)
   private final AtomicLong idSeq = new AtomicLong(1);
 
-  private Timer typingTimer;
+  // Edge-triggered typing: "start" once, refreshed at most every TYPING_REFRESH_MS while
+  // keys keep coming, "stop" after TYPING_IDLE_MS without a key (or on send / chat switch).
+  private static final int TYPING_REFRESH_MS = 4000;
+  private static final int TYPING_IDLE_MS = 3000;
+
+  private Timer typingTimer;        // idle timer
+  private boolean typingActive = false;
+  private long typingSentAt = 0L;
 
   public ChatPanel() {
     super(new BorderLayout());
@@ -96,10 +103,20 @@ public class ChatPanel extends JPanel {
 
   public void setTypingEnabled(boolean enabled) {
     this.typingEnabled = enabled;
-    if (!enabled && typingTimer != null) {
+    if (!enabled)
+      stopTyping();
+  }
+
+  /** Send "stop" now if we told the other side we are typing (send / chat switch). */
+  public void stopTyping() {
+    if (typingTimer != null) {
       typingTimer.stop();
       typingTimer = null;
     }
+    if (typingActive) {
+      typingActive = false;
+      typingListener.onTyping(false);
+    }
   }
 
   public void setOnSend(SendListener listener) {
@@ -150,20 +167,56 @@ public class ChatPanel extends JPanel {
 
   /** Render full history (raw strings). */
   public void showHistory(List<String> rawMessages) {
+    showHistory(rawMessages, null);
+  }
+
+  /** Render full history; seqs is parallel to rawMessages (may be null). */
+  public void showHistory(List<String> rawMessages, List<Long> seqs) {
+    List<MessageItem> items = toItems(rawMessages, seqs);
+    messagesView.setSelectionMode(false);
+    messagesView.setMessages(items);
+    updateSelectionBarVisibility();
+  }
+
+  /** Render an older page above the current messages. */
+  public void prependHistory(List<String> rawMessages, List<Long> seqs) {
+    messagesView.prepend(toItems(rawMessages, seqs));
+  }
+
+  private List<MessageItem> toItems(List<String> rawMessages, List<Long> seqs) {
     List<MessageItem> items = new java.util.ArrayList<>();
     if (rawMessages != null) {
-      for (String raw : rawMessages) {
-        items.add(MessageItem.fromRaw(idSeq.getAndIncrement(), raw));
+      for (int i = 0; i < rawMessages.size(); i++) {
+        long seq = (seqs != null && i < seqs.size() && seqs.get(i) != null) ? seqs.get(i) : 0L;
+        items.add(MessageItem.fromRaw(idSeq.getAndIncrement(), rawMessages.get(i), seq));
       }
     }
-    messagesView.setSelectionMode(false);
-    messagesView.setMessages(items);
-    updateSelectionBarVisibility();
+    return items;
+  }
+
+  /** Called when the user scrolls to the top of the messages. */
+  public void setOnLoadOlder(Runnable listener) {
+    messagesView.setOnScrolledToTop(listener);
   }
 
   /** Append one raw message. */
   public void appendMessage(String rawMessage) {
-    messagesView.append(MessageItem.fromRaw(idSeq.getAndIncrement(), rawMessage));
+    appendMessage(rawMessage, 0L);
+  }
+
+  /** Append one raw message with its server seq. */
+  public void appendMessage(String rawMessage, long seq) {
+    messagesView.append(MessageItem.fromRaw(idSeq.getAndIncrement(), rawMessage, seq));
+  }
+
+  /** Receipt ticks for my messages in the open chat. */
+  public void setReceipts(long delivered, long read) {
+    messagesView.setReceipts(delivered, read);
+  }
+
+  /** My last sent message got its server seq (private send ack). */
+  public void attachSeq(long seq) {
+    messagesView.attachSeq(seq);
   }
 
   public void clearInput() {
@@ -302,6 +355,7 @@ public class ChatPanel extends JPanel {
     if (messagesView.isSelectionMode())
       return;
 
+    stopTyping();
     sendListener.onSend(text);
   }
 
@@ -311,12 +365,23 @@ public class ChatPanel extends JPanel {
     if (messagesView.isSelectionMode())
       return;
 
-    typingListener.onTyping(true);
+    // cleared input (after send, or erased by hand) is not typing
+    if (inputArea.getText().isEmpty()) {
+      stopTyping();
+      return;
+    }
 
-    if (typingTimer != null)
-      typingTimer.stop();
-    typingTimer = new Timer(1200, e -> typingListener.onTyping(false));
-    typingTimer.setRepeats(false);
-    typingTimer.start();
+    long now = System.currentTimeMillis();
+    if (!typingActive || now - typingSentAt >= TYPING_REFRESH_MS) {
+      typingActive = true;
+      typingSentAt = now;
+      typingListener.onTyping(true);
+    }
+
+    if (typingTimer == null) {
+      typingTimer = new Timer(TYPING_IDLE_MS, e -> stopTyping());
+      typingTimer.setRepeats(false);
+    }
+    typingTimer.restart();
   }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.swing.JComponent;
 import javax.swing.JFrame;
@@ -39,7 +40,7 @@ import com.google.gson.JsonObject;
 import client.model.ChatListStore;
 import client.model.MessageItem;
 import client.net.ChatClient;
-import client.storage.LocalHiddenStore;
+import client.storage.TranscriptExport;
 import client.ui.ChatHtmlRenderer.Mode;
 import common.MessageFormat;
 import common.Protocol;
@@ -56,9 +57,9 @@ import common.Theme;
  */
 public class ClientGUI extends JFrame {
 
-  private final String host;
-  private final int port;
-  private LocalHiddenStore hiddenStore;
+  // Server address (a draining server may redirect us to another node)
+  private volatile String host;
+  private volatile int port;
 
   private ChatClient client;
   private boolean manualDisconnect = false;
@@ -71,6 +72,16 @@ public class ClientGUI extends JFrame {
   private volatile boolean suppressDisconnectPopupOnce = false;
   private volatile boolean awaitingAuth = false;
 
+  // Reconnect after a server drain or a dropped connection: first after the delay the
+  // server picked (spread across clients), then with exponential backoff + jitter.
+  // The session token is tried first (resume, no password check on the server); if it
+  // was refused the last login is replayed.
+  private static final int RECONNECT_ATTEMPTS = 6;
+  private static final long RECONNECT_BACKOFF_MS = 1000;
+  private volatile JsonObject lastLogin;
+  private volatile String sessionToken;
+  private volatile boolean resuming;
+
   private String myUsername;
 
   private enum ChatType {
@@ -93,8 +104,31 @@ public class ClientGUI extends JFrame {
   private final Map<String, Integer> privateUnread = new HashMap<>();
   private final Map<String, Integer> groupUnread = new HashMap<>();
 
+  // Receipts: chat ("private:user" / "group:id") -> other member -> {delivered, read}
+  private final Map<String, Map<String, long[]>> receipts = new HashMap<>();
+  // Delivered acks not sent yet: chat -> highest seq (one ack per chat per tick)
+  private final Map<String, Long> pendingDelivered = new LinkedHashMap<>();
+  private final javax.swing.Timer deliveredTimer = new javax.swing.Timer(300, e -> flushDelivered());
+
+  // Who is typing in the open chat: user -> expiry (senders refresh every few seconds;
+  // an indicator whose refresh/stop never came disappears on its own)
+  private static final long TYPING_EXPIRE_MS = 6000;
+  private final Map<String, Long> typingUsers = new LinkedHashMap<>();
+  private final javax.swing.Timer typingExpiry = new javax.swing.Timer(1000, e -> expireTyping());
+  private String chatHeader = "";
+
   // Broadcast cache (client-side convenience)
   private final List<String> broadcastCache = new ArrayList<>();
+  private final List<Long> broadcastSeqs = new ArrayList<>(); // parallel to broadcastCache
+
+  // History paging for the open chat (cursor from server "oldestTs")
+  private long historyOldestTs = 0L;
+  private long historyOldestSeq = 0L;
+  private boolean historyHasMore = false;
+  private boolean loadingOlder = false;
+  private long broadcastOldestTs = 0L; // cursor kept with broadcastCache
+  private long broadcastOldestSeq = 0L;
+  private boolean broadcastHasMore = false;
 
   // ---- UI: Auth ----
   private JPanel authPanel;
@@ -112,6 +146,18 @@ public class ClientGUI extends JFrame {
   private javax.swing.JButton logoutBtn;
   private javax.swing.JButton newGroupBtn;
   private javax.swing.JButton clearChatBtn;
+  private javax.swing.JButton searchBtn;
+  private javax.swing.JButton exportBtn;
+
+  // ---- Export (chunks are written on the network thread, not the EDT) ----
+  private volatile TranscriptExport activeExport;
+
+  // ---- Search (one dialog, bound to the chat it was opened for) ----
+  private static final int SEARCH_PAGE = 20;
+  private SearchDialog searchDialog;
+  private String searchScope;
+  private String searchWith;
+  private String searchGroupId;
 
   public ClientGUI(String host, int port) {
     this.host = host;
@@ -148,19 +194,36 @@ public class ClientGUI extends JFrame {
     if (r != JOptionPane.OK_OPTION)
       return;
 
-    String chatKey = currentChatKey();
+    hideForMe(items);
+  }
 
-    if (hiddenStore != null) {
-      for (MessageItem m : items) {
-        if (m != null)
-          hiddenStore.hide(chatKey, m.raw);
+  /**
+   * Delete for me: tombstones go to the server (by seq), so they apply on every device.
+   * Messages without a seq (sent before seqs existed) are only removed from this view.
+   */
+  private void hideForMe(java.util.List<MessageItem> items) {
+    java.util.List<Long> seqs = new java.util.ArrayList<>();
+    for (MessageItem m : items) {
+      if (m == null)
+        continue;
+      if (m.seq > 0)
+        seqs.add(m.seq);
+      if (currentType == ChatType.BROADCAST) {
+        int i = m.seq > 0 ? broadcastSeqs.indexOf(m.seq) : broadcastCache.indexOf(m.raw);
+        if (i >= 0) {
+          broadcastCache.remove(i);
+          broadcastSeqs.remove(i);
+        }
       }
-      hiddenStore.save();
+      chatPanel.deleteLocal(m.id);
     }
 
-    for (MessageItem m : items) {
-      if (m != null)
-        chatPanel.deleteLocal(m.id);
+    if (client == null || seqs.isEmpty())
+      return;
+    switch (currentType) {
+      case BROADCAST -> client.hideMessages("broadcast", null, null, seqs);
+      case PRIVATE -> client.hideMessages("private", currentPartner, null, seqs);
+      case GROUP -> client.hideMessages("group", null, currentGroupId, seqs);
     }
   }
 
@@ -266,12 +329,35 @@ public class ClientGUI extends JFrame {
   /** Generic auth: connect -> send signup/login as FIRST message. */
   private void doAuth(JsonObject authReq) {
     try {
+      connectAndAuth(authReq);
+    } catch (Exception ex) {
+      ui(() -> {
+        JOptionPane.showMessageDialog(this, "Server unreachable");
+        setAuthButtonsEnabled(true);
+      });
+      ex.printStackTrace();
+
+      suppressDisconnectPopupOnce = true;
       disconnect(true);
+    }
+  }
+
+  private void connectAndAuth(JsonObject authReq) throws Exception {
+    disconnect(true);
 
-      client = new ChatClient(host, port);
-      client.setOnMessage(msg -> ui(() -> handleServerMessage(msg)));
-      client.setOnDisconnect(ex -> ui(() -> {
-        // If disconnect happens during login/signup flow, don't show "Disconnected".
+    ChatClient c = new ChatClient(host, port);
+    client = c;
+    c.setOnMessage(msg -> {
+      TranscriptExport ex = activeExport;
+      if (ex != null && ex.accept(msg))
+        return;
+      ui(() -> handleServerMessage(msg));
+    });
+    c.setOnDisconnect(ex -> ui(() -> {
+      if (client != c)
+        return; // replaced or closed on purpose (logout, reconnect)
+
+      // If disconnect happens during login/signup flow, don't show "Disconnected".
         if (awaitingAuth) {
           awaitingAuth = false;
           setAuthButtonsEnabled(true);
@@ -284,25 +370,81 @@ public class ClientGUI extends JFrame {
           return;
         }
 
-        if (!manualDisconnect) {
-          JOptionPane.showMessageDialog(this, "Disconnected");
-          showAuthUI();
+      if (!manualDisconnect) {
+        JsonObject login = lastLogin;
+        if (login != null && myUsername != null) {
+          // connection lost while logged in: get the session back without asking
+          if (topTitle != null)
+            topTitle.setText("ChitChat (connection lost, reconnecting...)");
+          long jitter = ThreadLocalRandom.current().nextLong(RECONNECT_BACKOFF_MS);
+          new Thread(() -> reconnect(login, jitter), "reconnect-thread").start();
+          return;
         }
-      }));
+        JOptionPane.showMessageDialog(this, "Disconnected");
+        showAuthUI();
+      }
+    }));
 
-      client.connect();
-      client.send(authReq);
+    c.connect();
+    c.send(authReq);
 
-    } catch (Exception ex) {
-      ui(() -> {
-        JOptionPane.showMessageDialog(this, "Server unreachable");
-        setAuthButtonsEnabled(true);
-      });
-      ex.printStackTrace();
+    resuming = Protocol.RESUME.equals(Protocol.typeOf(authReq));
+    if (resuming)
+      return;
 
-      suppressDisconnectPopupOnce = true;
-      disconnect(true);
+    // a signup is replayed as a login
+    JsonObject login = authReq.deepCopy();
+    login.addProperty(Protocol.TYPE, Protocol.LOGIN);
+    lastLogin = login;
+  }
+
+  /** Server is draining: leave now, log in again after the delay it picked. */
+  private void onServerDraining(JsonObject msg) {
+    long delay = Math.max(0L, Protocol.getLong(msg, Protocol.RETRY_MS, 0L));
+    String h = Protocol.getString(msg, Protocol.HOST);
+    if (h != null && !h.isBlank()) {
+      host = h.trim();
+      port = (int) Protocol.getLong(msg, Protocol.PORT, port);
+    }
+
+    flushDelivered();
+    disconnect(true); // says exit: the server finishes what we sent, then closes
+
+    JsonObject login = lastLogin;
+    if (login == null) {
+      showAuthUI();
+      return;
     }
+    if (topTitle != null)
+      topTitle.setText("ChitChat (server restarting, reconnecting...)");
+    new Thread(() -> reconnect(login, delay), "reconnect-thread").start();
+  }
+
+  private void reconnect(JsonObject login, long firstDelayMs) {
+    long wait = firstDelayMs;
+    for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS; attempt++) {
+      try {
+        Thread.sleep(wait);
+      } catch (InterruptedException ie) {
+        return;
+      }
+      if (lastLogin != login)
+        return; // logged out meanwhile
+      try {
+        awaitingAuth = true;
+        String token = sessionToken;
+        connectAndAuth(token != null ? Protocol.resume(token) : login);
+        return;
+      } catch (Exception ex) {
+        disconnect(true);
+      }
+      // server not back yet
+      wait = (RECONNECT_BACKOFF_MS << (attempt - 1)) + ThreadLocalRandom.current().nextLong(RECONNECT_BACKOFF_MS);
+    }
+    ui(() -> {
+      JOptionPane.showMessageDialog(this, "Server unreachable");
+      showAuthUI();
+    });
   }
 
   // ========================= App UI =========================
@@ -335,10 +477,18 @@ public class ClientGUI extends JFrame {
     clearChatBtn = UiComponents.roundedButton("Clear Chat", Theme.SURFACE_2, Theme.RADIUS_LG);
     clearChatBtn.addActionListener(e -> openClearChatMenu());
 
+    searchBtn = UiComponents.roundedButton("Search", Theme.SURFACE_2, Theme.RADIUS_LG);
+    searchBtn.addActionListener(e -> openSearchDialog());
+
+    exportBtn = UiComponents.roundedButton("Export", Theme.SURFACE_2, Theme.RADIUS_LG);
+    exportBtn.addActionListener(e -> exportCurrentChat());
+
     logoutBtn = UiComponents.roundedButton("Logout", Theme.DANGER, Theme.RADIUS_LG);
     logoutBtn.addActionListener(e -> logout(true));
 
     right.add(newGroupBtn);
+    right.add(searchBtn);
+    right.add(exportBtn);
     right.add(clearChatBtn);
     right.add(logoutBtn);
 
@@ -354,18 +504,20 @@ public class ClientGUI extends JFrame {
     chatPanel.setOnTyping(isTyping -> {
       if (client == null)
         return;
-      if (currentType != ChatType.PRIVATE || currentPartner == null)
-        return;
-      client.sendTyping(currentPartner, isTyping ? "start" : "stop");
+      String state = isTyping ? "start" : "stop";
+      if (currentType == ChatType.PRIVATE && currentPartner != null)
+        client.sendTyping(currentPartner, state);
+      else if (currentType == ChatType.GROUP && currentGroupId != null)
+        client.sendGroupTyping(currentGroupId, state);
     });
     chatPanel.setOnDeleteSelected(this::deleteSelectedForMe);
+    chatPanel.setOnLoadOlder(this::loadOlderHistory);
     chatPanel.setOnDeleteForMe(id -> {
       MessageItem mi = chatPanel.getMessageById(id);
-      if (mi != null && hiddenStore != null) {
-        hiddenStore.hide(currentChatKey(), mi.raw);
-        hiddenStore.save();
-      }
-      chatPanel.deleteLocal(id);
+      if (mi != null)
+        hideForMe(java.util.List.of(mi));
+      else
+        chatPanel.deleteLocal(id);
     });
 
     javax.swing.JSplitPane split = new javax.swing.JSplitPane(
@@ -406,6 +558,108 @@ public class ClientGUI extends JFrame {
     menu.show(clearChatBtn, 0, clearChatBtn.getHeight());
   }
 
+  private void openSearchDialog() {
+    if (client == null)
+      return;
+
+    String title;
+    switch (currentType) {
+      case PRIVATE -> {
+        if (currentPartner == null)
+          return;
+        searchScope = "private";
+        searchWith = currentPartner;
+        searchGroupId = null;
+        title = "Search: " + currentPartner;
+      }
+      case GROUP -> {
+        if (currentGroupId == null)
+          return;
+        searchScope = "group";
+        searchWith = null;
+        searchGroupId = currentGroupId;
+        title = "Search: group";
+      }
+      default -> {
+        searchScope = "broadcast";
+        searchWith = null;
+        searchGroupId = null;
+        title = "Search: Broadcast";
+      }
+    }
+
+    if (searchDialog != null)
+      searchDialog.dispose();
+
+    String scope = searchScope, with = searchWith, gid = searchGroupId;
+    searchDialog = new SearchDialog(this, title, (q, offset) -> {
+      if (client != null)
+        client.search(scope, with, gid, q, offset, SEARCH_PAGE);
+    });
+    searchDialog.setVisible(true);
+  }
+
+  /** Stream the open chat's full transcript into a file chosen by the user. */
+  private void exportCurrentChat() {
+    if (client == null || activeExport != null)
+      return;
+
+    String scope, with = null, gid = null, name;
+    switch (currentType) {
+      case PRIVATE -> {
+        if (currentPartner == null)
+          return;
+        scope = "private";
+        with = currentPartner;
+        name = "chat-" + currentPartner;
+      }
+      case GROUP -> {
+        if (currentGroupId == null)
+          return;
+        scope = "group";
+        gid = currentGroupId;
+        name = "group-" + currentGroupId;
+      }
+      default -> {
+        scope = "broadcast";
+        name = "broadcast";
+      }
+    }
+
+    javax.swing.JFileChooser chooser = new javax.swing.JFileChooser();
+    chooser.setSelectedFile(new java.io.File(name + ".txt"));
+    if (chooser.showSaveDialog(this) != javax.swing.JFileChooser.APPROVE_OPTION)
+      return;
+
+    String exportId = java.util.UUID.randomUUID().toString();
+    try {
+      activeExport = new TranscriptExport(exportId, chooser.getSelectedFile(), client, new TranscriptExport.Listener() {
+        @Override
+        public void onProgress(long messagesWritten) {
+          ui(() -> exportBtn.setText("Exporting " + messagesWritten));
+        }
+
+        @Override
+        public void onDone(boolean ok, long total, String error) {
+          activeExport = null;
+          ui(() -> {
+            exportBtn.setText("Export");
+            exportBtn.setEnabled(true);
+            JOptionPane.showMessageDialog(ClientGUI.this,
+                ok ? ("Exported " + total + " messages") : ("Export failed: " + error));
+          });
+        }
+      });
+    } catch (java.io.IOException ex) {
+      JOptionPane.showMessageDialog(this, "Cannot write file: " + ex.getMessage());
+      return;
+    }
+
+    exportBtn.setEnabled(false);
+    exportBtn.setText("Exporting...");
+    client.requestExport(scope, with, gid, exportId, TranscriptExport.WINDOW);
+  }
+
   private void clearCurrentChatForMe() {
     if (client == null)
       return;
@@ -440,29 +694,6 @@ public class ClientGUI extends JFrame {
     }
   }
 
-  private String currentChatKey() {
-    return switch (currentType) {
-      case BROADCAST -> "broadcast";
-      case PRIVATE -> "private:" + (currentPartner == null ? "" : currentPartner.trim());
-      case GROUP -> "group:" + (currentGroupId == null ? "" : currentGroupId.trim());
-    };
-  }
-
-  private boolean isHiddenFor(String chatKey, String raw) {
-    return hiddenStore != null && hiddenStore.isHidden(chatKey, raw);
-  }
-
-  private java.util.List<String> filterHidden(String chatKey, java.util.List<String> rawMessages) {
-    if (rawMessages == null || rawMessages.isEmpty() || hiddenStore == null)
-      return rawMessages;
-    java.util.List<String> out = new java.util.ArrayList<>();
-    for (String s : rawMessages) {
-      if (!hiddenStore.isHidden(chatKey, s))
-        out.add(s);
-    }
-    return out;
-  }
-
   private void clearAllChatsForMe() {
     if (client == null)
       return;
@@ -489,6 +720,15 @@ public class ClientGUI extends JFrame {
     if (item == null)
       return;
 
+    historyOldestTs = 0L;
+    historyOldestSeq = 0L;
+    historyHasMore = false;
+    loadingOlder = false;
+
+    // "stop" goes to the chat we are leaving, before current* change
+    chatPanel.stopTyping();
+    typingUsers.clear();
+
     switch (item.type) {
       case BROADCAST -> {
         currentType = ChatType.BROADCAST;
@@ -498,14 +738,21 @@ public class ClientGUI extends JFrame {
         chatPanel.setMyUsername(myUsername);
         chatPanel.setMode(ChatHtmlRenderer.Mode.BROADCAST);
         chatPanel.setTypingEnabled(false);
-        chatPanel.setHeaderText("Broadcast");
+        setChatHeader("Broadcast");
+        applyReceipts();
 
         broadcastUnread = 0;
         setTitleUnread();
         refreshSidebarCountsOnly();
-
-        if (!broadcastCache.isEmpty())
-          chatPanel.showHistory(broadcastCache);
+        if (client != null)
+          client.sendMarkRead("broadcast", null, null, 0);
+
+        if (!broadcastCache.isEmpty()) {
+          historyOldestTs = broadcastOldestTs;
+          historyOldestSeq = broadcastOldestSeq;
+          historyHasMore = broadcastHasMore;
+          chatPanel.showHistory(broadcastCache, broadcastSeqs);
+        }
         else if (client != null)
           client.requestBroadcastHistory();
       }
@@ -517,15 +764,18 @@ public class ClientGUI extends JFrame {
 
         chatPanel.setMyUsername(myUsername);
         chatPanel.setMode(ChatHtmlRenderer.Mode.GROUP);
-        chatPanel.setTypingEnabled(false);
-        chatPanel.setHeaderText("[G] " + (item.label == null ? "Group" : item.label));
+        chatPanel.setTypingEnabled(true);
+        setChatHeader("[G] " + (item.label == null ? "Group" : item.label));
+        applyReceipts();
 
         if (currentGroupId != null)
           groupUnread.remove(currentGroupId);
         refreshSidebarCountsOnly();
 
-        if (client != null && currentGroupId != null)
+        if (client != null && currentGroupId != null) {
+          client.sendMarkRead("group", null, currentGroupId, 0);
           client.requestGroupHistory(currentGroupId);
+        }
       }
 
       case USER -> {
@@ -536,18 +786,54 @@ public class ClientGUI extends JFrame {
         chatPanel.setMyUsername(myUsername);
         chatPanel.setMode(ChatHtmlRenderer.Mode.PRIVATE);
         chatPanel.setTypingEnabled(true);
-        chatPanel.setHeaderText("Chat with: " + currentPartner);
+        setChatHeader("Chat with: " + currentPartner);
+        applyReceipts();
 
         if (currentPartner != null)
           privateUnread.remove(currentPartner);
         refreshSidebarCountsOnly();
 
-        if (client != null && currentPartner != null)
+        if (client != null && currentPartner != null) {
+          client.sendMarkRead("private", currentPartner, null, 0);
           client.requestPrivateHistory(currentPartner);
+        }
       }
     }
   }
 
+  /** Scrolled to the top: ask the server for the page before the oldest loaded message. */
+  private void loadOlderHistory() {
+    if (client == null || loadingOlder || !historyHasMore || historyOldestTs <= 0)
+      return;
+
+    loadingOlder = true;
+    switch (currentType) {
+      case BROADCAST -> client.requestBroadcastHistory(historyOldestTs, historyOldestSeq);
+      case PRIVATE -> {
+        if (currentPartner != null)
+          client.requestPrivateHistory(currentPartner, historyOldestTs, historyOldestSeq);
+      }
+      case GROUP -> {
+        if (currentGroupId != null)
+          client.requestGroupHistory(currentGroupId, historyOldestTs, historyOldestSeq);
+      }
+    }
+  }
+
+  /** Update paging cursor from a history payload. Returns true if it was an "older page". */
+  private boolean applyHistoryPaging(JsonObject msg) {
+    boolean paged = Protocol.getLong(msg, Protocol.BEFORE, 0L) > 0;
+    long oldest = Protocol.getLong(msg, Protocol.OLDEST_TS, 0L);
+    if (oldest > 0 || !paged) {
+      historyOldestTs = oldest;
+      historyOldestSeq = Protocol.getLong(msg, Protocol.OLDEST_SEQ, 0L);
+    }
+    historyHasMore = Protocol.getBool(msg, Protocol.HAS_MORE, false);
+    if (paged)
+      loadingOlder = false;
+    return paged;
+  }
+
   private void onSendFromChatPanel(String text) {
     if (client == null)
       return;
@@ -613,9 +899,20 @@ public class ClientGUI extends JFrame {
     switch (type) {
       case Protocol.AUTH -> {
         boolean ok = Protocol.getBool(msg, Protocol.OK, false);
+        if (!ok && resuming && lastLogin != null) {
+          // token expired / unknown to this server: use the password instead
+          JsonObject login = lastLogin;
+          resuming = false;
+          sessionToken = null;
+          suppressDisconnectPopupOnce = true;
+          disconnect(true);
+          new Thread(() -> reconnect(login, 0), "reconnect-thread").start();
+          return;
+        }
         if (!ok) {
           String err = Protocol.getString(msg, "error");
           JOptionPane.showMessageDialog(this, err == null ? "Auth failed" : err);
+          lastLogin = null;
 
           setAuthButtonsEnabled(true);
 
@@ -625,9 +922,19 @@ public class ClientGUI extends JFrame {
           return;
         }
 
+        awaitingAuth = false;
+        resuming = false;
+        sessionToken = Protocol.getString(msg, Protocol.TOKEN);
+
+        if (Protocol.getBool(msg, Protocol.RESUMED, false) && myUsername != null) {
+          // same session as before: the frames we missed follow, the UI state is still valid
+          if (topTitle != null)
+            topTitle.setText("ChitChat");
+          return;
+        }
+
         String u = Protocol.getString(msg, Protocol.USER);
         myUsername = (u == null ? null : u.trim());
-        hiddenStore = LocalHiddenStore.load(myUsername);
 
         showAppUI();
 
@@ -638,6 +945,8 @@ public class ClientGUI extends JFrame {
         }
       }
 
+      case Protocol.SESSION_TOKEN -> sessionToken = Protocol.getString(msg, Protocol.TOKEN);
+
       case Protocol.USERS -> {
         allUsers.clear();
         allUsers.addAll(jsonArrayToList(msg.getAsJsonArray("list")));
@@ -683,13 +992,32 @@ public class ClientGUI extends JFrame {
 
       case Protocol.BROADCAST_HISTORY -> {
         List<String> msgs = jsonArrayToList(msg.getAsJsonArray("messages"));
-        msgs = filterHidden("broadcast", msgs);
+        List<Long> seqs = jsonArrayToLongs(msg.getAsJsonArray(Protocol.SEQS));
+
+        boolean isCurrent = currentType == ChatType.BROADCAST && chatPanel != null;
+        boolean paged = isCurrent ? applyHistoryPaging(msg) : Protocol.getLong(msg, Protocol.BEFORE, 0L) > 0;
+        long oldest = Protocol.getLong(msg, Protocol.OLDEST_TS, 0L);
+        if (oldest > 0 || !paged) {
+          broadcastOldestTs = oldest;
+          broadcastOldestSeq = Protocol.getLong(msg, Protocol.OLDEST_SEQ, 0L);
+        }
+        broadcastHasMore = Protocol.getBool(msg, Protocol.HAS_MORE, false);
+
+        if (paged) {
+          broadcastCache.addAll(0, msgs);
+          broadcastSeqs.addAll(0, padSeqs(seqs, msgs.size()));
+          if (isCurrent)
+            chatPanel.prependHistory(msgs, seqs);
+          return;
+        }
 
         broadcastCache.clear();
         broadcastCache.addAll(msgs);
+        broadcastSeqs.clear();
+        broadcastSeqs.addAll(padSeqs(seqs, msgs.size()));
 
-        if (currentType == ChatType.BROADCAST && chatPanel != null) {
-          chatPanel.showHistory(broadcastCache);
+        if (isCurrent) {
+          chatPanel.showHistory(broadcastCache, broadcastSeqs);
         }
       }
 
@@ -697,12 +1025,13 @@ public class ClientGUI extends JFrame {
         String m = Protocol.getString(msg, "message");
         if (m == null)
           return;
-        if (isHiddenFor("broadcast", m))
-          return;
+        long seq = Protocol.getLong(msg, Protocol.SEQ, 0L);
         broadcastCache.add(m);
+        broadcastSeqs.add(seq);
 
         if (currentType == ChatType.BROADCAST && chatPanel != null) {
-          chatPanel.appendMessage(m);
+          chatPanel.appendMessage(m, seq);
+          markReadSeen("broadcast", null, null, msg);
         } else {
           broadcastUnread++;
           setTitleUnread();
@@ -713,11 +1042,13 @@ public class ClientGUI extends JFrame {
       case Protocol.PRIVATE_HISTORY -> {
         String with = Protocol.getString(msg, Protocol.WITH);
         List<String> msgs = jsonArrayToList(msg.getAsJsonArray("messages"));
-
-        msgs = filterHidden("private:" + (with == null ? "" : with.trim()), msgs);
+        List<Long> seqs = jsonArrayToLongs(msg.getAsJsonArray(Protocol.SEQS));
 
         if (currentType == ChatType.PRIVATE && with != null && with.equals(currentPartner) && chatPanel != null) {
-          chatPanel.showHistory(msgs);
+          if (applyHistoryPaging(msg))
+            chatPanel.prependHistory(msgs, seqs);
+          else
+            chatPanel.showHistory(msgs, seqs);
         }
       }
 
@@ -726,12 +1057,13 @@ public class ClientGUI extends JFrame {
         String m = Protocol.getString(msg, "message");
         if (from == null || m == null)
           return;
-        if (isHiddenFor("private:" + from.trim(), m))
-          return;
-
         if (currentType == ChatType.PRIVATE && from.equals(currentPartner) && chatPanel != null) {
-          chatPanel.appendMessage(m);
+          chatPanel.appendMessage(m, Protocol.getLong(msg, Protocol.SEQ, 0L));
+          markReadSeen("private", from, null, msg);
+          if (typingUsers.remove(from) != null)
+            renderChatHeader();
         } else {
+          queueDelivered("private:" + from, Protocol.getLong(msg, Protocol.SEQ, 0L));
           privateUnread.put(from, privateUnread.getOrDefault(from, 0) + 1);
           refreshSidebarCountsOnly();
         }
@@ -740,11 +1072,13 @@ public class ClientGUI extends JFrame {
       case Protocol.GROUP_HISTORY -> {
         String gid = Protocol.getString(msg, Protocol.GROUP_ID);
         List<String> msgs = jsonArrayToList(msg.getAsJsonArray("messages"));
-
-        msgs = filterHidden("group:" + (gid == null ? "" : gid.trim()), msgs);
+        List<Long> seqs = jsonArrayToLongs(msg.getAsJsonArray(Protocol.SEQS));
 
         if (currentType == ChatType.GROUP && gid != null && gid.equals(currentGroupId) && chatPanel != null) {
-          chatPanel.showHistory(msgs);
+          if (applyHistoryPaging(msg))
+            chatPanel.prependHistory(msgs, seqs);
+          else
+            chatPanel.showHistory(msgs, seqs);
         }
       }
 
@@ -753,24 +1087,170 @@ public class ClientGUI extends JFrame {
         String m = Protocol.getString(msg, "message");
         if (gid == null || m == null)
           return;
-        if (isHiddenFor("group:" + gid.trim(), m))
-          return;
         if (currentType == ChatType.GROUP && gid.equals(currentGroupId) && chatPanel != null) {
-          chatPanel.appendMessage(m);
+          chatPanel.appendMessage(m, Protocol.getLong(msg, Protocol.SEQ, 0L));
+          markReadSeen("group", null, gid, msg);
         } else {
+          queueDelivered("group:" + gid, Protocol.getLong(msg, Protocol.SEQ, 0L));
           groupUnread.put(gid, groupUnread.getOrDefault(gid, 0) + 1);
           refreshSidebarCountsOnly();
         }
       }
 
+      case Protocol.PENDING_MESSAGES -> {
+        // Offline inbox drained at login: one frame with per-chat counts -> unread badges
+        JsonArray chats = msg.getAsJsonArray("chats");
+        if (chats == null)
+          return;
+
+        for (JsonElement e : chats) {
+          if (e == null || !e.isJsonObject())
+            continue;
+          JsonObject c = e.getAsJsonObject();
+          String scope = Protocol.getString(c, Protocol.SCOPE);
+          int count = (int) Protocol.getLong(c, "count", 0L);
+          if (count <= 0)
+            continue;
+
+          if ("private".equals(scope)) {
+            String with = Protocol.getString(c, Protocol.WITH);
+            if (with == null || with.isBlank())
+              continue;
+            chatList.ensureDm(with.trim());
+            if (!(currentType == ChatType.PRIVATE && with.trim().equals(currentPartner)))
+              privateUnread.put(with.trim(), count);
+          } else if ("group".equals(scope)) {
+            String gid = Protocol.getString(c, Protocol.GROUP_ID);
+            if (gid == null || gid.isBlank())
+              continue;
+            if (!(currentType == ChatType.GROUP && gid.trim().equals(currentGroupId)))
+              groupUnread.put(gid.trim(), count);
+          }
+        }
+        refreshSidebarCountsOnly();
+      }
+
+      case Protocol.UNREAD_COUNTS -> {
+        // Server-side counters (head - read position) are authoritative: replace local badges
+        broadcastUnread = (currentType == ChatType.BROADCAST) ? 0 : (int) Protocol.getLong(msg, "broadcast", 0L);
+
+        privateUnread.clear();
+        JsonObject priv = msg.getAsJsonObject("private");
+        if (priv != null) {
+          for (var e : priv.entrySet()) {
+            String with = e.getKey();
+            int count = e.getValue().getAsInt();
+            if (count <= 0 || (currentType == ChatType.PRIVATE && with.equals(currentPartner)))
+              continue;
+            chatList.ensureDm(with);
+            privateUnread.put(with, count);
+          }
+        }
+
+        groupUnread.clear();
+        JsonObject grp = msg.getAsJsonObject("group");
+        if (grp != null) {
+          for (var e : grp.entrySet()) {
+            int count = e.getValue().getAsInt();
+            if (count > 0 && !(currentType == ChatType.GROUP && e.getKey().equals(currentGroupId)))
+              groupUnread.put(e.getKey(), count);
+          }
+        }
+
+        setTitleUnread();
+        refreshSidebarCountsOnly();
+      }
+
       case Protocol.TYPING -> {
         String from = Protocol.getString(msg, "from");
         String state = Protocol.getString(msg, "state");
         if (from == null || state == null)
           return;
 
-        if (currentType == ChatType.PRIVATE && from.equals(currentPartner) && chatPanel != null) {
-          chatPanel.setHeaderText("start".equals(state) ? (from + " is typing...") : ("Chat with: " + from));
+        if (from.equals(myUsername))
+          return; // group typing is fanned out to every member, me included
+        String gid = Protocol.getString(msg, Protocol.GROUP_ID);
+        boolean open = (gid == null)
+            ? currentType == ChatType.PRIVATE && from.equals(currentPartner)
+            : currentType == ChatType.GROUP && gid.equals(currentGroupId);
+        if (!open || chatPanel == null)
+          return;
+
+        if ("start".equals(state))
+          typingUsers.put(from, System.currentTimeMillis() + TYPING_EXPIRE_MS);
+        else
+          typingUsers.remove(from);
+        renderChatHeader();
+      }
+
+      case Protocol.SEARCH_RESULT -> {
+        if (searchDialog == null || !searchDialog.isDisplayable())
+          return;
+        if (!java.util.Objects.equals(Protocol.getString(msg, Protocol.SCOPE), searchScope)
+            || !java.util.Objects.equals(Protocol.getString(msg, Protocol.WITH), searchWith)
+            || !java.util.Objects.equals(Protocol.getString(msg, Protocol.GROUP_ID), searchGroupId))
+          return;
+
+        List<String> lines = new java.util.ArrayList<>();
+        JsonArray hits = msg.getAsJsonArray("hits");
+        if (hits != null) {
+          for (JsonElement e : hits) {
+            if (e != null && e.isJsonObject()) {
+              String m = Protocol.getString(e.getAsJsonObject(), "message");
+              if (m != null)
+                lines.add(m);
+            }
+          }
+        }
+
+        searchDialog.showResult(Protocol.getString(msg, Protocol.QUERY),
+            (int) Protocol.getLong(msg, Protocol.OFFSET, 0L),
+            (int) Protocol.getLong(msg, "total", 0L),
+            Protocol.getBool(msg, Protocol.HAS_MORE, false),
+            lines);
+      }
+
+      case Protocol.ACK -> {
+        // private send stored: my local bubble gets its seq so it can show receipts
+        String with = Protocol.getString(msg, Protocol.WITH);
+        long seq = Protocol.getLong(msg, Protocol.SEQ, 0L);
+        if (seq > 0 && with != null && currentType == ChatType.PRIVATE && with.equals(currentPartner) && chatPanel != null)
+          chatPanel.attachSeq(seq);
+      }
+
+      case Protocol.RECEIPTS -> {
+        String scope = Protocol.getString(msg, Protocol.SCOPE);
+        String key = "group".equals(scope)
+            ? "group:" + Protocol.getString(msg, Protocol.GROUP_ID)
+            : "private:" + Protocol.getString(msg, Protocol.WITH);
+
+        Map<String, long[]> marks = Protocol.getBool(msg, Protocol.SNAPSHOT, false)
+            ? new HashMap<>()
+            : receipts.computeIfAbsent(key, k -> new HashMap<>());
+        JsonArray arr = msg.getAsJsonArray("receipts");
+        if (arr != null) {
+          for (JsonElement e : arr) {
+            if (e == null || !e.isJsonObject())
+              continue;
+            JsonObject r = e.getAsJsonObject();
+            String user = Protocol.getString(r, "user");
+            if (user == null || user.equals(myUsername))
+              continue;
+            long[] m = marks.computeIfAbsent(user, u -> new long[2]);
+            m[0] = Math.max(m[0], Protocol.getLong(r, Protocol.DELIVERED, 0L));
+            m[1] = Math.max(m[1], Protocol.getLong(r, Protocol.READ, 0L));
+          }
+        }
+        receipts.put(key, marks);
+
+        if (key.equals(receiptKey()))
+          applyReceipts();
+      }
+
+      case Protocol.HIDE_RESULT -> {
+        if (!Protocol.getBool(msg, Protocol.OK, false)) {
+          String err = Protocol.getString(msg, "error");
+          JOptionPane.showMessageDialog(this, err == null ? "Delete failed" : err);
         }
       }
 
@@ -796,8 +1276,15 @@ public class ClientGUI extends JFrame {
         pendingClearWith = null;
         pendingClearGroupId = null;
 
+        if ("all".equals(scope) || "broadcast".equals(scope)) {
+          broadcastOldestTs = 0L;
+          broadcastOldestSeq = 0L;
+          broadcastHasMore = false;
+        }
+
         if ("all".equals(scope)) {
           broadcastCache.clear();
+          broadcastSeqs.clear();
           broadcastUnread = 0;
           privateUnread.clear();
           groupUnread.clear();
@@ -809,6 +1296,7 @@ public class ClientGUI extends JFrame {
 
         if ("broadcast".equals(scope)) {
           broadcastCache.clear();
+          broadcastSeqs.clear();
           broadcastUnread = 0;
           if (currentType == ChatType.BROADCAST && chatPanel != null)
             chatPanel.clearLocal();
@@ -836,7 +1324,13 @@ public class ClientGUI extends JFrame {
         }
       }
 
+      case Protocol.SERVER_DRAINING -> onServerDraining(msg);
+
       case Protocol.ERROR -> {
+        if (Protocol.getBool(msg, Protocol.KICKED, false)) {
+          lastLogin = null; // the other session wins: no reconnect
+          sessionToken = null;
+        }
         String text = Protocol.getString(msg, "message");
         if (text != null)
           JOptionPane.showMessageDialog(this, text);
@@ -866,6 +1360,8 @@ public class ClientGUI extends JFrame {
   // ========================= Logout/Disconnect =========================
 
   private void logout(boolean backToAuth) {
+    lastLogin = null; // also stops a pending reconnect
+    sessionToken = null;
     disconnect(true);
     if (backToAuth)
       showAuthUI();
@@ -874,13 +1370,19 @@ public class ClientGUI extends JFrame {
   }
 
   private void disconnect(boolean silent) {
+    TranscriptExport ex = activeExport;
+    if (ex != null)
+      ex.cancel();
+    activeExport = null;
+
+    ChatClient c = client;
+    client = null; // before disconnect(): its callback must see it is no longer current
     manualDisconnect = true;
     try {
-      if (client != null)
-        client.disconnect();
+      if (c != null)
+        c.disconnect();
     } catch (Exception ignored) {
     }
-    client = null;
     manualDisconnect = false;
     if (!silent) {
       /* no-op */ }
@@ -891,9 +1393,21 @@ public class ClientGUI extends JFrame {
     currentType = ChatType.BROADCAST;
     currentPartner = null;
     currentGroupId = null;
-    hiddenStore = null;
+
+    if (searchDialog != null)
+      searchDialog.dispose();
+    searchDialog = null;
 
     broadcastCache.clear();
+    broadcastSeqs.clear();
+    receipts.clear();
+    typingUsers.clear();
+    typingExpiry.stop();
+    pendingDelivered.clear();
+    deliveredTimer.stop();
+    broadcastOldestTs = 0L;
+    broadcastOldestSeq = 0L;
+    broadcastHasMore = false;
     allUsers.clear();
 
     broadcastUnread = 0;
@@ -906,6 +1420,98 @@ public class ClientGUI extends JFrame {
     setTitleUnread();
   }
 
+  private void setChatHeader(String text) {
+    chatHeader = text == null ? "" : text;
+    renderChatHeader();
+  }
+
+  /** Header = chat name, or who is typing in it. */
+  private void renderChatHeader() {
+    if (chatPanel == null)
+      return;
+    if (typingUsers.isEmpty()) {
+      typingExpiry.stop();
+      chatPanel.setHeaderText(chatHeader);
+      return;
+    }
+    if (!typingExpiry.isRunning())
+      typingExpiry.start();
+
+    if (currentType == ChatType.PRIVATE) {
+      chatPanel.setHeaderText(currentPartner + " is typing...");
+      return;
+    }
+    List<String> names = new ArrayList<>(typingUsers.keySet());
+    String who = names.size() <= 2 ? String.join(", ", names) : (names.size() + " people");
+    chatPanel.setHeaderText(chatHeader + "  —  " + who + (names.size() == 1 ? " is" : " are") + " typing...");
+  }
+
+  private void expireTyping() {
+    long now = System.currentTimeMillis();
+    if (typingUsers.values().removeIf(until -> until <= now))
+      renderChatHeader();
+    else if (typingUsers.isEmpty())
+      typingExpiry.stop();
+  }
+
+  /** Receipts key of the open chat (null for broadcast: no receipts there). */
+  private String receiptKey() {
+    return switch (currentType) {
+      case BROADCAST -> null;
+      case PRIVATE -> currentPartner == null ? null : "private:" + currentPartner;
+      case GROUP -> currentGroupId == null ? null : "group:" + currentGroupId;
+    };
+  }
+
+  /** Ticks for the open chat: a message is delivered/read once EVERY other member got there. */
+  private void applyReceipts() {
+    if (chatPanel == null)
+      return;
+    String key = receiptKey();
+    Map<String, long[]> marks = key == null ? null : receipts.get(key);
+    if (marks == null || marks.isEmpty()) {
+      chatPanel.setReceipts(0L, 0L);
+      return;
+    }
+
+    long delivered = Long.MAX_VALUE;
+    long read = Long.MAX_VALUE;
+    for (long[] m : marks.values()) {
+      delivered = Math.min(delivered, m[0]);
+      read = Math.min(read, m[1]);
+    }
+    chatPanel.setReceipts(delivered, read);
+  }
+
+  /** A message arrived for a chat that is not open: ack delivery (coalesced per chat). */
+  private void queueDelivered(String chatKey, long seq) {
+    if (seq <= 0)
+      return;
+    pendingDelivered.merge(chatKey, seq, Math::max);
+    if (!deliveredTimer.isRunning())
+      deliveredTimer.start();
+  }
+
+  private void flushDelivered() {
+    deliveredTimer.stop();
+    if (client != null) {
+      pendingDelivered.forEach((k, seq) -> {
+        if (k.startsWith("group:"))
+          client.sendAckDelivered("group", null, k.substring("group:".length()), seq);
+        else
+          client.sendAckDelivered("private", k.substring("private:".length()), null, seq);
+      });
+    }
+    pendingDelivered.clear();
+  }
+
+  /** A live message was shown in the open chat: advance the server read position to it. */
+  private void markReadSeen(String scope, String with, String groupId, JsonObject msg) {
+    long seq = Protocol.getLong(msg, Protocol.SEQ, 0L);
+    if (client != null && seq > 0)
+      client.sendMarkRead(scope, with, groupId, seq);
+  }
+
   private void setTitleUnread() {
     String base = "ChitChat";
     if (broadcastUnread > 0)
@@ -921,6 +1527,23 @@ public class ClientGUI extends JFrame {
       SwingUtilities.invokeLater(r);
   }
 
+  private static List<Long> jsonArrayToLongs(JsonArray arr) {
+    List<Long> out = new ArrayList<>();
+    if (arr == null)
+      return out;
+    for (JsonElement e : arr)
+      out.add((e == null || e.isJsonNull()) ? 0L : e.getAsLong());
+    return out;
+  }
+
+  /** seqs sized to n (older servers send none). */
+  private static List<Long> padSeqs(List<Long> seqs, int n) {
+    List<Long> out = new ArrayList<>(n);
+    for (int i = 0; i < n; i++)
+      out.add(i < seqs.size() ? seqs.get(i) : 0L);
+    return out;
+  }
+
   private static List<String> jsonArrayToList(JsonArray arr) {
     List<String> list = new ArrayList<>();
     if (arr != null)
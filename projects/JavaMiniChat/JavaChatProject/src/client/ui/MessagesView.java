@@ -43,6 +43,7 @@ import common.Theme;
  * - Date separators (TODAY/YESTERDAY/Date)
  * - Right-click: Copy, Delete-for-me (single)
  * - NEW: Selection mode with checkboxes for multi-delete (client-side)
+ * - Receipt ticks on my messages (private/group): ✓ sent, ✓✓ delivered, blue ✓✓ read
  */
 public class MessagesView extends JPanel {
 
@@ -64,9 +65,17 @@ public class MessagesView extends JPanel {
   private IntConsumer onSelectionCountChanged = c -> {
   };
 
+  // Fired when the user scrolls to the very top (load older page)
+  private Runnable onScrolledToTop = () -> {
+  };
+
   // Local messages
   private final List<MessageItem> items = new ArrayList<>();
 
+  // Lowest watermarks of the other member(s): my messages with seq <= these are delivered/read
+  private long receiptDelivered = 0L;
+  private long receiptRead = 0L;
+
   public MessagesView() {
     super(new BorderLayout());
     setBackground(Theme.BG_APP);
@@ -81,6 +90,13 @@ public class MessagesView extends JPanel {
 
     listPanel.setComponentPopupMenu(emptyAreaMenu());
 
+    scroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+      if (!e.getValueIsAdjusting() && e.getValue() == 0 && !items.isEmpty()
+          && scroll.getVerticalScrollBar().getMaximum() > scroll.getViewport().getHeight()) {
+        onScrolledToTop.run();
+      }
+    });
+
     add(scroll, BorderLayout.CENTER);
   }
 
@@ -108,6 +124,15 @@ public class MessagesView extends JPanel {
     }) : onDeleteForMe;
   }
 
+  /** Update receipt ticks (0/0 = nothing known yet). */
+  public void setReceipts(long delivered, long read) {
+    if (delivered == receiptDelivered && read == receiptRead)
+      return;
+    receiptDelivered = delivered;
+    receiptRead = read;
+    rebuild();
+  }
+
   public void setSelectionMode(boolean enabled) {
     if (this.selectionMode == enabled)
       return;
@@ -145,6 +170,11 @@ public class MessagesView extends JPanel {
     }) : cb;
   }
 
+  public void setOnScrolledToTop(Runnable cb) {
+    this.onScrolledToTop = (cb == null) ? (() -> {
+    }) : cb;
+  }
+
   private void notifySelectionCount() {
     try {
       onSelectionCountChanged.accept(selectedIds.size());
@@ -172,6 +202,46 @@ public class MessagesView extends JPanel {
     scrollToBottomIfNearBottom();
   }
 
+  /** Insert an older page above the current messages, keeping the visible position. */
+  public void prepend(List<MessageItem> older) {
+    if (older == null || older.isEmpty())
+      return;
+
+    var v = scroll.getVerticalScrollBar();
+    int oldMax = v.getMaximum();
+    int oldVal = v.getValue();
+
+    items.addAll(0, older);
+    rebuild();
+
+    SwingUtilities.invokeLater(() -> {
+      listPanel.validate();
+      v.setValue(oldVal + (v.getMaximum() - oldMax));
+    });
+  }
+
+  /**
+   * Server ack for one of my sends: give its seq to the oldest of my trailing
+   * messages that has none yet (acks arrive in send order).
+   */
+  public void attachSeq(long seq) {
+    int target = -1;
+    for (int i = items.size() - 1; i >= 0; i--) {
+      MessageItem m = items.get(i);
+      if (!m.isMine(myUsername))
+        continue;
+      if (m.seq > 0)
+        break;
+      target = i;
+    }
+    if (target < 0)
+      return;
+
+    MessageItem m = items.get(target);
+    items.set(target, MessageItem.fromRaw(m.id, m.raw, seq));
+    rebuild();
+  }
+
   public void deleteLocal(long id) {
     items.removeIf(m -> m.id == id);
     selectedIds.remove(id);
@@ -308,9 +378,18 @@ public class MessagesView extends JPanel {
     time.setForeground(new Color(210, 210, 210));
     time.setFont(Theme.fontBody(11));
 
-    JPanel bottom = new JPanel(new BorderLayout());
+    JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT, 4, 0));
     bottom.setOpaque(false);
-    bottom.add(time, BorderLayout.EAST);
+    bottom.add(time);
+
+    if (isMe && mode != ChatHtmlRenderer.Mode.BROADCAST && m.seq > 0) {
+      boolean read = m.seq <= receiptRead;
+      boolean delivered = read || m.seq <= receiptDelivered;
+      JLabel ticks = new JLabel(delivered ? "✓✓" : "✓");
+      ticks.setForeground(read ? Theme.TICK_READ : new Color(210, 210, 210));
+      ticks.setFont(Theme.fontBold(11));
+      bottom.add(ticks);
+    }
 
     bubble.add(text, BorderLayout.CENTER);
     bubble.add(bottom, BorderLayout.SOUTH);
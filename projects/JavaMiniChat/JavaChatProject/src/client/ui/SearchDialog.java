@@ -0,0 +1,118 @@
+package client.ui;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.util.List;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+
+import common.TextUtil;
+import common.Theme;
+
+/**
+ * "Search" dialog for the open chat:
+ * - Query field (Enter = search)
+ * - Ranked hits (best match first)
+ * - "More" loads the next page
+ *
+ * Non-modal: results arrive asynchronously via showResult(...).
+ *
+ * Usage:
+ *   SearchDialog d = new SearchDialog(this, "Search: Broadcast", (q, offset) -> client.search(...));
+ *   d.setVisible(true);
+ *   // on search_result: d.showResult(query, offset, total, hasMore, lines)
+ */
+public final class SearchDialog extends JDialog {
+
+  /** Sends one search request (query + page offset). */
+  public interface Searcher {
+    void search(String query, int offset);
+  }
+
+  private final Searcher searcher;
+
+  private final JTextField queryField = new JTextField();
+  private final DefaultListModel<String> hitsModel = new DefaultListModel<>();
+  private final JLabel status = new JLabel(" ");
+  private final JButton moreBtn;
+
+  private String lastQuery = "";
+  private int nextOffset = 0;
+
+  public SearchDialog(JFrame parent, String title, Searcher searcher) {
+    super(parent, title, false);
+    this.searcher = searcher;
+    setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+
+    JPanel root = new JPanel(new BorderLayout(12, 12));
+    root.setBorder(new EmptyBorder(12, 12, 12, 12));
+    root.setBackground(Theme.BG_APP);
+
+    // ---- Top: query ----
+    UiComponents.styleTextField(queryField, Theme.RADIUS_MD);
+    queryField.setBorder(BorderFactory.createTitledBorder("Search messages"));
+    queryField.addActionListener(e -> runSearch());
+    root.add(queryField, BorderLayout.NORTH);
+
+    // ---- Center: hits ----
+    JList<String> hitsList = new JList<>(hitsModel);
+    hitsList.setFont(new Font(Theme.FONT_FAMILY, Font.PLAIN, 14));
+    hitsList.setBackground(Theme.BG_SIDEBAR);
+    hitsList.setForeground(Theme.TEXT_MAIN);
+
+    JScrollPane scroll = new JScrollPane(hitsList);
+    scroll.setPreferredSize(new Dimension(520, 320));
+    scroll.getViewport().setBackground(Theme.BG_SIDEBAR);
+    root.add(scroll, BorderLayout.CENTER);
+
+    // ---- Bottom: status + more ----
+    JPanel bottom = new JPanel(new BorderLayout());
+    bottom.setOpaque(false);
+
+    status.setForeground(Theme.TEXT_MAIN);
+    bottom.add(status, BorderLayout.WEST);
+
+    JPanel btns = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+    btns.setOpaque(false);
+    moreBtn = UiComponents.roundedButton("More", Theme.SURFACE_2, Theme.RADIUS_MD);
+    moreBtn.setEnabled(false);
+    moreBtn.addActionListener(e -> {
+      moreBtn.setEnabled(false);
+      searcher.search(lastQuery, nextOffset);
+    });
+    btns.add(moreBtn);
+    bottom.add(btns, BorderLayout.EAST);
+
+    root.add(bottom, BorderLayout.SOUTH);
+
+    setContentPane(root);
+    pack();
+    setLocationRelativeTo(parent);
+  }
+
+  private void runSearch() {
+    String q = TextUtil.safe(queryField.getText()).trim();
+    if (q.isEmpty()) return;
+
+    lastQuery = q;
+    nextOffset = 0;
+    hitsModel.clear();
+    moreBtn.setEnabled(false);
+    status.setText("Searching...");
+    searcher.search(q, 0);
+  }
+
+  /** Called (on the EDT) for each search_result of this dialog's chat. */
+  public void showResult(String query, int offset, int total, boolean hasMore, List<String> lines) {
+    if (query == null || !query.equals(lastQuery)) return; // stale response
+
+    if (offset == 0) hitsModel.clear();
+    if (lines != null) for (String l : lines) hitsModel.addElement(l);
+
+    nextOffset = offset + (lines == null ? 0 : lines.size());
+    moreBtn.setEnabled(hasMore);
+    status.setText(total == 0 ? "No matches" : (hitsModel.size() + " of " + total + " matches"));
+  }
+}
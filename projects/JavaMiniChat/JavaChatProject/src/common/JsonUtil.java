@@ -33,6 +33,11 @@ public final class JsonUtil {
     out.flush();
   }
 
+  /** One JSON object as one line (no newline). Serialize once, send to many. */
+  public static String toLine(JsonObject obj) {
+    return obj == null ? null : GSON.toJson(obj);
+  }
+
   /**
    * Read one line and parse it as JsonObject.
    * Returns null on EOF, invalid JSON, or if the line is too large.
@@ -19,6 +19,11 @@ import com.google.gson.JsonObject;
  *
  * clear_result response:
  *   { "type":"clear_result", "ok":true, "scope":"private", "with":"User2", "clearedAt": 1730000000000 }
+ *
+ * History paging:
+ * - Any get_*_history request may carry "before" (epoch millis) + "beforeSeq" to load older messages.
+ * - History responses carry "oldestTs" + "oldestSeq" (cursor for the next page) and "hasMore";
+ *   paged responses echo "before" so the client can prepend instead of replace.
  */
 public final class Protocol {
 
@@ -43,13 +48,24 @@ public final class Protocol {
   public static final String LOGIN = "login";
   public static final String EXIT = "exit";
 
+  // Resumable sessions: auth ok carries a short-lived token; after a dropped connection the
+  // client may open with resume {token} instead of login. auth ok {resumed:true} means the
+  // old session was taken over as it was (frames missed meanwhile follow); resumed:false is
+  // a fresh session (reload state). auth fail: the token expired, log in with the password.
+  // session_token {token} replaces the token before it expires.
+  public static final String RESUME = "resume";                         // needs: token
+  public static final String TOKEN = "token";
+  public static final String RESUMED = "resumed";
+  public static final String SESSION_TOKEN = "session_token";           // token
+  public static final String KICKED = "kicked";                         // on error: replaced by another login, do not resume
+
   public static final String GET_USERS = "get_users";
   public static final String GET_BROADCAST_HISTORY = "get_broadcast_history";
   public static final String GET_PRIVATE_HISTORY = "get_private_history"; // needs: with
 
   public static final String BROADCAST = "broadcast"; // needs: content
   public static final String PRIVATE = "private";     // needs: to, content
-  public static final String TYPING = "typing";       // needs: to, state(start/stop)
+  public static final String TYPING = "typing";       // needs: to | groupId, state(start/stop)
 
   // Group chats (client -> server)
   public static final String CREATE_GROUP = "create_group";             // needs: name, members[]
@@ -64,8 +80,58 @@ public final class Protocol {
   public static final String WITH = "with";
   public static final String GROUP_ID = "groupId";
 
+  // History paging
+  public static final String BEFORE = "before";                         // epoch millis (exclusive)
+  public static final String BEFORE_SEQ = "beforeSeq";                  // seq tie-break within the "before" millis
+  public static final String OLDEST_TS = "oldestTs";                    // epoch millis of first message in page
+  public static final String OLDEST_SEQ = "oldestSeq";                  // seq of first message in page
+  public static final String HAS_MORE = "hasMore";                      // older messages exist
+
+  // Read positions (client -> server)
+  public static final String MARK_READ = "mark_read";                   // needs: scope + (with/groupId), seq? (default: head)
+  public static final String SEQ = "seq";                               // per-chat message sequence
+  public static final String SEQS = "seqs";                             // *_history: parallel to messages[] (0 = no seq)
+
+  // Delivery receipts (client -> server): highest seq this client has received in one chat.
+  // mark_read doubles as the read receipt (read implies delivered).
+  public static final String ACK_DELIVERED = "ack_delivered";           // needs: scope (private|group) + (with/groupId), seq
+
+  // Delete for me, stored server-side (client -> server)
+  public static final String HIDE_MESSAGES = "hide_messages";           // needs: scope + (with/groupId), seqs[]
+
+  // Full-text search (client -> server)
+  public static final String SEARCH = "search";                         // needs: scope + (with/groupId), query, offset?, limit?
+  public static final String QUERY = "query";
+  public static final String OFFSET = "offset";
+  public static final String LIMIT = "limit";
+
+  // Transcript export (client -> server), flow controlled by credits:
+  // export {scope, with?/groupId?, exportId, window?} -> export_start, export_chunk*, export_end
+  // client returns one credit per chunk written: export_ack {exportId, credit}
+  public static final String EXPORT = "export";
+  public static final String EXPORT_ACK = "export_ack";
+  public static final String EXPORT_CANCEL = "export_cancel";           // needs: exportId
+  public static final String EXPORT_ID = "exportId";
+  public static final String WINDOW = "window";                         // initial credits (chunks in flight)
+  public static final String CREDIT = "credit";
+
+  // Heartbeat (both directions): ping {ts} is answered with pong {ts} echoing the same ts.
+  // The server pings idle sessions and closes those that stay silent (see server Heartbeat).
+  public static final String PING = "ping";
+  public static final String PONG = "pong";
+  public static final String TS = "ts";                                 // epoch millis of the sender
+
+  // Operator requests, only for users listed in the server's CHAT_ADMIN_USERS:
+  // admin {action, ...} -> admin_result {action, ok, error?, ...}
+  // actions: "traces" {limit?} -> samplePercent, slowMs, inFlight, stages{}, traces[]
+  //          "stats" {limit?} -> online, queuedFrames, dbQueued, sessions[], topTalkers[], caches{}, slowMs, slowest[]
+  //          "kick" {user, reason?} -> user
+  //          "flush_caches" -> snapshots, searchChats
+  public static final String ADMIN = "admin";
+  public static final String ACTION = "action";
+
   // Outgoing (Server -> Client)
-  public static final String AUTH = "auth";                             // ok, user?, error?
+  public static final String AUTH = "auth";                             // ok, user?, token?, resumed?, error?
   public static final String USERS = "users";                           // list[], online[]
   public static final String BROADCAST_HISTORY = "broadcast_history";   // messages[]
   public static final String PRIVATE_HISTORY = "private_history";       // with, messages[]
@@ -80,9 +146,47 @@ public final class Protocol {
   public static final String GROUP_HISTORY = "group_history";           // groupId, messages[]
   public static final String GROUP_MSG = "group_msg";                   // groupId, message
 
+  // Offline inbox, pushed once after login:
+  // { chats:[{scope:"private", with, count, messages[]} | {scope:"group", groupId, count, messages[]}], total }
+  public static final String PENDING_MESSAGES = "pending_messages";
+
+  // Server-side unread counters, pushed after login:
+  // { broadcast, private:{user:n}, group:{groupId:n} }
+  public static final String UNREAD_COUNTS = "unread_counts";
+
+  // Search response: scope, with?/groupId?, query, offset, total, hasMore, hits[{seq, ts, message}]
+  public static final String SEARCH_RESULT = "search_result";
+
+  // Receipt watermarks of the other members of one chat, coalesced per chat:
+  // { scope, with?/groupId?, snapshot, receipts:[{user, delivered, read}] }
+  // snapshot=true replaces what the client knows (sent with the first history page).
+  public static final String RECEIPTS = "receipts";
+  public static final String DELIVERED = "delivered";
+  public static final String READ = "read";
+  public static final String SNAPSHOT = "snapshot";
+
+  // Server is shutting down / restarting: { retryMs, host?, port? }
+  // The client says exit, waits retryMs (spread per client, avoids a reconnect stampede)
+  // and logs in again, at host:port if given (another node) or at the same address.
+  public static final String SERVER_DRAINING = "server_draining";
+  public static final String RETRY_MS = "retryMs";
+  public static final String HOST = "host";
+  public static final String PORT = "port";
+
+  // Delete-for-me response: ok, scope, with?/groupId?, seqs[], error?
+  public static final String HIDE_RESULT = "hide_result";
+
+  // Export stream (server -> client)
+  public static final String EXPORT_START = "export_start";             // exportId, scope, with?/groupId?
+  public static final String EXPORT_CHUNK = "export_chunk";             // exportId, index, messages[]
+  public static final String EXPORT_END = "export_end";                 // exportId, ok, total, error?
+
   // NEW: Clear-for-me response
   public static final String CLEAR_RESULT = "clear_result";             // ok, scope, clearedAt, with?/groupId?, error?
 
+  // Admin response: action, ok, error?, + the action's fields
+  public static final String ADMIN_RESULT = "admin_result";
+
   // ---------------- Builders ----------------
 
   public static JsonObject authOk(String user) {
@@ -92,6 +196,25 @@ public final class Protocol {
     return o;
   }
 
+  public static JsonObject authOk(String user, String token, boolean resumed) {
+    JsonObject o = authOk(user);
+    if (token != null) o.addProperty(TOKEN, token);
+    o.addProperty(RESUMED, resumed);
+    return o;
+  }
+
+  public static JsonObject resume(String token) {
+    JsonObject o = obj(RESUME);
+    o.addProperty(TOKEN, token);
+    return o;
+  }
+
+  public static JsonObject sessionToken(String token) {
+    JsonObject o = obj(SESSION_TOKEN);
+    o.addProperty(TOKEN, token);
+    return o;
+  }
+
   public static JsonObject authFail(String error) {
     JsonObject o = obj(AUTH);
     o.addProperty(OK, false);
@@ -152,12 +275,57 @@ public final class Protocol {
     return o;
   }
 
+  /** Session replaced by a newer login: the client must not resume it. */
+  public static JsonObject kicked(String message) {
+    JsonObject o = error(message);
+    o.addProperty(KICKED, true);
+    return o;
+  }
+
   public static JsonObject ack(String message) {
     JsonObject o = obj(ACK);
     o.addProperty("message", message);
     return o;
   }
 
+  /** Ack for a private send, carrying the stored message's seq (lets the sender show receipts). */
+  public static JsonObject privateAck(String to, String message, long seq) {
+    JsonObject o = ack(message);
+    o.addProperty(WITH, to);
+    if (seq > 0) o.addProperty(SEQ, seq);
+    return o;
+  }
+
+  /** Drain notice; host == null means "same address". */
+  public static JsonObject serverDraining(long retryMs, String host, int port) {
+    JsonObject o = obj(SERVER_DRAINING);
+    o.addProperty(RETRY_MS, retryMs);
+    if (host != null && !host.isBlank()) {
+      o.addProperty(HOST, host);
+      o.addProperty(PORT, port);
+    }
+    return o;
+  }
+
+  public static JsonObject ping(long ts) {
+    JsonObject o = obj(PING);
+    o.addProperty(TS, ts);
+    return o;
+  }
+
+  public static JsonObject pong(long ts) {
+    JsonObject o = obj(PONG);
+    o.addProperty(TS, ts);
+    return o;
+  }
+
+  /** Group typing (server -> members): from, state, groupId. */
+  public static JsonObject groupTyping(String groupId, String from, String state) {
+    JsonObject o = typing(from, state);
+    o.addProperty(GROUP_ID, groupId);
+    return o;
+  }
+
   public static JsonObject typing(String from, String state) {
     JsonObject o = obj(TYPING);
     o.addProperty("from", from);
@@ -165,6 +333,32 @@ public final class Protocol {
     return o;
   }
 
+  /** Attach the per-chat seq to a *_msg payload (seq <= 0 is left out). */
+  public static JsonObject withSeq(JsonObject msg, long seq) {
+    if (msg != null && seq > 0) msg.addProperty(SEQ, seq);
+    return msg;
+  }
+
+  /** Attach the seqs parallel to a *_history "messages" array. */
+  public static JsonObject withSeqs(JsonObject history, java.util.List<Long> seqs) {
+    if (history == null) return null;
+    JsonArray arr = new JsonArray();
+    if (seqs != null) for (Long s : seqs) arr.add(s == null ? 0L : s);
+    history.add(SEQS, arr);
+    return history;
+  }
+
+  /** Attach paging info to a *_history payload (before <= 0 means first page). */
+  public static JsonObject withPage(JsonObject history, long before, long oldestTs, long oldestSeq,
+      boolean hasMore) {
+    if (history == null) return null;
+    if (before > 0) history.addProperty(BEFORE, before);
+    history.addProperty(OLDEST_TS, oldestTs);
+    history.addProperty(OLDEST_SEQ, oldestSeq);
+    history.addProperty(HAS_MORE, hasMore);
+    return history;
+  }
+
   // ---- Groups builders ----
 
   public static JsonObject groups(JsonArray groups) {
@@ -202,6 +396,132 @@ public final class Protocol {
     return o;
   }
 
+  // ---- Offline inbox builders ----
+
+  public static JsonObject pendingChat(String scope, String chatId, int count, java.util.List<String> messages) {
+    JsonObject c = new JsonObject();
+    c.addProperty(SCOPE, scope);
+    c.addProperty("group".equals(scope) ? GROUP_ID : WITH, chatId);
+    c.addProperty("count", count);
+    c.add("messages", toJsonArray(messages));
+    return c;
+  }
+
+  public static JsonObject pendingMessages(JsonArray chats, int total) {
+    JsonObject o = obj(PENDING_MESSAGES);
+    o.add("chats", chats == null ? new JsonArray() : chats);
+    o.addProperty("total", total);
+    return o;
+  }
+
+  // ---- Unread counters ----
+
+  public static JsonObject unreadCounts(long broadcast, java.util.Map<String, Long> privateByUser,
+                                        java.util.Map<String, Long> groupById) {
+    JsonObject o = obj(UNREAD_COUNTS);
+    o.addProperty("broadcast", broadcast);
+    o.add("private", toCountObject(privateByUser));
+    o.add("group", toCountObject(groupById));
+    return o;
+  }
+
+  private static JsonObject toCountObject(java.util.Map<String, Long> counts) {
+    JsonObject o = new JsonObject();
+    if (counts != null) counts.forEach(o::addProperty);
+    return o;
+  }
+
+  // ---- Receipts ----
+
+  public static JsonObject receipt(String user, long delivered, long read) {
+    JsonObject r = new JsonObject();
+    r.addProperty("user", user);
+    r.addProperty(DELIVERED, Math.max(delivered, read));
+    r.addProperty(READ, read);
+    return r;
+  }
+
+  public static JsonObject receipts(String scope, String with, String groupId, boolean snapshot, JsonArray entries) {
+    JsonObject o = obj(RECEIPTS);
+    o.addProperty(SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(WITH, with);
+    if (groupId != null) o.addProperty(GROUP_ID, groupId);
+    o.addProperty(SNAPSHOT, snapshot);
+    o.add("receipts", entries == null ? new JsonArray() : entries);
+    return o;
+  }
+
+  // ---- Search builders ----
+
+  public static JsonObject searchHit(long seq, long ts, String message) {
+    JsonObject h = new JsonObject();
+    h.addProperty(SEQ, seq);
+    h.addProperty("ts", ts);
+    h.addProperty("message", message);
+    return h;
+  }
+
+  public static JsonObject searchResult(String scope, String with, String groupId, String query,
+                                        int offset, int total, boolean hasMore, JsonArray hits) {
+    JsonObject o = obj(SEARCH_RESULT);
+    o.addProperty(SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(WITH, with);
+    if (groupId != null) o.addProperty(GROUP_ID, groupId);
+    o.addProperty(QUERY, query == null ? "" : query);
+    o.addProperty(OFFSET, offset);
+    o.addProperty("total", total);
+    o.addProperty(HAS_MORE, hasMore);
+    o.add("hits", hits == null ? new JsonArray() : hits);
+    return o;
+  }
+
+  // ---- Export builders ----
+
+  public static JsonObject exportStart(String exportId, String scope, String with, String groupId) {
+    JsonObject o = obj(EXPORT_START);
+    o.addProperty(EXPORT_ID, exportId);
+    o.addProperty(SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(WITH, with);
+    if (groupId != null) o.addProperty(GROUP_ID, groupId);
+    return o;
+  }
+
+  public static JsonObject exportChunk(String exportId, long index, java.util.List<String> messages) {
+    JsonObject o = obj(EXPORT_CHUNK);
+    o.addProperty(EXPORT_ID, exportId);
+    o.addProperty("index", index);
+    o.add("messages", toJsonArray(messages));
+    return o;
+  }
+
+  public static JsonObject exportEnd(String exportId, boolean ok, long total, String error) {
+    JsonObject o = obj(EXPORT_END);
+    o.addProperty(EXPORT_ID, exportId);
+    o.addProperty(OK, ok);
+    o.addProperty("total", total);
+    if (error != null) o.addProperty("error", error);
+    return o;
+  }
+
+  // ---- Delete-for-me builders ----
+
+  public static JsonObject hideResultOk(String scope, String with, String groupId, JsonArray seqs) {
+    JsonObject o = obj(HIDE_RESULT);
+    o.addProperty(OK, true);
+    o.addProperty(SCOPE, scope == null ? "" : scope);
+    if (with != null) o.addProperty(WITH, with);
+    if (groupId != null) o.addProperty(GROUP_ID, groupId);
+    o.add(SEQS, seqs == null ? new JsonArray() : seqs);
+    return o;
+  }
+
+  public static JsonObject hideResultFail(String error) {
+    JsonObject o = obj(HIDE_RESULT);
+    o.addProperty(OK, false);
+    o.addProperty("error", error);
+    return o;
+  }
+
   // ---- Clear-for-me builders ----
 
   public static JsonObject clearResultOk(String scope, String with, String groupId, long clearedAtMillis) {
@@ -221,6 +541,23 @@ public final class Protocol {
     return o;
   }
 
+  /** Successful admin answer; the fields of `body` are copied in. */
+  public static JsonObject adminResult(String action, JsonObject body) {
+    JsonObject o = obj(ADMIN_RESULT);
+    o.addProperty(ACTION, action);
+    o.addProperty(OK, true);
+    if (body != null) body.entrySet().forEach(e -> o.add(e.getKey(), e.getValue()));
+    return o;
+  }
+
+  public static JsonObject adminFail(String action, String error) {
+    JsonObject o = obj(ADMIN_RESULT);
+    o.addProperty(ACTION, action);
+    o.addProperty(OK, false);
+    o.addProperty("error", error);
+    return o;
+  }
+
   // (still here; can be removed later)
   public static JsonObject userItem(String username, String displayName, String avatarBase64) {
     JsonObject u = new JsonObject();
@@ -32,6 +32,7 @@ public final class Theme {
   public static final Color ACCENT_GREEN = new Color(32, 191, 107);
   public static final Color ACCENT_TEAL  = new Color(7, 94, 84);
   public static final Color DANGER       = new Color(180, 60, 60);
+  public static final Color TICK_READ    = new Color(83, 189, 235);
 
   // Presence
   public static final Color DOT_ONLINE  = ACCENT_GREEN;
@@ -0,0 +1,160 @@
+package server.archive;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+import server.db.MongoManager;
+import server.repo.ArchiveRepository;
+
+/**
+ * Background job that moves messages older than the retention window out of the
+ * hot collections into compressed monthly segments (ArchiveRepository).
+ *
+ * Per run and chat type:
+ * - read expired messages in (chat, ts, seq) order, BATCH at a time; each batch resumes
+ *   at the last (chat, ts) of the previous one instead of re-scanning from the start
+ * - cut them into (chat, month) groups, write one segment per group
+ * - delete the archived ids from the hot collection
+ *
+ * Segments are written before the delete. A run that dies in between leaves those
+ * messages in both places until the next run, which skips what is already archived
+ * (ArchiveRepository.notArchived) and only then deletes them, so no message ends up
+ * in the archive twice.
+ */
+public final class RetentionArchiver {
+
+  private static final int BATCH = 2000;
+  private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+  private static ScheduledExecutorService exec;
+
+  private RetentionArchiver() {}
+
+  /** Start periodic archiving (no-op if the policy keeps everything). */
+  public static synchronized void start(RetentionPolicy policy, long intervalMinutes) {
+    if (exec != null || policy == null || !policy.isEnabled()) return;
+
+    long every = Math.max(1L, intervalMinutes);
+    exec = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "chat-archiver");
+      t.setDaemon(true);
+      return t;
+    });
+
+    exec.scheduleWithFixedDelay(() -> {
+      try {
+        runOnce(policy);
+      } catch (Exception ex) {
+        System.err.println("⚠️ Archiver run failed: " + ex.getMessage());
+      }
+    }, 1, every, TimeUnit.MINUTES);
+
+    System.out.println("🗄️ Retention archiver started (" + policy + ", every " + every + " min)");
+  }
+
+  public static synchronized void stop() {
+    if (exec != null) exec.shutdownNow();
+    exec = null;
+  }
+
+  /** One full pass over all chat types. Returns number of archived messages. */
+  public static int runOnce(RetentionPolicy policy) {
+    int n = 0;
+    n += archiveType("broadcast", MongoManager.broadcastMessages(), null, policy.broadcastDays);
+    n += archiveType("private", MongoManager.privateMessages(), "conversationId", policy.privateDays);
+    n += archiveType("group", MongoManager.groupMessages(), "groupId", policy.groupDays);
+    if (n > 0) System.out.println("🗄️ Archived " + n + " messages");
+    return n;
+  }
+
+  private static int archiveType(String chatType, MongoCollection<Document> col, String keyField, int days) {
+    if (days <= 0) return 0;
+
+    Date cutoff = new Date(System.currentTimeMillis() - days * DAY_MS);
+    var sort = (keyField == null) ? Sorts.ascending("ts", "seq") : Sorts.ascending(keyField, "ts", "seq");
+
+    int total = 0;
+    Document last = null;
+    while (true) {
+      Bson filter = (last == null)
+          ? Filters.lt("ts", cutoff)
+          : Filters.and(Filters.lt("ts", cutoff), atOrAfter(keyField, last));
+      List<Document> batch = new ArrayList<>();
+      col.find(filter).sort(sort).limit(BATCH).into(batch);
+      if (batch.isEmpty()) break;
+      last = batch.get(batch.size() - 1);
+
+      String curChat = null;
+      String curMonth = null;
+      List<SegmentCodec.Entry> entries = new ArrayList<>();
+      List<Object> ids = new ArrayList<>();
+
+      for (Document d : batch) {
+        Date ts = d.getDate("ts");
+        long millis = (ts == null) ? 0L : ts.getTime();
+        String chatId = chatIdOf(d, keyField);
+        String month = ArchiveRepository.monthOf(millis);
+
+        if (curChat != null && (!curChat.equals(chatId) || !curMonth.equals(month))) {
+          flush(col, chatType, curChat, curMonth, entries, ids);
+        }
+        curChat = chatId;
+        curMonth = month;
+
+        Object seq = d.get("seq");
+        entries.add(new SegmentCodec.Entry(seq instanceof Number n ? n.longValue() : 0L,
+            millis, d.getString("sender"), d.getString("content")));
+        ids.add(d.get("_id"));
+      }
+      flush(col, chatType, curChat, curMonth, entries, ids);
+
+      total += batch.size();
+      if (batch.size() < BATCH) break;
+    }
+    return total;
+  }
+
+  private static void flush(MongoCollection<Document> col, String chatType, String chatId, String month,
+      List<SegmentCodec.Entry> entries, List<Object> ids) {
+    if (entries.isEmpty()) return;
+
+    ArchiveRepository.writeSegment(chatType, chatId, month,
+        ArchiveRepository.notArchived(chatType, chatId, entries));
+    col.deleteMany(Filters.in("_id", ids));
+
+    entries.clear();
+    ids.clear();
+  }
+
+  /**
+   * Rows from the last (chat, ts) of the previous batch on. Inclusive on ts: that batch is
+   * deleted already, so nothing is read twice, and same-millisecond rows cut off by the
+   * batch limit are not skipped.
+   */
+  private static Bson atOrAfter(String keyField, Document last) {
+    Bson sameChatLater = Filters.gte("ts", last.get("ts"));
+    if (keyField == null) return sameChatLater;
+    Object key = last.get(keyField);
+    return Filters.or(
+        Filters.gt(keyField, key),
+        Filters.and(Filters.eq(keyField, key), sameChatLater));
+  }
+
+  private static String chatIdOf(Document d, String keyField) {
+    if (keyField == null) return "";
+    Object v = d.get(keyField);
+    if (v instanceof ObjectId oid) return oid.toHexString();
+    return v == null ? "" : v.toString();
+  }
+}
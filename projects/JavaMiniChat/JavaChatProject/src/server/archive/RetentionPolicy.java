@@ -0,0 +1,28 @@
+package server.archive;
+
+/**
+ * How long messages stay in the hot collections, per chat type.
+ * A value of 0 (or less) means "keep forever" for that type.
+ */
+public final class RetentionPolicy {
+
+  public final int broadcastDays;
+  public final int privateDays;
+  public final int groupDays;
+
+  public RetentionPolicy(int broadcastDays, int privateDays, int groupDays) {
+    this.broadcastDays = Math.max(0, broadcastDays);
+    this.privateDays = Math.max(0, privateDays);
+    this.groupDays = Math.max(0, groupDays);
+  }
+
+  /** True if at least one chat type has a retention limit. */
+  public boolean isEnabled() {
+    return broadcastDays > 0 || privateDays > 0 || groupDays > 0;
+  }
+
+  @Override
+  public String toString() {
+    return "broadcast=" + broadcastDays + "d, private=" + privateDays + "d, group=" + groupDays + "d";
+  }
+}
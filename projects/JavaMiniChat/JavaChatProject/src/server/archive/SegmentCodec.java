@@ -0,0 +1,89 @@
+package server.archive;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary codec for cold archive segments.
+ *
+ * One segment = many messages of ONE chat in ONE month, Deflate-compressed:
+ *   [version:byte][count:int] then per message [seq:long][ts:long][sender:UTF][content:UTF]
+ *
+ * Version 1 segments (written before per-chat seq existed) have no seq field and
+ * decode with seq = 0.
+ *
+ * Messages are written in ascending ts order (same order the archiver reads them).
+ */
+public final class SegmentCodec {
+
+  private static final byte VERSION = 2;
+  private static final byte VERSION_NO_SEQ = 1;
+
+  private SegmentCodec() {}
+
+  /** One archived message. */
+  public static final class Entry {
+    public final long seq;         // per-chat seq (0 = unknown)
+    public final long ts;          // epoch millis
+    public final String sender;
+    public final String content;
+
+    public Entry(long seq, long ts, String sender, String content) {
+      this.seq = seq;
+      this.ts = ts;
+      this.sender = sender == null ? "" : sender;
+      this.content = content == null ? "" : content;
+    }
+  }
+
+  public static byte[] encode(List<Entry> entries) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+      out.writeByte(VERSION);
+      out.writeInt(entries == null ? 0 : entries.size());
+      if (entries != null) {
+        for (Entry e : entries) {
+          out.writeLong(e.seq);
+          out.writeLong(e.ts);
+          out.writeUTF(e.sender);
+          out.writeUTF(e.content);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Segment encode failed", e);
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  public static List<Entry> decode(byte[] data) {
+    List<Entry> out = new ArrayList<>();
+    if (data == null || data.length == 0) return out;
+
+    try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+      byte v = in.readByte();
+      if (v != VERSION && v != VERSION_NO_SEQ) throw new IOException("Unknown segment version: " + v);
+
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        long seq = (v == VERSION) ? in.readLong() : 0L;
+        long ts = in.readLong();
+        String sender = in.readUTF();
+        String content = in.readUTF();
+        out.add(new Entry(seq, ts, sender, content));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Segment decode failed", e);
+    }
+    return out;
+  }
+}
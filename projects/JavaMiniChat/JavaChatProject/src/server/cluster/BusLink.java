@@ -0,0 +1,195 @@
+package server.cluster;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.google.gson.JsonObject;
+
+import common.JsonUtil;
+import common.Protocol;
+
+/**
+ * Outbound link to one peer node: a bounded queue + one writer thread.
+ *
+ * - batching: the writer takes everything queued (up to BATCH_MAX frames), writes it
+ *   and flushes once, so a burst costs one syscall instead of one per frame
+ * - back-pressure: when the queue is full, offer() waits up to OFFER_WAIT_MS (slowing
+ *   the producer down) and only then drops the frame
+ * - reconnects with exponential backoff; on every (re)connect the peer's challenge is
+ *   answered by the greeting (signed hello + presence snapshot) before anything queued,
+ *   and the peer's signed welcome tells which node this address is (see ClusterAuth)
+ *
+ * Delivery is at-most-once: frames of a batch that fails mid-write, and frames still
+ * queued when the link goes down, are dropped (messages are stored before they are
+ * routed, so recipients still get them with history; presence resyncs on reconnect).
+ */
+final class BusLink {
+
+  static final int MAX_QUEUED = 50_000;
+  static final int BATCH_MAX = 512;
+  static final long OFFER_WAIT_MS = 100;
+
+  private static final int CONNECT_TIMEOUT_MS = ClusterBus.HANDSHAKE_TIMEOUT_MS;
+  private static final long RETRY_MIN_MS = 500;
+  private static final long RETRY_MAX_MS = 5000;
+
+  final String address;
+  private final String host;
+  private final int port;
+  private final ClusterAuth auth;
+  private final Function<String, List<String>> greeting; // nonce -> first frames
+  private final BiConsumer<String, BusLink> onBound;
+
+  private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+  private final Thread writer;
+  private volatile boolean connected;
+  private volatile boolean closed;
+  private volatile Socket socket;
+
+  final LongAdder frames = new LongAdder();
+  final LongAdder batches = new LongAdder();
+  final LongAdder dropped = new LongAdder();
+
+  BusLink(String address, ClusterAuth auth, Function<String, List<String>> greeting,
+      BiConsumer<String, BusLink> onBound) {
+    int colon = address.lastIndexOf(':');
+    if (colon <= 0) throw new IllegalArgumentException("Peer must be host:port: " + address);
+    this.address = address;
+    this.host = address.substring(0, colon);
+    this.port = Integer.parseInt(address.substring(colon + 1));
+    this.auth = auth;
+    this.greeting = greeting;
+    this.onBound = onBound;
+
+    writer = new Thread(this::run, "cluster-link-" + address);
+    writer.setDaemon(true);
+  }
+
+  void start() {
+    writer.start();
+  }
+
+  boolean isConnected() {
+    return connected;
+  }
+
+  int queued() {
+    return queue.size();
+  }
+
+  /** Queue a frame; waits up to OFFER_WAIT_MS when the link is backed up. */
+  boolean offer(String line) {
+    if (line == null || closed) return false;
+    try {
+      if (queue.offer(line, OFFER_WAIT_MS, TimeUnit.MILLISECONDS)) return true;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    dropped.increment();
+    return false;
+  }
+
+  /** State frames (presence) are useless while down: the next greeting carries the state. */
+  boolean offerState(String line) {
+    return connected && offer(line);
+  }
+
+  void close() {
+    closed = true;
+    writer.interrupt();
+    Socket s = socket;
+    try {
+      if (s != null) s.close();
+    } catch (Exception ignored) {
+    }
+  }
+
+  private void run() {
+    long backoff = RETRY_MIN_MS;
+    while (!closed) {
+      try (Socket s = new Socket()) {
+        s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(CONNECT_TIMEOUT_MS); // for the challenge + welcome only
+        socket = s;
+        Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+
+        JsonObject challenge = JsonUtil.readObject(in);
+        String nonce = challenge == null ? null : Protocol.getString(challenge, ClusterAuth.NONCE);
+        if (nonce == null) throw new IOException("no challenge from peer");
+
+        // connected before the snapshot is built: a presence change racing with it is
+        // either in the snapshot or queued behind it (replaying it is harmless)
+        connected = true;
+        for (String g : greeting.apply(nonce)) {
+          out.write(g);
+          out.write('\n');
+        }
+        out.flush();
+
+        JsonObject welcome = JsonUtil.readObject(in);
+        String node = welcome == null ? null : Protocol.getString(welcome, ClusterBus.NODE);
+        if (node == null) throw new IOException("no welcome from peer");
+        if (!auth.check(ClusterBus.WELCOME, node, nonce, Protocol.getString(welcome, ClusterAuth.MAC)))
+          throw new IOException("peer failed authentication (check CHAT_CLUSTER_SECRET)");
+        s.setSoTimeout(0);
+        onBound.accept(node, this);
+        System.out.println("🔗 Cluster link up: " + address + " (" + node + ")");
+        backoff = RETRY_MIN_MS;
+
+        pump(out);
+      } catch (InterruptedException ie) {
+        return;
+      } catch (IOException ex) {
+        if (connected && !closed)
+          System.err.println("⚠️ Cluster link down: " + address + " (" + ex.getMessage() + ")");
+      } finally {
+        connected = false;
+        socket = null;
+        // stale by the time the peer is back: drop instead of replaying a burst
+        List<String> stale = new ArrayList<>();
+        queue.drainTo(stale);
+        if (!stale.isEmpty()) dropped.add(stale.size());
+      }
+
+      try {
+        Thread.sleep(backoff);
+      } catch (InterruptedException ie) {
+        return;
+      }
+      backoff = Math.min(RETRY_MAX_MS, backoff * 2);
+    }
+  }
+
+  private void pump(Writer out) throws IOException, InterruptedException {
+    List<String> batch = new ArrayList<>(BATCH_MAX);
+    while (!closed) {
+      batch.add(queue.take());
+      queue.drainTo(batch, BATCH_MAX - 1);
+
+      for (String line : batch) {
+        out.write(line);
+        out.write('\n');
+      }
+      out.flush();
+
+      frames.add(batch.size());
+      batches.increment();
+      batch.clear();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package server.cluster;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Link authentication for ClusterBus: both ends of a link prove they know the shared
+ * cluster secret (CHAT_CLUSTER_SECRET) without sending it.
+ *
+ *   accepting node  -> challenge {node, nonce}   fresh random nonce per connection
+ *   connecting node -> hello {node, mac}         mac = HMAC-SHA256(secret, "hello|node|nonce")
+ *   accepting node  -> welcome {node, mac}       mac = HMAC-SHA256(secret, "welcome|node|nonce")
+ *
+ * A recorded hello is useless on another connection (the nonce differs). A link that
+ * fails the check is closed before any other frame of it is read.
+ */
+final class ClusterAuth {
+
+  static final String CHALLENGE = "challenge";
+  static final String NONCE = "nonce";
+  static final String MAC = "mac";
+
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int NONCE_BYTES = 18;
+  private static final SecureRandom RNG = new SecureRandom();
+  private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder B64D = Base64.getUrlDecoder();
+
+  private final SecretKeySpec key;
+
+  ClusterAuth(String secret) {
+    this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+  }
+
+  static String nonce() {
+    byte[] b = new byte[NONCE_BYTES];
+    RNG.nextBytes(b);
+    return B64.encodeToString(b);
+  }
+
+  /** MAC of one handshake step (kind: hello / welcome) of `node` for this connection's nonce. */
+  String mac(String kind, String node, String nonce) {
+    return B64.encodeToString(sign(kind, node, nonce));
+  }
+
+  boolean check(String kind, String node, String nonce, String mac) {
+    if (node == null || nonce == null || mac == null) return false;
+    try {
+      return MessageDigest.isEqual(sign(kind, node, nonce), B64D.decode(mac));
+    } catch (IllegalArgumentException ex) {
+      return false;
+    }
+  }
+
+  // handshakes are rare (one per link and reconnect): no Mac caching
+  private byte[] sign(String kind, String node, String nonce) {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return mac.doFinal((kind + "|" + node + "|" + nonce).getBytes(StandardCharsets.UTF_8));
+    } catch (Exception ex) {
+      throw new IllegalStateException("HMAC failed", ex);
+    }
+  }
+}
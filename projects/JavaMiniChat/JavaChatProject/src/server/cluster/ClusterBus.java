@@ -0,0 +1,492 @@
+package server.cluster;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import common.JsonUtil;
+import common.Protocol;
+
+/**
+ * Inter-node message bus: full mesh of plain TCP links, JSON frames one per line.
+ *
+ * Every node listens on its bus port (bind address: loopback unless configured) and keeps
+ * one outbound BusLink per peer. A node only SENDS on its outbound links and only READS
+ * on the connections it accepted, so each direction of a pair is one ordered stream.
+ *
+ * Links are authenticated with the shared cluster secret (see ClusterAuth): a connection
+ * that does not answer the challenge is closed before any of its frames is used.
+ *
+ * Frames ("t" = type):
+ * - challenge {node, nonce}               sent by the accepting node on every new connection
+ * - hello {node, mac}                     first frame on every link; answered with welcome {node, mac},
+ *                                         the only frames sent back, so a link learns its peer's id
+ * - state {node, of, version, heartbeat, users:[{user, epoch}]}
+ *                                         full presence of node `of` (sent after hello for the
+ *                                         sender itself, and as the answer to a sync)
+ * - presence {node, user, online, epoch, version}  one login / logout (delta)
+ * - digest {node, nodes:[{node, version, heartbeat}]}  anti-entropy round, every gossip interval
+ * - sync {node, nodes[]}                  "send me the state of these nodes"
+ * - user {user, line}                     client frame for one user (routed by presence)
+ * - group {groupId, line}                 client frame for a group's members (every peer)
+ * - all {line}                            client frame for everyone (every peer)
+ * - join {groupId, users[]}               new group: register members connected there
+ *
+ * Presence replication (deltas + digests + leases) is described in PresenceDirectory.
+ * This node's own version and heartbeat start from its boot time (x1000), so a restarted
+ * node is always newer than its previous life.
+ *
+ * `line` is the client frame serialized once by the sender; receivers hand it to
+ * their sessions as is.
+ */
+public final class ClusterBus {
+
+  private static final String T = "t";
+  static final String HELLO = "hello";
+  static final String WELCOME = "welcome";
+  private static final String STATE = "state";
+  private static final String PRESENCE = "presence";
+  private static final String DIGEST = "digest";
+  private static final String SYNC = "sync";
+  private static final String USER = "user";
+  private static final String GROUP = "group";
+  private static final String ALL = "all";
+  private static final String JOIN = "join";
+
+  static final String NODE = "node";
+  private static final String USERS = "users";
+  private static final String LINE = "line";
+  private static final String EPOCH = "epoch";
+  private static final String VERSION = "version";
+  private static final String HEARTBEAT = "heartbeat";
+  private static final String OF = "of";
+  private static final String NODES = "nodes";
+
+  static final int HANDSHAKE_TIMEOUT_MS = 3000;
+
+  private final ClusterConfig config;
+  private final LocalDelivery local;
+  private final PresenceDirectory presence = new PresenceDirectory();
+  private final ClusterAuth auth;
+
+  // users connected on THIS node -> epoch; changed together with selfVersion under selfLock
+  private final ConcurrentHashMap<String, Long> localUsers = new ConcurrentHashMap<>();
+  private final Object selfLock = new Object();
+  private final AtomicLong selfVersion = new AtomicLong(System.currentTimeMillis() * 1000);
+  private final AtomicLong selfHeartbeat = new AtomicLong(System.currentTimeMillis() * 1000);
+  private final AtomicLong clock = new AtomicLong(); // hybrid clock for epochs
+  // peer node id -> our outbound link to it (learned from the welcome on that link)
+  private final ConcurrentHashMap<String, BusLink> linkByNode = new ConcurrentHashMap<>();
+  // peer node id -> the inbound connection currently serving it
+  private final ConcurrentHashMap<String, Socket> inbound = new ConcurrentHashMap<>();
+  private final List<BusLink> links = new ArrayList<>();
+  private final AtomicInteger readers = new AtomicInteger();
+
+  private volatile ServerSocket listener;
+  private volatile ScheduledExecutorService gossip;
+  private volatile boolean stopped;
+
+  public ClusterBus(ClusterConfig config, LocalDelivery local) {
+    this.config = config;
+    this.local = local;
+    this.auth = config.secret.isBlank() ? null : new ClusterAuth(config.secret);
+    for (String peer : config.peers) links.add(new BusLink(peer, auth, this::greeting, this::bound));
+  }
+
+  public String nodeId() {
+    return config.nodeId;
+  }
+
+  /** Listen for peers and start the outbound links. */
+  public void start() throws IOException {
+    if (auth == null) throw new IOException("CHAT_CLUSTER_SECRET is not set (peer links must be authenticated)");
+    ServerSocket ss = new ServerSocket();
+    ss.setReuseAddress(true);
+    ss.bind(new InetSocketAddress(config.bindHost, config.busPort));
+    listener = ss;
+
+    Thread accept = new Thread(this::acceptLoop, "cluster-accept");
+    accept.setDaemon(true);
+    accept.start();
+
+    for (BusLink l : links) l.start();
+
+    gossip = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "cluster-gossip");
+      t.setDaemon(true);
+      return t;
+    });
+    gossip.scheduleAtFixedRate(this::gossipRound, config.gossipMillis, config.gossipMillis, TimeUnit.MILLISECONDS);
+    System.out.println("🕸️ Cluster bus on " + config.bindHost + ":" + config.busPort + " (" + config + ")");
+  }
+
+  public void stop() {
+    stopped = true;
+    if (gossip != null) gossip.shutdownNow();
+    try {
+      if (listener != null) listener.close();
+    } catch (Exception ignored) {
+    }
+    for (BusLink l : links) l.close();
+    for (Socket s : inbound.values()) {
+      try {
+        s.close();
+      } catch (Exception ignored) {
+      }
+    }
+  }
+
+  // ---------------- Local presence ----------------
+
+  /** A user logged in on this node at `at`. Returns the epoch of this login. */
+  public long online(String user, long at) {
+    String line;
+    long epoch = clock.updateAndGet(c -> Math.max(c + 1, at));
+    synchronized (selfLock) {
+      localUsers.put(user, epoch);
+      line = presenceFrame(user, true, epoch, selfVersion.incrementAndGet());
+    }
+    // while a link is down the delta is dropped: the greeting state replaces it
+    for (BusLink l : links) l.offerState(line);
+    return epoch;
+  }
+
+  /** A user's session on this node ended. */
+  public void offline(String user) {
+    String line;
+    synchronized (selfLock) {
+      if (localUsers.remove(user) == null) return;
+      line = presenceFrame(user, false, 0L, selfVersion.incrementAndGet());
+    }
+    for (BusLink l : links) l.offerState(line);
+  }
+
+  private String presenceFrame(String user, boolean online, long epoch, long version) {
+    JsonObject f = frame(PRESENCE);
+    f.addProperty(USER, user);
+    f.addProperty(Protocol.ONLINE, online);
+    if (online) f.addProperty(EPOCH, epoch);
+    f.addProperty(VERSION, version);
+    return JsonUtil.toLine(f);
+  }
+
+  public boolean isRemote(String user) {
+    return presence.nodeOf(user) != null;
+  }
+
+  /** Users connected on other nodes. */
+  public Set<String> remoteUsers() {
+    return presence.users();
+  }
+
+  // ---------------- Routing ----------------
+
+  /** Send a client frame to a user connected elsewhere. False if not known to be online. */
+  public boolean toUser(String user, String line) {
+    String node = presence.nodeOf(user);
+    BusLink link = node == null ? null : linkByNode.get(node);
+    if (link == null || !link.isConnected()) return false;
+
+    JsonObject f = new JsonObject();
+    f.addProperty(T, USER);
+    f.addProperty(USER, user);
+    f.addProperty(LINE, line);
+    return link.offer(JsonUtil.toLine(f));
+  }
+
+  /** Send a client frame to the members of a group on every other node. */
+  public void toGroup(String groupId, String line) {
+    JsonObject f = new JsonObject();
+    f.addProperty(T, GROUP);
+    f.addProperty(Protocol.GROUP_ID, groupId);
+    f.addProperty(LINE, line);
+    toEveryPeer(f);
+  }
+
+  /** Send a client frame to everyone on every other node. */
+  public void toAll(String line) {
+    JsonObject f = new JsonObject();
+    f.addProperty(T, ALL);
+    f.addProperty(LINE, line);
+    toEveryPeer(f);
+  }
+
+  public void groupCreated(String groupId, List<String> members) {
+    JsonObject f = new JsonObject();
+    f.addProperty(T, JOIN);
+    f.addProperty(Protocol.GROUP_ID, groupId);
+    JsonArray arr = new JsonArray();
+    for (String m : members) arr.add(m);
+    f.add(USERS, arr);
+    toEveryPeer(f);
+  }
+
+  /**
+   * Only to links that are up: a down peer would get the frame late (stale burst on
+   * reconnect) and a full queue would stall every send for OFFER_WAIT_MS. What a peer
+   * missed while down comes back with history and the presence resync of the greeting.
+   */
+  private void toEveryPeer(JsonObject f) {
+    if (links.isEmpty()) return;
+    String line = null;
+    for (BusLink l : links) {
+      if (!l.isConnected()) continue;
+      if (line == null) line = JsonUtil.toLine(f);
+      l.offer(line);
+    }
+  }
+
+  /** One-line human summary. */
+  public String summary() {
+    StringBuilder sb = new StringBuilder("cluster ").append(config.nodeId)
+        .append(": local=").append(localUsers.size())
+        .append(" remote=").append(presence.size())
+        .append(" nodes=").append(presence.digest().size() + 1);
+    for (BusLink l : links) {
+      sb.append(" | ").append(l.address).append(l.isConnected() ? " up" : " down")
+          .append(" frames=").append(l.frames.sum())
+          .append(" batches=").append(l.batches.sum())
+          .append(" queued=").append(l.queued());
+      long d = l.dropped.sum();
+      if (d > 0) sb.append(" dropped=").append(d);
+    }
+    return sb.toString();
+  }
+
+  // ---------------- Outbound greeting / anti-entropy ----------------
+
+  /** First frames of an outbound link, once the peer's challenge (nonce) arrived. */
+  private List<String> greeting(String nonce) {
+    JsonObject hello = frame(HELLO);
+    hello.addProperty(ClusterAuth.MAC, auth.mac(HELLO, config.nodeId, nonce));
+    return List.of(JsonUtil.toLine(hello), stateFrame(config.nodeId));
+  }
+
+  /** Full state of `node` as we know it (null if we hold nothing for it). */
+  private String stateFrame(String node) {
+    PresenceDirectory.NodeView view;
+    if (node.equals(config.nodeId)) {
+      synchronized (selfLock) {
+        view = new PresenceDirectory.NodeView(selfVersion.get(), selfHeartbeat.get(), new HashMap<>(localUsers));
+      }
+    } else {
+      view = presence.view(node);
+      if (view == null) return null;
+    }
+
+    JsonObject f = frame(STATE);
+    f.addProperty(OF, node);
+    f.addProperty(VERSION, view.version);
+    f.addProperty(HEARTBEAT, view.heartbeat);
+    JsonArray arr = new JsonArray();
+    for (Map.Entry<String, Long> e : view.users.entrySet()) {
+      JsonObject u = new JsonObject();
+      u.addProperty(USER, e.getKey());
+      u.addProperty(EPOCH, e.getValue());
+      arr.add(u);
+    }
+    f.add(USERS, arr);
+    return JsonUtil.toLine(f);
+  }
+
+  /** One gossip round: bump our heartbeat, send the digest, expire lapsed leases. */
+  private void gossipRound() {
+    try {
+      JsonObject f = frame(DIGEST);
+      JsonArray arr = new JsonArray();
+      arr.add(digestEntry(config.nodeId, selfVersion.get(), selfHeartbeat.incrementAndGet()));
+      for (var e : presence.digest().entrySet()) arr.add(digestEntry(e.getKey(), e.getValue()[0], e.getValue()[1]));
+      f.add(NODES, arr);
+      String line = JsonUtil.toLine(f);
+      for (BusLink l : links) l.offerState(line);
+
+      List<String> dead = presence.expire(System.currentTimeMillis(), config.leaseMillis);
+      if (!dead.isEmpty()) {
+        System.err.println("⚠️ Cluster lease expired: " + dead);
+        local.remotePresenceChanged();
+      }
+    } catch (Exception ex) {
+      System.err.println("⚠️ Cluster gossip round failed: " + ex.getMessage());
+    }
+  }
+
+  private static JsonObject digestEntry(String node, long version, long heartbeat) {
+    JsonObject d = new JsonObject();
+    d.addProperty(NODE, node);
+    d.addProperty(VERSION, version);
+    d.addProperty(HEARTBEAT, heartbeat);
+    return d;
+  }
+
+  /** An outbound link told us which node it reaches. */
+  private void bound(String node, BusLink link) {
+    linkByNode.put(node, link);
+  }
+
+  private JsonObject frame(String type) {
+    JsonObject f = new JsonObject();
+    f.addProperty(T, type);
+    f.addProperty(NODE, config.nodeId);
+    return f;
+  }
+
+  // ---------------- Inbound ----------------
+
+  private void acceptLoop() {
+    while (!stopped) {
+      try {
+        Socket s = listener.accept();
+        s.setTcpNoDelay(true);
+        Thread t = new Thread(() -> readLoop(s), "cluster-in-" + readers.incrementAndGet());
+        t.setDaemon(true);
+        t.start();
+      } catch (IOException ex) {
+        if (!stopped) System.err.println("⚠️ Cluster accept failed: " + ex.getMessage());
+      }
+    }
+  }
+
+  private void readLoop(Socket s) {
+    String node = null;
+    try (s; BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+      // unauthenticated until the hello checks out: nothing else is read, and not for long
+      s.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+      String nonce = ClusterAuth.nonce();
+      JsonObject challenge = frame(ClusterAuth.CHALLENGE);
+      challenge.addProperty(ClusterAuth.NONCE, nonce);
+      s.getOutputStream().write((JsonUtil.toLine(challenge) + "\n").getBytes(StandardCharsets.UTF_8));
+      s.getOutputStream().flush();
+
+      JsonObject hello = JsonUtil.readObject(in);
+      String claimed = hello == null ? null : Protocol.getString(hello, NODE);
+      if (claimed == null || !HELLO.equals(Protocol.getString(hello, T))) return;
+      if (!auth.check(HELLO, claimed, nonce, Protocol.getString(hello, ClusterAuth.MAC))) {
+        System.err.println("⚠️ Cluster: rejected unauthenticated link from " + s.getRemoteSocketAddress()
+            + " (claims " + claimed + "; check CHAT_CLUSTER_SECRET)");
+        return;
+      }
+      s.setSoTimeout(0);
+      node = claimed;
+      if (node.equals(config.nodeId)) {
+        System.err.println("⚠️ Cluster: node id " + node + " is used twice (or a node lists itself as peer)");
+        node = null;
+        return;
+      }
+
+      Socket old = inbound.put(node, s);
+      if (old != null) old.close(); // the peer reconnected; the old stream is dead
+
+      JsonObject welcome = frame(WELCOME);
+      welcome.addProperty(ClusterAuth.MAC, auth.mac(WELCOME, config.nodeId, nonce));
+      s.getOutputStream().write((JsonUtil.toLine(welcome) + "\n").getBytes(StandardCharsets.UTF_8));
+      s.getOutputStream().flush();
+
+      while (!stopped) {
+        JsonObject f = JsonUtil.readObject(in);
+        if (f == null) break;
+        dispatch(node, f);
+      }
+    } catch (IOException ignored) {
+      // peer gone
+    } finally {
+      if (node != null && inbound.remove(node, s)) {
+        if (presence.dropNode(node)) local.remotePresenceChanged();
+        System.err.println("⚠️ Cluster peer left: " + node);
+      }
+    }
+  }
+
+  private void dispatch(String node, JsonObject f) {
+    String type = Protocol.getString(f, T);
+    if (type == null) return;
+
+    long now = System.currentTimeMillis();
+    switch (type) {
+      case STATE -> {
+        String of = Protocol.getString(f, OF);
+        if (of == null || of.equals(config.nodeId)) return;
+
+        Map<String, Long> users = new HashMap<>();
+        JsonArray arr = f.getAsJsonArray(USERS);
+        if (arr != null) {
+          for (JsonElement e : arr) {
+            JsonObject u = e.getAsJsonObject();
+            users.put(Protocol.getString(u, USER), Protocol.getLong(u, EPOCH, 0L));
+          }
+        }
+        var view = new PresenceDirectory.NodeView(Protocol.getLong(f, VERSION, 0L), Protocol.getLong(f, HEARTBEAT, 0L), users);
+        if (presence.replaceState(of, view, of.equals(node), now)) local.remotePresenceChanged();
+        for (var u : users.entrySet()) local.loggedInElsewhere(u.getKey(), u.getValue());
+      }
+      case PRESENCE -> {
+        String user = Protocol.getString(f, USER);
+        if (user == null) return;
+        long version = Protocol.getLong(f, VERSION, 0L);
+        if (Protocol.getBool(f, Protocol.ONLINE, false)) {
+          long epoch = Protocol.getLong(f, EPOCH, 0L);
+          if (presence.online(node, user, epoch, version, now)) local.remotePresenceChanged();
+          local.loggedInElsewhere(user, epoch);
+        } else if (presence.offline(node, user, version, now)) {
+          local.remotePresenceChanged();
+        }
+      }
+      case DIGEST -> {
+        JsonArray want = new JsonArray();
+        JsonArray arr = f.getAsJsonArray(NODES);
+        if (arr != null) {
+          for (JsonElement e : arr) {
+            JsonObject d = e.getAsJsonObject();
+            String of = Protocol.getString(d, NODE);
+            if (of == null || of.equals(config.nodeId)) continue;
+            if (presence.digest(of, Protocol.getLong(d, VERSION, 0L), Protocol.getLong(d, HEARTBEAT, 0L), now))
+              want.add(of);
+          }
+        }
+        BusLink back = linkByNode.get(node);
+        if (want.size() > 0 && back != null) {
+          JsonObject sync = frame(SYNC);
+          sync.add(NODES, want);
+          back.offerState(JsonUtil.toLine(sync));
+        }
+      }
+      case SYNC -> {
+        BusLink back = linkByNode.get(node);
+        JsonArray arr = f.getAsJsonArray(NODES);
+        if (back == null || arr == null) return;
+        for (JsonElement e : arr) {
+          String state = stateFrame(e.getAsString());
+          if (state != null) back.offerState(state);
+        }
+      }
+      case USER -> local.toUser(Protocol.getString(f, USER), Protocol.getString(f, LINE));
+      case GROUP -> local.toGroup(Protocol.getString(f, Protocol.GROUP_ID), Protocol.getString(f, LINE));
+      case ALL -> local.toAll(Protocol.getString(f, LINE));
+      case JOIN -> {
+        List<String> members = new ArrayList<>();
+        JsonArray arr = f.getAsJsonArray(USERS);
+        if (arr != null) for (JsonElement e : arr) members.add(e.getAsString());
+        local.groupCreated(Protocol.getString(f, Protocol.GROUP_ID), members);
+      }
+      default -> {
+        /* newer peer: ignore */ }
+    }
+  }
+}
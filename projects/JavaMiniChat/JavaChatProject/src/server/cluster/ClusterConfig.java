@@ -0,0 +1,60 @@
+package server.cluster;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cluster settings for ClusterBus.
+ * busPort <= 0 means single-node mode (no bus). The bus listens on bindHost only (loopback
+ * unless configured) and needs a secret shared by all nodes to authenticate its links.
+ */
+public final class ClusterConfig {
+
+  public static final int DEFAULT_GOSSIP_MS = 2000;
+  public static final int DEFAULT_LEASE_MS = 10_000;
+  public static final String DEFAULT_BIND = "127.0.0.1";
+
+  public final String nodeId;         // unique per node, used in presence + logs
+  public final String bindHost;       // interface the bus listens on
+  public final int busPort;           // where this node accepts peer links
+  public final String secret;         // shared by all nodes: HMAC key of the link handshake
+  public final List<String> peers;    // "host:port" bus addresses of the other nodes
+  public final int gossipMillis;      // anti-entropy round (digest + heartbeat)
+  public final int leaseMillis;       // a node not heard of for this long is dead
+
+  public ClusterConfig(String nodeId, String bindHost, int busPort, List<String> peers, String secret,
+      int gossipMillis, int leaseMillis) {
+    this.nodeId = nodeId;
+    this.bindHost = bindHost == null || bindHost.isBlank() ? DEFAULT_BIND : bindHost.trim();
+    this.busPort = busPort;
+    this.secret = secret == null ? "" : secret;
+    this.peers = List.copyOf(peers);
+    this.gossipMillis = gossipMillis > 0 ? gossipMillis : DEFAULT_GOSSIP_MS;
+    // a lease must survive a few lost rounds
+    this.leaseMillis = Math.max(leaseMillis > 0 ? leaseMillis : DEFAULT_LEASE_MS, 3 * this.gossipMillis);
+  }
+
+  /**
+   * bindHost: blank = loopback; peers: comma separated "host:port" list (blank entries
+   * ignored); <= 0 = default timing.
+   */
+  public static ClusterConfig parse(String nodeId, String bindHost, int busPort, String peers, String secret,
+      int gossipMillis, int leaseMillis) {
+    List<String> list = new ArrayList<>();
+    if (peers != null) {
+      for (String p : peers.split(",")) {
+        if (!p.isBlank()) list.add(p.trim());
+      }
+    }
+    return new ClusterConfig(nodeId, bindHost, busPort, list, secret, gossipMillis, leaseMillis);
+  }
+
+  public boolean enabled() {
+    return busPort > 0;
+  }
+
+  @Override
+  public String toString() {
+    return "node=" + nodeId + ", bus=" + bindHost + ":" + busPort + ", peers=" + peers
+        + ", gossip=" + gossipMillis + "ms, lease=" + leaseMillis + "ms";
+  }
+}
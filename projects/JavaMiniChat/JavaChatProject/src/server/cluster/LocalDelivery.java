@@ -0,0 +1,30 @@
+package server.cluster;
+
+import java.util.List;
+
+/**
+ * What the bus needs from the local node (implemented by the session layer).
+ *
+ * Called on bus reader threads: implementations only queue frames, never block.
+ * `line` is an already serialized client frame (Protocol JSON, no newline).
+ */
+public interface LocalDelivery {
+
+  /** Frame for one user, if connected here. */
+  void toUser(String user, String line);
+
+  /** Frame for the members of a group connected here. */
+  void toGroup(String groupId, String line);
+
+  /** Frame for everyone connected here. */
+  void toAll(String line);
+
+  /** A group was created elsewhere: register these members if they are connected here. */
+  void groupCreated(String groupId, List<String> members);
+
+  /** user logged in on another node at `at` (epoch millis); an older local session should go. */
+  void loggedInElsewhere(String user, long at);
+
+  /** The set of users online on other nodes changed. */
+  void remotePresenceChanged();
+}
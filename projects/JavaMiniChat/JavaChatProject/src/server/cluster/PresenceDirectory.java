@@ -0,0 +1,215 @@
+package server.cluster;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replicated presence directory: user -> (node, epoch) for users connected on OTHER nodes.
+ *
+ * Every node owns its own users and numbers each change of them (version). Replication,
+ * with no central store:
+ * - deltas: the owner sends each login / logout to its peers right away
+ * - anti-entropy: every gossip round each node sends a digest {node -> version, heartbeat}
+ *   of all nodes it knows; a peer that is behind for some node asks the digest's sender
+ *   for that node's full state, so state also travels over indirect paths
+ * - leases: a node's heartbeat grows every round; a node whose heartbeat has not grown
+ *   (directly or via gossip) for a lease is considered dead and its entries expire
+ *
+ * A user on two nodes: the higher epoch (login time, hybrid clock) wins, ties by node id.
+ * Writes come from bus threads and are serialized; reads (nodeOf, users) are plain
+ * map lookups, so the fan-out path never waits on replication.
+ */
+final class PresenceDirectory {
+
+  private static final class Entry {
+    final String node;
+    final long epoch;
+
+    Entry(String node, long epoch) {
+      this.node = node;
+      this.epoch = epoch;
+    }
+
+    boolean newerThan(Entry o) {
+      return epoch != o.epoch ? epoch > o.epoch : node.compareTo(o.node) > 0;
+    }
+  }
+
+  /** What this node knows about one other node. */
+  private static final class NodeState {
+    long version;   // presence version of the state held here (0 = none)
+    long heartbeat; // highest heartbeat seen
+    long heardAt;   // local time the lease was last renewed
+    boolean alive;
+  }
+
+  /** One node's state, as sent in a state frame. */
+  static final class NodeView {
+    final long version;
+    final long heartbeat;
+    final Map<String, Long> users; // user -> epoch
+
+    NodeView(long version, long heartbeat, Map<String, Long> users) {
+      this.version = version;
+      this.heartbeat = heartbeat;
+      this.users = users;
+    }
+  }
+
+  private final ConcurrentHashMap<String, Entry> users = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, NodeState> nodes = new ConcurrentHashMap<>();
+
+  // ---------------- Reads (any thread) ----------------
+
+  String nodeOf(String user) {
+    Entry e = user == null ? null : users.get(user);
+    return e == null ? null : e.node;
+  }
+
+  Set<String> users() {
+    return new HashSet<>(users.keySet());
+  }
+
+  int size() {
+    return users.size();
+  }
+
+  // ---------------- Deltas (straight from the owner) ----------------
+
+  /** Returns true if the set of remote users changed. */
+  synchronized boolean online(String node, String user, long epoch, long version, long now) {
+    NodeState n = renewDirect(node, now);
+    if (!acceptDelta(n, version)) return false;
+
+    Entry next = new Entry(node, epoch);
+    Entry cur = users.get(user);
+    if (cur != null && !next.newerThan(cur)) return false;
+    users.put(user, next);
+    return cur == null;
+  }
+
+  synchronized boolean offline(String node, String user, long version, long now) {
+    NodeState n = renewDirect(node, now);
+    if (!acceptDelta(n, version)) return false;
+
+    Entry cur = users.get(user);
+    return cur != null && cur.node.equals(node) && users.remove(user, cur);
+  }
+
+  /** In-order delta: advance. Gap: apply but keep the version (the next digest triggers a sync). */
+  private static boolean acceptDelta(NodeState n, long version) {
+    if (version <= n.version) return false; // already covered by a state we hold
+    if (version == n.version + 1) n.version = version;
+    return true;
+  }
+
+  // ---------------- Anti-entropy ----------------
+
+  /** Full state of a node. direct = sent by that node itself. */
+  synchronized boolean replaceState(String node, NodeView view, boolean direct, long now) {
+    NodeState n = nodes.computeIfAbsent(node, k -> new NodeState());
+    if (direct) {
+      renew(n, Math.max(n.heartbeat, view.heartbeat), now);
+    } else {
+      heard(n, view.heartbeat, now);
+      if (!n.alive) return false; // relayed news of a node we know is gone
+    }
+    if (n.version != 0 && view.version < n.version) return false;
+
+    boolean changed = false;
+    for (var e : users.entrySet()) {
+      if (e.getValue().node.equals(node) && !view.users.containsKey(e.getKey()))
+        changed |= users.remove(e.getKey(), e.getValue());
+    }
+    for (var u : view.users.entrySet()) {
+      Entry next = new Entry(node, u.getValue());
+      Entry cur = users.get(u.getKey());
+      if (cur == null || next.newerThan(cur)) {
+        users.put(u.getKey(), next);
+        changed |= cur == null;
+      }
+    }
+    n.version = view.version;
+    return changed;
+  }
+
+  /** Digest entry from a peer: renew the lease if the heartbeat grew. True if we are behind. */
+  synchronized boolean digest(String node, long version, long heartbeat, long now) {
+    NodeState n = nodes.computeIfAbsent(node, k -> new NodeState());
+    heard(n, heartbeat, now);
+    return n.alive && version > n.version;
+  }
+
+  /** node -> {version, heartbeat} of the live nodes we hold state for. */
+  synchronized Map<String, long[]> digest() {
+    Map<String, long[]> out = new HashMap<>();
+    for (var e : nodes.entrySet()) {
+      NodeState n = e.getValue();
+      if (n.alive) out.put(e.getKey(), new long[] {n.version, n.heartbeat});
+    }
+    return out;
+  }
+
+  /** What we hold for a node (answers a sync for a node that is not us). */
+  synchronized NodeView view(String node) {
+    NodeState n = nodes.get(node);
+    if (n == null || !n.alive) return null;
+    Map<String, Long> list = new HashMap<>();
+    for (var e : users.entrySet()) {
+      if (e.getValue().node.equals(node)) list.put(e.getKey(), e.getValue().epoch);
+    }
+    return new NodeView(n.version, n.heartbeat, list);
+  }
+
+  // ---------------- Leases ----------------
+
+  /** Nodes whose lease ran out; their users are gone from the directory. */
+  synchronized List<String> expire(long now, long leaseMs) {
+    List<String> dead = new ArrayList<>();
+    for (var e : nodes.entrySet()) {
+      NodeState n = e.getValue();
+      if (n.alive && now - n.heardAt > leaseMs) {
+        kill(e.getKey(), n);
+        dead.add(e.getKey());
+      }
+    }
+    return dead;
+  }
+
+  /** Direct link to a node closed: treat it as gone until it is heard of again. */
+  synchronized boolean dropNode(String node) {
+    NodeState n = nodes.get(node);
+    return n != null && kill(node, n);
+  }
+
+  private boolean kill(String node, NodeState n) {
+    n.alive = false;
+    n.version = 0; // nothing held any more: any live state is newer
+    boolean changed = false;
+    for (var e : users.entrySet()) {
+      if (e.getValue().node.equals(node)) changed |= users.remove(e.getKey(), e.getValue());
+    }
+    return changed;
+  }
+
+  private NodeState renewDirect(String node, long now) {
+    NodeState n = nodes.computeIfAbsent(node, k -> new NodeState());
+    renew(n, n.heartbeat, now);
+    return n;
+  }
+
+  /** Relayed heartbeat: only a higher one proves the node is still running. */
+  private static void heard(NodeState n, long heartbeat, long now) {
+    if (heartbeat > n.heartbeat) renew(n, heartbeat, now);
+  }
+
+  private static void renew(NodeState n, long heartbeat, long now) {
+    n.heartbeat = heartbeat;
+    n.heardAt = now;
+    n.alive = true;
+  }
+}
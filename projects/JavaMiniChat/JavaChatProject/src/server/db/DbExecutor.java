@@ -0,0 +1,130 @@
+package server.db;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import server.metrics.ChatEvents;
+import server.metrics.Histogram;
+import server.metrics.Metrics;
+
+/**
+ * Bounded thread pool that runs blocking MongoDB calls off the session threads.
+ *
+ * - size is fixed (CHAT_DB_THREADS), so DB concurrency no longer grows with sessions
+ * - queue is bounded; when full the caller runs the task itself (natural back-pressure)
+ * - after shutdown() calls still complete: they run on the caller's thread (the JDK's
+ *   CallerRunsPolicy would drop them and leave their futures pending forever); the pool
+ *   is never re-created
+ * - every call is named: its run time goes to Metrics.db(op), its wait for a thread to
+ *   Metrics.DB_WAIT; slow calls also become chat.DbCall JFR events (see ChatEvents)
+ *
+ * The driver bundled in lib/ is the sync driver; this pool is what turns it into
+ * CompletableFuture-returning calls (see server.repo.AsyncRepository).
+ */
+public final class DbExecutor {
+
+  private static final int DEFAULT_THREADS = 16;
+  private static final int QUEUE_CAPACITY = 10_000;
+
+  // queue full or pool shut down: run on the submitting thread, never drop
+  private static final RejectedExecutionHandler RUN_INLINE = (r, executor) -> r.run();
+
+  private static volatile ThreadPoolExecutor pool;
+  private static boolean stopped; // terminal: shutdown() ran
+
+  private DbExecutor() {}
+
+  public static synchronized void init(int threads) {
+    if (pool != null || stopped) return;
+    pool = create(Math.max(1, threads));
+  }
+
+  private static ThreadPoolExecutor create(int n) {
+    AtomicInteger seq = new AtomicInteger(1);
+    ThreadPoolExecutor p = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+        r -> {
+          Thread t = new Thread(r, "chat-db-" + seq.getAndIncrement());
+          t.setDaemon(true);
+          return t;
+        },
+        RUN_INLINE);
+    p.allowCoreThreadTimeOut(true);
+    return p;
+  }
+
+  private static ThreadPoolExecutor pool() {
+    ThreadPoolExecutor p = pool;
+    if (p != null) return p;
+    init(DEFAULT_THREADS);
+    return pool;
+  }
+
+  /** Run a blocking DB call on the pool. */
+  public static <T> CompletableFuture<T> supply(String op, Supplier<T> call) {
+    Histogram h = Metrics.db(op);
+    long queuedAt = System.nanoTime();
+    return CompletableFuture.supplyAsync(() -> {
+      long start = System.nanoTime();
+      Metrics.DB_WAIT.record(start - queuedAt);
+      ChatEvents.DbCall event = ChatEvents.enabled() ? new ChatEvents.DbCall() : null;
+      if (event != null)
+        event.begin();
+      boolean failed = true;
+      try {
+        T result = call.get();
+        failed = false;
+        return result;
+      } catch (RuntimeException ex) {
+        Metrics.DB_ERRORS.increment();
+        throw ex;
+      } finally {
+        h.recordSince(start);
+        if (event != null) {
+          event.end();
+          if (event.shouldCommit()) {
+            event.op = op;
+            event.queueWait = start - queuedAt;
+            event.failed = failed;
+            event.commit();
+          }
+        }
+      }
+    }, pool());
+  }
+
+  /** Run a blocking DB call with no result on the pool. */
+  public static CompletableFuture<Void> run(String op, Runnable call) {
+    return supply(op, () -> {
+      call.run();
+      return null;
+    });
+  }
+
+  /** Tasks waiting for a DB thread. */
+  public static int queued() {
+    ThreadPoolExecutor p = pool;
+    return p == null ? 0 : p.getQueue().size();
+  }
+
+  /**
+   * Stop the pool threads and wait up to timeoutMillis for queued calls to finish. Calls
+   * made afterwards (follow-up stages, shutdown tasks) run inline on the caller's thread.
+   */
+  public static synchronized boolean shutdown(long timeoutMillis) {
+    if (pool == null) pool = create(1); // never used: later calls still need a (shut down) pool to run inline
+    stopped = true;
+    ThreadPoolExecutor p = pool;
+    p.shutdown();
+    try {
+      return p.awaitTermination(Math.max(0L, timeoutMillis), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
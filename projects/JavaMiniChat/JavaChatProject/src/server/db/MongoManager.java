@@ -1,4 +1,6 @@
 package server.db;
+import java.util.concurrent.TimeUnit;
+
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
@@ -15,6 +17,7 @@ import org.bson.Document;
  * - init() once at server start
  * - provides access to collections
  * - creates required indexes (safe to call multiple times)
+ * - pool size / timeouts come from MongoPoolConfig; driver events feed MongoMetrics
  */
 public final class MongoManager {
   private static MongoClient client;
@@ -23,17 +26,41 @@ public final class MongoManager {
   private MongoManager() {}
 
   public static synchronized void init(String mongoUri, String dbName) {
+    init(mongoUri, dbName, MongoPoolConfig.defaults());
+  }
+
+  public static synchronized void init(String mongoUri, String dbName, MongoPoolConfig cfg) {
     if (client != null) return; // already initialized
+    if (cfg == null) cfg = MongoPoolConfig.defaults();
+    final MongoPoolConfig c = cfg;
 
     MongoClientSettings settings = MongoClientSettings.builder()
         .applyConnectionString(new ConnectionString(mongoUri))
+        .applyToConnectionPoolSettings(p -> {
+          if (c.maxPoolSize > 0) p.maxSize(c.maxPoolSize);
+          if (c.minPoolSize > 0) p.minSize(c.minPoolSize);
+          if (c.maxWaitMillis > 0) p.maxWaitTime(c.maxWaitMillis, TimeUnit.MILLISECONDS);
+          p.addConnectionPoolListener(MongoMetrics.INSTANCE);
+        })
+        .applyToSocketSettings(s -> {
+          if (c.connectTimeoutMillis > 0) s.connectTimeout(c.connectTimeoutMillis, TimeUnit.MILLISECONDS);
+          if (c.readTimeoutMillis > 0) s.readTimeout(c.readTimeoutMillis, TimeUnit.MILLISECONDS);
+        })
+        .applyToClusterSettings(cl -> {
+          if (c.serverSelectionTimeoutMillis > 0)
+            cl.serverSelectionTimeout(c.serverSelectionTimeoutMillis, TimeUnit.MILLISECONDS);
+        })
+        .applyToServerSettings(sv -> {
+          if (c.heartbeatMillis > 0) sv.heartbeatFrequency(c.heartbeatMillis, TimeUnit.MILLISECONDS);
+        })
+        .addCommandListener(MongoMetrics.INSTANCE)
         .build();
 
     client = MongoClients.create(settings);
     db = client.getDatabase(dbName);
 
     ensureIndexes();
-    System.out.println("✅ Mongo connected: " + mongoUri + " / " + dbName);
+    System.out.println("✅ Mongo connected: " + mongoUri + " / " + dbName + " (" + c + ")");
   }
 
   public static MongoDatabase db() {
@@ -41,6 +68,12 @@ public final class MongoManager {
     return db;
   }
 
+  /** A primary is known to the driver (its own monitoring state, no round trip). */
+  public static boolean isWritable() {
+    MongoClient c = client;
+    return c != null && c.getClusterDescription().hasWritableServer();
+  }
+
   // ---- Collections used by the app ----
 
   public static MongoCollection<Document> users() {
@@ -68,16 +101,59 @@ public final class MongoManager {
     return db().getCollection("chat_clears");
   }
 
+  // Cold archive segments (retention archiver)
+  public static MongoCollection<Document> messageArchive() {
+    return db().getCollection("message_archive");
+  }
+
+  // Offline delivery inbox (drained at login)
+  public static MongoCollection<Document> inbox() {
+    return db().getCollection("inbox");
+  }
+
+  // Per-chat sequence counters (chat head)
+  public static MongoCollection<Document> chatSeqs() {
+    return db().getCollection("chat_seqs");
+  }
+
+  // Per-user read positions (unread = head - readSeq)
+  public static MongoCollection<Document> readStates() {
+    return db().getCollection("read_states");
+  }
+
+  // Full-text search index segments (server.search)
+  public static MongoCollection<Document> searchSegments() {
+    return db().getCollection("search_segments");
+  }
+
+  // "Delete for me" tombstones (per user + chat seq set)
+  public static MongoCollection<Document> hiddenMessages() {
+    return db().getCollection("hidden_messages");
+  }
+
+  /** Drop an index replaced by a wider one (databases created by older versions). */
+  private static void dropIndexIfPresent(MongoCollection<Document> col, String name) {
+    for (Document ix : col.listIndexes()) {
+      if (name.equals(ix.getString("name"))) {
+        col.dropIndex(name);
+        System.out.println("🧹 Dropped superseded index " + col.getNamespace().getCollectionName() + "." + name);
+        return;
+      }
+    }
+  }
+
   /** Create indexes used by the app (idempotent). */
   private static void ensureIndexes() {
     // users.username unique
     users().createIndex(Indexes.ascending("username"), new IndexOptions().unique(true));
 
-    // broadcast: sort by time
-    broadcastMessages().createIndex(Indexes.ascending("ts"));
+    // broadcast: sort by time (seq orders messages of the same millisecond for history paging)
+    broadcastMessages().createIndex(Indexes.ascending("ts", "seq"));
+    dropIndexIfPresent(broadcastMessages(), "ts_1"); // superseded by ts_1_seq_1
 
     // private: conversationId + time
-    privateMessages().createIndex(Indexes.ascending("conversationId", "ts"));
+    privateMessages().createIndex(Indexes.ascending("conversationId", "ts", "seq"));
+    dropIndexIfPresent(privateMessages(), "conversationId_1_ts_1");
     privateMessages().createIndex(Indexes.ascending("receiver", "ts"));
 
     // groups: find groups by member quickly
@@ -85,13 +161,38 @@ public final class MongoManager {
     groups().createIndex(Indexes.ascending("name"));
 
     // group messages: load by groupId + time
-    groupMessages().createIndex(Indexes.ascending("groupId", "ts"));
+    groupMessages().createIndex(Indexes.ascending("groupId", "ts", "seq"));
+    dropIndexIfPresent(groupMessages(), "groupId_1_ts_1");
 
     // clear markers:
     // We'll store a stable unique "key" (e.g., "user|scope|id") so upsert is easy.
     chatClears().createIndex(Indexes.ascending("key"), new IndexOptions().unique(true));
     chatClears().createIndex(Indexes.ascending("user", "scope"));
     chatClears().createIndex(Indexes.ascending("clearedAt"));
+
+    // archive: page backwards through one chat's segments
+    messageArchive().createIndex(Indexes.ascending("chatType", "chatId", "lastTs"));
+
+    // inbox: drain one user's pending refs in time order
+    inbox().createIndex(Indexes.ascending("user", "ts"));
+
+    // chat_seqs: list a user's DM conversations
+    chatSeqs().createIndex(Indexes.ascending("members"));
+
+    // read_states: one doc per user+chat, loaded per user at login
+    readStates().createIndex(Indexes.ascending("key"), new IndexOptions().unique(true));
+    readStates().createIndex(Indexes.ascending("user"));
+
+    // seq lookups (search catch-up + hit lookup)
+    broadcastMessages().createIndex(Indexes.ascending("seq"));
+    privateMessages().createIndex(Indexes.ascending("conversationId", "seq"));
+    groupMessages().createIndex(Indexes.ascending("groupId", "seq"));
+
+    // search_segments: load one chat's segments in seq order
+    searchSegments().createIndex(Indexes.ascending("chatKey", "fromSeq"));
+
+    // hidden_messages: one doc per user + chat
+    hiddenMessages().createIndex(Indexes.ascending("key"), new IndexOptions().unique(true));
   }
 
   public static synchronized void close() {
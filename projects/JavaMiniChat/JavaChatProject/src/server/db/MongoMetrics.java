@@ -0,0 +1,208 @@
+package server.db;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+import server.metrics.Exposition;
+import server.metrics.Histogram;
+
+/**
+ * Driver event listener: connection pool usage + per-command latency.
+ *
+ * Registered by MongoManager on the client settings. Everything is counters
+ * (LongAdder / AtomicLong), so listener callbacks stay cheap on driver threads.
+ *
+ * Pool starvation shows up as waiting > 0 while checkedOut == maxSize,
+ * and as growing checkout wait times / checkout failures.
+ */
+public final class MongoMetrics implements ConnectionPoolListener, CommandListener {
+
+  public static final MongoMetrics INSTANCE = new MongoMetrics();
+
+  // ---- pool ----
+  private final AtomicLong maxPoolSize = new AtomicLong();
+  private final LongAdder open = new LongAdder();
+  private final LongAdder checkedOut = new LongAdder();
+  private final LongAdder waiting = new LongAdder();
+
+  private final LongAdder checkouts = new LongAdder();
+  private final LongAdder checkoutFailures = new LongAdder();
+  private final LongAdder checkoutWaitNanos = new LongAdder();
+  private final AtomicLong checkoutWaitMaxNanos = new AtomicLong();
+
+  // ---- commands ----
+  private final ConcurrentHashMap<String, CommandStats> commands = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService logger;
+
+  private MongoMetrics() {}
+
+  /** Per command name ("find", "insert", ...). */
+  public static final class CommandStats {
+    public final LongAdder count = new LongAdder();
+    public final LongAdder failures = new LongAdder();
+    public final LongAdder totalNanos = new LongAdder();
+    public final AtomicLong maxNanos = new AtomicLong();
+    public final Histogram latency = new Histogram();
+
+    void record(long nanos, boolean ok) {
+      count.increment();
+      if (!ok) failures.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+      latency.record(nanos);
+    }
+  }
+
+  // ---------------- ConnectionPoolListener ----------------
+
+  @Override
+  public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+    maxPoolSize.set(event.getSettings().getMaxSize());
+  }
+
+  @Override
+  public void connectionCreated(ConnectionCreatedEvent event) {
+    open.increment();
+  }
+
+  @Override
+  public void connectionClosed(ConnectionClosedEvent event) {
+    open.decrement();
+  }
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    waiting.increment();
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    waiting.decrement();
+    checkedOut.increment();
+    checkouts.increment();
+
+    long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    checkoutWaitNanos.add(nanos);
+    checkoutWaitMaxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    waiting.decrement();
+    checkoutFailures.increment();
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    checkedOut.decrement();
+  }
+
+  // ---------------- CommandListener ----------------
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    stats(event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS), true);
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    stats(event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS), false);
+  }
+
+  private CommandStats stats(String name) {
+    return commands.computeIfAbsent(name == null ? "?" : name, k -> new CommandStats());
+  }
+
+  // ---------------- Read side ----------------
+
+  public long maxPoolSize() { return maxPoolSize.get(); }
+  public long openConnections() { return open.sum(); }
+  public long checkedOutConnections() { return checkedOut.sum(); }
+  public long waitingForConnection() { return Math.max(0L, waiting.sum()); }
+  public long checkouts() { return checkouts.sum(); }
+  public long checkoutFailures() { return checkoutFailures.sum(); }
+  public long checkoutWaitNanosTotal() { return checkoutWaitNanos.sum(); }
+  public long checkoutWaitNanosMax() { return checkoutWaitMaxNanos.get(); }
+
+  /** Snapshot copy sorted by command name. */
+  public Map<String, CommandStats> commands() {
+    return new TreeMap<>(commands);
+  }
+
+  /** Pool state + per-command latency in Prometheus format (metrics endpoint). */
+  public void expose(Exposition out) {
+    out.gauge("mongo_pool_max", "Pool size limit", maxPoolSize());
+    out.gauge("mongo_pool_open", "Open connections", openConnections());
+    out.gauge("mongo_pool_in_use", "Connections checked out", checkedOutConnections());
+    out.gauge("mongo_pool_waiting", "Threads waiting for a connection", waitingForConnection());
+    out.counter("mongo_pool_checkout_failures_total", "Checkouts that timed out / failed", checkoutFailures());
+    out.family("mongo_pool_checkout_wait_seconds_total", "counter", "Time spent waiting for connections")
+        .sample("mongo_pool_checkout_wait_seconds_total", null, checkoutWaitNanosTotal() / 1e9);
+
+    out.family("mongo_command_duration_seconds", "histogram", "Driver command latency, per command");
+    commands().forEach((name, c) ->
+        out.histogram("mongo_command_duration_seconds", Exposition.label("command", name), c.latency.snapshot()));
+    out.family("mongo_command_failures_total", "counter", "Failed commands, per command");
+    commands().forEach((name, c) ->
+        out.sample("mongo_command_failures_total", Exposition.label("command", name), c.failures.sum()));
+  }
+
+  /** One-line human summary (used by the periodic log). */
+  public String summary() {
+    StringBuilder sb = new StringBuilder("mongo pool: open=").append(openConnections())
+        .append(" inUse=").append(checkedOutConnections()).append('/').append(maxPoolSize())
+        .append(" waiting=").append(waitingForConnection())
+        .append(" checkoutFail=").append(checkoutFailures());
+
+    long n = checkouts();
+    if (n > 0) {
+      sb.append(" waitAvg=").append(micros(checkoutWaitNanosTotal() / n)).append("us")
+          .append(" waitMax=").append(micros(checkoutWaitNanosMax())).append("us");
+    }
+
+    for (var e : commands().entrySet()) {
+      CommandStats c = e.getValue();
+      long cnt = c.count.sum();
+      if (cnt == 0) continue;
+      sb.append(" | ").append(e.getKey()).append(" n=").append(cnt)
+          .append(" avg=").append(micros(c.totalNanos.sum() / cnt)).append("us")
+          .append(" max=").append(micros(c.maxNanos.get())).append("us");
+      long f = c.failures.sum();
+      if (f > 0) sb.append(" fail=").append(f);
+    }
+    return sb.toString();
+  }
+
+  /** Print summary every `seconds` (<= 0 disables). */
+  public synchronized void startLogging(int seconds) {
+    if (seconds <= 0 || logger != null) return;
+    logger = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "mongo-metrics");
+      t.setDaemon(true);
+      return t;
+    });
+    logger.scheduleAtFixedRate(() -> System.out.println("📊 " + summary()), seconds, seconds, TimeUnit.SECONDS);
+  }
+
+  private static long micros(long nanos) {
+    return nanos / 1_000L;
+  }
+}
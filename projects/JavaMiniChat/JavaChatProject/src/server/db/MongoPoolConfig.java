@@ -0,0 +1,47 @@
+package server.db;
+
+/**
+ * Connection pool / timeout settings for MongoManager.
+ * Any value <= 0 keeps the driver default (or what the connection string says).
+ */
+public final class MongoPoolConfig {
+
+  public final int maxPoolSize;
+  public final int minPoolSize;
+  public final int maxWaitMillis;              // max time to wait for a pooled connection
+  public final int connectTimeoutMillis;
+  public final int readTimeoutMillis;          // socket read timeout
+  public final int serverSelectionTimeoutMillis;
+  public final int heartbeatMillis;
+
+  public MongoPoolConfig(int maxPoolSize, int minPoolSize, int maxWaitMillis,
+      int connectTimeoutMillis, int readTimeoutMillis,
+      int serverSelectionTimeoutMillis, int heartbeatMillis) {
+    this.maxPoolSize = maxPoolSize;
+    this.minPoolSize = minPoolSize;
+    this.maxWaitMillis = maxWaitMillis;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.serverSelectionTimeoutMillis = serverSelectionTimeoutMillis;
+    this.heartbeatMillis = heartbeatMillis;
+  }
+
+  /** Everything from the driver / connection string. */
+  public static MongoPoolConfig defaults() {
+    return new MongoPoolConfig(0, 0, 0, 0, 0, 0, 0);
+  }
+
+  @Override
+  public String toString() {
+    return "pool=" + show(minPoolSize) + ".." + show(maxPoolSize)
+        + ", wait=" + show(maxWaitMillis) + "ms"
+        + ", connect=" + show(connectTimeoutMillis) + "ms"
+        + ", read=" + show(readTimeoutMillis) + "ms"
+        + ", select=" + show(serverSelectionTimeoutMillis) + "ms"
+        + ", heartbeat=" + show(heartbeatMillis) + "ms";
+  }
+
+  private static String show(int v) {
+    return v > 0 ? String.valueOf(v) : "default";
+  }
+}
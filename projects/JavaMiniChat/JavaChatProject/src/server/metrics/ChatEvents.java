@@ -0,0 +1,139 @@
+package server.metrics;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events for chat operations, shown next to GC / lock / socket events in a recording.
+ *
+ * Off by default (@Enabled(false)): JfrRecording turns them on (CHAT_JFR) with one duration
+ * threshold, so only slow operations are written. Call sites check enabled() first, so with
+ * JFR off no event objects are created on the hot paths.
+ *
+ * Events with a duration begin where the operation starts and are committed where it ends,
+ * which may be another thread (pipeline stages, fan-out lanes): the hand-off between them
+ * is ordered by the executor.
+ */
+public final class ChatEvents {
+
+  private static volatile boolean enabled;
+
+  private ChatEvents() {}
+
+  /** Any chat event recorded? (cheap check before creating one) */
+  public static boolean enabled() {
+    return enabled;
+  }
+
+  static void setEnabled(boolean on) {
+    enabled = on;
+  }
+
+  @Name("chat.SessionAuth")
+  @Label("Session Auth")
+  @Description("First request of a connection: signup, login (PBKDF2) or resume (token)")
+  @Category({"Chat", "Session"})
+  @Enabled(false)
+  @Threshold("20 ms")
+  @StackTrace(false)
+  public static final class SessionAuth extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("User")
+    public String user;
+
+    @Label("Success")
+    public boolean ok;
+
+    @Label("Accept Wait")
+    @Description("Accepted connection waiting for its session thread")
+    @Timespan(Timespan.NANOSECONDS)
+    public long acceptWait;
+  }
+
+  @Name("chat.Request")
+  @Label("Chat Request")
+  @Description("One client request, read to done (pipeline wait included)")
+  @Category({"Chat", "Request"})
+  @Enabled(false)
+  @Threshold("20 ms")
+  @StackTrace(false)
+  public static final class Request extends Event {
+    @Label("Type")
+    public String type;
+
+    @Label("User")
+    public String user;
+
+    @Label("Request Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Failed")
+    public boolean failed;
+  }
+
+  @Name("chat.DbCall")
+  @Label("Repository Call")
+  @Description("One MongoDB repository call on a DB thread (run time; wait for the thread as a field)")
+  @Category({"Chat", "Database"})
+  @Enabled(false)
+  @Threshold("20 ms")
+  @StackTrace(false)
+  public static final class DbCall extends Event {
+    @Label("Operation")
+    public String op;
+
+    @Label("Queue Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    public long queueWait;
+
+    @Label("Failed")
+    public boolean failed;
+  }
+
+  @Name("chat.FanOut")
+  @Label("Fan-out")
+  @Description("One frame queued into every recipient's outbox (hand-off to the last lane done)")
+  @Category({"Chat", "Delivery"})
+  @Enabled(false)
+  @Threshold("20 ms")
+  @StackTrace(false)
+  public static final class FanOut extends Event {
+    @Label("Recipients")
+    public int recipients;
+
+    @Label("Lanes")
+    public int lanes;
+
+    @Label("Frame Size")
+    @DataAmount
+    public long bytes;
+  }
+
+  @Name("chat.SlowConsumer")
+  @Label("Slow Consumer")
+  @Description("A session's outbox overflowed: the client stopped reading")
+  @Category({"Chat", "Delivery"})
+  @Enabled(false)
+  @StackTrace(false)
+  public static final class SlowConsumer extends Event {
+    @Label("User")
+    public String user;
+
+    @Label("Queued Frames")
+    public int queued;
+
+    @Label("Parked")
+    @Description("The session was parked for a resume (resume buffer full)")
+    public boolean parked;
+  }
+}
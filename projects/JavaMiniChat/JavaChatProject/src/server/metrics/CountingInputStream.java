@@ -0,0 +1,37 @@
+package server.metrics;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Adds every byte read to a counter (one add per read call, reads stay buffered). */
+public final class CountingInputStream extends FilterInputStream {
+
+  private final LongAdder counter;
+
+  public CountingInputStream(InputStream in, LongAdder counter) {
+    super(in);
+    this.counter = counter;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b >= 0) counter.increment();
+    return b;
+  }
+
+  @Override
+  public int read(byte[] buf, int off, int len) throws IOException {
+    int n = in.read(buf, off, len);
+    if (n > 0) counter.add(n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = in.skip(n);
+    if (skipped > 0) counter.add(skipped);
+    return skipped;
+  }
+}
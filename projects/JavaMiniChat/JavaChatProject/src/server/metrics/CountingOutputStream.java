@@ -0,0 +1,29 @@
+package server.metrics;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Adds every byte written to a counter (one add per write call, writes stay buffered). */
+public final class CountingOutputStream extends FilterOutputStream {
+
+  private final LongAdder counter;
+
+  public CountingOutputStream(OutputStream out, LongAdder counter) {
+    super(out);
+    this.counter = counter;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    counter.increment();
+  }
+
+  // FilterOutputStream would write byte by byte
+  @Override
+  public void write(byte[] buf, int off, int len) throws IOException {
+    out.write(buf, off, len);
+    counter.add(len);
+  }
+}
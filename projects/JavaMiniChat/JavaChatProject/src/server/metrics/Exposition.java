@@ -0,0 +1,87 @@
+package server.metrics;
+
+/**
+ * Writer for the Prometheus text exposition format (version 0.0.4).
+ *
+ * One instance per scrape, writing into a StringBuilder the HTTP thread reuses. Durations
+ * are exported in seconds; histograms use one fixed set of bounds so series line up
+ * across scrapes and instances.
+ */
+public final class Exposition {
+
+  private static final String[] LE_SECONDS = {
+      "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10" };
+  private static final long[] LE_NANOS = new long[LE_SECONDS.length];
+  static {
+    for (int i = 0; i < LE_SECONDS.length; i++) LE_NANOS[i] = (long) (Double.parseDouble(LE_SECONDS[i]) * 1e9);
+  }
+
+  private final StringBuilder sb;
+
+  public Exposition(StringBuilder sb) {
+    this.sb = sb;
+  }
+
+  /** # HELP / # TYPE lines of one metric family (write once, before its samples). */
+  public Exposition family(String name, String type, String help) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    return this;
+  }
+
+  /** One sample; labels already rendered (see label()), null = none. */
+  public Exposition sample(String name, String labels, long value) {
+    name(name, labels);
+    sb.append(value).append('\n');
+    return this;
+  }
+
+  public Exposition sample(String name, String labels, double value) {
+    name(name, labels);
+    sb.append(Double.isFinite(value) ? Double.toString(value) : (value > 0 ? "+Inf" : Double.isNaN(value) ? "NaN" : "-Inf"))
+        .append('\n');
+    return this;
+  }
+
+  public Exposition gauge(String name, String help, long value) {
+    return family(name, "gauge", help).sample(name, null, value);
+  }
+
+  public Exposition counter(String name, String help, long value) {
+    return family(name, "counter", help).sample(name, null, value);
+  }
+
+  /** _bucket / _sum / _count samples of a duration histogram (family written by the caller). */
+  public Exposition histogram(String name, String labels, Histogram.Snapshot s) {
+    long[] cumulative = s.cumulativeCounts(LE_NANOS);
+    String prefix = labels == null ? "" : labels + ",";
+    for (int i = 0; i < LE_SECONDS.length; i++) {
+      sample(name + "_bucket", prefix + "le=\"" + LE_SECONDS[i] + "\"", cumulative[i]);
+    }
+    sample(name + "_bucket", prefix + "le=\"+Inf\"", s.count);
+    sample(name + "_sum", labels, s.sumNanos / 1e9);
+    sample(name + "_count", labels, s.count);
+    return this;
+  }
+
+  /** key="value" with the value escaped (\\, ", newline). */
+  public static String label(String key, String value) {
+    StringBuilder b = new StringBuilder(key.length() + value.length() + 3).append(key).append("=\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\' -> b.append("\\\\");
+        case '"' -> b.append("\\\"");
+        case '\n' -> b.append("\\n");
+        default -> b.append(c);
+      }
+    }
+    return b.append('"').toString();
+  }
+
+  private void name(String name, String labels) {
+    sb.append(name);
+    if (labels != null && !labels.isEmpty()) sb.append('{').append(labels).append('}');
+    sb.append(' ');
+  }
+}
@@ -0,0 +1,124 @@
+package server.metrics;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of durations in nanoseconds.
+ *
+ * Values are bucketed by power of two and every power is split into 8 linear sub-buckets,
+ * so a percentile read back is at most 12.5% above the recorded value, from 8 ns up to
+ * ~73 minutes (longer values land in the last bucket).
+ *
+ * Recording is a few shifts plus LongAdder adds (striped: threads recording the same
+ * histogram do not fight over one cache line). Reading walks all buckets and is meant for
+ * reports, not for the hot path.
+ */
+public final class Histogram {
+
+  private static final int SUB_BITS = 3;
+  private static final int SUB = 1 << SUB_BITS;
+  private static final int MAX_EXP = 42; // 2^42 ns ~ 73 min
+  private static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  public Histogram() {
+    for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+  }
+
+  public void record(long nanos) {
+    long v = Math.max(0L, nanos);
+    buckets[index(v)].increment();
+    count.increment();
+    sum.add(v);
+    if (v > max.get()) max.accumulateAndGet(v, Math::max);
+  }
+
+  /** Record the time since startNanos (a System.nanoTime() value). */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public long count() { return count.sum(); }
+  public long sumNanos() { return sum.sum(); }
+  public long maxNanos() { return max.get(); }
+
+  /** Consistent-enough copy for one report (buckets read once). */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      n += counts[i];
+    }
+    return new Snapshot(counts, n, sum.sum(), max.get());
+  }
+
+  /** Read side: percentiles, mean, max. */
+  public static final class Snapshot {
+    private final long[] counts;
+    public final long count;
+    public final long sumNanos;
+    public final long maxNanos;
+
+    Snapshot(long[] counts, long count, long sumNanos, long maxNanos) {
+      this.counts = counts;
+      this.count = count;
+      this.sumNanos = sumNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    /** q in [0, 1]; upper bound of the bucket holding that rank (never above max). */
+    public long percentile(double q) {
+      if (count == 0) return 0L;
+      long rank = (long) Math.ceil(Math.min(1.0, Math.max(0.0, q)) * count);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= Math.max(1L, rank)) return Math.min(upperBound(i), maxNanos);
+      }
+      return maxNanos;
+    }
+
+    public long meanNanos() {
+      return count == 0 ? 0L : sumNanos / count;
+    }
+
+    /**
+     * Cumulative counts at fixed bounds (ascending nanos), one pass over the buckets. A
+     * bucket counts under a bound only if it lies entirely below it.
+     */
+    public long[] cumulativeCounts(long[] boundsNanos) {
+      long[] out = new long[boundsNanos.length];
+      long cumulative = 0;
+      int b = 0;
+      for (int i = 0; i < counts.length && b < boundsNanos.length; i++) {
+        while (b < boundsNanos.length && upperBound(i) > boundsNanos[b]) out[b++] = cumulative;
+        cumulative += counts[i];
+      }
+      while (b < boundsNanos.length) out[b++] = cumulative;
+      return out;
+    }
+  }
+
+  // ---------------- Bucket math ----------------
+
+  static int index(long v) {
+    if (v < SUB) return (int) v;
+    int exp = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXP);
+    if (exp == MAX_EXP && (v >>> MAX_EXP) > 1) return BUCKETS - 1;
+    int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+    return (exp - SUB_BITS + 1) * SUB + sub;
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB) return index;
+    int exp = index / SUB - 1 + SUB_BITS;
+    int sub = index % SUB;
+    long width = 1L << (exp - SUB_BITS);
+    return ((long) (SUB + sub) << (exp - SUB_BITS)) + width - 1;
+  }
+}
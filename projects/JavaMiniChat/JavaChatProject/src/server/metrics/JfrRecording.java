@@ -0,0 +1,70 @@
+package server.metrics;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Continuous in-process JFR recording (CHAT_JFR): the JVM's "default" settings (the
+ * low-overhead profile: GC, locks, I/O, allocation samples) plus the chat events of
+ * ChatEvents, written only when they take at least the configured threshold.
+ *
+ * Kept on disk as a rolling window (max age / max size); dumped to a file at shutdown,
+ * and at any time with: jcmd <pid> JFR.dump name=chat filename=now.jfr
+ */
+public final class JfrRecording {
+
+  private static final String NAME = "chat";
+  private static final String[] TIMED = {
+      "chat.SessionAuth", "chat.Request", "chat.DbCall", "chat.FanOut" };
+
+  private static Recording recording;
+  private static Path dumpFile;
+
+  private JfrRecording() {}
+
+  /** thresholdMs: shortest chat operation recorded; dump: file written at shutdown (blank = none). */
+  public static synchronized void start(int thresholdMs, int maxAgeMin, int maxSizeMb, String dump) {
+    if (recording != null) return;
+    try {
+      Recording r = new Recording(Configuration.getConfiguration("default"));
+      r.setName(NAME);
+      r.setToDisk(true);
+      if (maxAgeMin > 0) r.setMaxAge(Duration.ofMinutes(maxAgeMin));
+      if (maxSizeMb > 0) r.setMaxSize(maxSizeMb * 1024L * 1024L);
+
+      Duration threshold = Duration.ofMillis(Math.max(0, thresholdMs));
+      for (String event : TIMED) r.enable(event).withThreshold(threshold);
+      r.enable("chat.SlowConsumer");
+
+      r.start();
+      recording = r;
+      dumpFile = dump == null || dump.isBlank() ? null : Path.of(dump);
+      ChatEvents.setEnabled(true);
+      System.out.println("🎞️ JFR recording '" + NAME + "' started (chat events >= " + thresholdMs + "ms, max age "
+          + maxAgeMin + "min, max size " + maxSizeMb + "MB" + (dumpFile == null ? "" : ", dump to " + dumpFile) + ")");
+    } catch (Exception ex) {
+      // fail-open: the server runs without a recording (e.g. JFR not available in this runtime)
+      System.err.println("⚠️ JFR recording not started: " + ex.getMessage());
+    }
+  }
+
+  /** Dump (if configured) and close the recording. */
+  public static synchronized void stop() {
+    Recording r = recording;
+    recording = null;
+    if (r == null) return;
+    ChatEvents.setEnabled(false);
+    try {
+      if (dumpFile != null) {
+        r.dump(dumpFile);
+        System.out.println("🎞️ JFR recording written to " + dumpFile.toAbsolutePath());
+      }
+    } catch (Exception ex) {
+      System.err.println("⚠️ JFR dump failed: " + ex.getMessage());
+    } finally {
+      r.close();
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package server.metrics;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Server-wide metrics registry: latency histograms, counters and gauges.
+ *
+ * Recorded by:
+ * - ClientHandler: one histogram per request type (read -> response sent, pipeline wait
+ *   included), request errors, chat messages in, bytes in/out of client sockets, the wait
+ *   of an accepted connection for its thread
+ * - DbExecutor: one histogram per repository call (run time) + the wait for a DB thread
+ * - FanOut: time a shard waits for its lane, time to queue it into the outboxes
+ *
+ * Read by the periodic log (summary) and by MetricsHttp (expose, Prometheus format);
+ * collectors add families this registry does not hold itself (sessions, Mongo pool).
+ *
+ * Histograms are created on first use and then looked up in a ConcurrentHashMap (a plain
+ * get on the hot path); names come from the server's own code, except request types,
+ * which are capped so a client inventing types cannot grow the registry.
+ */
+public final class Metrics {
+
+  private static final int MAX_NAMES = 128;
+  private static final String OTHER = "other";
+
+  private static final ConcurrentHashMap<String, Histogram> REQUESTS = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, Histogram> DB = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, String> GAUGE_HELP = new ConcurrentHashMap<>();
+  private static final List<Consumer<Exposition>> COLLECTORS = new CopyOnWriteArrayList<>();
+
+  public static final Histogram ACCEPT_WAIT = new Histogram();
+  public static final Histogram DB_WAIT = new Histogram();
+  public static final Histogram FANOUT_LAG = new Histogram();
+  public static final Histogram FANOUT_SHARD = new Histogram();
+
+  public static final LongAdder REQUEST_ERRORS = new LongAdder();
+  public static final LongAdder DB_ERRORS = new LongAdder();
+  public static final LongAdder MESSAGES_IN = new LongAdder();
+  public static final LongAdder FANOUT_RECIPIENTS = new LongAdder();
+  public static final LongAdder BYTES_IN = new LongAdder();
+  public static final LongAdder BYTES_OUT = new LongAdder();
+  public static final LongAdder IN_FLIGHT = new LongAdder();
+
+  private static ScheduledExecutorService logger;
+  // previous report, for per-second rates
+  private static long lastAt;
+  private static long lastMessages;
+  private static long lastBytesIn;
+  private static long lastBytesOut;
+
+  private Metrics() {}
+
+  /** Latency of one request type (unknown types beyond the cap share "other"). */
+  public static Histogram request(String type) {
+    return named(REQUESTS, type);
+  }
+
+  /** Run time of one repository call. */
+  public static Histogram db(String op) {
+    return named(DB, op);
+  }
+
+  /** Value read at report time (open sessions, queue sizes, ...); exported as chat_<name>. */
+  public static void gauge(String name, String help, LongSupplier value) {
+    if (name == null || value == null) return;
+    GAUGES.put(name, value);
+    GAUGE_HELP.put(name, help == null ? name : help);
+  }
+
+  /** Writes extra metric families on every scrape (runs on the HTTP thread). */
+  public static void collector(Consumer<Exposition> c) {
+    if (c != null) COLLECTORS.add(c);
+  }
+
+  private static Histogram named(ConcurrentHashMap<String, Histogram> map, String name) {
+    String key = name == null ? OTHER : name;
+    Histogram h = map.get(key);
+    if (h != null) return h;
+    if (map.size() >= MAX_NAMES) key = OTHER;
+    return map.computeIfAbsent(key, k -> new Histogram());
+  }
+
+  // ---------------- Read side ----------------
+
+  public static Map<String, Histogram> requests() {
+    return new TreeMap<>(REQUESTS);
+  }
+
+  public static Map<String, Histogram> dbCalls() {
+    return new TreeMap<>(DB);
+  }
+
+  /** Current gauge values, sorted by name (a failing gauge reads -1). */
+  public static Map<String, Long> gauges() {
+    Map<String, Long> out = new TreeMap<>();
+    GAUGES.forEach((name, g) -> {
+      long v;
+      try {
+        v = g.getAsLong();
+      } catch (RuntimeException ex) {
+        v = -1;
+      }
+      out.put(name, v);
+    });
+    return out;
+  }
+
+  /** Everything in Prometheus text format (used by MetricsHttp). */
+  public static void expose(Exposition out) {
+    out.family("chat_request_duration_seconds", "histogram", "Client request latency, read to done, per type");
+    requests().forEach((type, h) -> out.histogram("chat_request_duration_seconds", Exposition.label("type", type), h.snapshot()));
+    out.family("chat_db_call_duration_seconds", "histogram", "Repository call run time, per call");
+    dbCalls().forEach((op, h) -> out.histogram("chat_db_call_duration_seconds", Exposition.label("op", op), h.snapshot()));
+
+    out.family("chat_accept_wait_seconds", "histogram", "Accepted connection waiting for its session thread (before auth is read)");
+    out.histogram("chat_accept_wait_seconds", null, ACCEPT_WAIT.snapshot());
+    out.family("chat_db_wait_seconds", "histogram", "Wait for a DB thread");
+    out.histogram("chat_db_wait_seconds", null, DB_WAIT.snapshot());
+    out.family("chat_fanout_lag_seconds", "histogram", "Wait of a fan-out shard for its lane");
+    out.histogram("chat_fanout_lag_seconds", null, FANOUT_LAG.snapshot());
+    out.family("chat_fanout_shard_seconds", "histogram", "Time to queue one fan-out shard into its outboxes");
+    out.histogram("chat_fanout_shard_seconds", null, FANOUT_SHARD.snapshot());
+
+    out.counter("chat_fanout_recipients_total", "Outboxes reached by fan-outs", FANOUT_RECIPIENTS.sum());
+    out.counter("chat_messages_in_total", "Chat messages received (broadcast, private, group)", MESSAGES_IN.sum());
+    out.counter("chat_request_errors_total", "Requests that failed with a server error", REQUEST_ERRORS.sum());
+    out.counter("chat_db_errors_total", "Repository calls that threw", DB_ERRORS.sum());
+    out.counter("chat_bytes_in_total", "Bytes read from client sockets", BYTES_IN.sum());
+    out.counter("chat_bytes_out_total", "Bytes written to client sockets", BYTES_OUT.sum());
+    out.gauge("chat_requests_in_flight", "Requests read and not done yet", Math.max(0L, IN_FLIGHT.sum()));
+
+    gauges().forEach((name, v) -> out.gauge("chat_" + name, GAUGE_HELP.getOrDefault(name, name), v));
+    for (Consumer<Exposition> c : COLLECTORS) {
+      try {
+        c.accept(out);
+      } catch (RuntimeException ex) {
+        System.err.println("⚠️ Metrics collector failed: " + ex.getMessage());
+      }
+    }
+  }
+
+  /** Multi-line human report (used by the periodic log). */
+  public static synchronized String summary() {
+    long now = System.currentTimeMillis();
+    long messages = MESSAGES_IN.sum();
+    long in = BYTES_IN.sum();
+    long out = BYTES_OUT.sum();
+    double secs = lastAt == 0 ? 0 : (now - lastAt) / 1000.0;
+
+    StringBuilder sb = new StringBuilder("traffic:");
+    if (secs > 0) {
+      sb.append(" msgs/s=").append(Math.round((messages - lastMessages) / secs))
+          .append(" in=").append(Math.round((in - lastBytesIn) / secs / 1024)).append("KB/s")
+          .append(" out=").append(Math.round((out - lastBytesOut) / secs / 1024)).append("KB/s");
+    }
+    sb.append(" msgs=").append(messages)
+        .append(" inflight=").append(Math.max(0L, IN_FLIGHT.sum()))
+        .append(" errors=").append(REQUEST_ERRORS.sum());
+    gauges().forEach((name, v) -> sb.append(' ').append(name).append('=').append(v));
+    lastAt = now;
+    lastMessages = messages;
+    lastBytesIn = in;
+    lastBytesOut = out;
+
+    appendAll(sb, "requests", requests());
+    appendAll(sb, "db", dbCalls());
+    sb.append("\n  db errors=").append(DB_ERRORS.sum()).append(" wait ");
+    append(sb, DB_WAIT.snapshot());
+    sb.append("\n  fanout recipients=").append(FANOUT_RECIPIENTS.sum()).append(" lag ");
+    append(sb, FANOUT_LAG.snapshot());
+    sb.append(" | shard ");
+    append(sb, FANOUT_SHARD.snapshot());
+    return sb.toString();
+  }
+
+  private static void appendAll(StringBuilder sb, String title, Map<String, Histogram> all) {
+    for (Map.Entry<String, Histogram> e : all.entrySet()) {
+      Histogram.Snapshot s = e.getValue().snapshot();
+      if (s.count == 0) continue;
+      sb.append("\n  ").append(title).append(' ').append(e.getKey()).append(' ');
+      append(sb, s);
+    }
+  }
+
+  private static void append(StringBuilder sb, Histogram.Snapshot s) {
+    sb.append("n=").append(s.count)
+        .append(" p50=").append(ms(s.percentile(0.50)))
+        .append(" p99=").append(ms(s.percentile(0.99)))
+        .append(" p999=").append(ms(s.percentile(0.999)))
+        .append(" max=").append(ms(s.maxNanos));
+  }
+
+  /** Nanos as milliseconds, 2 decimals below 10 ms. */
+  static String ms(long nanos) {
+    double ms = nanos / 1_000_000.0;
+    return ms < 10 ? String.format("%.2fms", ms) : Math.round(ms) + "ms";
+  }
+
+  /** Print summary every `seconds` (<= 0 disables). */
+  public static synchronized void startLogging(int seconds) {
+    if (seconds <= 0 || logger != null) return;
+    summary(); // starts the rate window
+    logger = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "chat-metrics");
+      t.setDaemon(true);
+      return t;
+    });
+    logger.scheduleAtFixedRate(() -> System.out.println("📈 " + summary()), seconds, seconds, TimeUnit.SECONDS);
+  }
+}
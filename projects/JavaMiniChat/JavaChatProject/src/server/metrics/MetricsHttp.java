@@ -0,0 +1,118 @@
+package server.metrics;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Optional HTTP endpoint (JDK com.sun.net.httpserver, no extra dependency):
+ * - GET /metrics  Prometheus text format: everything in Metrics (request / DB / fan-out
+ *                 histograms, counters, gauges, collectors) plus JVM heap / GC / threads
+ * - GET /healthz  200 while the process answers (liveness)
+ * - GET /readyz   200 while the readiness check passes, else 503 (load balancer)
+ *
+ * All requests run on one daemon thread: scrapes are serialized, reuse one buffer and
+ * never touch a session, writer or DB thread. The hot path only pays for the LongAdder
+ * adds it already does; the reading (bucket sums, collectors) happens here.
+ */
+public final class MetricsHttp {
+
+  private static final String TEXT_FORMAT = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static HttpServer http;
+  private static volatile BooleanSupplier readiness = () -> true;
+  private static final StringBuilder BUF = new StringBuilder(64 * 1024);
+
+  private MetricsHttp() {}
+
+  /** Listen on port (<= 0 disables); ready decides /readyz. */
+  public static synchronized void start(int port, BooleanSupplier ready) {
+    if (port <= 0 || http != null) return;
+    if (ready != null) readiness = ready;
+    try {
+      HttpServer s = HttpServer.create(new InetSocketAddress(port), 16);
+      s.setExecutor(Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "metrics-http");
+        t.setDaemon(true);
+        return t;
+      }));
+      s.createContext("/metrics", MetricsHttp::metrics);
+      s.createContext("/healthz", ex -> respond(ex, 200, "ok\n"));
+      s.createContext("/readyz", MetricsHttp::ready);
+      s.start();
+      http = s;
+      System.out.println("📈 Metrics on http://0.0.0.0:" + port + "/metrics (+ /healthz, /readyz)");
+    } catch (IOException ex) {
+      System.err.println("❌ Metrics endpoint failed to start: " + ex.getMessage());
+    }
+  }
+
+  public static synchronized void stop() {
+    if (http != null) http.stop(0);
+    http = null;
+  }
+
+  private static void ready(HttpExchange ex) throws IOException {
+    boolean ok;
+    try {
+      ok = readiness.getAsBoolean();
+    } catch (RuntimeException e) {
+      ok = false;
+    }
+    respond(ex, ok ? 200 : 503, ok ? "ready\n" : "not ready\n");
+  }
+
+  private static void metrics(HttpExchange ex) throws IOException {
+    BUF.setLength(0);
+    Exposition out = new Exposition(BUF);
+    Metrics.expose(out);
+    jvm(out);
+    send(ex, 200, TEXT_FORMAT, BUF.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void jvm(Exposition out) {
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    out.gauge("jvm_heap_used_bytes", "Heap in use", heap.getUsed());
+    out.gauge("jvm_heap_committed_bytes", "Heap committed by the JVM", heap.getCommitted());
+    out.gauge("jvm_heap_max_bytes", "Heap limit (-1 = none)", heap.getMax());
+
+    out.family("jvm_gc_collections_total", "counter", "GC runs per collector");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      out.sample("jvm_gc_collections_total", Exposition.label("gc", gc.getName()), Math.max(0L, gc.getCollectionCount()));
+    out.family("jvm_gc_seconds_total", "counter", "Time spent in GC per collector");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      out.sample("jvm_gc_seconds_total", Exposition.label("gc", gc.getName()), Math.max(0L, gc.getCollectionTime()) / 1000.0);
+
+    out.gauge("jvm_threads", "Live threads", ManagementFactory.getThreadMXBean().getThreadCount());
+    out.gauge("process_uptime_seconds", "Time since the JVM started", ManagementFactory.getRuntimeMXBean().getUptime() / 1000);
+  }
+
+  private static void respond(HttpExchange ex, int code, String text) throws IOException {
+    send(ex, code, "text/plain; charset=utf-8", text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void send(HttpExchange ex, int code, String contentType, byte[] body) throws IOException {
+    try (ex) {
+      if (!"GET".equals(ex.getRequestMethod()) && !"HEAD".equals(ex.getRequestMethod())) {
+        ex.sendResponseHeaders(405, -1);
+        return;
+      }
+      ex.getResponseHeaders().set("Content-Type", contentType);
+      boolean head = "HEAD".equals(ex.getRequestMethod());
+      ex.sendResponseHeaders(code, head ? -1 : body.length);
+      if (!head) {
+        try (OutputStream os = ex.getResponseBody()) {
+          os.write(body);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package server.net;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import common.Protocol;
+import server.db.DbExecutor;
+import server.search.SearchIndex;
+import server.security.SessionTokens;
+
+/**
+ * Operator requests over the chat protocol (admin {action}).
+ *
+ * Only users listed in CHAT_ADMIN_USERS may send them; everyone else gets "Not allowed".
+ * Runs in the session's pipeline like any other request.
+ *
+ * Actions:
+ * - traces {limit?}: recent slow message lifecycles, newest first + per-stage percentiles (MessageTrace)
+ * - stats {limit?}: online sessions of this node (queue depth, bytes sent, last activity,
+ *   requests), top talkers, cache hit ratios and the slowest recent requests
+ * - kick {user, reason?}: end a session on this node; its session tokens stop working here (no resume)
+ * - flush_caches: drop fan-out snapshots and in-memory search indexes (persisted first)
+ *
+ * stats never stops the server: it walks the ONLINE map (weakly consistent) and reads
+ * lock-free counters, so the numbers of different sessions are not from one instant.
+ */
+final class Admin {
+
+  private static final int MAX_TRACES = 200;
+  private static final int MAX_SESSIONS = 1000;
+  private static final int TOP_TALKERS = 10;
+  private static final int SLOWEST = 20;
+
+  private static volatile Set<String> admins = Set.of();
+
+  private Admin() {}
+
+  /** csv: comma-separated usernames (empty = admin requests disabled). */
+  static synchronized void configure(String csv) {
+    Set<String> s = new HashSet<>();
+    if (csv != null) {
+      for (String u : csv.split(",")) {
+        if (!u.isBlank()) s.add(u.trim());
+      }
+    }
+    admins = Set.copyOf(s);
+    if (!admins.isEmpty()) System.out.println("🛠️ Admin requests enabled for " + admins.size() + " user(s)");
+  }
+
+  static boolean allowed(String user) {
+    return user != null && admins.contains(user);
+  }
+
+  /** Answer for one admin request of `user` (completes on a DB thread when it writes). */
+  static CompletableFuture<JsonObject> handle(String user, JsonObject req) {
+    String action = Protocol.getString(req, Protocol.ACTION);
+    if (!allowed(user) || action == null) return done(Protocol.adminFail(action, "Not allowed"));
+
+    switch (action) {
+      case "traces" -> {
+        int limit = (int) Math.min(MAX_TRACES, Math.max(1L, Protocol.getLong(req, Protocol.LIMIT, 50L)));
+        return done(Protocol.adminResult(action, MessageTrace.dump(limit)));
+      }
+      case "stats" -> {
+        int limit = (int) Math.min(MAX_SESSIONS, Math.max(1L, Protocol.getLong(req, Protocol.LIMIT, 100L)));
+        return done(Protocol.adminResult(action, stats(limit)));
+      }
+      case "kick" -> {
+        return done(kick(user, req));
+      }
+      case "flush_caches" -> {
+        // search indexes write their new segments first: MongoDB, so not on the reader thread
+        return DbExecutor.supply("admin.flushCaches", () -> {
+          JsonObject o = new JsonObject();
+          o.addProperty("snapshots", Sessions.invalidate());
+          o.addProperty("searchChats", SearchIndex.evictAll());
+          System.out.println("🛠️ Caches flushed by " + user + ": " + o);
+          return Protocol.adminResult(action, o);
+        });
+      }
+      default -> {
+        return done(Protocol.adminFail(action, "Unknown action: " + action));
+      }
+    }
+  }
+
+  private static CompletableFuture<JsonObject> done(JsonObject o) {
+    return CompletableFuture.completedFuture(o);
+  }
+
+  // ---------------- stats ----------------
+
+  private static JsonObject stats(int limit) {
+    long now = System.currentTimeMillis();
+    // read each session once: counters keep moving, sorting must not see them change
+    List<JsonObject> sessions = new ArrayList<>();
+    long queued = 0;
+    for (ClientHandler h : ClientHandler.online()) {
+      JsonObject s = session(h, now);
+      sessions.add(s);
+      queued += s.get("queued").getAsInt();
+    }
+
+    // deepest queues first: those are the sessions worth looking at
+    sessions.sort(Comparator.comparingLong((JsonObject s) -> s.get("queued").getAsLong()).reversed());
+    JsonArray list = new JsonArray();
+    for (JsonObject s : sessions.subList(0, Math.min(limit, sessions.size()))) list.add(s);
+
+    sessions.sort(Comparator.comparingLong((JsonObject s) -> s.get("messages").getAsLong()).reversed());
+    JsonArray talkers = new JsonArray();
+    for (JsonObject s : sessions.subList(0, Math.min(TOP_TALKERS, sessions.size()))) {
+      if (s.get("messages").getAsLong() == 0) break;
+      JsonObject t = new JsonObject();
+      t.addProperty("user", s.get("user").getAsString());
+      t.addProperty("messages", s.get("messages").getAsLong());
+      t.addProperty("bytesOut", s.get("bytesOut").getAsLong());
+      talkers.add(t);
+    }
+
+    JsonObject caches = new JsonObject();
+    caches.add("fanoutSnapshots", cache(Sessions.snapshotHits(), Sessions.snapshotMisses(), Sessions.cachedSnapshots()));
+    caches.add("searchIndex", cache(SearchIndex.cacheHits(), SearchIndex.cacheMisses(), SearchIndex.cachedChats()));
+
+    JsonObject o = new JsonObject();
+    o.addProperty("at", now);
+    o.addProperty("online", sessions.size());
+    o.addProperty("queuedFrames", queued);
+    o.addProperty("dbQueued", DbExecutor.queued());
+    o.add("sessions", list);
+    o.add("topTalkers", talkers);
+    o.add("caches", caches);
+    o.addProperty("slowMs", SlowRequests.minMs());
+    o.add("slowest", SlowRequests.slowest(SLOWEST));
+    return o;
+  }
+
+  private static JsonObject session(ClientHandler h, long now) {
+    JsonObject s = new JsonObject();
+    s.addProperty("user", h.username());
+    s.addProperty("loginAt", h.loginAt());
+    long last = h.lastReadAt();
+    s.addProperty("lastActivity", last);
+    s.addProperty("idleMs", Math.max(0L, now - last));
+    Outbox box = h.outbox();
+    s.addProperty("queued", box == null ? 0 : box.queued());
+    s.addProperty("inFlight", h.inFlight());
+    s.addProperty("bytesOut", h.bytesOut());
+    s.addProperty("requests", h.requests());
+    s.addProperty("messages", h.messages());
+    return s;
+  }
+
+  private static JsonObject cache(long hits, long misses, int size) {
+    JsonObject c = new JsonObject();
+    c.addProperty("hits", hits);
+    c.addProperty("misses", misses);
+    c.addProperty("hitRatio", hits + misses == 0 ? 0.0 : Math.round(hits * 1000.0 / (hits + misses)) / 1000.0);
+    c.addProperty("size", size);
+    return c;
+  }
+
+  // ---------------- kick ----------------
+
+  private static JsonObject kick(String admin, JsonObject req) {
+    String target = Protocol.getString(req, Protocol.USER);
+    if (target == null || target.isBlank()) return Protocol.adminFail("kick", "Missing 'user'");
+
+    ClientHandler h = ClientHandler.local(target.trim());
+    if (h == null) return Protocol.adminFail("kick", "Not online on this node: " + target);
+
+    String reason = Protocol.getString(req, "reason");
+    String message = reason == null || reason.isBlank() ? "Disconnected by an administrator" : reason.trim();
+    // no resume: the session's token (and any older one) stops working here now
+    SessionTokens.revoke(h.username());
+    // kicking waits for the session's pipeline (maybe this one): not on this thread
+    CompletableFuture.runAsync(() -> h.kick(message));
+    System.out.println("🛠️ " + admin + " kicked " + target + ": " + message);
+
+    JsonObject o = new JsonObject();
+    o.addProperty(Protocol.USER, h.username());
+    return Protocol.adminResult("kick", o);
+  }
+}
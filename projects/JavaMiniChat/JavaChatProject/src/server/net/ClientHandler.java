@@ -1,11 +1,24 @@
 package server.net;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -14,15 +27,23 @@ import com.google.gson.JsonObject;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 
-import com.mongodb.client.model.Filters;
-
 import common.JsonUtil;
 import common.Protocol;
-import server.db.MongoManager;
-import server.repo.ClearMarkerRepository;
-import server.repo.GroupRepository;
-import server.repo.MessageRepository;
+import server.repo.AsyncRepository;
+import server.repo.ChatRef;
+import server.repo.HiddenRepository;
+import server.repo.InboxRepository;
+import server.repo.ReadStateRepository;
+import server.repo.SavedMessage;
+import server.repo.SequenceRepository;
 import server.repo.UserRepository;
+import server.metrics.ChatEvents;
+import server.metrics.CountingInputStream;
+import server.metrics.CountingOutputStream;
+import server.metrics.Histogram;
+import server.metrics.Metrics;
+import server.search.SearchResult;
+import server.security.SessionTokens;
 
 /**
  * One connected client session (server-side).
@@ -33,6 +54,23 @@ import server.repo.UserRepository;
  * - users list + online list (based on ONLINE sessions)
  * - broadcast/private/group messaging + history
  * - typing indicator
+ * - delivered/read receipts (high-water marks, coalesced by ReceiptAggregator)
+ * - heartbeat ping/pong; sessions idle past the timeout are reaped (see Heartbeat)
+ * - graceful drain on shutdown (see Drain)
+ * - resumable sessions: auth ok carries a signed token; a connection that drops is parked
+ *   for a grace period and taken over by resume {token} with its missed frames (see Resume)
+ * - cluster mode: users on other nodes are reached through ClusterRoute (ONLINE is
+ *   this node only; the online list shown to clients covers the whole cluster)
+ *
+ * Threading:
+ * - the session thread only reads/parses requests
+ * - writes go through this session's Outbox (never block the caller); group and broadcast
+ *   messages are serialized once and fanned out by FanOut over pre-resolved Sessions
+ * - DB work goes through AsyncRepository (CompletableFuture on DbExecutor threads)
+ * - requests of one session are chained so responses keep request order
+ *
+ * Metrics (server.metrics.Metrics): latency per request type from read to done, request
+ * errors, chat messages in, bytes in/out of the socket.
  *
  * Clear-for-me:
  * - Client sends: {type:"clear_chat", scope:"broadcast|private|group|all",
@@ -43,6 +81,8 @@ public class ClientHandler implements Runnable {
 
   // Online sessions: username -> handler
   private static final ConcurrentHashMap<String, ClientHandler> ONLINE = new ConcurrentHashMap<>();
+  // Every open connection, logged in or not (drain)
+  private static final Set<ClientHandler> OPEN = ConcurrentHashMap.newKeySet();
 
   private static final int HISTORY_LIMIT = 500;
 
@@ -51,15 +91,45 @@ public class ClientHandler implements Runnable {
   private static final int MAX_PASS = 200;
   private static final int MAX_CONTENT = 2000;
   private static final int MAX_GROUP_NAME = 60;
-  private static final int MAX_GROUP_MEMBERS = 100;
+  private static final int MAX_GROUP_MEMBERS = 10_000;
+  private static final long CLOSE_DRAIN_MS = 500;
+  private static final long PIPELINE_DRAIN_MS = 5000;
+  private static final int MAX_QUERY = 200;
+  private static final int MAX_SEARCH_LIMIT = 50;
 
   private final Socket socket;
-  private PrintWriter out;
+  private final long acceptedAt = System.nanoTime(); // created on the accept thread
+  private long acceptWait;
+  private Outbox outbox;
   private BufferedReader in;
 
-  private final Object sendLock = new Object();
+  private volatile String username; // set after auth success (read by the reaper thread)
+  private volatile long loginAt;
+
+  // Liveness (written by the reader thread, read by the reaper thread)
+  private volatile long lastReadAt = System.currentTimeMillis();
+  private volatile long pingSentAt; // 0 = no ping outstanding
+
+  // Resume: this connection's writer (a resumed session moves its Outbox onto it)
+  private BufferedWriter writer;
+  private final AtomicBoolean parked = new AtomicBoolean();
+  private volatile boolean leaving; // exit / kicked / reaped / slow consumer / closed by us: never parked
+  private volatile boolean readerDone;
+  private volatile long tokenIssuedAt;
+
+  // Per-session request pipeline (only touched by this session's reader thread)
+  private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+  private static final int MAX_IN_FLIGHT = 64;
+  private CompletableFuture<Void> pipeline = DONE;
+  private final AtomicInteger inFlight = new AtomicInteger();
 
-  private String username; // set after auth success
+  // Admin "stats": lock-free, read while the session runs
+  private final LongAdder bytesOut = new LongAdder();
+  private volatile long requests; // only written by the reader thread
+  private volatile long messages; // chat messages sent by this user
+
+  // At most one transcript export per session
+  private volatile ExportStream export;
 
   public ClientHandler(Socket socket) {
     this.socket = socket;
@@ -67,18 +137,26 @@ public class ClientHandler implements Runnable {
 
   @Override
   public void run() {
+    acceptWait = System.nanoTime() - acceptedAt;
+    Metrics.ACCEPT_WAIT.record(acceptWait);
+    SessionMetrics.INSTANCE.sessionOpened();
+    OPEN.add(this);
     try {
-      in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-      out = new PrintWriter(socket.getOutputStream(), true);
-
-      // First message MUST be signup/login JSON
-      JsonObject first = JsonUtil.readObject(in);
+      in = new BufferedReader(new InputStreamReader(new CountingInputStream(socket.getInputStream(), Metrics.BYTES_IN)));
+      writer = new BufferedWriter(new OutputStreamWriter(new CountingOutputStream(
+          new CountingOutputStream(socket.getOutputStream(), Metrics.BYTES_OUT), bytesOut)));
+      outbox = new Outbox(writer, this::onSlowConsumer);
+      Heartbeat.watch(this);
+
+      // First message MUST be signup/login/resume JSON
+      JsonObject first = readFrame();
       if (!handleAuth(first))
         return;
 
-      // Main loop
+      // Main loop: this thread only reads and parses; each request is chained onto
+      // this session's pipeline and completes on DB threads without blocking here.
       while (true) {
-        JsonObject req = JsonUtil.readObject(in);
+        JsonObject req = readFrame();
         if (req == null)
           break;
 
@@ -88,240 +166,732 @@ public class ClientHandler implements Runnable {
           continue;
         }
 
-        switch (type) {
-          case Protocol.EXIT -> {
-            return;
-          }
+        if (Protocol.EXIT.equals(type)) {
+          leaving = true;
+          return;
+        }
 
-          case Protocol.GET_USERS -> sendUserListToMe();
+        // heartbeats bypass the pipeline: a busy pipeline must not look like a dead client
+        if (Protocol.PING.equals(type) || Protocol.PONG.equals(type)) {
+          handleHeartbeat(type, req);
+          continue;
+        }
 
-          case Protocol.GET_BROADCAST_HISTORY -> {
-            // IMPORTANT: filtered by clear markers
-            send(Protocol.broadcastHistory(
-                MessageRepository.loadBroadcastHistoryForUser(username, HISTORY_LIMIT)));
-          }
+        // export credits bypass the pipeline: the export itself may be waiting for them
+        if (Protocol.EXPORT_ACK.equals(type) || Protocol.EXPORT_CANCEL.equals(type)) {
+          handleExportControl(type, req);
+          continue;
+        }
 
-          case Protocol.GET_PRIVATE_HISTORY -> {
-            String with = cleanUsername(Protocol.getString(req, Protocol.WITH));
-            if (with == null) {
-              send(Protocol.error("Missing/invalid 'with' username"));
-              break;
-            }
+        enqueue(type, req);
+      }
+    } catch (Exception e) {
+      // socket closed on our side (reaped / kicked / slow consumer): already logged there
+      if (!socket.isClosed()) {
+        System.err.println("ClientHandler error: " + e.getMessage());
+        e.printStackTrace();
+      }
+    } finally {
+      if (!park())
+        cleanup();
+      readerDone = true;
+    }
+  }
 
-            // IMPORTANT: filtered by clear markers (for this user)
-            send(Protocol.privateHistory(with,
-                MessageRepository.loadPrivateHistoryForUser(username, with, HISTORY_LIMIT)));
+  /**
+   * Append one request to this session's pipeline.
+   * Requests of one session run strictly in order; if too many are in flight the
+   * reader waits, which pushes back on the client through TCP.
+   */
+  private void enqueue(String type, JsonObject req) {
+    long readAt = System.nanoTime();
+    Histogram latency = Metrics.request(type);
+    requests++;
+    MessageTrace trace = null;
+    if (Protocol.BROADCAST.equals(type) || Protocol.PRIVATE.equals(type) || Protocol.GROUP_MESSAGE.equals(type)) {
+      Metrics.MESSAGES_IN.increment();
+      messages++;
+      trace = MessageTrace.start(type, username, readAt);
+    }
+    MessageTrace t = trace;
+    ChatEvents.Request event = ChatEvents.enabled() ? new ChatEvents.Request() : null;
+    if (event != null)
+      event.begin();
+
+    Metrics.IN_FLIGHT.increment();
+    if (inFlight.incrementAndGet() > MAX_IN_FLIGHT) {
+      try {
+        pipeline.join();
+      } catch (Exception ignored) {
+      }
+    }
+
+    pipeline = pipeline
+        .thenCompose(v -> dispatch(type, req, t))
+        .exceptionally(ex -> {
+          Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+          System.err.println("Request '" + type + "' failed for user=" + username + " : " + cause.getMessage());
+          Metrics.REQUEST_ERRORS.increment();
+          if (event != null)
+            event.failed = true;
+          if (Protocol.CLEAR_CHAT.equals(type)) {
+            // IMPORTANT: do NOT kill the socket/session
+            send(Protocol.clearResultFail("Clear failed (server error)"));
+          } else if (Protocol.HIDE_MESSAGES.equals(type)) {
+            send(Protocol.hideResultFail("Delete failed (server error)"));
+          } else {
+            send(Protocol.error("Server error"));
           }
+          return null;
+        })
+        .whenComplete((v, ex) -> {
+          inFlight.decrementAndGet();
+          Metrics.IN_FLIGHT.decrement();
+          long took = System.nanoTime() - readAt;
+          latency.record(took);
+          SlowRequests.record(type, username, took);
+          if (event != null)
+            commitRequestEvent(event, type, req);
+        });
+  }
 
-          case Protocol.BROADCAST -> {
-            String content = cleanContent(Protocol.getString(req, "content"));
-            if (content == null) {
-              send(Protocol.error("Empty message"));
-              break;
-            }
+  /** Written only when the request was slower than the JFR threshold (size computed then). */
+  private void commitRequestEvent(ChatEvents.Request event, String type, JsonObject req) {
+    event.end();
+    if (!event.shouldCommit())
+      return;
+    event.type = type;
+    event.user = username;
+    event.bytes = JsonUtil.toLine(req).getBytes(StandardCharsets.UTF_8).length;
+    event.commit();
+  }
 
-            String formatted = MessageRepository.saveBroadcastAndFormat(username, content);
-            if (formatted != null)
-              broadcastToAll(Protocol.broadcastMsg(formatted));
-          }
+  /** Handle one request. Returns when its DB work and sends are done (trace: sampled chat message). */
+  private CompletableFuture<Void> dispatch(String type, JsonObject req, MessageTrace trace) {
+    switch (type) {
+      case Protocol.GET_USERS -> {
+        return sendUserListToMe();
+      }
 
-          case Protocol.PRIVATE -> {
-            String to = cleanUsername(Protocol.getString(req, "to"));
-            String content = cleanContent(Protocol.getString(req, "content"));
+      case Protocol.GET_BROADCAST_HISTORY -> {
+        // IMPORTANT: filtered by clear markers
+        long before = Protocol.getLong(req, Protocol.BEFORE, 0L);
+        long beforeSeq = Protocol.getLong(req, Protocol.BEFORE_SEQ, 0L);
+        return AsyncRepository.loadBroadcastPage(username, HISTORY_LIMIT, before, beforeSeq)
+            .thenAccept(page -> send(Protocol.withPage(Protocol.withSeqs(
+                Protocol.broadcastHistory(page.messages), page.seqs), before, page.oldestTs,
+                page.oldestSeq, page.hasMore)));
+      }
 
-            if (to == null || content == null) {
-              send(Protocol.error("Private needs: to + content"));
-              break;
-            }
-            if (to.equals(username)) {
-              send(Protocol.error("Cannot message yourself"));
-              break;
-            }
+      case Protocol.GET_PRIVATE_HISTORY -> {
+        String with = cleanUsername(Protocol.getString(req, Protocol.WITH));
+        if (with == null) {
+          send(Protocol.error("Missing/invalid 'with' username"));
+          return DONE;
+        }
 
-            MessageRepository.savePrivate(username, to, content);
+        // IMPORTANT: filtered by clear markers (for this user)
+        long before = Protocol.getLong(req, Protocol.BEFORE, 0L);
+        long beforeSeq = Protocol.getLong(req, Protocol.BEFORE_SEQ, 0L);
+        String peer = with;
+        return AsyncRepository.loadPrivatePage(username, with, HISTORY_LIMIT, before, beforeSeq)
+            .thenAccept(page -> send(Protocol.withPage(Protocol.withSeqs(
+                Protocol.privateHistory(peer, page.messages), page.seqs), before, page.oldestTs,
+                page.oldestSeq, page.hasMore)))
+            .thenCompose(v -> before > 0 ? DONE
+                : sendReceiptSnapshot("private", peer, null, SequenceRepository.privateKey(username, peer), List.of(peer)));
+      }
 
-            String formatted = "[" + java.time.LocalDateTime.now()
-                .format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")) + "] "
-                + username + ": " + content;
+      case Protocol.BROADCAST -> {
+        String content = cleanContent(Protocol.getString(req, "content"));
+        if (content == null) {
+          send(Protocol.error("Empty message"));
+          return DONE;
+        }
+        MessageTrace.validated(trace);
+
+        return AsyncRepository.saveBroadcast(username, content)
+            .thenAccept(saved -> {
+              if (saved == null)
+                return;
+              ReadStateRepository.advance(username, SequenceRepository.BROADCAST_KEY, saved.seq);
+              String line = JsonUtil.toLine(Protocol.withSeq(Protocol.broadcastMsg(saved.formatted), saved.seq));
+              MessageTrace.persisted(trace, saved.seq, line);
+              broadcastToAll(line, trace);
+            });
+      }
 
-            ClientHandler target = ONLINE.get(to);
-            if (target != null) {
-              target.send(Protocol.privateMsg(username, formatted));
-              send(Protocol.ack("Delivered to " + to));
-            } else {
-              send(Protocol.ack(to + " is offline (saved)"));
-            }
-          }
+      case Protocol.PRIVATE -> {
+        String to = cleanUsername(Protocol.getString(req, "to"));
+        String content = cleanContent(Protocol.getString(req, "content"));
 
-          case Protocol.TYPING -> {
-            String to = cleanUsername(Protocol.getString(req, "to"));
-            String state = Protocol.getString(req, "state");
-            if (to == null || state == null)
-              break;
+        if (to == null || content == null) {
+          send(Protocol.error("Private needs: to + content"));
+          return DONE;
+        }
+        if (to.equals(username)) {
+          send(Protocol.error("Cannot message yourself"));
+          return DONE;
+        }
+        MessageTrace.validated(trace);
+
+        return AsyncRepository.savePrivate(username, to, content)
+            .thenCompose(saved -> {
+              if (saved == null)
+                return DONE;
+
+              // own messages are read by definition
+              ReadStateRepository.advance(username, SequenceRepository.privateKey(username, to), saved.seq);
+
+              String line = JsonUtil.toLine(Protocol.withSeq(Protocol.privateMsg(username, saved.formatted), saved.seq));
+              MessageTrace.persisted(trace, saved.seq, line);
+              ClientHandler target = ONLINE.get(to);
+              if (target != null || ClusterRoute.routeToUser(to, line)) {
+                if (target != null && target.outbox != null)
+                  MessageTrace.offer(trace, target.outbox, line);
+                MessageTrace.release(trace);
+                send(Protocol.privateAck(to, "Delivered to " + to, saved.seq));
+                return DONE;
+              }
+              MessageTrace.release(trace);
 
-            state = state.trim().toLowerCase();
-            if (!("start".equals(state) || "stop".equals(state)))
-              break;
+              // offline: leave a reference in their inbox (pushed at next login)
+              return AsyncRepository.inboxAddPrivate(to, username, saved)
+                  .thenRun(() -> send(Protocol.privateAck(to, to + " is offline (saved)", saved.seq)));
+            });
+      }
+
+      case Protocol.TYPING -> {
+        return handleTyping(req);
+      }
+
+      // ---------------- GROUPS ----------------
+
+      case Protocol.CREATE_GROUP -> {
+        String name = cleanGroupName(Protocol.getString(req, "name"));
+        JsonArray membersArr = req.getAsJsonArray("members");
+        if (name == null) {
+          send(Protocol.groupCreatedFail("Invalid group name"));
+          return DONE;
+        }
 
-            ClientHandler target = ONLINE.get(to);
-            if (target != null && !to.equals(username)) {
-              target.send(Protocol.typing(username, state));
+        List<String> members = new ArrayList<>();
+        if (membersArr != null) {
+          for (JsonElement e : membersArr) {
+            if (e == null || e.isJsonNull())
+              continue;
+            String u = cleanUsername(e.getAsString());
+            if (u != null && !u.equals(username) && !members.contains(u)) {
+              members.add(u);
+              if (members.size() >= MAX_GROUP_MEMBERS)
+                break;
             }
           }
+        }
 
-          // ---------------- GROUPS ----------------
+        return AsyncRepository.createGroup(name, username, members)
+            .thenCompose(groupId -> {
+              if (groupId == null) {
+                send(Protocol.groupCreatedFail("Failed to create group"));
+                return DONE;
+              }
 
-          case Protocol.CREATE_GROUP -> {
-            String name = cleanGroupName(Protocol.getString(req, "name"));
-            JsonArray membersArr = req.getAsJsonArray("members");
-            if (name == null) {
-              send(Protocol.groupCreatedFail("Invalid group name"));
-              break;
-            }
+              send(Protocol.groupCreatedOk(groupId, name));
 
-            List<String> members = new ArrayList<>();
-            if (membersArr != null) {
-              for (JsonElement e : membersArr) {
-                if (e == null || e.isJsonNull())
-                  continue;
-                String u = cleanUsername(e.getAsString());
-                if (u != null && !u.equals(username) && !members.contains(u)) {
-                  members.add(u);
-                  if (members.size() >= MAX_GROUP_MEMBERS)
-                    break;
+              // register online members + update their groups list (here and on other nodes)
+              return AsyncRepository.groupMembers(groupId).thenAccept(list -> {
+                for (String m : list) {
+                  ClientHandler h = ONLINE.get(m);
+                  if (h != null) {
+                    Sessions.joinGroup(h, groupId);
+                    h.sendGroupsToSelf();
+                  }
                 }
+                ClusterRoute.announceGroup(groupId, list);
+              });
+            });
+      }
+
+      case Protocol.GET_GROUPS -> {
+        return sendGroupsToSelf();
+      }
+
+      case Protocol.GET_GROUP_HISTORY -> {
+        String groupId = Protocol.getString(req, Protocol.GROUP_ID);
+        if (groupId == null || groupId.isBlank()) {
+          send(Protocol.error("Missing groupId"));
+          return DONE;
+        }
+
+        long before = Protocol.getLong(req, Protocol.BEFORE, 0L);
+        long beforeSeq = Protocol.getLong(req, Protocol.BEFORE_SEQ, 0L);
+        return AsyncRepository.isMember(groupId, username)
+            .thenCompose(member -> {
+              if (!member) {
+                send(Protocol.error("Not a member of this group"));
+                return DONE;
               }
-            }
 
-            String groupId = GroupRepository.createGroup(name, username, members);
-            if (groupId == null) {
-              send(Protocol.groupCreatedFail("Failed to create group"));
-              break;
-            }
+              // IMPORTANT: filtered by clear markers (for this user)
+              return AsyncRepository.loadGroupPage(username, groupId, HISTORY_LIMIT, before, beforeSeq)
+                  .thenAccept(page -> send(Protocol.withPage(Protocol.withSeqs(
+                      Protocol.groupHistory(groupId, page.messages), page.seqs), before, page.oldestTs,
+                      page.oldestSeq, page.hasMore)))
+                  .thenCompose(v -> before > 0 ? DONE
+                      : AsyncRepository.groupMembers(groupId).thenCompose(members -> {
+                        List<String> others = new ArrayList<>(members);
+                        others.remove(username);
+                        return sendReceiptSnapshot("group", null, groupId, SequenceRepository.groupKey(groupId), others);
+                      }));
+            });
+      }
 
-            send(Protocol.groupCreatedOk(groupId, name));
+      case Protocol.GROUP_MESSAGE -> {
+        String groupId = Protocol.getString(req, Protocol.GROUP_ID);
+        String content = cleanContent(Protocol.getString(req, "content"));
 
-            // update groups list for online members
-            for (String m : getGroupMembers(groupId)) {
-              ClientHandler h = ONLINE.get(m);
-              if (h != null)
-                h.sendGroupsToSelf();
-            }
+        if (groupId == null || groupId.isBlank() || content == null) {
+          send(Protocol.error("Group message needs: groupId + content"));
+          return DONE;
+        }
+
+        // registered sessions are members already (no DB round trip)
+        CompletableFuture<Boolean> isMember = Sessions.isJoined(this, groupId)
+            ? CompletableFuture.completedFuture(true)
+            : AsyncRepository.isMember(groupId, username);
+
+        return isMember.thenCompose(member -> {
+          if (!member) {
+            send(Protocol.error("Not a member of this group"));
+            return DONE;
           }
+          MessageTrace.validated(trace);
+
+          return AsyncRepository.saveGroupMessage(groupId, username, content)
+              .thenAccept(saved -> {
+                if (saved == null)
+                  return;
+                ReadStateRepository.advance(username, SequenceRepository.groupKey(groupId), saved.seq);
+
+                // hand-off only: cost for the sender does not grow with the group
+                String line = JsonUtil.toLine(Protocol.withSeq(Protocol.groupMsg(groupId, saved.formatted), saved.seq));
+                MessageTrace.persisted(trace, saved.seq, line);
+                Sessions.Snapshot online = Sessions.group(groupId);
+                FanOut.deliver(line, online.byLane, trace);
+                ClusterRoute.publishGroup(groupId, line);
+                if (!online.usernames.contains(username))
+                  MessageTrace.offer(trace, outbox, line); // not registered yet: still echo to the sender
+                MessageTrace.release(trace);
+
+                inboxOfflineMembers(groupId, saved, online.usernames);
+              });
+        });
+      }
 
-          case Protocol.GET_GROUPS -> sendGroupsToSelf();
+      // ---------------- SEARCH ----------------
 
-          case Protocol.GET_GROUP_HISTORY -> {
-            String groupId = Protocol.getString(req, Protocol.GROUP_ID);
-            if (groupId == null || groupId.isBlank()) {
-              send(Protocol.error("Missing groupId"));
-              break;
-            }
+      case Protocol.SEARCH -> {
+        return handleSearch(req);
+      }
 
-            if (!GroupRepository.isMember(groupId, username)) {
-              send(Protocol.error("Not a member of this group"));
-              break;
-            }
+      // ---------------- EXPORT ----------------
 
-            // IMPORTANT: filtered by clear markers (for this user)
-            send(Protocol.groupHistory(groupId,
-                GroupRepository.loadGroupHistoryForUser(username, groupId, HISTORY_LIMIT)));
-          }
+      case Protocol.EXPORT -> {
+        return handleExport(req);
+      }
 
-          case Protocol.GROUP_MESSAGE -> {
-            String groupId = Protocol.getString(req, Protocol.GROUP_ID);
-            String content = cleanContent(Protocol.getString(req, "content"));
+      // ---------------- READ POSITIONS ----------------
 
-            if (groupId == null || groupId.isBlank() || content == null) {
-              send(Protocol.error("Group message needs: groupId + content"));
-              break;
-            }
+      case Protocol.MARK_READ -> {
+        return handleMarkRead(req);
+      }
 
-            if (!GroupRepository.isMember(groupId, username)) {
-              send(Protocol.error("Not a member of this group"));
-              break;
-            }
+      case Protocol.ACK_DELIVERED -> {
+        handleAckDelivered(req);
+        return DONE;
+      }
 
-            GroupRepository.saveGroupMessage(groupId, username, content);
+      // ---------------- DELETE FOR ME ----------------
 
-            String formatted = GroupRepository.formatNow(username, content);
-            for (String member : getGroupMembers(groupId)) {
-              ClientHandler h = ONLINE.get(member);
-              if (h != null)
-                h.send(Protocol.groupMsg(groupId, formatted));
-            }
-          }
+      case Protocol.HIDE_MESSAGES -> {
+        return handleHideMessages(req);
+      }
 
-          // ---------------- CLEAR FOR ME ----------------
+      // ---------------- CLEAR FOR ME ----------------
 
-          case Protocol.CLEAR_CHAT -> {
-            try {
-              handleClearChat(req);
-            } catch (Exception ex) {
-              System.err.println("clear_chat failed for user=" + username + " : " + ex.getMessage());
-              ex.printStackTrace();
+      case Protocol.CLEAR_CHAT -> {
+        return handleClearChat(req);
+      }
 
-              // IMPORTANT: do NOT kill the socket/session
-              send(Protocol.clearResultFail("Clear failed (server error)"));
-            }
-          }
+      // ---------------- OPERATOR ----------------
 
-          default -> send(Protocol.error("Unknown type: " + type));
+      case Protocol.ADMIN -> {
+        return Admin.handle(username, req).thenAccept(this::send);
+      }
+
+      default -> {
+        send(Protocol.error("Unknown type: " + type));
+        return DONE;
+      }
+    }
+  }
+
+  /** Typing start/stop, private (to) or group (groupId); coalesced + rate capped by TypingRelay. */
+  private CompletableFuture<Void> handleTyping(JsonObject req) {
+    String state = Protocol.getString(req, "state");
+    if (state == null)
+      return DONE;
+    state = state.trim().toLowerCase();
+    if (!("start".equals(state) || "stop".equals(state)))
+      return DONE;
+    boolean typing = "start".equals(state);
+
+    String raw = Protocol.getString(req, Protocol.GROUP_ID);
+    if (raw != null && !raw.isBlank()) {
+      String groupId = raw.trim();
+      // only registered members may type (and spend the group's budget); receivers ignore
+      // their own typing frames
+      if (!Sessions.isJoined(this, groupId) || !TypingRelay.allowGroup(username, groupId, typing))
+        return DONE;
+
+      String line = JsonUtil.toLine(Protocol.groupTyping(groupId, username, state));
+      FanOut.deliver(line, Sessions.group(groupId).byLane);
+      ClusterRoute.publishGroup(groupId, line);
+      return DONE;
+    }
+
+    String to = cleanUsername(Protocol.getString(req, "to"));
+    if (to == null || to.equals(username))
+      return DONE;
+    ClientHandler target = ONLINE.get(to);
+    if ((target != null || ClusterRoute.isRemote(to)) && TypingRelay.allowPrivate(username, to, typing))
+      sendToUser(to, Protocol.typing(username, state));
+    return DONE;
+  }
+
+  /** Ranked full-text search in one chat (membership + clear markers respected). */
+  private CompletableFuture<Void> handleSearch(JsonObject req) {
+    String scope = Protocol.getString(req, Protocol.SCOPE);
+    scope = (scope == null) ? "" : scope.trim().toLowerCase();
+    String query = Protocol.getString(req, Protocol.QUERY);
+    if (query == null || query.isBlank() || query.length() > MAX_QUERY) {
+      send(Protocol.error("Search needs a query (max " + MAX_QUERY + " chars)"));
+      return DONE;
+    }
+
+    int offset = (int) Math.max(0L, Protocol.getLong(req, Protocol.OFFSET, 0L));
+    int limit = (int) Math.min(MAX_SEARCH_LIMIT, Math.max(1L, Protocol.getLong(req, Protocol.LIMIT, 20L)));
+
+    String sc = scope;
+    switch (scope) {
+      case "broadcast" -> {
+        return AsyncRepository.search(username, sc, null, null, query, offset, limit)
+            .thenAccept(r -> send(toSearchResult(sc, null, null, query, offset, r)));
+      }
+
+      case "private" -> {
+        String with = cleanUsername(Protocol.getString(req, Protocol.WITH));
+        if (with == null) {
+          send(Protocol.error("Missing/invalid 'with' username"));
+          return DONE;
         }
+        return AsyncRepository.search(username, sc, with, null, query, offset, limit)
+            .thenAccept(r -> send(toSearchResult(sc, with, null, query, offset, r)));
       }
-    } catch (Exception e) {
-      System.err.println("ClientHandler error: " + e.getMessage());
-      e.printStackTrace();
-    } finally {
-      cleanup();
+
+      case "group" -> {
+        String raw = Protocol.getString(req, Protocol.GROUP_ID);
+        if (raw == null || raw.isBlank()) {
+          send(Protocol.error("Missing groupId"));
+          return DONE;
+        }
+        String groupId = raw.trim();
+        return AsyncRepository.isMember(groupId, username)
+            .thenCompose(member -> {
+              if (!member) {
+                send(Protocol.error("Not a member of this group"));
+                return DONE;
+              }
+              return AsyncRepository.search(username, sc, null, groupId, query, offset, limit)
+                  .thenAccept(r -> send(toSearchResult(sc, null, groupId, query, offset, r)));
+            });
+      }
+
+      default -> {
+        send(Protocol.error("Invalid search scope: " + scope));
+        return DONE;
+      }
+    }
+  }
+
+  private static JsonObject toSearchResult(String scope, String with, String groupId, String query, int offset,
+      SearchResult r) {
+    JsonArray hits = new JsonArray();
+    for (SearchResult.Hit h : r.hits)
+      hits.add(Protocol.searchHit(h.seq, h.ts, h.message));
+    return Protocol.searchResult(scope, with, groupId, query, offset, r.total, r.hasMore, hits);
+  }
+
+  /**
+   * Start streaming a full transcript. Returns as soon as the stream is started;
+   * chunks are sent from the export pool while the pipeline keeps serving requests.
+   */
+  private CompletableFuture<Void> handleExport(JsonObject req) {
+    String exportId = Protocol.getString(req, Protocol.EXPORT_ID);
+    if (exportId == null || exportId.isBlank() || exportId.length() > 64) {
+      send(Protocol.error("Export needs an exportId"));
+      return DONE;
+    }
+    String id = exportId.trim();
+
+    ExportStream running = export;
+    if (running != null && running.isRunning()) {
+      if (running.id.equals(id)) {
+        // a second stream under the same id would interleave chunks and share its credits
+        send(Protocol.exportEnd(id, false, 0L, "Export already running"));
+        return DONE;
+      }
+      running.cancel(); // one export per session: the newest wins
+    }
+
+    String scope = Protocol.getString(req, Protocol.SCOPE);
+    scope = (scope == null) ? "" : scope.trim().toLowerCase();
+    int window = (int) Protocol.getLong(req, Protocol.WINDOW, 4L);
+
+    switch (scope) {
+      case "broadcast" -> {
+        startExport(id, ChatRef.broadcast(), scope, null, null, window);
+        return DONE;
+      }
+
+      case "private" -> {
+        String with = cleanUsername(Protocol.getString(req, Protocol.WITH));
+        if (with == null) {
+          send(Protocol.exportEnd(id, false, 0L, "Missing/invalid 'with'"));
+          return DONE;
+        }
+        startExport(id, ChatRef.privateChat(username, with), scope, with, null, window);
+        return DONE;
+      }
+
+      case "group" -> {
+        String raw = Protocol.getString(req, Protocol.GROUP_ID);
+        ChatRef ref = ChatRef.group(raw);
+        if (ref == null) {
+          send(Protocol.exportEnd(id, false, 0L, "Missing/invalid groupId"));
+          return DONE;
+        }
+        String sc = scope;
+        return AsyncRepository.isMember(ref.chatId, username).thenAccept(member -> {
+          if (!member)
+            send(Protocol.exportEnd(id, false, 0L, "Not a member of this group"));
+          else
+            startExport(id, ref, sc, null, ref.chatId, window);
+        });
+      }
+
+      default -> {
+        send(Protocol.exportEnd(id, false, 0L, "Invalid scope: " + scope));
+        return DONE;
+      }
+    }
+  }
+
+  private void startExport(String id, ChatRef ref, String scope, String with, String groupId, int window) {
+    ExportStream s = ExportStream.start(id, ref, scope, with, groupId, window, this::send);
+    if (s == null) {
+      send(Protocol.exportEnd(id, false, 0L, "Server busy, try the export again later"));
+      return;
+    }
+    export = s;
+  }
+
+  /** export_ack / export_cancel (handled on the reader thread). */
+  private void handleExportControl(String type, JsonObject req) {
+    ExportStream s = export;
+    String id = Protocol.getString(req, Protocol.EXPORT_ID);
+    if (s == null || id == null || !s.id.equals(id.trim()))
+      return;
+
+    if (Protocol.EXPORT_CANCEL.equals(type))
+      s.cancel();
+    else
+      s.grant((int) Protocol.getLong(req, Protocol.CREDIT, 1L));
+  }
+
+  /**
+   * Move my read position in one chat. Private/group: "seq" goes to the receipt window
+   * (clamped to the chat head when drained). Broadcast: the position is clamped to the
+   * head here, so a bogus seq cannot park it past every future message.
+   */
+  private CompletableFuture<Void> handleMarkRead(JsonObject req) {
+    String scope = Protocol.getString(req, Protocol.SCOPE);
+    scope = (scope == null) ? null : scope.trim().toLowerCase();
+    String with = cleanUsername(Protocol.getString(req, Protocol.WITH));
+    String groupId = Protocol.getString(req, Protocol.GROUP_ID);
+
+    String chatKey = SequenceRepository.keyFor(username, scope, with, groupId);
+    if (chatKey == null)
+      return DONE; // silently ignore (client hint only)
+
+    long seq = Protocol.getLong(req, Protocol.SEQ, 0L);
+    if ("broadcast".equals(scope)) {
+      // no receipts in broadcast: just the read position
+      if (seq > 0) {
+        String user = username;
+        return AsyncRepository.chatHead(chatKey)
+            .thenAccept(head -> ReadStateRepository.advance(user, chatKey, Math.min(seq, head)));
+      }
+      return AsyncRepository.markReadToHead(username, chatKey);
+    }
+
+    if (seq > 0) {
+      offerReceipt(scope, with, groupId, 0L, seq);
+      return DONE;
+    }
+    String sc = scope;
+    return AsyncRepository.chatHead(chatKey).thenAccept(head -> offerReceipt(sc, with, groupId, 0L, head));
+  }
+
+  /** Delivery watermark from the client (private/group only). Memory only: coalesced per chat. */
+  private void handleAckDelivered(JsonObject req) {
+    String scope = Protocol.getString(req, Protocol.SCOPE);
+    scope = (scope == null) ? "" : scope.trim().toLowerCase();
+    long seq = Protocol.getLong(req, Protocol.SEQ, 0L);
+    if (seq <= 0)
+      return;
+    offerReceipt(scope, cleanUsername(Protocol.getString(req, Protocol.WITH)),
+        Protocol.getString(req, Protocol.GROUP_ID), seq, 0L);
+  }
+
+  private void offerReceipt(String scope, String with, String groupId, long delivered, long read) {
+    if ("private".equals(scope) && with != null)
+      ReceiptAggregator.offerPrivate(username, with, delivered, read);
+    else if ("group".equals(scope) && groupId != null && !groupId.isBlank())
+      ReceiptAggregator.offerGroup(username, groupId.trim(), delivered, read);
+  }
+
+  /** Current watermarks of the other members, sent right after the first history page. */
+  private CompletableFuture<Void> sendReceiptSnapshot(String scope, String with, String groupId,
+      String chatKey, List<String> others) {
+    if (others.isEmpty())
+      return DONE;
+    return AsyncRepository.watermarks(chatKey, others).thenAccept(marks -> {
+      JsonArray arr = new JsonArray();
+      marks.forEach((u, w) -> arr.add(Protocol.receipt(u, w.delivered, w.read)));
+      send(Protocol.receipts(scope, with, groupId, true, arr));
+    });
+  }
+
+  /** Store "delete for me" tombstones (by seq) for one chat. */
+  private CompletableFuture<Void> handleHideMessages(JsonObject req) {
+    String scope = Protocol.getString(req, Protocol.SCOPE);
+    scope = (scope == null) ? "" : scope.trim().toLowerCase();
+    String with = cleanUsername(Protocol.getString(req, Protocol.WITH));
+    String raw = Protocol.getString(req, Protocol.GROUP_ID);
+    String groupId = (raw == null || raw.isBlank()) ? null : raw.trim();
+
+    String chatKey = SequenceRepository.keyFor(username, scope, with, groupId);
+    if (chatKey == null) {
+      send(Protocol.hideResultFail("Invalid chat"));
+      return DONE;
+    }
+
+    JsonArray arr = req.getAsJsonArray(Protocol.SEQS);
+    if (arr == null || arr.isEmpty() || arr.size() > HiddenRepository.MAX_PER_HIDE) {
+      send(Protocol.hideResultFail("Need 1-" + HiddenRepository.MAX_PER_HIDE + " seqs"));
+      return DONE;
     }
+    long[] seqs = new long[arr.size()];
+    for (int i = 0; i < seqs.length; i++) {
+      JsonElement e = arr.get(i);
+      seqs[i] = (e == null || e.isJsonNull()) ? 0L : e.getAsLong();
+    }
+
+    String sc = scope;
+    String w = "private".equals(scope) ? with : null;
+    String g = "group".equals(scope) ? groupId : null;
+
+    CompletableFuture<Boolean> allowed = (g == null)
+        ? CompletableFuture.completedFuture(true)
+        : AsyncRepository.isMember(g, username);
+
+    return allowed.thenCompose(ok -> {
+      if (!ok) {
+        send(Protocol.hideResultFail("Not a member of this group"));
+        return DONE;
+      }
+      return AsyncRepository.hideMessages(username, chatKey, seqs).thenAccept(accepted -> {
+        if (accepted.length == 0) {
+          send(Protocol.hideResultFail("No such messages in this chat"));
+          return;
+        }
+        JsonArray hidden = new JsonArray();
+        for (long s : accepted) hidden.add(s);
+        send(Protocol.hideResultOk(sc, w, g, hidden));
+      });
+    });
   }
 
-  private void handleClearChat(JsonObject req) {
+  private CompletableFuture<Void> handleClearChat(JsonObject req) {
     String scope = Protocol.getString(req, Protocol.SCOPE);
     if (scope == null) {
       send(Protocol.clearResultFail("Missing scope"));
-      return;
+      return DONE;
     }
 
     scope = scope.trim().toLowerCase();
 
     switch (scope) {
       case "all" -> {
-        long t = ClearMarkerRepository.setClearedAtNow(username, "all", "");
-        send(Protocol.clearResultOk("all", null, null, t));
+        return AsyncRepository.setClearedAtNow(username, "all", "")
+            .thenCompose(t -> AsyncRepository.markAllRead(username).thenApply(v -> t))
+            .thenAccept(t -> send(Protocol.clearResultOk("all", null, null, t)));
       }
 
       case "broadcast" -> {
-        long t = ClearMarkerRepository.setClearedAtNow(username, "broadcast", "");
-        send(Protocol.clearResultOk("broadcast", null, null, t));
+        return AsyncRepository.setClearedAtNow(username, "broadcast", "")
+            .thenCompose(t -> AsyncRepository.markReadToHead(username, SequenceRepository.BROADCAST_KEY)
+                .thenApply(v -> t))
+            .thenAccept(t -> send(Protocol.clearResultOk("broadcast", null, null, t)));
       }
 
       case "private" -> {
         String with = cleanUsername(Protocol.getString(req, Protocol.WITH));
         if (with == null) {
           send(Protocol.clearResultFail("Missing/invalid 'with'"));
-          return;
+          return DONE;
         }
-        long t = ClearMarkerRepository.setClearedAtNow(username, "private", with);
-        send(Protocol.clearResultOk("private", with, null, t));
+        return AsyncRepository.setClearedAtNow(username, "private", with)
+            .thenCompose(t -> AsyncRepository.markReadToHead(username, SequenceRepository.privateKey(username, with))
+                .thenApply(v -> t))
+            .thenAccept(t -> send(Protocol.clearResultOk("private", with, null, t)));
       }
 
       case "group" -> {
-        String groupId = Protocol.getString(req, Protocol.GROUP_ID);
-        if (groupId == null || groupId.isBlank()) {
+        String raw = Protocol.getString(req, Protocol.GROUP_ID);
+        if (raw == null || raw.isBlank()) {
           send(Protocol.clearResultFail("Missing groupId"));
-          return;
-        }
-        if (!GroupRepository.isMember(groupId, username)) {
-          send(Protocol.clearResultFail("Not a member of this group"));
-          return;
+          return DONE;
         }
-        long t = ClearMarkerRepository.setClearedAtNow(username, "group", groupId.trim());
-        send(Protocol.clearResultOk("group", null, groupId.trim(), t));
+        String groupId = raw.trim();
+        return AsyncRepository.isMember(groupId, username)
+            .thenCompose(member -> {
+              if (!member) {
+                send(Protocol.clearResultFail("Not a member of this group"));
+                return DONE;
+              }
+              return AsyncRepository.setClearedAtNow(username, "group", groupId)
+                  .thenCompose(t -> AsyncRepository.markReadToHead(username, SequenceRepository.groupKey(groupId))
+                      .thenApply(v -> t))
+                  .thenAccept(t -> send(Protocol.clearResultOk("group", null, groupId, t)));
+            });
       }
 
-      default -> send(Protocol.clearResultFail("Invalid scope: " + scope));
+      default -> {
+        send(Protocol.clearResultFail("Invalid scope: " + scope));
+        return DONE;
+      }
     }
   }
 
@@ -334,6 +904,33 @@ public class ClientHandler implements Runnable {
     }
 
     String type = Protocol.typeOf(req);
+    boolean resume = Protocol.RESUME.equals(type);
+    long readAt = System.nanoTime();
+    ChatEvents.SessionAuth event = ChatEvents.enabled() ? new ChatEvents.SessionAuth() : null;
+    if (event != null)
+      event.begin();
+    boolean ok = false;
+    try {
+      ok = resume ? handleResume(req) : handleLogin(type, req);
+      return ok;
+    } finally {
+      // login vs resume latency is the point of session tokens
+      Metrics.request(resume || Protocol.SIGNUP.equals(type) ? type : Protocol.LOGIN).recordSince(readAt);
+      if (event != null) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.method = type;
+          event.user = ok ? username : Protocol.getString(req, Protocol.USER);
+          event.ok = ok;
+          event.acceptWait = acceptWait;
+          event.commit();
+        }
+      }
+    }
+  }
+
+  /** signup / login with a password (PBKDF2). */
+  private boolean handleLogin(String type, JsonObject req) {
     String user = cleanUsername(Protocol.getString(req, Protocol.USER));
     String pass = cleanPass(Protocol.getString(req, Protocol.PASS));
 
@@ -346,10 +943,18 @@ public class ClientHandler implements Runnable {
     boolean ok;
     if (Protocol.SIGNUP.equals(type)) {
       ok = UserRepository.signUp(user, pass) && UserRepository.login(user, pass);
+      // a new account starts with the existing broadcast backlog already read
+      if (ok) {
+        try {
+          ReadStateRepository.markReadToHead(user, SequenceRepository.BROADCAST_KEY);
+        } catch (Exception ex) {
+          System.err.println("⚠️ Initial read position failed for " + user + ": " + ex.getMessage());
+        }
+      }
     } else if (Protocol.LOGIN.equals(type)) {
       ok = UserRepository.login(user, pass);
     } else {
-      send(Protocol.authFail("First message must be signup/login"));
+      send(Protocol.authFail("First message must be signup/login/resume"));
       safeClose();
       return false;
     }
@@ -360,95 +965,538 @@ public class ClientHandler implements Runnable {
       return false;
     }
 
+    return startSession(user);
+  }
+
+  /**
+   * resume {token}: log in again without the password. If this user's previous session is
+   * parked here it is taken over as it was (audiences, presence, held frames); otherwise
+   * (grace over, session was on another node) a fresh session starts and the client
+   * reloads its state.
+   */
+  private boolean handleResume(JsonObject req) {
+    String user = SessionTokens.verify(Protocol.getString(req, Protocol.TOKEN));
+    if (user == null) {
+      SessionMetrics.INSTANCE.resumeRefused();
+      send(Protocol.authFail("Session expired, please log in again"));
+      safeClose();
+      return false;
+    }
+
+    // The client saw its connection die before we did (half-open: pinged, no answer yet):
+    // close it and let it park. A session that still answers is another live client and is
+    // kicked by startSession, as on a password login.
+    ClientHandler old = ONLINE.get(user);
+    if (old != null && old != this && Resume.enabled() && !old.parked.get() && !old.leaving && old.pingOutstanding()) {
+      old.closeToPark();
+      old.awaitReaderDone(PIPELINE_DRAIN_MS + CLOSE_DRAIN_MS);
+    }
+
+    if (old != null && old.parked.compareAndSet(true, false)) {
+      if (ONLINE.replace(user, old, this)) {
+        takeOver(old);
+        return true;
+      }
+      old.cleanup(); // replaced by a login in the meantime
+    }
+
+    SessionMetrics.INSTANCE.resumed(false, 0);
+    return startSession(user);
+  }
+
+  /** Become the parked session `old`: its Outbox (held frames) continues on this socket. */
+  private void takeOver(ClientHandler old) {
+    username = old.username;
+    loginAt = old.loginAt;
+
+    Outbox fresh = outbox; // nothing was queued on it yet
+    outbox = old.outbox;
+    Sessions.handOver(old, this);
+    fresh.close(0);
+
+    tokenIssuedAt = System.currentTimeMillis();
+    String authOk = JsonUtil.toLine(Protocol.authOk(username, SessionTokens.issue(username), true));
+    int replayed = outbox.resume(writer, this::onSlowConsumer, authOk);
+
+    OPEN.remove(old);
+    SessionMetrics.INSTANCE.sessionClosed();
+    SessionMetrics.INSTANCE.resumed(true, replayed);
+    System.out.println("🔁 Resumed session of " + username + " (" + replayed + " frames replayed)");
+
+    // presence may have changed while away; everything else was held
+    pipeline = sendUserListToMe().exceptionally(ex -> null);
+  }
+
+  /** Credentials (or a token) checked: register the session and send the initial state. */
+  private boolean startSession(String user) {
     ClientHandler old = ONLINE.put(user, this);
     if (old != null && old != this)
       old.kick("Logged in from another session");
 
     username = user;
     UserRepository.markOnline(username);
-
-    send(Protocol.authOk(username));
-
-    // initial payloads
-    sendUserListToMe();
-    sendGroupsToSelf();
+    Sessions.online(this);
+    loginAt = ClusterRoute.announceOnline(username, System.currentTimeMillis());
+
+    tokenIssuedAt = System.currentTimeMillis();
+    send(Protocol.authOk(username, SessionTokens.issue(username), false));
+
+    // initial payloads (first entries of this session's pipeline); group registration
+    // comes before the inbox drain so no group message falls between the two
+    pipeline = AsyncRepository.listGroupIdsForUser(username)
+        .thenAccept(ids -> Sessions.joinGroups(this, ids))
+        .thenCompose(v -> sendUserListToMe())
+        .thenCompose(v -> sendGroupsToSelf())
+        .thenCompose(v -> sendPendingToSelf())
+        .thenCompose(v -> sendUnreadCountsToSelf())
+        .exceptionally(ex -> null);
     broadcastUserListToAll();
 
     return true;
   }
 
-  private void kick(String reason) {
-    send(Protocol.error(reason));
+  void kick(String reason) {
+    leaving = true;
+    parked.set(false);
+    send(Protocol.kicked(reason));
     cleanup();
   }
 
   // ---------------- Users list ----------------
 
-  private void sendUserListToMe() {
-    var all = UserRepository.getAllUsernamesExcept(username);
+  private CompletableFuture<Void> sendUserListToMe() {
+    return AsyncRepository.allUsernames().thenAccept(all -> {
+      var others = new ArrayList<>(all);
+      others.remove(username);
+
+      var online = new ArrayList<>(onlineEverywhere());
+      online.remove(username);
 
-    var online = new ArrayList<>(ONLINE.keySet());
-    online.remove(username);
+      send(Protocol.users(others, online));
+    });
+  }
 
-    send(Protocol.users(all, online));
+  /** Users online on this node and, in cluster mode, on the others. */
+  private static Set<String> onlineEverywhere() {
+    Set<String> all = new HashSet<>(ONLINE.keySet());
+    all.addAll(ClusterRoute.remoteUsers());
+    return all;
   }
 
-  private static void broadcastUserListToAll() {
-    var onlineSnapshot = new ArrayList<>(ONLINE.keySet());
+  /** Push users + online list to every session (one users query for all of them). */
+  static void broadcastUserListToAll() {
+    var onlineSnapshot = new ArrayList<>(onlineEverywhere());
 
-    ONLINE.forEach((user, handler) -> {
-      var all = UserRepository.getAllUsernamesExcept(user);
+    AsyncRepository.allUsernames().thenAccept(all -> ONLINE.forEach((user, handler) -> {
+      var others = new ArrayList<>(all);
+      others.remove(user);
 
       var onlineForThisClient = new ArrayList<>(onlineSnapshot);
       onlineForThisClient.remove(user);
 
-      handler.send(Protocol.users(all, onlineForThisClient));
-    });
+      handler.send(Protocol.users(others, onlineForThisClient));
+    }));
   }
 
   // ---------------- Groups list ----------------
 
-  private void sendGroupsToSelf() {
-    JsonArray groupsArr = new JsonArray();
+  CompletableFuture<Void> sendGroupsToSelf() {
+    return AsyncRepository.listGroupsForUser(username).thenAccept(groups -> {
+      JsonArray groupsArr = new JsonArray();
 
-    for (Document g : GroupRepository.listGroupsForUser(username)) {
-      JsonObject item = new JsonObject();
-      ObjectId id = g.getObjectId("_id");
-      item.addProperty("groupId", id == null ? "" : id.toHexString());
-      item.addProperty("name", g.getString("name"));
-      groupsArr.add(item);
-    }
+      for (Document g : groups) {
+        JsonObject item = new JsonObject();
+        ObjectId id = g.getObjectId("_id");
+        item.addProperty("groupId", id == null ? "" : id.toHexString());
+        item.addProperty("name", g.getString("name"));
+        groupsArr.add(item);
+      }
+
+      send(Protocol.groups(groupsArr));
+    });
+  }
+
+  // ---------------- Offline inbox ----------------
+
+  /**
+   * Drain the inbox into ONE pending_messages frame (skipped when empty).
+   * Those chats are now delivered up to their head: one watermark each, not one per message.
+   */
+  private CompletableFuture<Void> sendPendingToSelf() {
+    return AsyncRepository.inboxDrain(username).thenCompose(chats -> {
+      if (chats.isEmpty())
+        return DONE;
+
+      JsonArray arr = new JsonArray();
+      int total = 0;
+      List<String> keys = new ArrayList<>();
+      for (InboxRepository.PendingChat c : chats) {
+        arr.add(Protocol.pendingChat(c.scope, c.chatId, c.count, c.messages));
+        total += c.count;
+        keys.add("group".equals(c.scope) ? SequenceRepository.groupKey(c.chatId) : SequenceRepository.privateKey(username, c.chatId));
+      }
+      send(Protocol.pendingMessages(arr, total));
+
+      return AsyncRepository.chatHeads(keys).thenAccept(heads -> {
+        for (int i = 0; i < chats.size(); i++) {
+          InboxRepository.PendingChat c = chats.get(i);
+          long head = heads.getOrDefault(keys.get(i), 0L);
+          offerReceipt(c.scope, "private".equals(c.scope) ? c.chatId : null,
+              "group".equals(c.scope) ? c.chatId : null, head, 0L);
+        }
+      });
+    });
+  }
+
+  // ---------------- Unread counters ----------------
 
-    send(Protocol.groups(groupsArr));
+  /** Push server-side unread counts (head - readSeq per chat) in one frame. */
+  private CompletableFuture<Void> sendUnreadCountsToSelf() {
+    return AsyncRepository.unreadCounts(username).thenAccept(c ->
+        send(Protocol.unreadCounts(c.broadcast, c.privateByUser, c.groupById)));
   }
 
   // ---------------- Sending helpers ----------------
 
   private void send(JsonObject obj) {
-    if (obj == null)
+    if (obj == null || outbox == null)
+      return;
+    outbox.offer(JsonUtil.toLine(obj));
+  }
+
+  Outbox outbox() {
+    return outbox;
+  }
+
+  String username() {
+    return username;
+  }
+
+  // ---------------- Heartbeat ----------------
+
+  /** Read one frame; any frame (pong included) counts as a sign of life. */
+  private JsonObject readFrame() throws IOException {
+    JsonObject obj = JsonUtil.readObject(in);
+    lastReadAt = System.currentTimeMillis();
+    return obj;
+  }
+
+  private void handleHeartbeat(String type, JsonObject req) {
+    long ts = Protocol.getLong(req, Protocol.TS, 0L);
+    if (Protocol.PING.equals(type)) {
+      send(Protocol.pong(ts));
+      return;
+    }
+
+    long sentAt = pingSentAt;
+    if (sentAt > 0 && ts == sentAt) {
+      pingSentAt = 0;
+      SessionMetrics.INSTANCE.pong(System.currentTimeMillis() - sentAt);
+    }
+  }
+
+  long lastReadAt() {
+    return lastReadAt;
+  }
+
+  /** Requests of this session are still running. */
+  boolean busy() {
+    return inFlight.get() > 0;
+  }
+
+  void touch(long now) {
+    lastReadAt = Math.max(lastReadAt, now);
+  }
+
+  boolean isAuthenticated() {
+    return username != null;
+  }
+
+  boolean isClosed() {
+    return socket.isClosed();
+  }
+
+  boolean pingOutstanding() {
+    return pingSentAt > 0;
+  }
+
+  void ping(long now) {
+    pingSentAt = now;
+    send(Protocol.ping(now));
+    SessionMetrics.INSTANCE.pingSent();
+  }
+
+  // ---------------- Drain ----------------
+
+  static List<ClientHandler> openSessions() {
+    return new ArrayList<>(OPEN);
+  }
+
+  /** Every open connection, logged in or not (weakly consistent view, no copy: periodic scans). */
+  static Collection<ClientHandler> openConnections() {
+    return Collections.unmodifiableSet(OPEN);
+  }
+
+  /** Frames waiting in all outboxes (metrics scrape; walks the sessions, no copy). */
+  static long queuedFrames() {
+    long n = 0;
+    for (ClientHandler h : OPEN) {
+      Outbox b = h.outbox;
+      if (b != null)
+        n += b.queued();
+    }
+    return n;
+  }
+
+  static long parkedSessions() {
+    long n = 0;
+    for (ClientHandler h : OPEN) {
+      if (h.parked.get())
+        n++;
+    }
+    return n;
+  }
+
+  void sendNotice(JsonObject obj) {
+    send(obj);
+  }
+
+  /**
+   * Close the socket on purpose (reaper, drain): the reader thread fails and runs cleanup(),
+   * the session is not parked. A parked session ends now.
+   */
+  void close() {
+    if (parked.get()) {
+      expireParked();
+      return;
+    }
+    leaving = true;
+    try {
+      socket.close();
+    } catch (Exception ignored) {
+    }
+  }
+
+  /** Half-open connection its client already left (resume): close it and let the reader park it. */
+  private void closeToPark() {
+    try {
+      socket.close();
+    } catch (Exception ignored) {
+    }
+  }
+
+  /** Idle past the timeout: close the socket, the reader thread fails and runs cleanup(). */
+  void reap(long idleMs) {
+    boolean authenticated = isAuthenticated();
+    SessionMetrics.INSTANCE.reaped(authenticated);
+    System.out.println("💀 Reaped idle session " + (authenticated ? username : socket.getRemoteSocketAddress())
+        + " (no data for " + (idleMs / 1000) + "s)");
+    close();
+  }
+
+  /** Outbox full: the client stopped reading. Drop it rather than buffer without bound. */
+  private void onSlowConsumer() {
+    if (ChatEvents.enabled()) {
+      ChatEvents.SlowConsumer event = new ChatEvents.SlowConsumer();
+      event.user = username;
+      event.queued = outbox == null ? 0 : outbox.queued();
+      event.parked = parked.get();
+      event.commit();
+    }
+    if (parked.get()) {
+      System.out.println("⌛ Resume buffer of " + username + " is full (" + Resume.bufferFrames() + " frames), ending the session");
+      CompletableFuture.runAsync(this::expireParked); // we are on a sender's thread
+      return;
+    }
+    dropSlowConsumer(Outbox.MAX_QUEUED + " frames queued");
+  }
+
+  /** One socket write blocked past the write timeout (Heartbeat watchdog, reaper thread). */
+  void writeStuck(long blockedMs) {
+    dropSlowConsumer("write blocked for " + blockedMs + " ms");
+  }
+
+  private void dropSlowConsumer(String why) {
+    leaving = true;
+    System.err.println("🐢 Slow consumer disconnected: " + (username != null ? username : socket.getRemoteSocketAddress())
+        + " (" + why + ")");
+    try {
+      socket.close(); // a blocked write fails; the reader thread fails and runs cleanup()
+    } catch (Exception ignored) {
+    }
+  }
+
+  /** Offline group members get an inbox reference; runs off the sender's pipeline. */
+  private void inboxOfflineMembers(String groupId, SavedMessage saved, Set<String> delivered) {
+    AsyncRepository.groupMembers(groupId)
+        .thenCompose(members -> {
+          List<String> offline = new ArrayList<>();
+          for (String m : members) {
+            if (!m.equals(username) && !delivered.contains(m) && !ClusterRoute.isRemote(m))
+              offline.add(m);
+          }
+          return AsyncRepository.inboxAddGroup(offline, groupId, saved);
+        })
+        .exceptionally(ex -> {
+          System.err.println("⚠️ Group inbox write failed for " + groupId + ": " + ex.getMessage());
+          return null;
+        });
+  }
+
+  /** Send to one user's session if online, on this node or another (receipts, typing). */
+  static void sendToUser(String user, JsonObject obj) {
+    if (user == null)
+      return;
+    ClientHandler h = ONLINE.get(user);
+    if (h != null)
+      h.send(obj);
+    else
+      ClusterRoute.routeToUser(user, JsonUtil.toLine(obj));
+  }
+
+  /** Sessions logged in on this node (weakly consistent view: no lock, no copy). */
+  static Collection<ClientHandler> online() {
+    return ONLINE.values();
+  }
+
+  long bytesOut() {
+    return bytesOut.sum();
+  }
+
+  long requests() {
+    return requests;
+  }
+
+  long messages() {
+    return messages;
+  }
+
+  int inFlight() {
+    return inFlight.get();
+  }
+
+  /** This node's session of a user (cluster deliveries). */
+  static ClientHandler local(String user) {
+    return user == null ? null : ONLINE.get(user);
+  }
+
+  void sendLine(String line) {
+    if (outbox != null)
+      outbox.offer(line);
+  }
+
+  long loginAt() {
+    return loginAt;
+  }
+
+  private static void broadcastToAll(String line, MessageTrace trace) {
+    FanOut.deliver(line, Sessions.everyone().byLane, trace);
+    ClusterRoute.publishAll(line);
+    MessageTrace.release(trace);
+  }
+
+  // ---------------- Resume ----------------
+
+  /**
+   * The connection dropped without exit: keep the session (presence, audiences, frames
+   * sent to it) for the grace period instead of ending it. False = end it now.
+   */
+  private boolean park() {
+    if (leaving || username == null || outbox == null || !Resume.enabled() || Drain.isDraining())
+      return false;
+
+    ExportStream s = export;
+    if (s != null)
+      s.cancel();
+    try {
+      pipeline.get(PIPELINE_DRAIN_MS, TimeUnit.MILLISECONDS);
+    } catch (Exception ignored) {
+    }
+    if (ONLINE.get(username) != this || leaving)
+      return false;
+
+    outbox.hold(Resume.bufferFrames());
+    parked.set(true);
+    if (leaving && parked.compareAndSet(true, false))
+      return false; // kicked meanwhile: the session ends (cleanup)
+    try {
+      in.close();
+      socket.close();
+    } catch (Exception ignored) {
+    }
+    SessionMetrics.INSTANCE.sessionParked();
+    // off the reaper thread: ending a session writes to the DB
+    Heartbeat.after(Resume.graceMillis(), () -> CompletableFuture.runAsync(this::expireParked));
+    return true;
+  }
+
+  /** Grace period over (or held frames overflowed) and nobody resumed: end the session. */
+  private void expireParked() {
+    if (!parked.compareAndSet(true, false))
       return;
-    synchronized (sendLock) {
-      JsonUtil.send(out, obj);
+    SessionMetrics.INSTANCE.parkedSessionExpired();
+    cleanup();
+  }
+
+  boolean isParked() {
+    return parked.get();
+  }
+
+  private void awaitReaderDone(long maxMs) {
+    long until = System.currentTimeMillis() + maxMs;
+    while (!readerDone && System.currentTimeMillis() < until) {
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return;
+      }
     }
   }
 
-  private static void broadcastToAll(JsonObject obj) {
-    ONLINE.forEach((u, handler) -> handler.send(obj));
+  /** Hand out a new token once half of the current one's lifetime is gone (reaper thread). */
+  void refreshToken(long now) {
+    long ttl = SessionTokens.ttlMillis();
+    if (ttl <= 0 || parked.get() || now - tokenIssuedAt < ttl / 2)
+      return;
+    tokenIssuedAt = now;
+    send(Protocol.sessionToken(SessionTokens.issue(username)));
   }
 
   // ---------------- Cleanup ----------------
 
   private void cleanup() {
+    ExportStream s = export;
+    if (s != null)
+      s.cancel();
+
+    // requests already read still complete (messages get stored, acks go out if the socket is up)
+    try {
+      pipeline.get(PIPELINE_DRAIN_MS, TimeUnit.MILLISECONDS);
+    } catch (Exception ignored) {
+    }
+
     try {
       if (username != null) {
-        ONLINE.remove(username, this);
-        UserRepository.markOffline(username);
-        broadcastUserListToAll();
+        TypingRelay.forget(username);
+        Sessions.offline(this);
+        // replaced by a newer session (here or on another node): that one owns the status
+        boolean current = ONLINE.remove(username, this);
+        if (current)
+          ClusterRoute.announceOffline(username);
+        // draining: Drain marks everyone offline at once and nobody needs the user list
+        if (!Drain.isDraining()) {
+          if (current && !ClusterRoute.isRemote(username))
+            UserRepository.markOffline(username);
+          broadcastUserListToAll();
+        }
       }
     } catch (Exception ignored) {
     }
 
     safeClose();
+    OPEN.remove(this);
+    SessionMetrics.INSTANCE.sessionClosed();
   }
 
   private void safeClose() {
@@ -457,11 +1505,8 @@ public class ClientHandler implements Runnable {
         in.close();
     } catch (Exception ignored) {
     }
-    try {
-      if (out != null)
-        out.close();
-    } catch (Exception ignored) {
-    }
+    if (outbox != null)
+      outbox.close(CLOSE_DRAIN_MS); // let queued frames (e.g. auth_fail) go out first
     try {
       if (socket != null && !socket.isClosed())
         socket.close();
@@ -514,30 +1559,4 @@ public class ClientHandler implements Runnable {
       s = s.substring(0, MAX_CONTENT);
     return s;
   }
-
-  /** Load group members from MongoDB. */
-  private static List<String> getGroupMembers(String groupId) {
-    List<String> members = new ArrayList<>();
-    ObjectId gid;
-    try {
-      gid = new ObjectId(groupId.trim());
-    } catch (Exception e) {
-      return members;
-    }
-
-    Document g = MongoManager.groups()
-        .find(Filters.eq("_id", gid))
-        .projection(new Document("members", 1))
-        .first();
-
-    if (g == null)
-      return members;
-
-    @SuppressWarnings("unchecked")
-    List<String> list = (List<String>) g.get("members");
-    if (list != null)
-      members.addAll(list);
-
-    return members;
-  }
-}
\ No newline at end of file
+}
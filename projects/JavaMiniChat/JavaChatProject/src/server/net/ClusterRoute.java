@@ -0,0 +1,135 @@
+package server.net;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import server.cluster.ClusterBus;
+import server.cluster.ClusterConfig;
+import server.cluster.LocalDelivery;
+
+/**
+ * Glue between the sessions of this node and the ClusterBus.
+ *
+ * Outbound (static, called by ClientHandler): presence announcements and frames for
+ * users / groups / everyone on other nodes. All of it is a no-op in single-node mode.
+ *
+ * Inbound (LocalDelivery, called on bus reader threads): hands routed frames to the
+ * local sessions, the same way local fan-out does (Outbox / FanOut, never blocking).
+ */
+final class ClusterRoute implements LocalDelivery {
+
+  private static volatile ClusterBus bus;
+
+  private ClusterRoute() {}
+
+  static void start(ClusterConfig config) {
+    if (config == null || !config.enabled() || bus != null) return;
+    ClusterBus b = new ClusterBus(config, new ClusterRoute());
+    try {
+      b.start();
+      bus = b;
+    } catch (IOException ex) {
+      System.err.println("❌ Cluster bus failed to start (running single-node): " + ex.getMessage());
+    }
+  }
+
+  static void stop() {
+    ClusterBus b = bus;
+    bus = null;
+    if (b != null) b.stop();
+  }
+
+  static String summary() {
+    ClusterBus b = bus;
+    return b == null ? "cluster: off" : b.summary();
+  }
+
+  // ---------------- Outbound ----------------
+
+  /** Returns the epoch of this login (at, in single-node mode). */
+  static long announceOnline(String user, long at) {
+    ClusterBus b = bus;
+    return b == null ? at : b.online(user, at);
+  }
+
+  static void announceOffline(String user) {
+    ClusterBus b = bus;
+    if (b != null) b.offline(user);
+  }
+
+  static void announceGroup(String groupId, List<String> members) {
+    ClusterBus b = bus;
+    if (b != null) b.groupCreated(groupId, members);
+  }
+
+  /** Connected on another node? */
+  static boolean isRemote(String user) {
+    ClusterBus b = bus;
+    return b != null && b.isRemote(user);
+  }
+
+  static Set<String> remoteUsers() {
+    ClusterBus b = bus;
+    return b == null ? Set.of() : b.remoteUsers();
+  }
+
+  /** Forward to a user on another node. False if the user is not online anywhere else. */
+  static boolean routeToUser(String user, String line) {
+    ClusterBus b = bus;
+    return b != null && b.toUser(user, line);
+  }
+
+  static void publishGroup(String groupId, String line) {
+    ClusterBus b = bus;
+    if (b != null) b.toGroup(groupId, line);
+  }
+
+  static void publishAll(String line) {
+    ClusterBus b = bus;
+    if (b != null) b.toAll(line);
+  }
+
+  // ---------------- Inbound (bus reader threads) ----------------
+
+  @Override
+  public void toUser(String user, String line) {
+    ClientHandler h = ClientHandler.local(user);
+    if (h != null) h.sendLine(line);
+  }
+
+  @Override
+  public void toGroup(String groupId, String line) {
+    if (groupId != null) FanOut.deliver(line, Sessions.group(groupId).byLane);
+  }
+
+  @Override
+  public void toAll(String line) {
+    FanOut.deliver(line, Sessions.everyone().byLane);
+  }
+
+  @Override
+  public void groupCreated(String groupId, List<String> members) {
+    if (groupId == null) return;
+    for (String m : members) {
+      ClientHandler h = ClientHandler.local(m);
+      if (h != null) {
+        Sessions.joinGroup(h, groupId);
+        h.sendGroupsToSelf();
+      }
+    }
+  }
+
+  @Override
+  public void loggedInElsewhere(String user, long at) {
+    ClientHandler h = ClientHandler.local(user);
+    // newest login wins; kicking waits for the session's pipeline, so not on this thread
+    if (h != null && h.loginAt() < at)
+      CompletableFuture.runAsync(() -> h.kick("Logged in from another session"));
+  }
+
+  @Override
+  public void remotePresenceChanged() {
+    ClientHandler.broadcastUserListToAll();
+  }
+}
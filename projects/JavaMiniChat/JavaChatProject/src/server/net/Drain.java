@@ -0,0 +1,122 @@
+package server.net;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+import common.Protocol;
+import server.repo.UserRepository;
+
+/**
+ * Graceful drain (shutdown hook), all within one deadline:
+ * 1. stop accepting connections
+ * 2. tell every logged-in session to reconnect (server_draining, retry delay spread per
+ *    client so a restart does not cause a reconnect stampede; optional redirect address)
+ * 3. clients say exit on their own; each session finishes the requests it already read
+ *    (messages are persisted and acked) and flushes its outbox before closing
+ * 4. sessions still open near the deadline are closed
+ * 5. coalesced receipts are flushed and all users of this node go offline in ONE updateMany
+ *
+ * While draining, a closing session skips its own markOffline + user-list broadcast
+ * (N sessions would otherwise cost N writes and N^2 frames).
+ */
+final class Drain {
+
+  private static final long RESERVE_MS = 3000; // kept for force-close + final writes
+
+  private static volatile boolean draining;
+
+  private static long deadlineMs = 20_000;
+  private static long spreadMs = 10_000;
+  private static String redirectHost;
+  private static int redirectPort;
+
+  private Drain() {}
+
+  /** redirect: "host:port" of another node, empty = clients come back to the same address. */
+  static synchronized void configure(int deadlineSec, int spreadSec, String redirect) {
+    deadlineMs = Math.max(1, deadlineSec) * 1000L;
+    spreadMs = Math.max(0, spreadSec) * 1000L;
+
+    redirectHost = null;
+    redirectPort = 0;
+    if (redirect == null || redirect.isBlank()) return;
+
+    int colon = redirect.lastIndexOf(':');
+    try {
+      redirectPort = Integer.parseInt(redirect.substring(colon + 1).trim());
+      redirectHost = redirect.substring(0, colon).trim();
+    } catch (Exception ex) {
+      System.err.println("⚠️ Ignoring drain redirect '" + redirect + "' (expected host:port)");
+    }
+  }
+
+  static boolean isDraining() {
+    return draining;
+  }
+
+  /** Drain all sessions. Returns the ms left of the deadline for the remaining flushes. */
+  static synchronized long run(ServerSocket listener) {
+    long until = System.currentTimeMillis() + deadlineMs;
+    long reserve = Math.min(RESERVE_MS, deadlineMs / 3);
+    draining = true;
+
+    try {
+      if (listener != null) listener.close();
+    } catch (Exception ignored) {
+    }
+
+    List<ClientHandler> open = ClientHandler.openSessions();
+    Set<String> users = new HashSet<>();
+    for (ClientHandler h : open) {
+      if (h.isParked()) {
+        users.add(h.username());
+        h.close(); // nobody is going to resume it here
+        continue;
+      }
+      if (!h.isAuthenticated()) {
+        h.close(); // mid-login: nothing to lose
+        continue;
+      }
+      users.add(h.username());
+      long retry = spreadMs == 0 ? 0 : ThreadLocalRandom.current().nextLong(spreadMs + 1);
+      h.sendNotice(Protocol.serverDraining(retry, redirectHost, redirectPort));
+    }
+    System.out.println("🚰 Draining " + users.size() + " sessions (deadline " + (deadlineMs / 1000) + "s)");
+
+    // clients leave on their own once they got the notice
+    waitUntil(() -> ClientHandler.openSessions().isEmpty(), until - reserve);
+
+    int forced = 0;
+    for (ClientHandler h : ClientHandler.openSessions()) {
+      if (h.isAuthenticated()) forced++;
+      h.close();
+    }
+    // closing sessions still finish their pipelines (see ClientHandler.cleanup)
+    waitUntil(() -> ClientHandler.openSessions().isEmpty(), until - reserve / 2);
+
+    ReceiptAggregator.drain();
+    try {
+      UserRepository.markOfflineMany(users);
+    } catch (Exception ex) {
+      System.err.println("⚠️ Could not mark users offline: " + ex.getMessage());
+    }
+
+    System.out.println("🚰 Drained: " + (users.size() - forced) + " left on notice, "
+        + forced + " closed at deadline");
+    return Math.max(0L, until - System.currentTimeMillis());
+  }
+
+  private static void waitUntil(BooleanSupplier done, long untilMs) {
+    while (!done.getAsBoolean() && System.currentTimeMillis() < untilMs) {
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package server.net;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonObject;
+
+import common.Protocol;
+import server.repo.ChatRef;
+import server.repo.ExportRepository;
+
+/**
+ * One running transcript export (export_start, export_chunk..., export_end).
+ *
+ * Flow control: the client grants credits (initial window + one export_ack per chunk it
+ * has written). Each chunk costs one credit; with no credit the stream waits, so at most
+ * `window` chunks are ever buffered between the Mongo cursor and the client's disk.
+ *
+ * Exports run on their own small pool (not DbExecutor): they hold a cursor for a long
+ * time and mostly wait on the client.
+ */
+final class ExportStream implements Runnable {
+
+  private static final int CURSOR_BATCH = 500;
+  private static final int CHUNK_MESSAGES = 200;
+  private static final int CHUNK_CHARS = 256 * 1024;
+  private static final int MAX_WINDOW = 16;
+  private static final long CREDIT_TIMEOUT_SEC = 60;
+
+  private static int maxConcurrent = 4;
+  private static ExecutorService pool;
+  private static final AtomicInteger RUNNING = new AtomicInteger();
+
+  final String id;
+  private final ChatRef ref;
+  private final String scope;
+  private final String with;
+  private final String groupId;
+  private final Consumer<JsonObject> out;
+
+  private final Semaphore credits;
+  private volatile boolean cancelled;
+  private volatile boolean finished;
+
+  private ExportStream(String id, ChatRef ref, String scope, String with, String groupId,
+      int window, Consumer<JsonObject> out) {
+    this.id = id;
+    this.ref = ref;
+    this.scope = scope;
+    this.with = with;
+    this.groupId = groupId;
+    this.out = out;
+    this.credits = new Semaphore(Math.max(1, Math.min(MAX_WINDOW, window)));
+  }
+
+  /** Optional tuning (ServerMain). Must run before the first export. */
+  static synchronized void configure(int concurrentExports) {
+    if (concurrentExports > 0 && pool == null) maxConcurrent = concurrentExports;
+  }
+
+  private static synchronized ExecutorService pool() {
+    if (pool == null) {
+      AtomicInteger n = new AtomicInteger();
+      pool = Executors.newFixedThreadPool(maxConcurrent, r -> {
+        Thread t = new Thread(r, "chat-export-" + n.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return pool;
+  }
+
+  /** Start an export, or return null if all export slots are busy. */
+  static ExportStream start(String id, ChatRef ref, String scope, String with, String groupId,
+      int window, Consumer<JsonObject> out) {
+    if (RUNNING.incrementAndGet() > maxConcurrent) {
+      RUNNING.decrementAndGet();
+      return null;
+    }
+    ExportStream s = new ExportStream(id, ref, scope, with, groupId, window, out);
+    pool().execute(s);
+    return s;
+  }
+
+  /** Outstanding credits never exceed MAX_WINDOW, however many acks the client sends. */
+  synchronized void grant(int n) {
+    int room = MAX_WINDOW - credits.availablePermits();
+    if (n > 0 && room > 0) credits.release(Math.min(n, room));
+  }
+
+  /** Still streaming (export_end not sent yet). */
+  boolean isRunning() {
+    return !finished;
+  }
+
+  void cancel() {
+    cancelled = true;
+    credits.release(MAX_WINDOW); // wake a waiting stream
+  }
+
+  @Override
+  public void run() {
+    long t0 = System.currentTimeMillis();
+    long[] chunks = {0L};
+    String[] error = {null};
+
+    try {
+      out.accept(Protocol.exportStart(id, scope, with, groupId));
+
+      List<String> buf = new ArrayList<>(CHUNK_MESSAGES);
+      int[] chars = {0};
+
+      long total = ExportRepository.forEachLine(ref, CURSOR_BATCH, line -> {
+        buf.add(line);
+        chars[0] += line.length();
+        if (buf.size() < CHUNK_MESSAGES && chars[0] < CHUNK_CHARS) return true;
+
+        error[0] = sendChunk(chunks[0]++, buf);
+        chars[0] = 0;
+        return error[0] == null;
+      });
+
+      if (error[0] == null && !buf.isEmpty()) error[0] = sendChunk(chunks[0]++, buf);
+
+      out.accept(Protocol.exportEnd(id, error[0] == null, total, error[0]));
+      System.out.println("📦 Export " + id + " (" + ref.key + ") " + (error[0] == null ? "done" : error[0])
+          + ": " + total + " messages, " + chunks[0] + " chunks in " + (System.currentTimeMillis() - t0) + "ms");
+    } catch (Exception ex) {
+      System.err.println("Export " + id + " failed: " + ex.getMessage());
+      out.accept(Protocol.exportEnd(id, false, 0L, "Export failed (server error)"));
+    } finally {
+      finished = true;
+      RUNNING.decrementAndGet();
+    }
+  }
+
+  /** Wait for one credit, then send buf as one chunk. Returns an error text or null. */
+  private String sendChunk(long index, List<String> buf) {
+    try {
+      if (!credits.tryAcquire(CREDIT_TIMEOUT_SEC, TimeUnit.SECONDS))
+        return "Export timed out (client stopped acknowledging)";
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return "Export interrupted";
+    }
+    if (cancelled) return "Export cancelled";
+
+    out.accept(Protocol.exportChunk(id, index, buf));
+    buf.clear();
+    return null;
+  }
+}
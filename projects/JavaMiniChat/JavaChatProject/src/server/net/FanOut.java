@@ -0,0 +1,127 @@
+package server.net;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import server.metrics.ChatEvents;
+import server.metrics.Metrics;
+
+/**
+ * Parallel, non-blocking fan-out of one frame to many sessions (groups, broadcast).
+ *
+ * Every Outbox belongs to a lane (round robin at creation). A recipient list is kept
+ * pre-split by lane (Outbox[lane][]), and each lane is ONE thread:
+ * - shards run on different cores
+ * - a session always receives fan-outs from the same thread, so in order
+ * - lanes only enqueue into Outboxes, never touch sockets
+ *
+ * deliver() only hands the shards to the lanes, so the sender's latency does not depend
+ * on the number of recipients. Metrics: how long a shard waits for its lane (FANOUT_LAG)
+ * and how long queueing it takes (FANOUT_SHARD); slow fan-outs also become chat.FanOut
+ * JFR events.
+ */
+public final class FanOut {
+
+  private static final int LANES = Math.max(2, Runtime.getRuntime().availableProcessors());
+  private static final ExecutorService[] LANE_EXEC = new ExecutorService[LANES];
+  private static final AtomicInteger NEXT_LANE = new AtomicInteger();
+
+  static {
+    for (int i = 0; i < LANES; i++) {
+      String name = "chat-fanout-" + (i + 1);
+      LANE_EXEC[i] = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      });
+    }
+  }
+
+  private FanOut() {}
+
+  public static int lanes() {
+    return LANES;
+  }
+
+  static int nextLane() {
+    return Math.floorMod(NEXT_LANE.getAndIncrement(), LANES);
+  }
+
+  /** Split recipients by lane (do this once per membership change, not per message). */
+  public static Outbox[][] byLane(Collection<Outbox> boxes) {
+    int[] counts = new int[LANES];
+    for (Outbox b : boxes) counts[b.lane]++;
+
+    Outbox[][] out = new Outbox[LANES][];
+    for (int i = 0; i < LANES; i++) out[i] = new Outbox[counts[i]];
+
+    int[] fill = new int[LANES];
+    for (Outbox b : boxes) out[b.lane][fill[b.lane]++] = b;
+    return out;
+  }
+
+  /** Queue line (one serialized frame) for every recipient. Returns after hand-off. */
+  public static void deliver(String line, Outbox[][] byLane) {
+    deliver(line, byLane, null);
+  }
+
+  /** Same, stamping each recipient's enqueue on a sampled message (trace may be null). */
+  static void deliver(String line, Outbox[][] byLane, MessageTrace trace) {
+    if (line == null || byLane == null) return;
+    long queuedAt = System.nanoTime();
+    FanOutEvent event = ChatEvents.enabled() ? FanOutEvent.begin(line, byLane) : null;
+    for (int i = 0; i < byLane.length; i++) {
+      Outbox[] shard = byLane[i];
+      if (shard.length == 0) continue;
+      Metrics.FANOUT_RECIPIENTS.add(shard.length);
+      MessageTrace.hold(trace);
+      LANE_EXEC[i].execute(() -> {
+        long start = System.nanoTime();
+        Metrics.FANOUT_LAG.record(start - queuedAt);
+        if (trace == null) {
+          for (Outbox b : shard) b.offer(line);
+        } else {
+          for (Outbox b : shard) MessageTrace.offer(trace, b, line);
+          MessageTrace.release(trace);
+        }
+        Metrics.FANOUT_SHARD.recordSince(start);
+        if (event != null) event.shardDone();
+      });
+    }
+  }
+
+  /** chat.FanOut JFR event: begins at hand-off, committed by the lane that finishes last. */
+  private static final class FanOutEvent {
+    final ChatEvents.FanOut event = new ChatEvents.FanOut();
+    final AtomicInteger shardsLeft;
+
+    private FanOutEvent(int shards) {
+      shardsLeft = new AtomicInteger(shards);
+    }
+
+    static FanOutEvent begin(String line, Outbox[][] byLane) {
+      int shards = 0;
+      int recipients = 0;
+      for (Outbox[] shard : byLane) {
+        if (shard.length == 0) continue;
+        shards++;
+        recipients += shard.length;
+      }
+      if (shards == 0) return null;
+
+      FanOutEvent f = new FanOutEvent(shards);
+      f.event.recipients = recipients;
+      f.event.lanes = shards;
+      f.event.bytes = line.length(); // chars: frames are ASCII JSON except message text
+      f.event.begin();
+      return f;
+    }
+
+    void shardDone() {
+      if (shardsLeft.decrementAndGet() != 0) return;
+      event.end();
+      if (event.shouldCommit()) event.commit();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package server.net;
+
+/**
+ * Application-level heartbeat + idle reaper for sessions.
+ *
+ * TCP keep-alive takes hours to notice a half-open connection; until then the session
+ * thread sits in readLine(), the user stays online and keeps receiving fan-outs. Instead:
+ * - every session has one timeout on a shared TimerWheel (one thread for all sessions)
+ * - a logged-in session that sent nothing for `interval` gets a ping {ts}; the client
+ *   answers pong {ts} and the RTT is recorded in SessionMetrics
+ * - a session that sent nothing (pong included) for `idleTimeout` is reaped: its socket
+ *   is closed, the reader thread fails and runs the normal cleanup (offline, fan-outs)
+ *
+ * Sessions that have not logged in yet are never pinged (the first frame must be auth),
+ * but they are reaped the same way. The same check re-issues session tokens before they
+ * expire, and parked sessions (see Resume) time out on the same wheel.
+ *
+ * Write watchdog: socket writes have no timeout, so a client that stops reading can block
+ * a shared Outbox writer thread. A sweep closes every connection stuck in one write for
+ * `writeTimeout`; the blocked write then fails and the thread moves on.
+ */
+final class Heartbeat {
+
+  private static final long TICK_MS = 500;
+  private static final int SLOTS = 512; // one turn = 256 s, longer delays wait extra rounds
+
+  private static volatile long intervalMs = 20_000;
+  private static volatile long idleTimeoutMs = 60_000;
+  private static volatile long writeTimeoutMs = 10_000;
+  private static TimerWheel wheel;
+
+  private Heartbeat() {}
+
+  /** heartbeatSec <= 0 disables pings, idleTimeoutSec <= 0 disables reaping. */
+  static void configure(int heartbeatSec, int idleTimeoutSec) {
+    intervalMs = Math.max(0, heartbeatSec) * 1000L;
+    idleTimeoutMs = Math.max(0, idleTimeoutSec) * 1000L;
+    if (idleTimeoutMs > 0 && intervalMs >= idleTimeoutMs) {
+      // the ping must have time to come back before the session counts as dead
+      intervalMs = idleTimeoutMs / 2;
+      System.err.println("⚠️ Heartbeat interval must be below the idle timeout; using " + intervalMs + " ms");
+    }
+  }
+
+  /** writeTimeoutMs <= 0 disables the watchdog; otherwise starts its sweep. */
+  static void configureWriteTimeout(int timeoutMs) {
+    writeTimeoutMs = Math.max(0, timeoutMs);
+    if (writeTimeoutMs > 0) after(sweepEveryMs(), Heartbeat::checkWrites);
+  }
+
+  private static long sweepEveryMs() {
+    return Math.max(TICK_MS, Math.min(1_000, writeTimeoutMs / 2));
+  }
+
+  private static void checkWrites() {
+    long limit = writeTimeoutMs;
+    if (limit <= 0) return;
+
+    long now = System.currentTimeMillis();
+    for (ClientHandler h : ClientHandler.openConnections()) {
+      Outbox b = h.outbox();
+      if (b == null || h.isClosed()) continue;
+      long blocked = b.writeBlockedMs(now);
+      if (blocked >= limit) h.writeStuck(blocked);
+    }
+    after(sweepEveryMs(), Heartbeat::checkWrites);
+  }
+
+  /** Start watching a new session (called once, from its reader thread). */
+  static void watch(ClientHandler h) {
+    long first = nextCheck(h, System.currentTimeMillis());
+    if (first > 0) wheel().schedule(() -> check(h), first);
+  }
+
+  private static void check(ClientHandler h) {
+    if (h.isClosed()) return;
+
+    long now = System.currentTimeMillis();
+    if (h.busy()) h.touch(now); // requests still running: waiting on us, not idle
+
+    long idle = now - h.lastReadAt();
+    if (idleTimeoutMs > 0 && idle >= idleTimeoutMs) {
+      h.reap(idle);
+      return;
+    }
+    if (intervalMs > 0 && idle >= intervalMs && h.isAuthenticated() && !h.pingOutstanding()) {
+      h.ping(now);
+    }
+    if (h.isAuthenticated()) h.refreshToken(now);
+
+    long next = nextCheck(h, now);
+    if (next > 0) wheel().schedule(() -> check(h), next);
+  }
+
+  /** Run task once after delayMs (resume grace periods), on the reaper thread. */
+  static void after(long delayMs, Runnable task) {
+    wheel().schedule(task, Math.max(TICK_MS, delayMs));
+  }
+
+  /** Delay until this session next needs attention (0 = never). */
+  private static long nextCheck(ClientHandler h, long now) {
+    long last = h.lastReadAt();
+    long due = Long.MAX_VALUE;
+    if (idleTimeoutMs > 0) due = last + idleTimeoutMs;
+    if (intervalMs > 0) {
+      // not logged in yet / ping in flight: nothing to send now, look again an interval later
+      boolean canPing = h.isAuthenticated() && !h.pingOutstanding();
+      due = Math.min(due, (canPing ? last : now) + intervalMs);
+    }
+    if (due == Long.MAX_VALUE) return 0;
+    return Math.max(TICK_MS, due - now);
+  }
+
+  private static synchronized TimerWheel wheel() {
+    if (wheel == null) wheel = new TimerWheel("chat-reaper", TICK_MS, SLOTS);
+    return wheel;
+  }
+}
@@ -0,0 +1,281 @@
+package server.net;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import server.metrics.Exposition;
+import server.metrics.Histogram;
+
+/**
+ * Lifecycle of one sampled chat message (broadcast / private / group), server-side stamps:
+ *
+ *   received (line read) -> validated (content + membership ok) -> persisted (insert done)
+ *   -> enqueued (into each recipient's Outbox) -> flushed (each recipient's socket flush)
+ *
+ * Stage latencies go into histograms (chat_message_stage_seconds{stage}):
+ * - validate: received -> validated (includes the wait behind the session's earlier requests)
+ * - persist:  validated -> persisted
+ * - fanout:   persisted -> last recipient enqueued
+ * - deliver:  persisted -> flushed, once per recipient
+ * - total:    received -> last recipient flushed
+ * Traces slower than the threshold end up in a ring buffer (admin "traces").
+ *
+ * A trace follows the frame itself: a message is serialized once and the same String
+ * instance is queued for every recipient, so that instance is registered while in flight
+ * (compared by identity: an equal line of another message is another frame) and Outbox
+ * reports the lines it flushed. The trace completes when every recipient it was
+ * enqueued for has flushed; recipients that never flush (parked, stalled) are closed by a
+ * sweep after EXPIRE_MS and recorded as incomplete. Remote recipients (cluster) are not
+ * followed.
+ *
+ * Untraced messages pay one volatile read in Outbox and nothing else; sampling is off by
+ * default (CHAT_TRACE_PERCENT).
+ */
+final class MessageTrace {
+
+  private static final long EXPIRE_MS = 30_000;
+  private static final int MAX_PENDING = 4096;
+  private static final String[] STAGES = {"validate", "persist", "fanout", "deliver", "total"};
+
+  private static volatile int samplePercent;
+  private static volatile long slowNanos = 250_000_000L;
+  private static volatile AtomicReferenceArray<JsonObject> ring = new AtomicReferenceArray<>(256);
+  private static final AtomicLong RING_NEXT = new AtomicLong();
+
+  // frame -> trace, while the frame is in flight
+  private static final ConcurrentHashMap<Frame, MessageTrace> PENDING = new ConcurrentHashMap<>();
+  private static final AtomicInteger PENDING_COUNT = new AtomicInteger();
+
+  private static final Histogram VALIDATE = new Histogram();
+  private static final Histogram PERSIST = new Histogram();
+  private static final Histogram FANOUT = new Histogram();
+  private static final Histogram DELIVER = new Histogram();
+  private static final Histogram TOTAL = new Histogram();
+  private static final Histogram[] BY_STAGE = {VALIDATE, PERSIST, FANOUT, DELIVER, TOTAL};
+
+  private final String type;
+  private final String user;
+  private final long receivedAt;
+  private final long startedMs = System.currentTimeMillis();
+
+  private volatile long validatedAt;
+  private volatile long persistedAt;
+  private volatile long seq;
+  private volatile String line;
+  private volatile Frame frame;
+
+  private final AtomicLong lastEnqueuedAt = new AtomicLong();
+  private final AtomicLong firstFlushedAt = new AtomicLong();
+  private final AtomicLong lastFlushedAt = new AtomicLong();
+  private final AtomicInteger recipients = new AtomicInteger();
+  private final AtomicInteger flushed = new AtomicInteger();
+  // the sender's hold + one per open shard + one per frame not flushed yet
+  private final AtomicInteger remaining = new AtomicInteger(1);
+  private final AtomicBoolean finished = new AtomicBoolean();
+
+  /** Map key of one serialized frame: the String instance, not its content. */
+  private static final class Frame {
+    final String line;
+
+    Frame(String line) {
+      this.line = line;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(line);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Frame f && f.line == line;
+    }
+  }
+
+  private MessageTrace(String type, String user, long receivedAt) {
+    this.type = type;
+    this.user = user;
+    this.receivedAt = receivedAt;
+  }
+
+  /** percent: share of chat messages traced (0 = off); slowMs: ring buffer threshold. */
+  static synchronized void configure(int percent, int slowMs, int ringSize) {
+    samplePercent = Math.max(0, Math.min(100, percent));
+    if (slowMs > 0) slowNanos = slowMs * 1_000_000L;
+    if (ringSize > 0) ring = new AtomicReferenceArray<>(ringSize);
+    if (samplePercent == 0) return;
+
+    Heartbeat.after(EXPIRE_MS / 2, MessageTrace::sweep);
+    System.out.println("🔬 Tracing " + samplePercent + "% of chat messages (slow >= " + (slowNanos / 1_000_000)
+        + "ms, ring " + ring.length() + ")");
+  }
+
+  /** A trace for this message, or null (not sampled, tracing off, too many in flight). */
+  static MessageTrace start(String type, String user, long receivedAt) {
+    int p = samplePercent;
+    if (p == 0 || (p < 100 && ThreadLocalRandom.current().nextInt(100) >= p)) return null;
+    if (PENDING_COUNT.get() >= MAX_PENDING) return null;
+    return new MessageTrace(type, user, receivedAt);
+  }
+
+  /** Cheap check for Outbox: is any traced frame in flight? */
+  static boolean active() {
+    return PENDING_COUNT.get() > 0;
+  }
+
+  // ---------------- Stamps (null-safe: call on a possibly absent trace) ----------------
+
+  static void validated(MessageTrace t) {
+    if (t != null) t.validatedAt = System.nanoTime();
+  }
+
+  /** Stored: from now on the frame `line` is followed. */
+  static void persisted(MessageTrace t, long seq, String line) {
+    if (t == null || line == null) return;
+    t.persistedAt = System.nanoTime();
+    if (t.validatedAt == 0) t.validatedAt = t.persistedAt;
+    t.seq = seq;
+    Frame f = new Frame(line);
+    if (PENDING.putIfAbsent(f, t) == null) {
+      t.frame = f;
+      t.line = line;
+      PENDING_COUNT.incrementAndGet();
+    }
+  }
+
+  /** Keeps the trace open while a fan-out shard is queued elsewhere. */
+  static void hold(MessageTrace t) {
+    if (t != null) t.remaining.incrementAndGet();
+  }
+
+  static void release(MessageTrace t) {
+    if (t != null && t.remaining.decrementAndGet() == 0) t.finish(false);
+  }
+
+  /** Offer the traced frame to one recipient. */
+  static boolean offer(MessageTrace t, Outbox box, String line) {
+    if (t == null || t.line == null) return box.offer(line);
+
+    t.remaining.incrementAndGet();
+    if (!box.offer(line)) {
+      release(t);
+      return false;
+    }
+    t.recipients.incrementAndGet();
+    t.lastEnqueuedAt.accumulateAndGet(System.nanoTime(), Math::max);
+    return true;
+  }
+
+  /** Outbox flushed this frame to its socket. */
+  static void flushed(String line) {
+    MessageTrace t = PENDING.get(new Frame(line));
+    if (t == null) return;
+
+    long now = System.nanoTime();
+    DELIVER.record(now - t.persistedAt);
+    t.firstFlushedAt.compareAndSet(0, now);
+    t.lastFlushedAt.accumulateAndGet(now, Math::max);
+    t.flushed.incrementAndGet();
+    release(t);
+  }
+
+  private void finish(boolean expired) {
+    if (!finished.compareAndSet(false, true)) return;
+    Frame f = frame;
+    if (f != null && PENDING.remove(f, this)) PENDING_COUNT.decrementAndGet();
+
+    long end = lastFlushedAt.get() != 0 ? lastFlushedAt.get() : Math.max(persistedAt, validatedAt);
+    if (validatedAt != 0) VALIDATE.record(validatedAt - receivedAt);
+    if (persistedAt != 0) PERSIST.record(persistedAt - validatedAt);
+    if (lastEnqueuedAt.get() != 0) FANOUT.record(lastEnqueuedAt.get() - persistedAt);
+    if (!expired && end != 0) TOTAL.record(end - receivedAt);
+
+    if (expired || (end != 0 && end - receivedAt >= slowNanos)) keep(toJson(expired));
+  }
+
+  /** Close traces whose recipients never flushed (runs on the reaper thread). */
+  private static void sweep() {
+    long cutoff = System.currentTimeMillis() - EXPIRE_MS;
+    for (MessageTrace t : PENDING.values()) {
+      if (t.startedMs < cutoff) t.finish(true);
+    }
+    if (samplePercent > 0 || !PENDING.isEmpty()) Heartbeat.after(EXPIRE_MS / 2, MessageTrace::sweep);
+  }
+
+  // ---------------- Ring buffer + read side ----------------
+
+  private static void keep(JsonObject trace) {
+    AtomicReferenceArray<JsonObject> r = ring;
+    r.set((int) (RING_NEXT.getAndIncrement() % r.length()), trace);
+  }
+
+  private JsonObject toJson(boolean expired) {
+    JsonObject o = new JsonObject();
+    o.addProperty("at", startedMs);
+    o.addProperty("type", type);
+    o.addProperty("user", user);
+    o.addProperty("seq", seq);
+    o.addProperty("recipients", recipients.get());
+    o.addProperty("flushed", flushed.get());
+    o.addProperty("complete", !expired);
+
+    JsonObject ms = new JsonObject();
+    putMs(ms, "validate", receivedAt, validatedAt);
+    putMs(ms, "persist", validatedAt, persistedAt);
+    putMs(ms, "fanout", persistedAt, lastEnqueuedAt.get());
+    putMs(ms, "firstFlush", persistedAt, firstFlushedAt.get());
+    putMs(ms, "lastFlush", persistedAt, lastFlushedAt.get());
+    putMs(ms, "total", receivedAt, lastFlushedAt.get());
+    o.add("ms", ms);
+    return o;
+  }
+
+  private static void putMs(JsonObject o, String key, long from, long to) {
+    if (from != 0 && to != 0) o.addProperty(key, Math.round((to - from) / 1_000.0) / 1_000.0);
+  }
+
+  /** Newest slow traces first (at most limit) + per-stage percentiles. */
+  static JsonObject dump(int limit) {
+    AtomicReferenceArray<JsonObject> r = ring;
+    long next = RING_NEXT.get();
+    JsonArray traces = new JsonArray();
+    for (long i = next - 1; i >= 0 && i >= next - r.length() && traces.size() < limit; i--) {
+      JsonObject t = r.get((int) (i % r.length()));
+      if (t != null) traces.add(t.deepCopy());
+    }
+
+    JsonObject stages = new JsonObject();
+    for (int i = 0; i < STAGES.length; i++) {
+      Histogram.Snapshot s = BY_STAGE[i].snapshot();
+      JsonObject st = new JsonObject();
+      st.addProperty("n", s.count);
+      st.addProperty("p50", s.percentile(0.50) / 1e6);
+      st.addProperty("p99", s.percentile(0.99) / 1e6);
+      st.addProperty("max", s.maxNanos / 1e6);
+      stages.add(STAGES[i], st);
+    }
+
+    JsonObject o = new JsonObject();
+    o.addProperty("samplePercent", samplePercent);
+    o.addProperty("slowMs", slowNanos / 1_000_000);
+    o.addProperty("inFlight", PENDING_COUNT.get());
+    o.add("stages", stages);
+    o.add("traces", traces);
+    return o;
+  }
+
+  /** chat_message_stage_seconds{stage} (Metrics collector). */
+  static void expose(Exposition out) {
+    if (samplePercent == 0 && TOTAL.count() == 0) return;
+    out.family("chat_message_stage_seconds", "histogram", "Traced chat messages: latency per lifecycle stage");
+    for (int i = 0; i < STAGES.length; i++)
+      out.histogram("chat_message_stage_seconds", Exposition.label("stage", STAGES[i]), BY_STAGE[i].snapshot());
+    out.gauge("chat_message_traces_in_flight", "Traced frames not flushed to all recipients yet", PENDING_COUNT.get());
+  }
+}
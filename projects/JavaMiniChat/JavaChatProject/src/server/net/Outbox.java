@@ -0,0 +1,180 @@
+package server.net;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-session outbound queue: offer() never blocks the caller on the socket.
+ *
+ * - Frames arrive already serialized (a fan-out shares ONE String across all recipients)
+ * - A small shared writer pool drains the queues; at most one drain per session runs at a
+ *   time, so frames keep their order
+ * - A client that stops reading fills its queue up to MAX_QUEUED frames and is dropped
+ *   (onOverflow) instead of stalling the sender or anyone else
+ * - Writes block on the socket (full TCP window), so the drain stamps when its current
+ *   write started; Heartbeat closes a connection stuck in one write past the write timeout,
+ *   which fails the write and frees the shared writer thread for everyone else
+ * - When the socket fails, or the session is parked for a resume (hold), frames are kept
+ *   instead of written, up to a limit; resume() then writes them to the new connection,
+ *   starting with the batch whose flush failed
+ */
+public final class Outbox {
+
+  public static final int MAX_QUEUED = 20_000;
+
+  private static final int WRITER_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+  private static ExecutorService writers;
+
+  /** Fan-out lane of this session (fixed for its lifetime, see FanOut). */
+  final int lane;
+
+  // replaced by resume() (a new connection of the same session)
+  private volatile Writer out;
+  private volatile Runnable onOverflow;
+
+  private volatile boolean holding;
+  private volatile int holdLimit = MAX_QUEUED;
+  // frames written since the last successful flush (only touched by the drain that runs)
+  private final ArrayDeque<String> unflushed = new ArrayDeque<>();
+
+  private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  // when the running drain started its current write / flush, epoch ms (0 = not writing)
+  private volatile long writingSince;
+
+  public Outbox(Writer out, Runnable onOverflow) {
+    this.out = out;
+    this.onOverflow = onOverflow == null ? () -> {} : onOverflow;
+    this.lane = FanOut.nextLane();
+  }
+
+  /** Queue one serialized frame (no trailing newline). False if dropped. */
+  public boolean offer(String line) {
+    if (line == null || closed.get()) return false;
+
+    if (size.incrementAndGet() > (holding ? holdLimit : MAX_QUEUED)) {
+      size.decrementAndGet();
+      if (closed.compareAndSet(false, true)) onOverflow.run();
+      return false;
+    }
+    queue.add(line);
+
+    if (!holding && draining.compareAndSet(false, true)) writers().execute(this::drain);
+    return true;
+  }
+
+  /** Frames waiting to be written. */
+  public int queued() {
+    return size.get();
+  }
+
+  /** How long the running drain has been blocked in one write / flush (0 = not writing). */
+  long writeBlockedMs(long now) {
+    long since = writingSince;
+    return since == 0 ? 0 : Math.max(0, now - since);
+  }
+
+  /** Keep frames instead of writing them, at most `limit` (more = onOverflow). */
+  void hold(int limit) {
+    holdLimit = Math.max(1, limit);
+    holding = true;
+  }
+
+  /**
+   * Write again, to a new connection: first `head`, then every frame held so far.
+   * Returns the number of held frames.
+   */
+  int resume(Writer newOut, Runnable newOnOverflow, String head) {
+    // a drain that already saw `holding` is about to stop
+    while (!draining.compareAndSet(false, true)) Thread.yield();
+
+    int held = size.get() + unflushed.size();
+    out = newOut;
+    onOverflow = newOnOverflow == null ? () -> {} : newOnOverflow;
+    if (head != null) unflushed.addFirst(head);
+    holding = false;
+    closed.set(false);
+    writers().execute(this::drain);
+    return held;
+  }
+
+  /** Stop accepting frames; wait up to waitMs for what is queued to be written. */
+  public void close(long waitMs) {
+    long until = holding ? 0L : System.currentTimeMillis() + waitMs; // held frames are not going anywhere
+    while ((size.get() > 0 || draining.get()) && System.currentTimeMillis() < until) {
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    closed.set(true);
+    if (holding) {
+      queue.clear();
+      size.set(0);
+    }
+  }
+
+  private void drain() {
+    Writer w = out;
+    try {
+      while (true) {
+        w = out;
+        // left over from a failed flush (resume): they go first
+        for (String line : unflushed) {
+          writingSince = System.currentTimeMillis();
+          w.write(line);
+          w.write('\n');
+        }
+
+        String line;
+        while (!holding && (line = queue.poll()) != null) {
+          size.decrementAndGet();
+          unflushed.add(line);
+          writingSince = System.currentTimeMillis();
+          w.write(line);
+          w.write('\n');
+        }
+        if (!unflushed.isEmpty()) {
+          writingSince = System.currentTimeMillis();
+          w.flush();
+          if (MessageTrace.active()) {
+            for (String l : unflushed) MessageTrace.flushed(l);
+          }
+          unflushed.clear();
+        }
+
+        writingSince = 0;
+        draining.set(false);
+        // a frame may have been queued after the last poll; pick it up unless another drain did
+        if (holding || queue.isEmpty() || !draining.compareAndSet(false, true)) return;
+      }
+    } catch (IOException ex) {
+      // socket gone: keep the rest (a resume may pick it up); the reader thread notices
+      // and parks or cleans the session up
+      if (w == out && !holding) hold(MAX_QUEUED);
+      writingSince = 0;
+      draining.set(false);
+    }
+  }
+
+  private static synchronized ExecutorService writers() {
+    if (writers == null) {
+      AtomicInteger n = new AtomicInteger();
+      writers = Executors.newFixedThreadPool(WRITER_THREADS, r -> {
+        Thread t = new Thread(r, "chat-writer-" + n.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return writers;
+  }
+}
@@ -0,0 +1,170 @@
+package server.net;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonArray;
+
+import common.JsonUtil;
+import common.Protocol;
+import server.repo.AsyncRepository;
+import server.repo.ReadStateRepository;
+import server.repo.SequenceRepository;
+
+/**
+ * Delivered / read receipts, coalesced per chat.
+ *
+ * Clients acknowledge a high-water-mark seq per chat (ack_delivered, mark_read), never
+ * single messages. offer() only merges max(seq) per member into the chat's batch; every
+ * window the batch is persisted as watermarks (ReadStateRepository, itself coalesced)
+ * and fanned out as ONE receipts frame per online recipient.
+ *
+ * A burst of acks in a 100-member group therefore costs one members lookup and one
+ * frame per online member per window, not one write + fan-out per ack.
+ */
+final class ReceiptAggregator {
+
+  /** Pending marks of one chat: user -> {delivered, read}. */
+  private static final class Batch {
+    final String scope;
+    final String groupId;                                  // group only
+    final Map<String, long[]> marks = new HashMap<>();
+    final Map<String, String> peers = new HashMap<>();     // private only: user -> other member
+
+    Batch(String scope, String groupId) {
+      this.scope = scope;
+      this.groupId = groupId;
+    }
+  }
+
+  private static long windowMs = 250;
+  private static ScheduledExecutorService timer;
+
+  // chatKey -> marks collected during the current window
+  private static final ConcurrentHashMap<String, Batch> PENDING = new ConcurrentHashMap<>();
+
+  private ReceiptAggregator() {}
+
+  /** Optional tuning (ServerMain). Must run before the first receipt. */
+  static synchronized void configure(int windowMillis) {
+    if (windowMillis > 0 && timer == null) windowMs = windowMillis;
+  }
+
+  /**
+   * The pair's chat is checked when the window is drained (one head lookup per chat):
+   * no private chat (head 0) drops the marks, and marks above the head are clamped to it.
+   */
+  static void offerPrivate(String user, String with, long delivered, long read) {
+    if (user == null || with == null || user.equals(with)) return;
+    offer(SequenceRepository.privateKey(user, with), "private", null, user, with, delivered, read);
+  }
+
+  /** Membership is checked when the window is drained (one members lookup per group). */
+  static void offerGroup(String user, String groupId, long delivered, long read) {
+    if (user == null || groupId == null) return;
+    offer(SequenceRepository.groupKey(groupId), "group", groupId, user, null, delivered, read);
+  }
+
+  private static void offer(String chatKey, String scope, String groupId, String user, String peer,
+      long delivered, long read) {
+    if (delivered <= 0 && read <= 0) return;
+    ensureTimer();
+
+    PENDING.compute(chatKey, (k, b) -> {
+      if (b == null) b = new Batch(scope, groupId);
+      long[] m = b.marks.computeIfAbsent(user, u -> new long[2]);
+      m[0] = Math.max(m[0], Math.max(delivered, read));
+      m[1] = Math.max(m[1], read);
+      if (peer != null) b.peers.put(user, peer);
+      return b;
+    });
+  }
+
+  /** Persist + fan out everything collected so far. */
+  static void drain() {
+    for (String chatKey : new ArrayList<>(PENDING.keySet())) {
+      Batch b = PENDING.remove(chatKey);
+      if (b == null) continue;
+
+      if ("group".equals(b.scope)) drainGroup(chatKey, b);
+      else drainPrivate(chatKey, b);
+    }
+  }
+
+  private static void drainPrivate(String chatKey, Batch b) {
+    AsyncRepository.chatHead(chatKey).thenAccept(head -> {
+      if (head == null || head <= 0) return; // no message between the two users: no chat to mark
+
+      b.marks.forEach((user, m) -> {
+        m[0] = Math.min(m[0], head);
+        m[1] = Math.min(m[1], head);
+        persist(user, chatKey, m);
+        String peer = b.peers.get(user);
+        JsonArray arr = new JsonArray();
+        arr.add(Protocol.receipt(user, m[0], m[1]));
+        ClientHandler.sendToUser(peer, Protocol.receipts("private", user, null, false, arr));
+      });
+    }).exceptionally(ex -> {
+      System.err.println("⚠️ Receipt fan-out failed for " + chatKey + ": " + ex.getMessage());
+      return null;
+    });
+  }
+
+  /**
+   * Marks of non-members are dropped and the rest clamped to the group's head; ONE frame
+   * (serialized once) goes to the group's online sessions here and on the other nodes.
+   * Receivers skip their own entry.
+   */
+  private static void drainGroup(String chatKey, Batch b) {
+    AsyncRepository.groupMembers(b.groupId)
+        .thenCombine(AsyncRepository.chatHead(chatKey), (members, head) -> {
+          if (head == null || head <= 0) return null; // nothing posted yet: nothing to mark
+          Set<String> memberSet = new HashSet<>(members);
+
+          JsonArray arr = new JsonArray();
+          b.marks.forEach((user, m) -> {
+            if (!memberSet.contains(user)) return; // not (or no longer) a member: drop
+            m[0] = Math.min(m[0], head);
+            m[1] = Math.min(m[1], head);
+            persist(user, chatKey, m);
+            arr.add(Protocol.receipt(user, m[0], m[1]));
+          });
+          if (arr.isEmpty()) return null;
+
+          String line = JsonUtil.toLine(Protocol.receipts("group", null, b.groupId, false, arr));
+          FanOut.deliver(line, Sessions.group(b.groupId).byLane);
+          ClusterRoute.publishGroup(b.groupId, line);
+          return null;
+        }).exceptionally(ex -> {
+      System.err.println("⚠️ Receipt fan-out failed for " + chatKey + ": " + ex.getMessage());
+      return null;
+    });
+  }
+
+  private static void persist(String user, String chatKey, long[] m) {
+    ReadStateRepository.advanceDelivered(user, chatKey, m[0]);
+    if (m[1] > 0) ReadStateRepository.advance(user, chatKey, m[1]);
+  }
+
+  private static synchronized void ensureTimer() {
+    if (timer != null) return;
+    timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "receipt-window");
+      t.setDaemon(true);
+      return t;
+    });
+    timer.scheduleWithFixedDelay(() -> {
+      try {
+        drain();
+      } catch (Exception ex) {
+        System.err.println("⚠️ Receipt drain failed: " + ex.getMessage());
+      }
+    }, windowMs, windowMs, TimeUnit.MILLISECONDS);
+  }
+}
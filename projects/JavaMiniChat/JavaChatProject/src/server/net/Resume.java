@@ -0,0 +1,43 @@
+package server.net;
+import server.security.SessionTokens;
+
+/**
+ * Resumable sessions (the token itself: server.security.SessionTokens).
+ *
+ * A logged-in connection that drops without exit (network blip, reaped, reset) is parked
+ * instead of ended: the user stays online and in its audiences, and frames for it are
+ * held in its Outbox (at most `bufferFrames`). A resume {token} within `grace` takes the
+ * parked session over and gets the held frames right after its auth frame, so a blip
+ * costs no PBKDF2, no presence flap (offline + online user lists to everyone) and no
+ * missed messages. After the grace period, or when the buffer overflows, the session ends
+ * the usual way.
+ *
+ * Frames the dead socket had already accepted before the failure was noticed are not
+ * replayed (only a batch whose flush failed is); the client's history reload covers them.
+ */
+final class Resume {
+
+  private static volatile long graceMs = 30_000;
+  private static volatile int bufferFrames = 500;
+
+  private Resume() {}
+
+  /** graceSec <= 0 disables parking (resume then only skips the password check). */
+  static void configure(int graceSec, int frames) {
+    graceMs = Math.max(0, graceSec) * 1000L;
+    bufferFrames = Math.max(1, frames);
+  }
+
+  /** Park dropped sessions? */
+  static boolean enabled() {
+    return graceMs > 0 && SessionTokens.enabled();
+  }
+
+  static long graceMillis() {
+    return graceMs;
+  }
+
+  static int bufferFrames() {
+    return bufferFrames;
+  }
+}
@@ -2,9 +2,20 @@ package server.net;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import server.cluster.ClusterConfig;
+import server.db.DbExecutor;
+import server.db.MongoManager;
+import server.db.MongoMetrics;
+import server.metrics.JfrRecording;
+import server.metrics.Metrics;
+import server.metrics.MetricsHttp;
+import server.security.SessionTokens;
+
 /**
  * Socket server:
  * - Listens on a port
@@ -13,23 +24,110 @@ import java.util.concurrent.Executors;
  * Small hardening:
  * - reuseAddress (restart server quickly without "port in use" in some cases)
  * - set client socket options
+ *
+ * Shutdown (SIGTERM / Ctrl+C) drains instead of killing handlers: see Drain. After the
+ * drain, queued DB calls finish and the onShutdown tasks run (final flushes).
  */
 public final class Server {
 
+  private static final List<Runnable> SHUTDOWN_TASKS = new CopyOnWriteArrayList<>();
+  private static volatile ServerSocket listener;
+
   private Server() {}
 
+  /** Max transcript exports streaming at the same time (call before start). */
+  public static void configureExports(int maxConcurrent) {
+    ExportStream.configure(maxConcurrent);
+  }
+
+  /** Receipt coalescing window in ms (call before start). */
+  public static void configureReceipts(int windowMs) {
+    ReceiptAggregator.configure(windowMs);
+  }
+
+  /** Heartbeat interval / idle timeout in seconds, 0 disables (call before start). */
+  public static void configureHeartbeat(int heartbeatSec, int idleTimeoutSec) {
+    Heartbeat.configure(heartbeatSec, idleTimeoutSec);
+  }
+
+  /** Close connections stuck in one socket write for this long, 0 disables (call before start). */
+  public static void configureWriteTimeout(int writeTimeoutMs) {
+    Heartbeat.configureWriteTimeout(writeTimeoutMs);
+  }
+
+  /**
+   * Session tokens (secret shared by all nodes, empty = random; ttl <= 0 disables resume)
+   * and how long / how many frames a dropped session is kept for a resume (call before start).
+   */
+  public static void configureResume(String tokenSecret, int tokenTtlSec, int graceSec, int bufferFrames) {
+    SessionTokens.configure(tokenSecret, tokenTtlSec);
+    Resume.configure(graceSec, bufferFrames);
+  }
+
+  /**
+   * Register the server gauges; print all metrics every logSec seconds and serve them on
+   * httpPort (/metrics, /healthz, /readyz); 0 = off (call before start).
+   */
+  public static void configureMetrics(int logSec, int httpPort) {
+    Metrics.gauge("sessions_parked", "Dropped sessions waiting for a resume", ClientHandler::parkedSessions);
+    Metrics.gauge("outbox_queued_frames", "Frames queued in all session outboxes", ClientHandler::queuedFrames);
+    Metrics.gauge("db_queued", "Repository calls waiting for a DB thread", DbExecutor::queued);
+    Metrics.collector(SessionMetrics.INSTANCE::expose);
+    Metrics.collector(MongoMetrics.INSTANCE::expose);
+    Metrics.startLogging(logSec);
+    MetricsHttp.start(httpPort, Server::isReady);
+  }
+
+  /** Sample percent of chat messages for lifecycle tracing; slower ones are kept for admin "traces". */
+  public static void configureTracing(int samplePercent, int slowMs, int ringSize) {
+    MessageTrace.configure(samplePercent, slowMs, ringSize);
+    Metrics.collector(MessageTrace::expose);
+  }
+
+  /** Continuous JFR recording with chat events at least thresholdMs long (off unless enabled). */
+  public static void configureJfr(boolean enabled, int thresholdMs, int maxAgeMin, int maxSizeMb, String dumpFile) {
+    if (enabled) JfrRecording.start(thresholdMs, maxAgeMin, maxSizeMb, dumpFile);
+  }
+
+  /** Users allowed to send admin requests (comma-separated, empty = none). */
+  public static void configureAdmin(String users) {
+    Admin.configure(users);
+  }
+
+  /** Accepting sessions, not draining, MongoDB primary known: the load balancer may send clients. */
+  static boolean isReady() {
+    ServerSocket l = listener;
+    return l != null && !l.isClosed() && !Drain.isDraining() && MongoManager.isWritable();
+  }
+
+  /** Join the cluster described by config (no-op in single-node mode; call before start). */
+  public static void configureCluster(ClusterConfig config) {
+    ClusterRoute.start(config);
+  }
+
+  /** Drain deadline, reconnect spread and optional "host:port" redirect (call before start). */
+  public static void configureDrain(int deadlineSec, int spreadSec, String redirect) {
+    Drain.configure(deadlineSec, spreadSec, redirect);
+  }
+
+  /** Run after the drain, once sessions are gone and queued DB calls are done (final flushes). */
+  public static void onShutdown(Runnable task) {
+    if (task != null) SHUTDOWN_TASKS.add(task);
+  }
+
   public static void start(int port) {
     ExecutorService pool = Executors.newCachedThreadPool(); // fine for small apps
 
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-      pool.shutdownNow();
       System.out.println("🛑 Server shutting down...");
-    }));
+      shutdown(pool);
+    }, "server-drain"));
 
     ServerSocket serverSocket = null;
     try {
       serverSocket = new ServerSocket(port);
       serverSocket.setReuseAddress(true);
+      listener = serverSocket;
 
       System.out.println("🚀 Server running on port " + port);
 
@@ -45,11 +143,32 @@ public final class Server {
         pool.execute(new ClientHandler(clientSocket));
       }
     } catch (IOException e) {
+      if (Drain.isDraining()) return; // listener closed by the drain, which owns the pool now
       System.err.println("❌ Server failed: " + e.getMessage());
       e.printStackTrace();
     } finally {
       try { if (serverSocket != null) serverSocket.close(); } catch (Exception ignored) {}
-      pool.shutdownNow();
+      if (!Drain.isDraining()) pool.shutdownNow();
+    }
+  }
+
+  private static void shutdown(ExecutorService pool) {
+    long left = Drain.run(listener);
+    ClusterRoute.stop(); // peers drop this node's users when the links close
+
+    // async writes started by sessions (inbox, group receipts) finish before the final flushes
+    if (!DbExecutor.shutdown(Math.max(1000L, left)))
+      System.err.println("⚠️ DB calls still running at shutdown");
+
+    for (Runnable task : SHUTDOWN_TASKS) {
+      try {
+        task.run();
+      } catch (Exception ex) {
+        System.err.println("⚠️ Shutdown task failed: " + ex.getMessage());
+      }
     }
+    pool.shutdownNow();
+    MetricsHttp.stop(); // /readyz answered "not ready" for the whole drain
+    JfrRecording.stop(); // last: the recording covers the drain too
   }
 }
\ No newline at end of file
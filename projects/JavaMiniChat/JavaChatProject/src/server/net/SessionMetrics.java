@@ -0,0 +1,164 @@
+package server.net;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import server.metrics.Exposition;
+
+/**
+ * Session liveness counters: open sessions, heartbeats, round-trip times, reaped sessions,
+ * parked / resumed sessions.
+ *
+ * Fed by ClientHandler and the heartbeat reaper. Counters only (LongAdder / AtomicLong),
+ * so recording from reader threads and the reaper thread stays cheap.
+ *
+ * A growing reaped count means clients vanish without closing (NAT timeouts, sleeping
+ * laptops, dropped Wi-Fi); a growing RTT means clients or the network are slow. Parked
+ * sessions that expire instead of being resumed mean the grace period is too short (or
+ * the clients did not come back).
+ */
+public final class SessionMetrics {
+
+  public static final SessionMetrics INSTANCE = new SessionMetrics();
+
+  private final LongAdder open = new LongAdder();
+  private final LongAdder opened = new LongAdder();
+
+  private final LongAdder pingsSent = new LongAdder();
+  private final LongAdder pongs = new LongAdder();
+  private final LongAdder rttMillis = new LongAdder();
+  private final AtomicLong rttMaxMillis = new AtomicLong();
+
+  private final LongAdder reaped = new LongAdder();
+  private final LongAdder reapedBeforeLogin = new LongAdder();
+
+  private final LongAdder parked = new LongAdder();
+  private final LongAdder parkExpired = new LongAdder();
+  private final LongAdder resumed = new LongAdder();
+  private final LongAdder resumedFresh = new LongAdder();
+  private final LongAdder resumeRejected = new LongAdder();
+  private final LongAdder replayedFrames = new LongAdder();
+
+  private ScheduledExecutorService logger;
+
+  private SessionMetrics() {}
+
+  // ---------------- Write side ----------------
+
+  void sessionOpened() {
+    open.increment();
+    opened.increment();
+  }
+
+  void sessionClosed() {
+    open.decrement();
+  }
+
+  void pingSent() {
+    pingsSent.increment();
+  }
+
+  void pong(long rttMs) {
+    long rtt = Math.max(0L, rttMs);
+    pongs.increment();
+    rttMillis.add(rtt);
+    rttMaxMillis.accumulateAndGet(rtt, Math::max);
+  }
+
+  void reaped(boolean authenticated) {
+    reaped.increment();
+    if (!authenticated) reapedBeforeLogin.increment();
+  }
+
+  void sessionParked() {
+    parked.increment();
+  }
+
+  void parkedSessionExpired() {
+    parkExpired.increment();
+  }
+
+  /** took over a parked session (held frames replayed) or started a fresh one */
+  void resumed(boolean tookOver, int replayed) {
+    if (tookOver) resumed.increment();
+    else resumedFresh.increment();
+    replayedFrames.add(replayed);
+  }
+
+  void resumeRefused() {
+    resumeRejected.increment();
+  }
+
+  // ---------------- Read side ----------------
+
+  public long openSessions() { return Math.max(0L, open.sum()); }
+  public long sessionsOpened() { return opened.sum(); }
+  public long pingsSent() { return pingsSent.sum(); }
+  public long pongs() { return pongs.sum(); }
+  public long rttMillisTotal() { return rttMillis.sum(); }
+  public long rttMillisMax() { return rttMaxMillis.get(); }
+  public long reaped() { return reaped.sum(); }
+  public long reapedBeforeLogin() { return reapedBeforeLogin.sum(); }
+  public long parked() { return parked.sum(); }
+  public long parkExpired() { return parkExpired.sum(); }
+  public long resumed() { return resumed.sum(); }
+  public long resumedFresh() { return resumedFresh.sum(); }
+  public long resumeRejected() { return resumeRejected.sum(); }
+  public long replayedFrames() { return replayedFrames.sum(); }
+
+  /** Session counters in Prometheus format (metrics endpoint). */
+  public void expose(Exposition out) {
+    out.gauge("chat_sessions_open", "Open client connections (logged in or not)", openSessions());
+    out.counter("chat_sessions_opened_total", "Client connections accepted", sessionsOpened());
+    out.counter("chat_sessions_reaped_total", "Sessions closed by the idle reaper", reaped());
+    out.counter("chat_pings_total", "Heartbeat pings sent", pingsSent());
+    out.counter("chat_pongs_total", "Heartbeat pongs received", pongs());
+    out.family("chat_heartbeat_rtt_seconds_total", "counter", "Sum of heartbeat round trips")
+        .sample("chat_heartbeat_rtt_seconds_total", null, rttMillisTotal() / 1000.0);
+    out.counter("chat_sessions_parked_total", "Dropped sessions kept for a resume", parked());
+    out.counter("chat_sessions_park_expired_total", "Parked sessions nobody resumed", parkExpired());
+    out.family("chat_resumes_total", "counter", "resume requests by outcome")
+        .sample("chat_resumes_total", Exposition.label("outcome", "took_over"), resumed())
+        .sample("chat_resumes_total", Exposition.label("outcome", "fresh"), resumedFresh())
+        .sample("chat_resumes_total", Exposition.label("outcome", "refused"), resumeRejected());
+    out.counter("chat_frames_replayed_total", "Held frames sent after a resume", replayedFrames());
+  }
+
+  /** One-line human summary (used by the periodic log). */
+  public String summary() {
+    StringBuilder sb = new StringBuilder("sessions: open=").append(openSessions())
+        .append(" opened=").append(sessionsOpened())
+        .append(" reaped=").append(reaped())
+        .append(" (beforeLogin=").append(reapedBeforeLogin()).append(')')
+        .append(" | heartbeat: pings=").append(pingsSent())
+        .append(" pongs=").append(pongs());
+
+    long n = pongs();
+    if (n > 0) {
+      sb.append(" rttAvg=").append(rttMillisTotal() / n).append("ms")
+          .append(" rttMax=").append(rttMillisMax()).append("ms");
+    }
+    if (parked() + resumedFresh() + resumeRejected() > 0) {
+      sb.append(" | resume: parked=").append(parked())
+          .append(" expired=").append(parkExpired())
+          .append(" resumed=").append(resumed())
+          .append(" fresh=").append(resumedFresh())
+          .append(" rejected=").append(resumeRejected())
+          .append(" replayed=").append(replayedFrames());
+    }
+    return sb.toString();
+  }
+
+  /** Print summary every `seconds` (<= 0 disables). */
+  public synchronized void startLogging(int seconds) {
+    if (seconds <= 0 || logger != null) return;
+    logger = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "session-metrics");
+      t.setDaemon(true);
+      return t;
+    });
+    logger.scheduleAtFixedRate(() -> System.out.println("💓 " + summary()), seconds, seconds, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,177 @@
+package server.net;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pre-resolved fan-out targets: group -> online member sessions, already split by lane.
+ *
+ * Kept current on login (the user's groups), group creation and logout, so sending to a
+ * group never looks up members one by one. The lane split is rebuilt lazily, once per
+ * membership change, not per message.
+ */
+final class Sessions {
+
+  /** One audience (a group, or everyone online). */
+  private static final class Audience {
+    final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+    final AtomicLong version = new AtomicLong(); // bumped after every change
+    volatile Snapshot snapshot;
+  }
+
+  /** Immutable view used by one fan-out. */
+  static final class Snapshot {
+    final Outbox[][] byLane;
+    final Set<String> usernames;
+    final int size;
+    final long version;
+
+    Snapshot(Outbox[][] byLane, Set<String> usernames, long version) {
+      this.byLane = byLane;
+      this.usernames = usernames;
+      this.size = usernames.size();
+      this.version = version;
+    }
+  }
+
+  private static final ConcurrentHashMap<String, Audience> GROUPS = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<ClientHandler, Set<String>> JOINED = new ConcurrentHashMap<>();
+  private static final Audience EVERYONE = new Audience();
+  private static final Snapshot EMPTY = new Snapshot(FanOut.byLane(List.of()), Set.of(), 0L);
+
+  // snapshot reused vs rebuilt (admin "stats")
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+
+  private Sessions() {}
+
+  static void online(ClientHandler h) {
+    change(EVERYONE, () -> EVERYONE.members.add(h));
+  }
+
+  /** Register a logged-in session for its groups. */
+  static void joinGroups(ClientHandler h, Collection<String> groupIds) {
+    for (String g : groupIds) joinGroup(h, g);
+  }
+
+  static void joinGroup(ClientHandler h, String groupId) {
+    if (h == null || groupId == null) return;
+    Audience a = GROUPS.computeIfAbsent(groupId, k -> new Audience());
+    change(a, () -> a.members.add(h));
+    JOINED.computeIfAbsent(h, k -> ConcurrentHashMap.newKeySet()).add(groupId);
+  }
+
+  /** Session ended: remove it from every audience. */
+  static void offline(ClientHandler h) {
+    change(EVERYONE, () -> EVERYONE.members.remove(h));
+
+    Set<String> groups = JOINED.remove(h);
+    if (groups == null) return;
+    for (String g : groups) {
+      Audience a = GROUPS.get(g);
+      if (a == null) continue;
+      change(a, () -> a.members.remove(h));
+    }
+  }
+
+  /**
+   * A resumed connection takes the place of its parked session in every audience (add
+   * first, then remove: no fan-out misses the user in between).
+   */
+  static void handOver(ClientHandler from, ClientHandler to) {
+    change(EVERYONE, () -> {
+      EVERYONE.members.add(to);
+      EVERYONE.members.remove(from);
+    });
+
+    Set<String> groups = JOINED.remove(from);
+    if (groups == null) return;
+    JOINED.put(to, groups);
+    for (String g : groups) {
+      Audience a = GROUPS.get(g);
+      if (a == null) continue;
+      change(a, () -> {
+        a.members.add(to);
+        a.members.remove(from);
+      });
+    }
+  }
+
+  static boolean isJoined(ClientHandler h, String groupId) {
+    Set<String> groups = JOINED.get(h);
+    return groups != null && groups.contains(groupId);
+  }
+
+  /** Online sessions of one group (empty if none). */
+  static Snapshot group(String groupId) {
+    Audience a = GROUPS.get(groupId);
+    return a == null ? EMPTY : snapshotOf(a);
+  }
+
+  static Snapshot everyone() {
+    return snapshotOf(EVERYONE);
+  }
+
+  static long snapshotHits() {
+    return HITS.sum();
+  }
+
+  static long snapshotMisses() {
+    return MISSES.sum();
+  }
+
+  /** Audiences with a snapshot built (everyone + groups). */
+  static int cachedSnapshots() {
+    int n = EVERYONE.snapshot != null ? 1 : 0;
+    for (Audience a : GROUPS.values()) {
+      if (a.snapshot != null) n++;
+    }
+    return n;
+  }
+
+  /** Drop every snapshot: the next fan-out of each audience rebuilds it. Returns how many. */
+  static int invalidate() {
+    int n = 0;
+    for (Audience a : GROUPS.values()) {
+      if (a.snapshot != null) n++;
+      a.snapshot = null;
+    }
+    if (EVERYONE.snapshot != null) n++;
+    EVERYONE.snapshot = null;
+    return n;
+  }
+
+  private static void change(Audience a, Runnable r) {
+    r.run();
+    a.version.incrementAndGet();
+  }
+
+  private static Snapshot snapshotOf(Audience a) {
+    long v = a.version.get();
+    Snapshot s = a.snapshot;
+    if (s != null && s.version == v) {
+      HITS.increment();
+      return s;
+    }
+    MISSES.increment();
+
+    List<Outbox> boxes = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    for (ClientHandler h : a.members) {
+      Outbox b = h.outbox();
+      // one box per user: during a resume hand-over both sessions share the same Outbox
+      if (b == null || !names.add(h.username())) continue;
+      boxes.add(b);
+    }
+    // labelled with the version read BEFORE building: a change racing with this build
+    // makes it stale right away instead of hiding the change
+    s = new Snapshot(FanOut.byLane(boxes), names, v);
+    a.snapshot = s;
+    return s;
+  }
+}
@@ -0,0 +1,69 @@
+package server.net;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * The last requests that took at least 50 ms (read to done, pipeline wait included), for
+ * admin "stats". Faster requests cost one comparison; slow ones one small object in a ring.
+ */
+final class SlowRequests {
+
+  private static final long MIN_NANOS = 50_000_000L; // 50 ms
+  private static final int RING = 128;
+
+  private static final class Entry {
+    final long at;
+    final String type;
+    final String user;
+    final long nanos;
+
+    Entry(long at, String type, String user, long nanos) {
+      this.at = at;
+      this.type = type;
+      this.user = user;
+      this.nanos = nanos;
+    }
+  }
+
+  private static final AtomicReferenceArray<Entry> ENTRIES = new AtomicReferenceArray<>(RING);
+  private static final AtomicLong NEXT = new AtomicLong();
+
+  private SlowRequests() {}
+
+  static void record(String type, String user, long nanos) {
+    if (nanos < MIN_NANOS) return;
+    Entry e = new Entry(System.currentTimeMillis(), type, user, nanos);
+    ENTRIES.set((int) (NEXT.getAndIncrement() % RING), e);
+  }
+
+  /** Slowest first, at most limit, out of the last RING slow requests. */
+  static JsonArray slowest(int limit) {
+    List<Entry> all = new ArrayList<>(RING);
+    for (int i = 0; i < RING; i++) {
+      Entry e = ENTRIES.get(i);
+      if (e != null) all.add(e);
+    }
+    all.sort(Comparator.comparingLong((Entry e) -> e.nanos).reversed());
+
+    JsonArray arr = new JsonArray();
+    for (Entry e : all.subList(0, Math.min(limit, all.size()))) {
+      JsonObject o = new JsonObject();
+      o.addProperty("at", e.at);
+      o.addProperty("type", e.type);
+      o.addProperty("user", e.user);
+      o.addProperty("ms", Math.round(e.nanos / 1_000.0) / 1_000.0);
+      arr.add(o);
+    }
+    return arr;
+  }
+
+  static long minMs() {
+    return MIN_NANOS / 1_000_000;
+  }
+}
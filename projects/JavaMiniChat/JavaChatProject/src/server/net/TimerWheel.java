@@ -0,0 +1,113 @@
+package server.net;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel: cheap timeouts for many sessions on ONE thread.
+ *
+ * - schedule() only appends to a lock-free queue; the wheel thread moves new timeouts
+ *   into their slot on the next tick
+ * - each tick runs the expired timeouts of one slot (a timeout further away than one
+ *   turn waits `rounds` turns)
+ * - precision is one tick, which is plenty for heartbeats and idle timeouts
+ *
+ * Tasks run on the wheel thread and must be short (queue a frame, close a socket).
+ */
+final class TimerWheel {
+
+  /** Handle of one scheduled task. */
+  static final class Timeout {
+    final Runnable task;
+    final long deadline;  // absolute tick
+    long rounds;          // turns of the wheel left (wheel thread only)
+    volatile boolean cancelled;
+
+    Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    void cancel() {
+      cancelled = true;
+    }
+  }
+
+  private final long tickMs;
+  private final ArrayDeque<Timeout>[] slots;
+  private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+  private final long startNanos = System.nanoTime();
+  private volatile long tick; // ticks processed so far
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  TimerWheel(String threadName, long tickMs, int slotCount) {
+    this.tickMs = Math.max(1, tickMs);
+    this.slots = new ArrayDeque[Math.max(1, slotCount)];
+    for (int i = 0; i < slots.length; i++) slots[i] = new ArrayDeque<>();
+
+    Thread t = new Thread(this::loop, threadName);
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /** Run task once after about delayMs (rounded up to the next tick). */
+  Timeout schedule(Runnable task, long delayMs) {
+    long ticks = Math.max(1, (Math.max(0, delayMs) + tickMs - 1) / tickMs);
+    Timeout t = new Timeout(task, elapsedTicks() + ticks);
+    incoming.add(t);
+    return t;
+  }
+
+  private long elapsedTicks() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) / tickMs;
+  }
+
+  private void loop() {
+    while (true) {
+      long sleep = (tick + 1) * tickMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      if (sleep > 0) {
+        try {
+          Thread.sleep(sleep);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+
+      long now = tick + 1;
+      transferIncoming(now);
+      expire(slots[(int) (now % slots.length)]);
+      tick = now;
+    }
+  }
+
+  /** Put newly scheduled timeouts into their slot. */
+  private void transferIncoming(long now) {
+    Timeout t;
+    while ((t = incoming.poll()) != null) {
+      if (t.cancelled) continue;
+      long due = Math.max(t.deadline, now); // scheduled late: fire on this tick
+      t.rounds = (due - now) / slots.length;
+      slots[(int) (due % slots.length)].add(t);
+    }
+  }
+
+  private static void expire(ArrayDeque<Timeout> slot) {
+    Iterator<Timeout> it = slot.iterator();
+    while (it.hasNext()) {
+      Timeout t = it.next();
+      if (t.cancelled) {
+        it.remove();
+      } else if (t.rounds > 0) {
+        t.rounds--;
+      } else {
+        it.remove();
+        try {
+          t.task.run();
+        } catch (Exception ex) {
+          System.err.println("⚠️ Timer task failed: " + ex.getMessage());
+        }
+      }
+    }
+  }
+}
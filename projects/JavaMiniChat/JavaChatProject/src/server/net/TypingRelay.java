@@ -0,0 +1,117 @@
+package server.net;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-side coalescing of typing events.
+ *
+ * Clients are edge-triggered (start once, refresh every few seconds, stop on idle), but
+ * the server does not rely on it:
+ * - per (from, chat): a repeated "start" is relayed at most once per MIN_REFRESH_MS,
+ *   a "stop" only if a "start" was relayed
+ * - per group: at most GROUP_EVENTS_PER_SEC relayed events per second (each one is a
+ *   fan-out to every online member), so a busy 100-member group is not flooded
+ *
+ * Receivers expire the indicator on their own, so a dropped "stop" is harmless.
+ * Callers check group membership first; group budgets whose second is over are pruned.
+ */
+final class TypingRelay {
+
+  static final long MIN_REFRESH_MS = 3000;
+  static final int GROUP_EVENTS_PER_SEC = 4;
+  private static final long PRUNE_EVERY_MS = 10_000;
+
+  /** Last relayed state of one (from, chat). */
+  private static final class State {
+    boolean typing;
+    long relayedAt;
+  }
+
+  /** One-second window counter for one group. */
+  private static final class Budget {
+    long windowStart;
+    int used;
+  }
+
+  // "from|to" or "from|group:gid" -> last relayed state
+  private static final ConcurrentHashMap<String, State> STATES = new ConcurrentHashMap<>();
+  // groupId -> events relayed in the current second
+  private static final ConcurrentHashMap<String, Budget> GROUP_BUDGETS = new ConcurrentHashMap<>();
+  private static volatile long prunedAt;
+
+  private TypingRelay() {}
+
+  /** Should this private typing event be relayed? */
+  static boolean allowPrivate(String from, String to, boolean typing) {
+    return edge(from + "|" + to, typing, System.currentTimeMillis());
+  }
+
+  /** Should this group typing event be relayed? (edge + per-group rate cap) */
+  static boolean allowGroup(String from, String groupId, boolean typing) {
+    long now = System.currentTimeMillis();
+    String key = from + "|group:" + groupId;
+
+    // peek first: don't spend group budget on events the edge filter drops anyway
+    State s = STATES.get(key);
+    if (s != null && !wouldRelay(s, typing, now)) return false;
+    if (s == null && !typing) return false;
+
+    if (!takeGroupBudget(groupId, now)) return false;
+    return edge(key, typing, now);
+  }
+
+  /** Session ended: forget its typing state (receivers expire the indicator). */
+  static void forget(String from) {
+    if (from == null) return;
+    String prefix = from + "|";
+    STATES.keySet().removeIf(k -> k.startsWith(prefix));
+  }
+
+  private static boolean edge(String key, boolean typing, long now) {
+    boolean[] relay = {false};
+    STATES.compute(key, (k, s) -> {
+      if (s == null) {
+        if (!typing) return null; // stop without a start: nothing to undo
+        s = new State();
+      }
+      if (!wouldRelay(s, typing, now)) return s;
+
+      relay[0] = true;
+      if (!typing) return null; // idle again: drop the entry
+      s.typing = true;
+      s.relayedAt = now;
+      return s;
+    });
+    return relay[0];
+  }
+
+  private static boolean wouldRelay(State s, boolean typing, long now) {
+    if (!typing) return s.typing;
+    return !s.typing || now - s.relayedAt >= MIN_REFRESH_MS;
+  }
+
+  private static boolean takeGroupBudget(String groupId, long now) {
+    pruneBudgets(now);
+    boolean[] ok = {false};
+    GROUP_BUDGETS.compute(groupId, (k, b) -> {
+      if (b == null) b = new Budget();
+      if (now - b.windowStart >= 1000) {
+        b.windowStart = now;
+        b.used = 0;
+      }
+      if (b.used < GROUP_EVENTS_PER_SEC) {
+        b.used++;
+        ok[0] = true;
+      }
+      return b;
+    });
+    return ok[0];
+  }
+
+  /** Drop budgets of groups nobody typed in this second (at most once per PRUNE_EVERY_MS). */
+  private static void pruneBudgets(long now) {
+    long last = prunedAt;
+    if (now - last < PRUNE_EVERY_MS) return;
+    prunedAt = now;
+    GROUP_BUDGETS.entrySet().removeIf(e -> now - e.getValue().windowStart >= 1000);
+  }
+}
@@ -0,0 +1,191 @@
+package server.repo;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+
+import server.archive.SegmentCodec;
+import server.db.MongoManager;
+
+/**
+ * Cold storage for messages moved out of the hot collections by the retention archiver.
+ *
+ * Collection: message_archive
+ * Fields:
+ * - _id: "chatType|chatId|month|first" (first = seq of the first entry, or its ts for seq-less messages)
+ * - chatType: "broadcast" | "private" | "group"
+ * - chatId: "" (broadcast) | conversationId (private) | groupId hex (group)
+ * - month: "yyyy-MM" (UTC)
+ * - firstTs, lastTs: Date (range covered by this segment)
+ * - count: int
+ * - data: Deflate-compressed entries (see SegmentCodec)
+ *
+ * A chat/month can have several segments (one per archiver batch). Segments of one chat
+ * never overlap in time, because messages are always archived oldest-first.
+ *
+ * Archiving is idempotent: the segment id is derived from its content (a repeated write
+ * replaces the segment instead of adding a copy), and notArchived() lets the archiver drop
+ * messages an interrupted run already stored before it deletes them from the hot collection.
+ */
+public final class ArchiveRepository {
+
+  private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy-MM").withZone(ZoneOffset.UTC);
+
+  private ArchiveRepository() {}
+
+  public static String monthOf(long epochMillis) {
+    return MONTH.format(Instant.ofEpochMilli(epochMillis));
+  }
+
+  /** Store one segment (upsert by its id). Entries must be one chat, one month, ascending (ts, seq). */
+  public static void writeSegment(String chatType, String chatId, String month, List<SegmentCodec.Entry> entries) {
+    if (entries == null || entries.isEmpty()) return;
+
+    chatId = chatId == null ? "" : chatId;
+    SegmentCodec.Entry head = entries.get(0);
+    long first = head.ts;
+    long last = entries.get(entries.size() - 1).ts;
+    String id = chatType + "|" + chatId + "|" + month + "|" + (head.seq > 0 ? "s" + head.seq : "t" + head.ts);
+
+    Document seg = new Document("_id", id)
+        .append("chatType", chatType)
+        .append("chatId", chatId)
+        .append("month", month)
+        .append("firstTs", new Date(first))
+        .append("lastTs", new Date(last))
+        .append("count", entries.size())
+        .append("data", new Binary(SegmentCodec.encode(entries)));
+
+    MongoManager.messageArchive().replaceOne(Filters.eq("_id", id), seg, new ReplaceOptions().upsert(true));
+  }
+
+  /**
+   * The entries (one chat, ascending ts) that no segment holds yet: matched by seq, or by
+   * ts + sender + content for seq-less messages. Normally all of them; after a run that
+   * stored a segment but died before deleting its messages, the rest.
+   */
+  public static List<SegmentCodec.Entry> notArchived(String chatType, String chatId, List<SegmentCodec.Entry> entries) {
+    if (entries == null || entries.isEmpty()) return new ArrayList<>();
+
+    var filter = Filters.and(
+        Filters.eq("chatType", chatType),
+        Filters.eq("chatId", chatId == null ? "" : chatId),
+        Filters.lte("firstTs", new Date(entries.get(entries.size() - 1).ts)),
+        Filters.gte("lastTs", new Date(entries.get(0).ts))
+    );
+
+    Set<String> archived = new HashSet<>();
+    for (Document seg : MongoManager.messageArchive().find(filter)) {
+      Binary data = seg.get("data", Binary.class);
+      if (data == null) continue;
+      for (SegmentCodec.Entry e : SegmentCodec.decode(data.getData())) archived.add(keyOf(e));
+    }
+    if (archived.isEmpty()) return new ArrayList<>(entries);
+
+    List<SegmentCodec.Entry> out = new ArrayList<>();
+    for (SegmentCodec.Entry e : entries) {
+      if (!archived.contains(keyOf(e))) out.add(e);
+    }
+    return out;
+  }
+
+  private static String keyOf(SegmentCodec.Entry e) {
+    return e.seq > 0 ? "s" + e.seq : "t" + e.ts + "|" + e.sender + "|" + e.content;
+  }
+
+  /**
+   * Archived messages strictly older than beforeMillis (and not older than minMillis),
+   * newest first, at most limit entries.
+   */
+  public static List<SegmentCodec.Entry> loadBefore(String chatType, String chatId,
+      long beforeMillis, long minMillis, int limit) {
+    return loadBefore(chatType, chatId, beforeMillis, 0L, minMillis, limit);
+  }
+
+  /**
+   * Like loadBefore, with a (ts, seq) cursor: entries of the same millisecond as beforeMillis
+   * count as older when their seq is below beforeSeq (beforeSeq <= 0: strictly older ts only).
+   */
+  public static List<SegmentCodec.Entry> loadBefore(String chatType, String chatId,
+      long beforeMillis, long beforeSeq, long minMillis, int limit) {
+    List<SegmentCodec.Entry> out = new ArrayList<>();
+    if (limit <= 0 || beforeMillis <= 0) return out;
+
+    Date before = new Date(beforeMillis);
+    var filter = Filters.and(
+        Filters.eq("chatType", chatType),
+        Filters.eq("chatId", chatId == null ? "" : chatId),
+        beforeSeq > 0 ? Filters.lte("firstTs", before) : Filters.lt("firstTs", before),
+        Filters.gte("lastTs", new Date(Math.max(0L, minMillis)))
+    );
+
+    var cur = MongoManager.messageArchive()
+        .find(filter)
+        .sort(Sorts.descending("lastTs"))
+        .batchSize(4);
+
+    for (Document seg : cur) {
+      Binary data = seg.get("data", Binary.class);
+      if (data == null) continue;
+
+      List<SegmentCodec.Entry> entries = SegmentCodec.decode(data.getData());
+      for (int i = entries.size() - 1; i >= 0; i--) {
+        SegmentCodec.Entry e = entries.get(i);
+        boolean older = e.ts < beforeMillis || (e.ts == beforeMillis && beforeSeq > 0 && e.seq < beforeSeq);
+        if (!older || e.ts < minMillis) continue;
+        out.add(e);
+        if (out.size() >= limit) return out;
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Every archived entry of a chat with ts >= minMillis, oldest first (segment by segment).
+   * Stops early when sink returns false. Returns false if stopped.
+   */
+  public static boolean forEachSince(String chatType, String chatId, long minMillis,
+      Predicate<SegmentCodec.Entry> sink) {
+    var filter = Filters.and(
+        Filters.eq("chatType", chatType),
+        Filters.eq("chatId", chatId == null ? "" : chatId),
+        Filters.gte("lastTs", new Date(Math.max(0L, minMillis)))
+    );
+
+    var cur = MongoManager.messageArchive()
+        .find(filter)
+        .sort(Sorts.ascending("firstTs"))
+        .batchSize(4);
+
+    for (Document seg : cur) {
+      Binary data = seg.get("data", Binary.class);
+      if (data == null) continue;
+
+      for (SegmentCodec.Entry e : SegmentCodec.decode(data.getData())) {
+        if (e.ts >= minMillis && !sink.test(e)) return false;
+      }
+    }
+    return true;
+  }
+
+  /** One archived message by seq (ts narrows the segment lookup). Null if not archived. */
+  public static SegmentCodec.Entry findBySeq(String chatType, String chatId, long seq, long tsMillis) {
+    if (seq <= 0) return null;
+    for (SegmentCodec.Entry e : loadBefore(chatType, chatId, tsMillis + 1, tsMillis, 16)) {
+      if (e.seq == seq) return e;
+    }
+    return null;
+  }
+}
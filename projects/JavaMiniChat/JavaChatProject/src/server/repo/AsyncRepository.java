@@ -0,0 +1,160 @@
+package server.repo;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.bson.Document;
+
+import server.db.DbExecutor;
+import server.search.SearchIndex;
+import server.search.SearchResult;
+
+/**
+ * Non-blocking facade over the repositories.
+ *
+ * Every method returns immediately with a CompletableFuture completed on a DbExecutor
+ * thread, so the calling session thread is never parked on MongoDB.
+ * Semantics (filters, clear markers, paging) are exactly those of the sync repositories.
+ */
+public final class AsyncRepository {
+
+  private AsyncRepository() {}
+
+  // -------- history --------
+
+  public static CompletableFuture<HistoryPage> loadBroadcastPage(String forUser, int limit, long before,
+      long beforeSeq) {
+    return DbExecutor.supply("loadBroadcastPage",
+        () -> MessageRepository.loadBroadcastPageForUser(forUser, limit, before, beforeSeq));
+  }
+
+  public static CompletableFuture<HistoryPage> loadPrivatePage(String userA, String userB, int limit, long before,
+      long beforeSeq) {
+    return DbExecutor.supply("loadPrivatePage",
+        () -> MessageRepository.loadPrivatePageForUser(userA, userB, limit, before, beforeSeq));
+  }
+
+  public static CompletableFuture<HistoryPage> loadGroupPage(String forUser, String groupId, int limit, long before,
+      long beforeSeq) {
+    return DbExecutor.supply("loadGroupPage",
+        () -> GroupRepository.loadGroupPageForUser(forUser, groupId, limit, before, beforeSeq));
+  }
+
+  // -------- writes --------
+
+  public static CompletableFuture<SavedMessage> saveBroadcast(String sender, String content) {
+    return DbExecutor.supply("saveBroadcast", () -> MessageRepository.saveBroadcast(sender, content));
+  }
+
+  public static CompletableFuture<SavedMessage> savePrivate(String sender, String receiver, String content) {
+    return DbExecutor.supply("savePrivate", () -> MessageRepository.savePrivate(sender, receiver, content));
+  }
+
+  public static CompletableFuture<SavedMessage> saveGroupMessage(String groupId, String sender, String content) {
+    return DbExecutor.supply("saveGroupMessage", () -> GroupRepository.saveGroupMessage(groupId, sender, content));
+  }
+
+  // -------- groups / users --------
+
+  public static CompletableFuture<Boolean> isMember(String groupId, String username) {
+    return DbExecutor.supply("isMember", () -> GroupRepository.isMember(groupId, username));
+  }
+
+  public static CompletableFuture<List<String>> groupMembers(String groupId) {
+    return DbExecutor.supply("groupMembers", () -> GroupRepository.getMembers(groupId));
+  }
+
+  public static CompletableFuture<List<String>> listGroupIdsForUser(String username) {
+    return DbExecutor.supply("listGroupIdsForUser", () -> GroupRepository.listGroupIdsForUser(username));
+  }
+
+  public static CompletableFuture<List<Document>> listGroupsForUser(String username) {
+    return DbExecutor.supply("listGroupsForUser", () -> GroupRepository.listGroupsForUser(username));
+  }
+
+  public static CompletableFuture<String> createGroup(String name, String createdBy, List<String> members) {
+    return DbExecutor.supply("createGroup", () -> GroupRepository.createGroup(name, createdBy, members));
+  }
+
+  public static CompletableFuture<List<String>> allUsernames() {
+    return DbExecutor.supply("allUsernames", UserRepository::getAllUsernames);
+  }
+
+  // -------- offline inbox --------
+
+  public static CompletableFuture<Void> inboxAddPrivate(String user, String from, SavedMessage msg) {
+    return DbExecutor.run("inboxAddPrivate", () -> InboxRepository.addPrivate(user, from, msg));
+  }
+
+  public static CompletableFuture<Void> inboxAddGroup(List<String> users, String groupId, SavedMessage msg) {
+    return DbExecutor.run("inboxAddGroup", () -> InboxRepository.addGroup(users, groupId, msg));
+  }
+
+  public static CompletableFuture<List<InboxRepository.PendingChat>> inboxDrain(String user) {
+    return DbExecutor.supply("inboxDrain", () -> InboxRepository.drain(user));
+  }
+
+  // -------- read positions --------
+
+  public static CompletableFuture<Void> markReadToHead(String user, String chatKey) {
+    return DbExecutor.run("markReadToHead", () -> ReadStateRepository.markReadToHead(user, chatKey));
+  }
+
+  public static CompletableFuture<Void> markAllRead(String user) {
+    return DbExecutor.run("markAllRead", () -> ReadStateRepository.markAllRead(user));
+  }
+
+  public static CompletableFuture<ReadStateRepository.UnreadCounts> unreadCounts(String user) {
+    return DbExecutor.supply("unreadCounts", () -> ReadStateRepository.unreadCounts(user));
+  }
+
+  public static CompletableFuture<Long> chatHead(String chatKey) {
+    return DbExecutor.supply("chatHead", () -> SequenceRepository.head(chatKey));
+  }
+
+  public static CompletableFuture<Map<String, Long>> chatHeads(Collection<String> chatKeys) {
+    return DbExecutor.supply("chatHeads", () -> SequenceRepository.heads(chatKeys));
+  }
+
+  public static CompletableFuture<Map<String, ReadStateRepository.Watermark>> watermarks(String chatKey,
+      Collection<String> users) {
+    return DbExecutor.supply("watermarks", () -> ReadStateRepository.watermarks(chatKey, users));
+  }
+
+  // -------- search --------
+
+  /**
+   * Full-text search in one chat for user (clear-for-me marker applied).
+   * Group membership must be checked by the caller.
+   */
+  public static CompletableFuture<SearchResult> search(String user, String scope, String with, String groupId,
+      String query, int offset, int limit) {
+    return DbExecutor.supply("search", () -> {
+      ChatRef ref;
+      String markerId;
+      switch (scope) {
+        case "private" -> { ref = ChatRef.privateChat(user, with); markerId = with; }
+        case "group" -> { ref = ChatRef.group(groupId); markerId = groupId; }
+        default -> { ref = ChatRef.broadcast(); markerId = ""; }
+      }
+      if (ref == null) return SearchResult.empty();
+
+      long clearedAt = ClearMarkerRepository.getEffectiveClearedAtMillis(user, ref.chatType, markerId);
+      SeqSet hidden = HiddenRepository.load(user, ref.key);
+      return SearchIndex.search(ref, query, clearedAt, hidden.isEmpty() ? null : hidden::contains, offset, limit);
+    });
+  }
+
+  // -------- delete for me --------
+
+  public static CompletableFuture<long[]> hideMessages(String user, String chatKey, long[] seqs) {
+    return DbExecutor.supply("hideMessages", () -> HiddenRepository.hide(user, chatKey, seqs));
+  }
+
+  // -------- clear markers --------
+
+  public static CompletableFuture<Long> setClearedAtNow(String user, String scope, String chatId) {
+    return DbExecutor.supply("setClearedAtNow", () -> ClearMarkerRepository.setClearedAtNow(user, scope, chatId));
+  }
+}
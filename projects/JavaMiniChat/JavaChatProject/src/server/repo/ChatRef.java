@@ -0,0 +1,62 @@
+package server.repo;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+
+import server.db.MongoManager;
+
+/**
+ * Where one chat lives: its seq key, its archive coordinates and its hot collection + filter.
+ *
+ * - key: SequenceRepository chat key ("broadcast" | "private:conv" | "group:hex")
+ * - chatType/chatId: message_archive coordinates ("" | conversationId | groupId hex)
+ */
+public final class ChatRef {
+
+  public final String key;
+  public final String chatType;
+  public final String chatId;
+
+  final Bson filter; // null = whole collection (broadcast)
+
+  private ChatRef(String key, String chatType, String chatId, Bson filter) {
+    this.key = key;
+    this.chatType = chatType;
+    this.chatId = chatId;
+    this.filter = filter;
+  }
+
+  public static ChatRef broadcast() {
+    return new ChatRef(SequenceRepository.BROADCAST_KEY, "broadcast", "", null);
+  }
+
+  public static ChatRef privateChat(String a, String b) {
+    if (a == null || b == null) return null;
+    String conv = MessageRepository.conversationId(a, b);
+    return new ChatRef(SequenceRepository.privateKey(a, b), "private", conv, Filters.eq("conversationId", conv));
+  }
+
+  /** Null if groupId is not a valid ObjectId. */
+  public static ChatRef group(String groupId) {
+    if (groupId == null || !ObjectId.isValid(groupId.trim())) return null;
+    String hex = groupId.trim();
+    return new ChatRef(SequenceRepository.groupKey(hex), "group", hex, Filters.eq("groupId", new ObjectId(hex)));
+  }
+
+  MongoCollection<Document> collection() {
+    return switch (chatType) {
+      case "private" -> MongoManager.privateMessages();
+      case "group" -> MongoManager.groupMessages();
+      default -> MongoManager.broadcastMessages();
+    };
+  }
+
+  /** filter AND extra (extra may be null). */
+  Bson and(Bson extra) {
+    if (filter == null) return extra == null ? new Document() : extra;
+    return extra == null ? filter : Filters.and(filter, extra);
+  }
+}
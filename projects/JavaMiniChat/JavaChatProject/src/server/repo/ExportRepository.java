@@ -0,0 +1,49 @@
+package server.repo;
+import java.util.Date;
+import java.util.function.Predicate;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Full-transcript reads for exports (no HISTORY_LIMIT, no clear markers).
+ *
+ * Streams one chat oldest -> newest: archived segments first, then the hot collection
+ * through a cursor with a bounded batchSize. Nothing is collected in memory; every
+ * formatted line goes straight to the sink.
+ */
+public final class ExportRepository {
+
+  private ExportRepository() {}
+
+  /**
+   * Feed every message of the chat to sink, oldest first.
+   * Stops as soon as sink returns false. Returns the number of lines delivered.
+   */
+  public static long forEachLine(ChatRef ref, int batchSize, Predicate<String> sink) {
+    long[] count = {0L};
+
+    boolean more = ArchiveRepository.forEachSince(ref.chatType, ref.chatId, 0L, e -> {
+      count[0]++;
+      return sink.test(HistoryPager.format(new Date(e.ts), e.sender, e.content));
+    });
+    if (!more) return count[0];
+
+    try (MongoCursor<Document> cur = ref.collection()
+        .find(ref.and(null))
+        .sort(Sorts.ascending("ts"))
+        .batchSize(Math.max(1, batchSize))
+        .iterator()) {
+
+      while (cur.hasNext()) {
+        Document d = cur.next();
+        count[0]++;
+        if (!sink.test(HistoryPager.format(d.getDate("ts"), d.getString("sender"), d.getString("content"))))
+          break;
+      }
+    }
+    return count[0];
+  }
+}
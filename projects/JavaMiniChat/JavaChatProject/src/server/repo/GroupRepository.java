@@ -1,6 +1,5 @@
 package server.repo;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Date;
@@ -13,6 +12,7 @@ import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Sorts;
 
 import server.db.MongoManager;
+import server.search.SearchIndex;
 
 /**
  * Server-side Group Chat storage (MongoDB).
@@ -76,6 +76,23 @@ public final class GroupRepository {
     return out;
   }
 
+  /** Hex ids of the user's groups (ids only; used for unread counters). */
+  public static List<String> listGroupIdsForUser(String username) {
+    username = cleanUser(username);
+    List<String> out = new ArrayList<>();
+    if (username == null) return out;
+
+    var cur = MongoManager.db().getCollection(COL_GROUPS)
+        .find(Filters.in("members", username))
+        .projection(new Document("_id", 1));
+
+    for (Document d : cur) {
+      ObjectId id = d.getObjectId("_id");
+      if (id != null) out.add(id.toHexString());
+    }
+    return out;
+  }
+
   public static boolean isMember(String groupId, String username) {
     ObjectId gid = parseId(groupId);
     username = cleanUser(username);
@@ -92,51 +109,67 @@ public final class GroupRepository {
     return g != null;
   }
 
-  public static void saveGroupMessage(String groupId, String sender, String content) {
+  /** Member usernames of a group (empty if the group does not exist). */
+  public static List<String> getMembers(String groupId) {
+    List<String> members = new ArrayList<>();
+    ObjectId gid = parseId(groupId);
+    if (gid == null) return members;
+
+    Document g = MongoManager.db().getCollection(COL_GROUPS)
+        .find(Filters.eq("_id", gid))
+        .projection(new Document("members", 1))
+        .first();
+    if (g == null) return members;
+
+    List<String> list = g.getList("members", String.class);
+    if (list != null) members.addAll(list);
+    return members;
+  }
+
+  /** Persist a group message. Returns null if the input is invalid. */
+  public static SavedMessage saveGroupMessage(String groupId, String sender, String content) {
     ObjectId gid = parseId(groupId);
     sender = cleanUser(sender);
     content = cleanContent(content);
-    if (gid == null || sender == null || content == null) return;
+    if (gid == null || sender == null || content == null) return null;
 
-    Document m = new Document("groupId", gid)
-        .append("ts", new Date())
+    ObjectId id = new ObjectId();
+    String chatKey = SequenceRepository.groupKey(gid.toHexString());
+    long seq = SequenceRepository.next(chatKey);
+    Date ts = new Date();
+
+    Document m = new Document("_id", id)
+        .append("groupId", gid)
+        .append("seq", seq)
+        .append("ts", ts)
         .append("sender", sender)
         .append("content", content);
 
     MongoManager.db().getCollection(COL_GROUP_MESSAGES).insertOne(m);
+    SearchIndex.onSaved(chatKey, seq, ts.getTime(), content);
+    return new SavedMessage(id, seq, ts.getTime(), HistoryPager.format(ts, sender, content));
   }
 
   /**
    * Load group messages (oldest -> newest) for a specific user (filters by clear marker).
    */
   public static List<String> loadGroupHistoryForUser(String forUser, String groupId, int limit) {
+    return loadGroupPageForUser(forUser, groupId, limit, 0L, 0L).messages;
+  }
+
+  /** One page of group history; before > 0 pages backwards and falls through to the archive. */
+  public static HistoryPage loadGroupPageForUser(String forUser, String groupId, int limit, long beforeMillis,
+      long beforeSeq) {
     ObjectId gid = parseId(groupId);
-    List<String> out = new ArrayList<>();
-    if (gid == null) return out;
+    if (gid == null) return HistoryPage.empty();
 
     long clearedAt = (forUser == null)
         ? 0L
         : ClearMarkerRepository.getEffectiveClearedAtMillis(forUser, "group", groupId);
+    SeqSet hidden = HiddenRepository.load(forUser, SequenceRepository.groupKey(gid.toHexString()));
 
-    var filter = (clearedAt <= 0)
-        ? Filters.eq("groupId", gid)
-        : Filters.and(
-            Filters.eq("groupId", gid),
-            Filters.gte("ts", new Date(clearedAt))
-        );
-
-    var cur = MongoManager.db().getCollection(COL_GROUP_MESSAGES)
-        .find(filter)
-        .sort(Sorts.ascending("ts"))
-        .limit(Math.max(1, limit));
-
-    for (Document d : cur) {
-      Date ts = d.getDate("ts");
-      String sender = d.getString("sender");
-      String content = d.getString("content");
-      out.add(format(ts, sender, content));
-    }
-    return out;
+    return HistoryPager.load(MongoManager.db().getCollection(COL_GROUP_MESSAGES), Filters.eq("groupId", gid),
+        "group", gid.toHexString(), clearedAt, hidden, limit, beforeMillis, beforeSeq);
   }
 
   /** Backward compatible. */
@@ -151,13 +184,6 @@ public final class GroupRepository {
 
   // ---------------- helpers ----------------
 
-  private static String format(Date date, String sender, String content) {
-    LocalDateTime ldt = (date == null)
-        ? LocalDateTime.now()
-        : LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
-    return "[" + TS.format(ldt) + "] " + sender + ": " + content;
-  }
-
   private static ObjectId parseId(String hex) {
     if (hex == null) return null;
     hex = hex.trim();
@@ -0,0 +1,98 @@
+package server.repo;
+import java.util.Arrays;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+import server.db.MongoManager;
+
+/**
+ * "Delete for me" tombstones, stored server-side (same on every device).
+ *
+ * Collection: hidden_messages
+ * Fields:
+ * - key: "user|chatKey" (unique)
+ * - user, chatKey
+ * - seqs: SeqSet encoding (sorted seqs, delta varints)
+ * - count: number of hidden seqs
+ * - version: optimistic lock for concurrent hides
+ *
+ * Only seqs that exist in the chat (1..head) are stored, at most MAX_PER_HIDE per call,
+ * so one user's tombstones can never outgrow the chat itself.
+ */
+public final class HiddenRepository {
+
+  /** Most seqs one hide() call accepts. */
+  public static final int MAX_PER_HIDE = 500;
+
+  private static final int MAX_RETRIES = 5;
+
+  private HiddenRepository() {}
+
+  private static String key(String user, String chatKey) {
+    return user + "|" + chatKey;
+  }
+
+  /** Hidden seqs of user in one chat (empty set if none). */
+  public static SeqSet load(String user, String chatKey) {
+    if (user == null || chatKey == null) return SeqSet.empty();
+
+    Document d = MongoManager.hiddenMessages().find(Filters.eq("key", key(user, chatKey))).first();
+    return decode(d);
+  }
+
+  /**
+   * Add seqs to the user's tombstones in one chat. Seqs <= 0 or above the chat's head are
+   * ignored. Returns the seqs that were accepted (empty: nothing written).
+   * Read-merge-write guarded by "version", retried on conflicts.
+   */
+  public static long[] hide(String user, String chatKey, long[] seqs) {
+    if (user == null || chatKey == null || seqs == null || seqs.length == 0) return new long[0];
+    if (seqs.length > MAX_PER_HIDE)
+      throw new IllegalArgumentException("At most " + MAX_PER_HIDE + " seqs per hide, got " + seqs.length);
+
+    long head = SequenceRepository.head(chatKey);
+    long[] valid = Arrays.stream(seqs).filter(s -> s > 0 && s <= head).distinct().toArray();
+    if (valid.length == 0) return valid;
+
+    String key = key(user, chatKey);
+    for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+      Document d = MongoManager.hiddenMessages().find(Filters.eq("key", key)).first();
+      SeqSet merged = decode(d).union(valid);
+
+      if (d == null) {
+        try {
+          MongoManager.hiddenMessages().insertOne(new Document("key", key)
+              .append("user", user)
+              .append("chatKey", chatKey)
+              .append("seqs", new Binary(merged.encode()))
+              .append("count", merged.size())
+              .append("version", 1L));
+          return valid;
+        } catch (MongoWriteException dup) {
+          continue; // another device inserted first
+        }
+      }
+
+      long version = (d.get("version") instanceof Number n) ? n.longValue() : 0L;
+      var res = MongoManager.hiddenMessages().updateOne(
+          Filters.and(Filters.eq("key", key), Filters.eq("version", version)),
+          Updates.combine(
+              Updates.set("seqs", new Binary(merged.encode())),
+              Updates.set("count", merged.size()),
+              Updates.set("version", version + 1)));
+      if (res.getModifiedCount() == 1) return valid;
+    }
+    throw new IllegalStateException("Hide conflicted " + MAX_RETRIES + " times for " + key);
+  }
+
+  private static SeqSet decode(Document d) {
+    if (d == null) return SeqSet.empty();
+    Binary b = d.get("seqs", Binary.class);
+    return b == null ? SeqSet.empty() : SeqSet.decode(b.getData());
+  }
+}
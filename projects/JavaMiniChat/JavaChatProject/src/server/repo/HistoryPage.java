@@ -0,0 +1,31 @@
+package server.repo;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of chat history (oldest -> newest), ready to send to the client.
+ *
+ * oldestTs / oldestSeq are the epoch millis and seq of the first message in the page
+ * (0 if empty); the client passes them back as "before" / "beforeSeq" to scroll further up.
+ * seqs is parallel to messages (0 = message written before per-chat seq existed).
+ */
+public final class HistoryPage {
+
+  public final List<String> messages;
+  public final List<Long> seqs;
+  public final long oldestTs;
+  public final long oldestSeq;
+  public final boolean hasMore;
+
+  public HistoryPage(List<String> messages, List<Long> seqs, long oldestTs, long oldestSeq, boolean hasMore) {
+    this.messages = messages == null ? new ArrayList<>() : messages;
+    this.seqs = seqs == null ? new ArrayList<>() : seqs;
+    this.oldestTs = Math.max(0L, oldestTs);
+    this.oldestSeq = Math.max(0L, oldestSeq);
+    this.hasMore = hasMore;
+  }
+
+  public static HistoryPage empty() {
+    return new HistoryPage(new ArrayList<>(), new ArrayList<>(), 0L, 0L, false);
+  }
+}
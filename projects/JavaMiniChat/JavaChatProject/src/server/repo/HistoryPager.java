@@ -0,0 +1,114 @@
+package server.repo;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+import server.archive.SegmentCodec;
+
+/**
+ * Shared history paging for broadcast/private/group chats.
+ *
+ * Every page is the newest `limit` messages before a cursor (reversed to oldest -> newest):
+ * - before <= 0: first page, the newest messages of the chat
+ * - before > 0 : messages older than (before, beforeSeq); same-millisecond messages are
+ *                ordered by seq, so a page boundary inside one millisecond skips nothing
+ *                (beforeSeq <= 0: plain ts < before, for older clients)
+ * When the hot collection runs out, the rest of the page is filled from message_archive.
+ * hasMore is true when one more visible message exists past the page (hot or archived).
+ *
+ * Clear-for-me markers and hidden-message tombstones are applied to both hot
+ * (in the query: ts >= clearedAt, seq $nin hidden) and archived messages.
+ */
+final class HistoryPager {
+
+  private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+  private HistoryPager() {}
+
+  static HistoryPage load(MongoCollection<Document> col, Bson chatFilter, String chatType, String chatId,
+      long clearedAt, SeqSet hidden, int limit, long beforeMillis, long beforeSeq) {
+    limit = Math.max(1, limit);
+    if (hidden == null) hidden = SeqSet.empty();
+
+    List<Bson> parts = new ArrayList<>();
+    if (chatFilter != null) parts.add(chatFilter);
+    if (clearedAt > 0) parts.add(Filters.gte("ts", new Date(clearedAt)));
+    if (!hidden.isEmpty()) parts.add(Filters.nin("seq", hidden.toList()));
+    if (beforeMillis > 0) parts.add(olderThan(beforeMillis, beforeSeq));
+    Bson filter = parts.isEmpty() ? new Document() : Filters.and(parts);
+
+    // ---- newest first, then reverse; one row past the page answers hasMore ----
+    List<String> newestFirst = new ArrayList<>();
+    List<Long> seqs = new ArrayList<>();
+    long oldest = 0L;
+    long oldestSeq = 0L;
+    boolean hasMore = false;
+    for (Document d : col.find(filter).sort(Sorts.descending("ts", "seq")).limit(limit + 1)) {
+      if (newestFirst.size() >= limit) {
+        hasMore = true;
+        break;
+      }
+      Date ts = d.getDate("ts");
+      if (ts != null) oldest = ts.getTime();
+      oldestSeq = seqOf(d);
+      newestFirst.add(format(ts, d.getString("sender"), d.getString("content")));
+      seqs.add(oldestSeq);
+    }
+
+    if (!hasMore) {
+      // hot rows exhausted: continue below the last one (or the request's cursor) in the archive
+      long boundary = oldest > 0 ? oldest : (beforeMillis > 0 ? beforeMillis : Long.MAX_VALUE);
+      long boundarySeq = oldest > 0 ? oldestSeq : (beforeMillis > 0 ? beforeSeq : 0L);
+      // over-fetch by the tombstone count so hidden archived messages don't shorten the page
+      int fetch = limit - newestFirst.size() + 1 + Math.min(hidden.size(), limit);
+      for (SegmentCodec.Entry e : ArchiveRepository.loadBefore(chatType, chatId, boundary, boundarySeq,
+          clearedAt, fetch)) {
+        if (hidden.contains(e.seq)) continue;
+        if (newestFirst.size() >= limit) {
+          hasMore = true;
+          break;
+        }
+        oldest = e.ts;
+        oldestSeq = e.seq;
+        newestFirst.add(format(new Date(e.ts), e.sender, e.content));
+        seqs.add(e.seq);
+      }
+    }
+
+    Collections.reverse(newestFirst);
+    Collections.reverse(seqs);
+    return new HistoryPage(newestFirst, seqs, oldest, oldestSeq, hasMore);
+  }
+
+  /** ts < before, or the same millisecond with a lower seq (when the cursor has one). */
+  private static Bson olderThan(long beforeMillis, long beforeSeq) {
+    Date before = new Date(beforeMillis);
+    if (beforeSeq <= 0) return Filters.lt("ts", before);
+    return Filters.or(
+        Filters.lt("ts", before),
+        Filters.and(Filters.eq("ts", before), Filters.lt("seq", beforeSeq)));
+  }
+
+  private static long seqOf(Document d) {
+    Object v = d.get("seq");
+    return (v instanceof Number n) ? n.longValue() : 0L;
+  }
+
+  static String format(Date date, String sender, String content) {
+    LocalDateTime ldt = (date == null)
+        ? LocalDateTime.now()
+        : LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    return "[" + TS.format(ldt) + "] " + sender + ": " + content;
+  }
+}
@@ -0,0 +1,143 @@
+package server.repo;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+import server.db.MongoManager;
+
+/**
+ * Offline delivery inbox: references to messages a user missed while offline.
+ *
+ * Collection: inbox
+ * Fields:
+ * - user: recipient username
+ * - scope: "private" | "group"
+ * - chatId: sender username (private) | groupId hex (group)
+ * - msgId: ObjectId of the stored message
+ * - ts: Date (message time)
+ *
+ * Written at send time for offline recipients, drained once at login.
+ */
+public final class InboxRepository {
+
+  // Max inbox entries drained per login (rest waits for the next login)
+  private static final int MAX_DRAIN = 5000;
+  // Newest messages per chat included as preview text
+  private static final int PREVIEW_PER_CHAT = 20;
+
+  private InboxRepository() {}
+
+  /** One chat with pending messages for the user. */
+  public static final class PendingChat {
+    public final String scope;
+    public final String chatId;
+    public int count;
+    public final List<String> messages = new ArrayList<>(); // newest previews, oldest -> newest
+
+    final List<ObjectId> previewIds = new ArrayList<>();
+
+    PendingChat(String scope, String chatId) {
+      this.scope = scope;
+      this.chatId = chatId;
+    }
+  }
+
+  public static void addPrivate(String user, String from, SavedMessage msg) {
+    if (user == null || from == null || msg == null) return;
+    MongoManager.inbox().insertOne(entry(user, "private", from, msg));
+  }
+
+  /** One insertMany for all offline members of a group. */
+  public static void addGroup(List<String> users, String groupId, SavedMessage msg) {
+    if (users == null || users.isEmpty() || groupId == null || msg == null) return;
+
+    List<Document> docs = new ArrayList<>(users.size());
+    for (String u : users) {
+      if (u != null) docs.add(entry(u, "group", groupId, msg));
+    }
+    if (!docs.isEmpty()) MongoManager.inbox().insertMany(docs);
+  }
+
+  /**
+   * Read and delete the user's pending entries.
+   * Returns per-chat counts plus the newest few messages of each chat (formatted).
+   */
+  public static List<PendingChat> drain(String user) {
+    List<PendingChat> out = new ArrayList<>();
+    if (user == null) return out;
+
+    Map<String, PendingChat> chats = new LinkedHashMap<>();
+    List<ObjectId> entryIds = new ArrayList<>();
+
+    for (Document d : MongoManager.inbox()
+        .find(Filters.eq("user", user))
+        .sort(Sorts.ascending("ts"))
+        .limit(MAX_DRAIN)) {
+      String scope = d.getString("scope");
+      String chatId = d.getString("chatId");
+      ObjectId msgId = d.getObjectId("msgId");
+      entryIds.add(d.getObjectId("_id"));
+      if (scope == null || chatId == null) continue;
+
+      PendingChat c = chats.computeIfAbsent(scope + "|" + chatId, k -> new PendingChat(scope, chatId));
+      c.count++;
+      if (msgId != null) {
+        c.previewIds.add(msgId);
+        if (c.previewIds.size() > PREVIEW_PER_CHAT) c.previewIds.remove(0);
+      }
+    }
+
+    if (entryIds.isEmpty()) return out;
+
+    fillPreviews(chats, "private", MongoManager.privateMessages());
+    fillPreviews(chats, "group", MongoManager.groupMessages());
+
+    MongoManager.inbox().deleteMany(Filters.in("_id", entryIds));
+
+    out.addAll(chats.values());
+    return out;
+  }
+
+  // ---------------- helpers ----------------
+
+  private static Document entry(String user, String scope, String chatId, SavedMessage msg) {
+    return new Document("user", user)
+        .append("scope", scope)
+        .append("chatId", chatId)
+        .append("msgId", msg.id)
+        .append("ts", new Date(msg.ts));
+  }
+
+  /** One $in query per scope for all preview ids. */
+  private static void fillPreviews(Map<String, PendingChat> chats, String scope, MongoCollection<Document> col) {
+    List<ObjectId> ids = new ArrayList<>();
+    for (PendingChat c : chats.values()) {
+      if (scope.equals(c.scope)) ids.addAll(c.previewIds);
+    }
+    if (ids.isEmpty()) return;
+
+    Map<ObjectId, String> formatted = new HashMap<>();
+    for (Document d : col.find(Filters.in("_id", ids))) {
+      formatted.put(d.getObjectId("_id"),
+          HistoryPager.format(d.getDate("ts"), d.getString("sender"), d.getString("content")));
+    }
+
+    for (PendingChat c : chats.values()) {
+      if (!scope.equals(c.scope)) continue;
+      for (ObjectId id : c.previewIds) {
+        String f = formatted.get(id);
+        if (f != null) c.messages.add(f);
+      }
+    }
+  }
+}
@@ -7,11 +7,12 @@ import java.util.Date;
 import java.util.List;
 
 import org.bson.Document;
+import org.bson.types.ObjectId;
 
 import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.Sorts;
 
 import server.db.MongoManager;
+import server.search.SearchIndex;
 
 /**
  * Server-side message storage on MongoDB.
@@ -22,6 +23,9 @@ import server.db.MongoManager;
  * Step: Clear-for-me filtering
  * - Broadcast history respects user's clearedAt marker
  * - Private history respects user's clearedAt marker for that conversation
+ *
+ * Paging: the *Page* loaders accept a "before" cursor and fall through to the cold
+ * archive (ArchiveRepository) once the hot collection is exhausted.
  */
 public final class MessageRepository {
 
@@ -32,17 +36,28 @@ public final class MessageRepository {
   // -------- Broadcast (global channel) --------
 
   public static String saveBroadcastAndFormat(String sender, String content) {
+    SavedMessage saved = saveBroadcast(sender, content);
+    return saved == null ? null : saved.formatted;
+  }
+
+  /** Persist a broadcast message. Returns null if the input is invalid. */
+  public static SavedMessage saveBroadcast(String sender, String content) {
     content = cleanContent(content);
     if (sender == null || content == null) return null;
 
+    ObjectId id = new ObjectId();
+    long seq = SequenceRepository.next(SequenceRepository.BROADCAST_KEY);
     Date ts = new Date();
 
-    Document d = new Document("ts", ts)
+    Document d = new Document("_id", id)
+        .append("seq", seq)
+        .append("ts", ts)
         .append("sender", sender)
         .append("content", content);
 
     MongoManager.broadcastMessages().insertOne(d);
-    return format(ts, sender, content);
+    SearchIndex.onSaved(SequenceRepository.BROADCAST_KEY, seq, ts.getTime(), content);
+    return new SavedMessage(id, seq, ts.getTime(), format(ts, sender, content));
   }
 
   /**
@@ -50,26 +65,21 @@ public final class MessageRepository {
    * @param forUser user requesting history (used for clear marker); can be null (no filtering)
    */
   public static List<String> loadBroadcastHistoryForUser(String forUser, int limit) {
-    List<String> out = new ArrayList<>();
+    return loadBroadcastPageForUser(forUser, limit, 0L, 0L).messages;
+  }
 
+  /**
+   * One page of broadcast history. before <= 0 means first page; otherwise messages
+   * older than (before, beforeSeq) (falls through to the archive when the hot range is exhausted).
+   */
+  public static HistoryPage loadBroadcastPageForUser(String forUser, int limit, long beforeMillis, long beforeSeq) {
     long clearedAt = (forUser == null)
         ? 0L
         : ClearMarkerRepository.getEffectiveClearedAtMillis(forUser, "broadcast", "");
+    SeqSet hidden = HiddenRepository.load(forUser, SequenceRepository.BROADCAST_KEY);
 
-    var filter = (clearedAt <= 0)
-        ? new Document()
-        : Filters.gte("ts", new Date(clearedAt));
-
-    var cur = MongoManager.broadcastMessages()
-        .find(filter)
-        .sort(Sorts.ascending("ts"))
-        .limit(Math.max(1, limit));
-
-    for (Document d : cur) {
-      Date ts = d.getDate("ts");
-      out.add(format(ts, d.getString("sender"), d.getString("content")));
-    }
-    return out;
+    return HistoryPager.load(MongoManager.broadcastMessages(), null,
+        "broadcast", "", clearedAt, hidden, limit, beforeMillis, beforeSeq);
   }
 
   /** Backward compatible (no clear marker filtering). */
@@ -79,46 +89,47 @@ public final class MessageRepository {
 
   // -------- Private (DM) --------
 
-  public static void savePrivate(String sender, String receiver, String content) {
+  /** Persist a DM. Returns null if the input is invalid. */
+  public static SavedMessage savePrivate(String sender, String receiver, String content) {
     content = cleanContent(content);
-    if (sender == null || receiver == null || content == null) return;
+    if (sender == null || receiver == null || content == null) return null;
+
+    ObjectId id = new ObjectId();
+    long seq = SequenceRepository.next(SequenceRepository.privateKey(sender, receiver),
+        List.of(sender, receiver));
+    Date ts = new Date();
 
-    Document d = new Document("ts", new Date())
+    Document d = new Document("_id", id)
+        .append("seq", seq)
+        .append("ts", ts)
         .append("conversationId", conversationId(sender, receiver))
         .append("sender", sender)
         .append("receiver", receiver)
         .append("content", content);
 
     MongoManager.privateMessages().insertOne(d);
+    SearchIndex.onSaved(SequenceRepository.privateKey(sender, receiver), seq, ts.getTime(), content);
+    return new SavedMessage(id, seq, ts.getTime(), format(ts, sender, content));
   }
 
   /**
    * Private history for userA viewing chat with userB, filtered by userA's clear marker.
    */
   public static List<String> loadPrivateHistoryForUser(String userA, String userB, int limit) {
-    List<String> out = new ArrayList<>();
-    if (userA == null || userB == null) return out;
+    return loadPrivatePageForUser(userA, userB, limit, 0L, 0L).messages;
+  }
 
-    String conv = conversationId(userA, userB);
+  /** One page of private history (see loadBroadcastPageForUser for paging rules). */
+  public static HistoryPage loadPrivatePageForUser(String userA, String userB, int limit, long beforeMillis,
+      long beforeSeq) {
+    if (userA == null || userB == null) return HistoryPage.empty();
 
+    String conv = conversationId(userA, userB);
     long clearedAt = ClearMarkerRepository.getEffectiveClearedAtMillis(userA, "private", userB);
-    var filter = (clearedAt <= 0)
-        ? Filters.eq("conversationId", conv)
-        : Filters.and(
-            Filters.eq("conversationId", conv),
-            Filters.gte("ts", new Date(clearedAt))
-        );
-
-    var cur = MongoManager.privateMessages()
-        .find(filter)
-        .sort(Sorts.ascending("ts"))
-        .limit(Math.max(1, limit));
-
-    for (Document d : cur) {
-      Date ts = d.getDate("ts");
-      out.add(format(ts, d.getString("sender"), d.getString("content")));
-    }
-    return out;
+    SeqSet hidden = HiddenRepository.load(userA, SequenceRepository.privateKey(userA, userB));
+
+    return HistoryPager.load(MongoManager.privateMessages(), Filters.eq("conversationId", conv),
+        "private", conv, clearedAt, hidden, limit, beforeMillis, beforeSeq);
   }
 
   /** Backward compatible (no clear marker filtering). */
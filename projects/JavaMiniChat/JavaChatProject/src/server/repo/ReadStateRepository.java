@@ -0,0 +1,246 @@
+package server.repo;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import server.db.MongoManager;
+
+/**
+ * Server-side read positions and unread counters.
+ *
+ * Collection: read_states
+ * Fields:
+ * - key: "user|chatKey"
+ * - user, chatKey
+ * - readSeq: last seq the user has read (or sent) in that chat
+ * - deliveredSeq: last seq that reached one of the user's clients (always >= readSeq)
+ *
+ * unread(user, chat) = head(chat) - readSeq.
+ * A sender's readSeq moves to its own message seq, so own messages never count.
+ * Both seqs are per-member watermarks: a group message never creates per-message receipt rows.
+ *
+ * Writes are coalesced: advance()/advanceDelivered() only keep max(seq) per key in memory,
+ * and a background flush persists them with one bulkWrite ($max, upsert).
+ */
+public final class ReadStateRepository {
+
+  private static final long FLUSH_INTERVAL_MS = 2000;
+
+  // "user|chatKey" -> highest seq not yet persisted
+  private static final ConcurrentHashMap<String, Long> PENDING = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<String, Long> PENDING_DELIVERED = new ConcurrentHashMap<>();
+
+  private static ScheduledExecutorService flusher;
+
+  private ReadStateRepository() {}
+
+  /** Unread counts for one user, across all chats. */
+  public static final class UnreadCounts {
+    public long broadcast;
+    public final Map<String, Long> privateByUser = new HashMap<>();
+    public final Map<String, Long> groupById = new HashMap<>();
+  }
+
+  /** One member's receipt watermarks in one chat. */
+  public static final class Watermark {
+    public long delivered;
+    public long read;
+  }
+
+  private static String key(String user, String chatKey) {
+    return user + "|" + chatKey;
+  }
+
+  // ---------------- writes (coalesced) ----------------
+
+  /** Move user's read position forward (never backwards). Cheap: memory only. */
+  public static void advance(String user, String chatKey, long seq) {
+    if (user == null || chatKey == null || seq <= 0) return;
+    ensureFlusher();
+    PENDING.merge(key(user, chatKey), seq, Math::max);
+  }
+
+  /** Move user's delivered position forward (never backwards). Memory only. */
+  public static void advanceDelivered(String user, String chatKey, long seq) {
+    if (user == null || chatKey == null || seq <= 0) return;
+    ensureFlusher();
+    PENDING_DELIVERED.merge(key(user, chatKey), seq, Math::max);
+  }
+
+  /** Mark everything currently in a chat as read. */
+  public static void markReadToHead(String user, String chatKey) {
+    advance(user, chatKey, SequenceRepository.head(chatKey));
+  }
+
+  /** Mark every chat of the user (broadcast, DMs, groups) as read. */
+  public static void markAllRead(String user) {
+    if (user == null) return;
+
+    List<String> keys = new ArrayList<>();
+    keys.add(SequenceRepository.BROADCAST_KEY);
+    for (String g : GroupRepository.listGroupIdsForUser(user)) keys.add(SequenceRepository.groupKey(g));
+    SequenceRepository.heads(keys).forEach((k, head) -> advance(user, k, head));
+
+    for (var e : SequenceRepository.privateHeadsFor(user).entrySet()) {
+      advance(user, SequenceRepository.privateKey(user, e.getKey()), e.getValue());
+    }
+  }
+
+  /**
+   * Persist all pending read/delivered positions (one bulkWrite). If the write fails, the
+   * positions taken for it go back into the pending maps (max-merged with newer ones) and
+   * the next flush retries them.
+   */
+  public static void flush() {
+    if (PENDING.isEmpty() && PENDING_DELIVERED.isEmpty()) return;
+
+    Set<String> keys = new HashSet<>(PENDING.keySet());
+    keys.addAll(PENDING_DELIVERED.keySet());
+
+    Map<String, Long> takenRead = new HashMap<>();
+    Map<String, Long> takenDelivered = new HashMap<>();
+    List<WriteModel<Document>> ops = new ArrayList<>();
+    for (String k : keys) {
+      Long read = PENDING.remove(k);
+      Long delivered = PENDING_DELIVERED.remove(k);
+      if (read == null && delivered == null) continue;
+      if (read != null) takenRead.put(k, read);
+      if (delivered != null) takenDelivered.put(k, delivered);
+
+      // read implies delivered
+      long d = Math.max(read == null ? 0L : read, delivered == null ? 0L : delivered);
+
+      int bar = k.indexOf('|');
+      List<Bson> updates = new ArrayList<>();
+      updates.add(Updates.setOnInsert("user", k.substring(0, bar)));
+      updates.add(Updates.setOnInsert("chatKey", k.substring(bar + 1)));
+      updates.add(Updates.max("deliveredSeq", d));
+      if (read != null) updates.add(Updates.max("readSeq", read));
+
+      ops.add(new UpdateOneModel<>(Filters.eq("key", k), Updates.combine(updates), new UpdateOptions().upsert(true)));
+    }
+
+    if (ops.isEmpty()) return;
+    try {
+      MongoManager.readStates().bulkWrite(ops);
+    } catch (RuntimeException ex) {
+      takenRead.forEach((k, v) -> PENDING.merge(k, v, Math::max));
+      takenDelivered.forEach((k, v) -> PENDING_DELIVERED.merge(k, v, Math::max));
+      throw ex;
+    }
+  }
+
+  private static synchronized void ensureFlusher() {
+    if (flusher != null) return;
+    flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "read-state-flush");
+      t.setDaemon(true);
+      return t;
+    });
+    flusher.scheduleWithFixedDelay(() -> {
+      try {
+        flush();
+      } catch (Exception ex) {
+        System.err.println("⚠️ Read state flush failed: " + ex.getMessage());
+      }
+    }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  // ---------------- reads ----------------
+
+  /** chatKey -> readSeq for a user (persisted values overlaid with pending ones). */
+  public static Map<String, Long> readSeqs(String user) {
+    Map<String, Long> out = new HashMap<>();
+    if (user == null) return out;
+
+    for (Document d : MongoManager.readStates().find(Filters.eq("user", user))) {
+      Object v = d.get("readSeq");
+      if (v instanceof Number n) out.put(d.getString("chatKey"), n.longValue());
+    }
+
+    String prefix = user + "|";
+    PENDING.forEach((k, seq) -> {
+      if (k.startsWith(prefix)) out.merge(k.substring(prefix.length()), seq, Math::max);
+    });
+    return out;
+  }
+
+  /** Watermarks of some members in one chat (persisted overlaid with pending; missing = 0/0). */
+  public static Map<String, Watermark> watermarks(String chatKey, Collection<String> users) {
+    Map<String, Watermark> out = new HashMap<>();
+    if (chatKey == null || users == null || users.isEmpty()) return out;
+
+    List<String> keys = new ArrayList<>();
+    for (String u : users) {
+      if (u == null) continue;
+      out.put(u, new Watermark());
+      keys.add(key(u, chatKey));
+    }
+
+    for (Document d : MongoManager.readStates().find(Filters.in("key", keys))) {
+      Watermark w = out.get(d.getString("user"));
+      if (w == null) continue;
+      if (d.get("readSeq") instanceof Number n) w.read = n.longValue();
+      if (d.get("deliveredSeq") instanceof Number n) w.delivered = n.longValue();
+    }
+
+    out.forEach((u, w) -> {
+      String k = key(u, chatKey);
+      w.read = Math.max(w.read, PENDING.getOrDefault(k, 0L));
+      w.delivered = Math.max(Math.max(w.delivered, w.read), PENDING_DELIVERED.getOrDefault(k, 0L));
+    });
+    return out;
+  }
+
+  /** All unread counters of a user (broadcast, every DM conversation, every group). */
+  public static UnreadCounts unreadCounts(String user) {
+    UnreadCounts out = new UnreadCounts();
+    if (user == null) return out;
+
+    List<String> groupIds = GroupRepository.listGroupIdsForUser(user);
+    Map<String, Long> read = readSeqs(user);
+
+    List<String> keys = new ArrayList<>();
+    keys.add(SequenceRepository.BROADCAST_KEY);
+    for (String g : groupIds) keys.add(SequenceRepository.groupKey(g));
+    Map<String, Long> heads = SequenceRepository.heads(keys);
+
+    out.broadcast = unread(heads.get(SequenceRepository.BROADCAST_KEY), read.get(SequenceRepository.BROADCAST_KEY));
+
+    for (String g : groupIds) {
+      String k = SequenceRepository.groupKey(g);
+      long n = unread(heads.get(k), read.get(k));
+      if (n > 0) out.groupById.put(g, n);
+    }
+
+    for (var e : SequenceRepository.privateHeadsFor(user).entrySet()) {
+      String k = SequenceRepository.privateKey(user, e.getKey());
+      long n = unread(e.getValue(), read.get(k));
+      if (n > 0) out.privateByUser.put(e.getKey(), n);
+    }
+    return out;
+  }
+
+  private static long unread(Long head, Long readSeq) {
+    long h = head == null ? 0L : head;
+    long r = readSeq == null ? 0L : readSeq;
+    return Math.max(0L, h - r);
+  }
+}
@@ -0,0 +1,21 @@
+package server.repo;
+import org.bson.types.ObjectId;
+
+/**
+ * Result of persisting one message: its id, per-chat seq, timestamp and the UI-formatted
+ * line ("[yyyy-MM-dd HH:mm] sender: content") that gets pushed to online clients.
+ */
+public final class SavedMessage {
+
+  public final ObjectId id;
+  public final long seq;         // per-chat sequence (SequenceRepository)
+  public final long ts;          // epoch millis
+  public final String formatted;
+
+  public SavedMessage(ObjectId id, long seq, long ts, String formatted) {
+    this.id = id;
+    this.seq = seq;
+    this.ts = ts;
+    this.formatted = formatted;
+  }
+}
@@ -0,0 +1,147 @@
+package server.repo;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+import server.archive.SegmentCodec;
+import server.db.MongoManager;
+
+/**
+ * Storage side of the full-text search index (server.search).
+ *
+ * Collection: search_segments
+ * Fields:
+ * - chatKey: SequenceRepository chat key
+ * - fromSeq, toSeq: seq range covered (inclusive)
+ * - docs: number of messages
+ * - data: encoded index segment (see server.search.ChatIndex)
+ *
+ * Also reads messages by seq from hot collections and the archive (catch-up + hit lookup).
+ */
+public final class SearchRepository {
+
+  private SearchRepository() {}
+
+  /** Receives messages in ascending seq order. */
+  public interface MessageSink {
+    void accept(long seq, long ts, String content);
+  }
+
+  /** One persisted index segment. */
+  public static final class Segment {
+    public final long fromSeq;
+    public final long toSeq;
+    public final byte[] data;
+
+    Segment(long fromSeq, long toSeq, byte[] data) {
+      this.fromSeq = fromSeq;
+      this.toSeq = toSeq;
+      this.data = data;
+    }
+  }
+
+  // ---------------- segments ----------------
+
+  /** All segments of a chat, ascending seq. */
+  public static List<Segment> loadSegments(String chatKey) {
+    List<Segment> out = new ArrayList<>();
+    var cur = MongoManager.searchSegments()
+        .find(Filters.eq("chatKey", chatKey))
+        .sort(Sorts.ascending("fromSeq"))
+        .batchSize(8);
+
+    for (Document d : cur) {
+      Binary data = d.get("data", Binary.class);
+      if (data == null) continue;
+      out.add(new Segment(longOf(d, "fromSeq"), longOf(d, "toSeq"), data.getData()));
+    }
+    return out;
+  }
+
+  public static void writeSegment(String chatKey, long fromSeq, long toSeq, int docs, byte[] data) {
+    MongoManager.searchSegments().insertOne(segmentDoc(new ObjectId(), chatKey, fromSeq, toSeq, docs, data));
+  }
+
+  /** Compaction: store one segment covering [fromSeq, toSeq] and drop the ones it replaces. */
+  public static void replaceSegments(String chatKey, long fromSeq, long toSeq, int docs, byte[] data) {
+    ObjectId id = new ObjectId();
+    MongoManager.searchSegments().insertOne(segmentDoc(id, chatKey, fromSeq, toSeq, docs, data));
+    MongoManager.searchSegments().deleteMany(Filters.and(
+        Filters.eq("chatKey", chatKey),
+        Filters.lte("toSeq", toSeq),
+        Filters.ne("_id", id)));
+  }
+
+  private static Document segmentDoc(ObjectId id, String chatKey, long fromSeq, long toSeq, int docs, byte[] data) {
+    return new Document("_id", id)
+        .append("chatKey", chatKey)
+        .append("fromSeq", fromSeq)
+        .append("toSeq", toSeq)
+        .append("docs", docs)
+        .append("data", new Binary(data));
+  }
+
+  // ---------------- messages ----------------
+
+  /**
+   * Messages of a chat with seq > afterSeq, ascending.
+   * If includeArchive, archived messages (ts >= archiveFromTs) are read first.
+   * Messages written before seq existed have no seq and are skipped.
+   */
+  public static void scanAfter(ChatRef ref, long afterSeq, boolean includeArchive, long archiveFromTs,
+      MessageSink sink) {
+    if (includeArchive) {
+      ArchiveRepository.forEachSince(ref.chatType, ref.chatId, archiveFromTs, e -> {
+        if (e.seq > afterSeq) sink.accept(e.seq, e.ts, e.content);
+        return true;
+      });
+    }
+
+    var cur = ref.collection()
+        .find(ref.and(Filters.gt("seq", afterSeq)))
+        .sort(Sorts.ascending("seq"))
+        .batchSize(1000);
+
+    for (Document d : cur) {
+      Date ts = d.getDate("ts");
+      sink.accept(longOf(d, "seq"), ts == null ? 0L : ts.getTime(), d.getString("content"));
+    }
+  }
+
+  /**
+   * Formatted lines for the given seqs (hot collection first, then archive by ts).
+   * Messages that no longer exist are absent from the map.
+   */
+  public static Map<Long, String> fetchFormatted(ChatRef ref, long[] seqs, long[] ts) {
+    Map<Long, String> out = new HashMap<>();
+    if (seqs == null || seqs.length == 0) return out;
+
+    List<Long> wanted = new ArrayList<>();
+    for (long s : seqs) wanted.add(s);
+
+    for (Document d : ref.collection().find(ref.and(Filters.in("seq", wanted)))) {
+      out.put(longOf(d, "seq"), HistoryPager.format(d.getDate("ts"), d.getString("sender"), d.getString("content")));
+    }
+
+    for (int i = 0; i < seqs.length; i++) {
+      if (out.containsKey(seqs[i])) continue;
+      SegmentCodec.Entry e = ArchiveRepository.findBySeq(ref.chatType, ref.chatId, seqs[i], ts[i]);
+      if (e != null) out.put(seqs[i], HistoryPager.format(new Date(e.ts), e.sender, e.content));
+    }
+    return out;
+  }
+
+  private static long longOf(Document d, String field) {
+    Object v = d.get(field);
+    return (v instanceof Number n) ? n.longValue() : 0L;
+  }
+}
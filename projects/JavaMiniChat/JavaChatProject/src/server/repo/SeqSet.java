@@ -0,0 +1,115 @@
+package server.repo;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable sorted set of message seqs (one chat).
+ *
+ * Stored as delta varints: [count][first][gap][gap]... so runs of nearby seqs take
+ * about one byte each. contains() is a binary search over a primitive long[].
+ */
+public final class SeqSet {
+
+  private static final SeqSet EMPTY = new SeqSet(new long[0]);
+
+  private final long[] seqs; // sorted, unique, > 0
+
+  private SeqSet(long[] seqs) {
+    this.seqs = seqs;
+  }
+
+  public static SeqSet empty() {
+    return EMPTY;
+  }
+
+  /** Build from any seqs (unsorted, duplicates and non-positive values are dropped). */
+  public static SeqSet of(long[] values) {
+    if (values == null || values.length == 0) return EMPTY;
+    long[] copy = values.clone();
+    Arrays.sort(copy);
+
+    int w = 0;
+    for (long v : copy) {
+      if (v <= 0) continue;
+      if (w > 0 && copy[w - 1] == v) continue;
+      copy[w++] = v;
+    }
+    return w == 0 ? EMPTY : new SeqSet(Arrays.copyOf(copy, w));
+  }
+
+  public int size() {
+    return seqs.length;
+  }
+
+  public boolean isEmpty() {
+    return seqs.length == 0;
+  }
+
+  public boolean contains(long seq) {
+    return seqs.length > 0 && Arrays.binarySearch(seqs, seq) >= 0;
+  }
+
+  /** This set plus values. */
+  public SeqSet union(long[] values) {
+    if (values == null || values.length == 0) return this;
+    long[] all = Arrays.copyOf(seqs, seqs.length + values.length);
+    System.arraycopy(values, 0, all, seqs.length, values.length);
+    return of(all);
+  }
+
+  /** Boxed copy (for Mongo $nin). */
+  public List<Long> toList() {
+    List<Long> out = new ArrayList<>(seqs.length);
+    for (long s : seqs) out.add(s);
+    return out;
+  }
+
+  // ---------------- encoding ----------------
+
+  public byte[] encode() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(seqs.length + 8);
+    writeVarLong(out, seqs.length);
+    long prev = 0;
+    for (long s : seqs) {
+      writeVarLong(out, s - prev);
+      prev = s;
+    }
+    return out.toByteArray();
+  }
+
+  public static SeqSet decode(byte[] data) {
+    if (data == null || data.length == 0) return EMPTY;
+
+    int[] pos = {0};
+    int n = (int) readVarLong(data, pos);
+    long[] seqs = new long[n];
+    long prev = 0;
+    for (int i = 0; i < n; i++) {
+      prev += readVarLong(data, pos);
+      seqs[i] = prev;
+    }
+    return n == 0 ? EMPTY : new SeqSet(seqs);
+  }
+
+  private static void writeVarLong(ByteArrayOutputStream out, long v) {
+    while ((v & ~0x7FL) != 0) {
+      out.write((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.write((int) v);
+  }
+
+  private static long readVarLong(byte[] data, int[] pos) {
+    long v = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = data[pos[0]++];
+      v |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return v;
+  }
+}
@@ -0,0 +1,116 @@
+package server.repo;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+
+import server.db.MongoManager;
+
+/**
+ * Per-chat message sequence numbers (1, 2, 3, ... in send order).
+ *
+ * Collection: chat_seqs
+ * Fields:
+ * - _id: chat key (see chatKey helpers below)
+ * - seq: last assigned sequence (= chat head)
+ * - members: [a, b] for private chats (lets us list a user's DM conversations)
+ *
+ * Chat keys:
+ * - "broadcast"
+ * - "private:" + conversationId
+ * - "group:" + groupId hex
+ */
+public final class SequenceRepository {
+
+  public static final String BROADCAST_KEY = "broadcast";
+
+  private SequenceRepository() {}
+
+  // ---------------- chat keys ----------------
+
+  public static String privateKey(String a, String b) {
+    return "private:" + MessageRepository.conversationId(a, b);
+  }
+
+  public static String groupKey(String groupId) {
+    return "group:" + (groupId == null ? "" : groupId.trim());
+  }
+
+  /** Chat key for a client-facing scope (+ with/groupId). Null if invalid. */
+  public static String keyFor(String user, String scope, String with, String groupId) {
+    if (scope == null) return null;
+    return switch (scope) {
+      case "broadcast" -> BROADCAST_KEY;
+      case "private" -> (user == null || with == null) ? null : privateKey(user, with);
+      case "group" -> (groupId == null || groupId.isBlank()) ? null : groupKey(groupId);
+      default -> null;
+    };
+  }
+
+  // ---------------- counters ----------------
+
+  /** Atomically allocate the next seq of a chat. */
+  public static long next(String chatKey) {
+    return next(chatKey, null);
+  }
+
+  /** Same as next(chatKey); members are stored on first use (private chats). */
+  public static long next(String chatKey, List<String> members) {
+    var update = (members == null)
+        ? Updates.inc("seq", 1L)
+        : Updates.combine(Updates.inc("seq", 1L), Updates.setOnInsert("members", members));
+
+    Document d = MongoManager.chatSeqs().findOneAndUpdate(
+        Filters.eq("_id", chatKey),
+        update,
+        new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+
+    return seqOf(d);
+  }
+
+  /** Current head of one chat (0 if no messages yet). */
+  public static long head(String chatKey) {
+    Document d = MongoManager.chatSeqs().find(Filters.eq("_id", chatKey)).first();
+    return seqOf(d);
+  }
+
+  /** Heads of many chats in one query (missing chats are absent from the map). */
+  public static Map<String, Long> heads(Collection<String> chatKeys) {
+    Map<String, Long> out = new HashMap<>();
+    if (chatKeys == null || chatKeys.isEmpty()) return out;
+
+    for (Document d : MongoManager.chatSeqs().find(Filters.in("_id", new ArrayList<>(chatKeys)))) {
+      out.put(d.getString("_id"), seqOf(d));
+    }
+    return out;
+  }
+
+  /** Private chats of a user: partner username -> head seq. */
+  public static Map<String, Long> privateHeadsFor(String user) {
+    Map<String, Long> out = new HashMap<>();
+    if (user == null) return out;
+
+    for (Document d : MongoManager.chatSeqs().find(Filters.eq("members", user))) {
+      List<String> members = d.getList("members", String.class);
+      if (members == null) continue;
+      for (String m : members) {
+        if (m != null && !m.equals(user)) out.put(m, seqOf(d));
+      }
+    }
+    return out;
+  }
+
+  private static long seqOf(Document d) {
+    if (d == null) return 0L;
+    Object v = d.get("seq");
+    return (v instanceof Number n) ? n.longValue() : 0L;
+  }
+}
@@ -1,5 +1,6 @@
 package server.repo;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -20,6 +21,7 @@ import server.security.PasswordUtil;
  * - username (unique)
  * - passHash, salt, iterations
  * - status: "online" | "offline"
+ * - node: cluster node that set "online" last (cluster mode only)
  * - lastSeen: Date
  */
 public final class UserRepository {
@@ -29,9 +31,18 @@ public final class UserRepository {
   private static final String COL_ITERS = "iterations";
   private static final String COL_STATUS = "status";
   private static final String COL_LASTSEEN = "lastSeen";
+  private static final String COL_NODE = "node";
+
+  // this node's id in cluster mode (null = single node): owner of the statuses it sets
+  private static volatile String ownerNode;
 
   private UserRepository() {}
 
+  /** Cluster mode: record this node as the owner of the "online" statuses it writes. */
+  public static void setOwnerNode(String nodeId) {
+    ownerNode = nodeId == null || nodeId.isBlank() ? null : nodeId;
+  }
+
   /** Create a new user. Returns false if username already exists. */
   public static boolean signUp(String username, String password) {
     username = cleanUser(username);
@@ -79,9 +90,18 @@ public final class UserRepository {
     return PasswordUtil.verifyPassword(password, storedHash, salt, iterations);
   }
 
-  /** Mark user online. */
+  /** Mark user online (owned by this node in cluster mode). */
   public static void markOnline(String username) {
-    setStatus(username, "online", false);
+    String node = ownerNode;
+    if (node == null) {
+      setStatus(username, "online", false);
+      return;
+    }
+    username = cleanUser(username);
+    if (username == null) return;
+    MongoManager.users().updateOne(
+        Filters.eq(COL_USERNAME, username),
+        Updates.combine(Updates.set(COL_STATUS, "online"), Updates.set(COL_NODE, node)));
   }
 
   /** Mark user offline and update lastSeen. */
@@ -134,6 +154,16 @@ public final class UserRepository {
     return users;
   }
 
+  /** Mark many users offline in ONE updateMany (server drain). */
+  public static void markOfflineMany(Collection<String> usernames) {
+    if (usernames == null || usernames.isEmpty()) return;
+    MongoManager.users().updateMany(
+        Filters.in(COL_USERNAME, usernames),
+        Updates.combine(
+            Updates.set(COL_STATUS, "offline"),
+            Updates.set(COL_LASTSEEN, new Date())));
+  }
+
   /** Reset all users to offline (server startup). */
   public static void resetAllOffline() {
     MongoManager.users().updateMany(
@@ -141,6 +171,19 @@ public final class UserRepository {
         com.mongodb.client.model.Updates.set("status", "offline"));
   }
 
+  /**
+   * Reset the users this node had marked online (cluster node startup: users connected to
+   * the other, live nodes keep their status).
+   */
+  public static void resetOfflineOwnedBy(String nodeId) {
+    if (nodeId == null || nodeId.isBlank()) return;
+    MongoManager.users().updateMany(
+        Filters.and(Filters.eq(COL_STATUS, "online"), Filters.eq(COL_NODE, nodeId)),
+        Updates.combine(
+            Updates.set(COL_STATUS, "offline"),
+            Updates.set(COL_LASTSEEN, new Date())));
+  }
+
   private static String cleanUser(String u) {
     if (u == null) return null;
     u = u.trim();
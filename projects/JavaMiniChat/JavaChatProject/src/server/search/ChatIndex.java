@@ -0,0 +1,237 @@
+package server.search;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Inverted index of ONE chat: term -> PostingList, plus a doc table (seq -> ts).
+ *
+ * Docs must be added in ascending seq order. Not thread-safe (SearchIndex locks).
+ *
+ * Segment format (Deflate):
+ *   [version:byte][docs:int] then per doc [seq:long][ts:long]
+ *   [terms:int] then per term [term:UTF][df:int][bytes:int][postings...]
+ */
+final class ChatIndex {
+
+  private static final byte VERSION = 1;
+
+  private long[] docSeq = new long[16];
+  private long[] docTs = new long[16];
+  private int docs;
+
+  private final HashMap<String, PostingList> terms = new HashMap<>();
+
+  int docCount() {
+    return docs;
+  }
+
+  long maxSeq() {
+    return docs == 0 ? 0L : docSeq[docs - 1];
+  }
+
+  long maxTs() {
+    return docs == 0 ? 0L : docTs[docs - 1];
+  }
+
+  /** Index one message. Returns false if seq is not newer than maxSeq(). */
+  boolean add(long seq, long ts, Map<String, Integer> termFreqs) {
+    if (seq <= maxSeq()) return false;
+
+    if (docs == docSeq.length) {
+      docSeq = Arrays.copyOf(docSeq, docs * 2);
+      docTs = Arrays.copyOf(docTs, docs * 2);
+    }
+    docSeq[docs] = seq;
+    docTs[docs] = ts;
+    docs++;
+
+    for (var e : termFreqs.entrySet()) {
+      terms.computeIfAbsent(e.getKey(), k -> new PostingList()).add(seq, e.getValue());
+    }
+    return true;
+  }
+
+  /** ts of a doc, or -1 if seq is not indexed. */
+  long tsOf(long seq) {
+    int i = Arrays.binarySearch(docSeq, 0, docs, seq);
+    return i < 0 ? -1L : docTs[i];
+  }
+
+  // ---------------- query ----------------
+
+  /** Matching docs, best first. */
+  static final class Matches {
+    long[] seqs = new long[0];
+    long[] ts = new long[0];
+    double[] scores = new double[0];
+    int size;
+  }
+
+  /**
+   * AND query over all terms; only docs with ts > afterTs that are not excluded.
+   * Score = sum over terms of (1 + ln tf) * ln(1 + N / df); ties -> newer first.
+   */
+  Matches search(List<String> queryTerms, long afterTs, LongPredicate excluded) {
+    Matches m = new Matches();
+    if (queryTerms == null || queryTerms.isEmpty() || docs == 0) return m;
+
+    PostingList[] lists = new PostingList[queryTerms.size()];
+    for (int i = 0; i < lists.length; i++) {
+      lists[i] = terms.get(queryTerms.get(i));
+      if (lists[i] == null) return m;
+    }
+    Arrays.sort(lists, (a, b) -> Integer.compare(a.df(), b.df()));
+
+    // candidates = rarest list, then intersect with the others
+    long[] seqs = new long[lists[0].df()];
+    int[] tfs = new int[seqs.length];
+    lists[0].decode(seqs, tfs);
+
+    double[] scores = new double[seqs.length];
+    int n = seqs.length;
+    double idf0 = Math.log(1.0 + (double) docs / lists[0].df());
+    for (int i = 0; i < n; i++) scores[i] = (1.0 + Math.log(tfs[i])) * idf0;
+
+    for (int l = 1; l < lists.length && n > 0; l++) {
+      long[] os = new long[lists[l].df()];
+      int[] otf = new int[os.length];
+      lists[l].decode(os, otf);
+      double idf = Math.log(1.0 + (double) docs / lists[l].df());
+
+      int w = 0, j = 0;
+      for (int i = 0; i < n; i++) {
+        while (j < os.length && os[j] < seqs[i]) j++;
+        if (j == os.length) break;
+        if (os[j] == seqs[i]) {
+          seqs[w] = seqs[i];
+          scores[w] = scores[i] + (1.0 + Math.log(otf[j])) * idf;
+          w++;
+        }
+      }
+      n = w;
+    }
+
+    // clear-for-me + hidden filter (ts is from the doc table)
+    long[] ts = new long[n];
+    int w = 0;
+    for (int i = 0; i < n; i++) {
+      long t = tsOf(seqs[i]);
+      if (t <= afterTs || (excluded != null && excluded.test(seqs[i]))) continue;
+      seqs[w] = seqs[i];
+      scores[w] = scores[i];
+      ts[w] = t;
+      w++;
+    }
+    n = w;
+
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) order[i] = i;
+    final long[] s0 = seqs;
+    final double[] sc = scores;
+    Arrays.sort(order, (a, b) -> {
+      int c = Double.compare(sc[b], sc[a]);
+      return c != 0 ? c : Long.compare(s0[b], s0[a]);
+    });
+
+    m.seqs = new long[n];
+    m.ts = new long[n];
+    m.scores = new double[n];
+    for (int i = 0; i < n; i++) {
+      int k = order[i];
+      m.seqs[i] = seqs[k];
+      m.ts[i] = ts[k];
+      m.scores[i] = scores[k];
+    }
+    m.size = n;
+    return m;
+  }
+
+  // ---------------- segments ----------------
+
+  byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      out.writeByte(VERSION);
+      out.writeInt(docs);
+      for (int i = 0; i < docs; i++) {
+        out.writeLong(docSeq[i]);
+        out.writeLong(docTs[i]);
+      }
+
+      out.writeInt(terms.size());
+      for (var e : terms.entrySet()) {
+        PostingList p = e.getValue();
+        out.writeUTF(e.getKey());
+        out.writeInt(p.df());
+        out.writeInt(p.byteLength());
+        out.write(p.bytes(), 0, p.byteLength());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Index segment encode failed", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Append a persisted segment. Segments must be merged in ascending seq order;
+   * docs/postings not newer than what is already indexed are skipped.
+   */
+  void merge(byte[] segment) {
+    if (segment == null || segment.length == 0) return;
+
+    try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(segment)))) {
+      byte v = in.readByte();
+      if (v != VERSION) throw new IOException("Unknown index segment version: " + v);
+
+      long before = maxSeq();
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        long seq = in.readLong();
+        long ts = in.readLong();
+        if (seq <= maxSeq()) continue;
+        if (docs == docSeq.length) {
+          docSeq = Arrays.copyOf(docSeq, docs * 2);
+          docTs = Arrays.copyOf(docTs, docs * 2);
+        }
+        docSeq[docs] = seq;
+        docTs[docs] = ts;
+        docs++;
+      }
+
+      int t = in.readInt();
+      for (int i = 0; i < t; i++) {
+        String term = in.readUTF();
+        int df = in.readInt();
+        byte[] raw = new byte[in.readInt()];
+        in.readFully(raw);
+
+        PostingList seg = PostingList.of(raw, df);
+        long[] seqs = new long[df];
+        int[] tfs = new int[df];
+        seg.decode(seqs, tfs);
+
+        PostingList target = terms.get(term);
+        for (int k = 0; k < df; k++) {
+          if (seqs[k] <= before) continue;
+          if (target == null) {
+            target = new PostingList();
+            terms.put(term, target);
+          }
+          target.add(seqs[k], tfs[k]);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Index segment decode failed", e);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package server.search;
+import java.util.Arrays;
+
+/**
+ * Postings of one term in one chat: ascending message seqs with term frequency.
+ *
+ * Stored as one growable byte[] of varints: [seq - previousSeq][tf] per posting,
+ * so a typical posting takes 2 bytes instead of a boxed Long + Integer.
+ */
+final class PostingList {
+
+  private byte[] data;
+  private int len;
+  private int df;         // number of postings (document frequency)
+  private long lastSeq;   // seq of the last posting (delta base for the next add)
+
+  PostingList() {
+    this(8);
+  }
+
+  private PostingList(int capacity) {
+    data = new byte[Math.max(4, capacity)];
+  }
+
+  int df() {
+    return df;
+  }
+
+  long lastSeq() {
+    return lastSeq;
+  }
+
+  /** Append a posting. seq must be greater than lastSeq (ignored otherwise). */
+  boolean add(long seq, int tf) {
+    if (seq <= lastSeq) return false;
+    ensure(20);
+    writeVarLong(seq - lastSeq);
+    writeVarLong(Math.max(1, tf));
+    lastSeq = seq;
+    df++;
+    return true;
+  }
+
+  /** Decode into seqs/tfs (both at least df() long). */
+  void decode(long[] seqs, int[] tfs) {
+    int pos = 0;
+    long seq = 0;
+    for (int i = 0; i < df; i++) {
+      long delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[pos++];
+        delta |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      seq += delta;
+
+      int tf = 0;
+      shift = 0;
+      do {
+        b = data[pos++];
+        tf |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+
+      seqs[i] = seq;
+      if (tfs != null) tfs[i] = tf;
+    }
+  }
+
+  /** Encoded bytes (length = byteLength()). */
+  byte[] bytes() {
+    return data;
+  }
+
+  int byteLength() {
+    return len;
+  }
+
+  /** Rebuild from encoded bytes (as written by bytes()/byteLength()). */
+  static PostingList of(byte[] encoded, int df) {
+    PostingList p = new PostingList(encoded.length);
+    System.arraycopy(encoded, 0, p.data, 0, encoded.length);
+    p.len = encoded.length;
+    p.df = df;
+
+    long[] seqs = new long[df];
+    p.decode(seqs, null);
+    p.lastSeq = df == 0 ? 0L : seqs[df - 1];
+    return p;
+  }
+
+  private void ensure(int extra) {
+    if (len + extra > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, len + extra));
+  }
+
+  private void writeVarLong(long v) {
+    while ((v & ~0x7FL) != 0) {
+      data[len++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    data[len++] = (byte) v;
+  }
+}
@@ -0,0 +1,303 @@
+package server.search;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+import server.repo.ChatRef;
+import server.repo.SearchRepository;
+
+/**
+ * In-process full-text search over chat history (one inverted index per chat).
+ *
+ * - Loaded lazily on first search: persisted segments, then catch-up from the archive
+ *   and the hot collection (seq > last indexed seq).
+ * - Kept current by onSaved() for chats that are already in memory.
+ * - New docs are persisted as small segments by a background flush; a chat with
+ *   too many segments is rewritten as one segment (compaction).
+ * - At most maxChats indexes stay in memory (LRU). Evicting is safe: everything
+ *   is in Mongo and gets caught up again on the next load.
+ *
+ * Loading and catching up read Mongo into a local index / doc list without holding the
+ * chat's monitor, then swap the result in under it. onSaved() (on the DB threads of every
+ * send) therefore never waits for a load: while one runs it only marks the chat stale.
+ */
+public final class SearchIndex {
+
+  private static final int COMPACT_AFTER_SEGMENTS = 32;
+
+  /** One chat's index + its not-yet-persisted tail (fields guarded by the chat's monitor). */
+  private static final class LoadedChat {
+    final Object loading = new Object(); // one load / catch-up at a time (searches only)
+    ChatIndex full = new ChatIndex();
+    ChatIndex delta = new ChatIndex();   // docs since the last persisted segment
+    volatile boolean loaded;
+    volatile boolean stale;              // a live add was skipped (seq gap / loading): catch up on next search
+    boolean compact;                     // rewrite everything as one segment on next flush
+    long persistedSeq;
+    int segments;
+  }
+
+  /** One message read by a catch-up, tokenized outside the chat's monitor. */
+  private static final class Doc {
+    final long seq;
+    final long ts;
+    final Map<String, Integer> termFreqs;
+
+    Doc(long seq, long ts, Map<String, Integer> termFreqs) {
+      this.seq = seq;
+      this.ts = ts;
+      this.termFreqs = termFreqs;
+    }
+  }
+
+  private static int maxChats = 256;
+  private static ScheduledExecutorService flusher;
+
+  private static final LinkedHashMap<String, LoadedChat> CACHE = new LinkedHashMap<>(64, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, LoadedChat> eldest) {
+      return size() > maxChats;
+    }
+  };
+
+  // searches served from memory vs loaded first (admin "stats")
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+
+  private SearchIndex() {}
+
+  /** Optional tuning (ServerMain). maxChats <= 0 / flushSec <= 0 keep defaults. */
+  public static synchronized void configure(int maxChatsInMemory, int flushSec) {
+    if (maxChatsInMemory > 0) maxChats = maxChatsInMemory;
+    startFlusher(flushSec > 0 ? flushSec : 30);
+  }
+
+  // ---------------- writes ----------------
+
+  /** A message was stored. Cheap no-op unless the chat's index is in memory. */
+  public static void onSaved(String chatKey, long seq, long ts, String content) {
+    LoadedChat c;
+    synchronized (SearchIndex.class) {
+      c = CACHE.get(chatKey);
+    }
+    if (c == null) return;
+    if (!c.loaded) {
+      c.stale = true; // being loaded: the search that swaps it in catches up from Mongo
+      return;
+    }
+
+    synchronized (c) {
+      if (seq != c.full.maxSeq() + 1) {
+        // out-of-order save (concurrent senders): let the next search catch up from Mongo
+        if (seq > c.full.maxSeq()) c.stale = true;
+        return;
+      }
+      index(c, seq, ts, content);
+    }
+  }
+
+  private static void index(LoadedChat c, long seq, long ts, String content) {
+    Map<String, Integer> tf = Tokenizer.termFreqs(content);
+    if (c.full.add(seq, ts, tf)) c.delta.add(seq, ts, tf);
+  }
+
+  // ---------------- search ----------------
+
+  /**
+   * Ranked hits for query in one chat, skipping messages at or before clearedAt and
+   * seqs matched by hidden (may be null). Access checks (membership) are the caller's job.
+   */
+  public static SearchResult search(ChatRef ref, String query, long clearedAt, LongPredicate hidden,
+      int offset, int limit) {
+    List<String> terms = Tokenizer.queryTerms(query);
+    if (ref == null || terms.isEmpty()) return SearchResult.empty();
+
+    LoadedChat c;
+    synchronized (SearchIndex.class) {
+      c = CACHE.computeIfAbsent(ref.key, k -> new LoadedChat());
+    }
+    ensureFlusher();
+
+    if (c.loaded) HITS.increment();
+    else MISSES.increment();
+    if (!c.loaded || c.stale) {
+      synchronized (c.loading) {
+        if (!c.loaded) load(ref, c);
+        if (c.stale) catchUp(ref, c);
+      }
+    }
+
+    ChatIndex.Matches m;
+    synchronized (c) {
+      m = c.full.search(terms, clearedAt, hidden);
+    }
+
+    int from = Math.max(0, offset);
+    int to = Math.min(m.size, from + Math.max(1, limit));
+    if (from >= to) return new SearchResult(new ArrayList<>(), m.size, false);
+
+    long[] seqs = new long[to - from];
+    long[] ts = new long[to - from];
+    System.arraycopy(m.seqs, from, seqs, 0, seqs.length);
+    System.arraycopy(m.ts, from, ts, 0, ts.length);
+
+    Map<Long, String> lines = SearchRepository.fetchFormatted(ref, seqs, ts);
+    List<SearchResult.Hit> hits = new ArrayList<>();
+    for (int i = 0; i < seqs.length; i++) {
+      String line = lines.get(seqs[i]);
+      if (line != null) hits.add(new SearchResult.Hit(seqs[i], ts[i], line));
+    }
+    return new SearchResult(hits, m.size, to < m.size);
+  }
+
+  /** Build the index off the monitor (segments + archive + hot catch-up), then swap it in. */
+  private static void load(ChatRef ref, LoadedChat c) {
+    long t0 = System.currentTimeMillis();
+
+    ChatIndex full = new ChatIndex();
+    ChatIndex delta = new ChatIndex();
+    List<SearchRepository.Segment> segs = SearchRepository.loadSegments(ref.key);
+    for (SearchRepository.Segment s : segs) full.merge(s.data);
+    long persistedSeq = full.maxSeq();
+
+    SearchRepository.scanAfter(ref, persistedSeq, true, full.maxTs(), (seq, ts, content) -> {
+      Map<String, Integer> tf = Tokenizer.termFreqs(content);
+      if (full.add(seq, ts, tf)) delta.add(seq, ts, tf);
+    });
+
+    synchronized (c) {
+      c.full = full;
+      c.delta = delta;
+      c.persistedSeq = persistedSeq;
+      c.segments = segs.size();
+      c.compact = c.segments > COMPACT_AFTER_SEGMENTS;
+      c.loaded = true; // saves during the load marked it stale: the caller catches up next
+    }
+
+    System.out.println("🔎 Search index loaded: " + ref.key + " docs=" + full.docCount()
+        + " segments=" + segs.size() + " in " + (System.currentTimeMillis() - t0) + "ms");
+  }
+
+  /** Read the messages after the indexed seq off the monitor, then apply them under it. */
+  private static void catchUp(ChatRef ref, LoadedChat c) {
+    c.stale = false; // cleared first: a save racing the scan marks it again
+    long after;
+    long fromTs;
+    synchronized (c) {
+      after = c.full.maxSeq();
+      fromTs = c.full.maxTs();
+    }
+
+    List<Doc> docs = new ArrayList<>();
+    SearchRepository.scanAfter(ref, after, false, fromTs,
+        (seq, ts, content) -> docs.add(new Doc(seq, ts, Tokenizer.termFreqs(content))));
+    if (docs.isEmpty()) return;
+
+    synchronized (c) {
+      // live adds may have indexed some of them meanwhile: add() skips seqs <= maxSeq()
+      for (Doc d : docs) {
+        if (c.full.add(d.seq, d.ts, d.termFreqs)) c.delta.add(d.seq, d.ts, d.termFreqs);
+      }
+    }
+  }
+
+  // ---------------- cache stats ----------------
+
+  public static long cacheHits() {
+    return HITS.sum();
+  }
+
+  public static long cacheMisses() {
+    return MISSES.sum();
+  }
+
+  public static synchronized int cachedChats() {
+    return CACHE.size();
+  }
+
+  /**
+   * Persist new docs, then drop every in-memory index (admin "flush_caches"). Docs added
+   * in between are not lost: a reload catches up from the messages. Returns how many.
+   */
+  public static int evictAll() {
+    flush();
+    synchronized (SearchIndex.class) {
+      int n = CACHE.size();
+      CACHE.clear();
+      return n;
+    }
+  }
+
+  // ---------------- persistence ----------------
+
+  /** Persist new docs of every in-memory chat (one segment per chat). */
+  public static void flush() {
+    List<Map.Entry<String, LoadedChat>> chats;
+    synchronized (SearchIndex.class) {
+      chats = new ArrayList<>(CACHE.entrySet());
+    }
+
+    for (var e : chats) {
+      String key = e.getKey();
+      LoadedChat c = e.getValue();
+
+      byte[] data;
+      long from, to;
+      int docs;
+      boolean full;
+      synchronized (c) {
+        if (!c.loaded) continue;
+        full = c.compact;
+        if (!full && c.delta.docCount() == 0) continue;
+
+        ChatIndex src = full ? c.full : c.delta;
+        data = src.encode();
+        docs = src.docCount();
+        from = full ? 1L : c.persistedSeq + 1;
+        to = src.maxSeq();
+
+        c.delta = new ChatIndex();
+        c.persistedSeq = c.full.maxSeq();
+        c.compact = false;
+        c.segments = full ? 1 : c.segments + 1;
+        if (c.segments > COMPACT_AFTER_SEGMENTS) c.compact = true;
+      }
+
+      try {
+        if (full) SearchRepository.replaceSegments(key, from, to, docs, data);
+        else SearchRepository.writeSegment(key, from, to, docs, data);
+      } catch (Exception ex) {
+        System.err.println("⚠️ Search segment write failed for " + key + ": " + ex.getMessage());
+        synchronized (c) {
+          c.compact = true; // rewrite the whole index next time
+        }
+      }
+    }
+  }
+
+  private static synchronized void ensureFlusher() {
+    if (flusher == null) startFlusher(30);
+  }
+
+  private static synchronized void startFlusher(int sec) {
+    if (flusher != null) return;
+    flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "search-index-flush");
+      t.setDaemon(true);
+      return t;
+    });
+    flusher.scheduleWithFixedDelay(() -> {
+      try {
+        flush();
+      } catch (Exception ex) {
+        System.err.println("⚠️ Search index flush failed: " + ex.getMessage());
+      }
+    }, sec, sec, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,34 @@
+package server.search;
+import java.util.ArrayList;
+import java.util.List;
+
+/** One page of ranked search hits for one chat. */
+public final class SearchResult {
+
+  /** One hit: message seq, ts and the UI-formatted line. */
+  public static final class Hit {
+    public final long seq;
+    public final long ts;          // epoch millis
+    public final String message;
+
+    public Hit(long seq, long ts, String message) {
+      this.seq = seq;
+      this.ts = ts;
+      this.message = message;
+    }
+  }
+
+  public final List<Hit> hits;
+  public final int total;          // all matches (before paging)
+  public final boolean hasMore;
+
+  public SearchResult(List<Hit> hits, int total, boolean hasMore) {
+    this.hits = hits == null ? new ArrayList<>() : hits;
+    this.total = total;
+    this.hasMore = hasMore;
+  }
+
+  public static SearchResult empty() {
+    return new SearchResult(new ArrayList<>(), 0, false);
+  }
+}
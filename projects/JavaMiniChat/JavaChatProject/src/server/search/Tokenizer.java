@@ -0,0 +1,56 @@
+package server.search;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Splits message text into index terms.
+ *
+ * Rules: lowercase (ROOT locale), split on anything that is not a letter/digit,
+ * keep terms of 2..32 chars, at most MAX_TERMS distinct terms per message.
+ */
+public final class Tokenizer {
+
+  static final int MIN_LEN = 2;
+  static final int MAX_LEN = 32;
+  static final int MAX_TERMS = 256;
+  static final int MAX_QUERY_TERMS = 8;
+
+  private Tokenizer() {}
+
+  /** term -> frequency in text (insertion order not guaranteed). */
+  public static Map<String, Integer> termFreqs(String text) {
+    Map<String, Integer> out = new HashMap<>();
+    if (text == null || text.isEmpty()) return out;
+
+    String lower = text.toLowerCase(Locale.ROOT);
+    int n = lower.length();
+    int i = 0;
+    while (i < n) {
+      while (i < n && !Character.isLetterOrDigit(lower.charAt(i))) i++;
+      int start = i;
+      while (i < n && Character.isLetterOrDigit(lower.charAt(i))) i++;
+
+      int len = i - start;
+      if (len < MIN_LEN || len > MAX_LEN) continue;
+
+      String term = lower.substring(start, i);
+      Integer prev = out.get(term);
+      if (prev != null) out.put(term, prev + 1);
+      else if (out.size() < MAX_TERMS) out.put(term, 1);
+    }
+    return out;
+  }
+
+  /** Distinct query terms in query order (at most MAX_QUERY_TERMS). */
+  public static List<String> queryTerms(String query) {
+    List<String> out = new ArrayList<>();
+    for (String t : termFreqs(query).keySet()) {
+      if (out.size() >= MAX_QUERY_TERMS) break;
+      out.add(t);
+    }
+    return out;
+  }
+}
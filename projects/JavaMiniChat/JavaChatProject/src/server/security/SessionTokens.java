@@ -0,0 +1,151 @@
+package server.security;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Short-lived signed session tokens (server-side).
+ * A client gets one with every successful auth and may come back with
+ * resume {token} instead of its password, so a reconnect costs one HMAC instead of a
+ * PBKDF2 run (tens of ms of CPU each, which adds up when many clients reconnect at once).
+ *
+ * token = base64url("user|expiresAt|nonce") + "." + base64url(HMAC-SHA256(secret, payload))
+ *
+ * Nothing is stored: verifying is one HMAC over a few dozen bytes, no DB read, and any
+ * node with the same secret accepts the token. Without a configured secret a random one
+ * is used, so tokens die with the process (clients then fall back to the password).
+ *
+ * revoke(user) (admin kick) rejects every token of that user issued up to now, on this
+ * node: a per-user "not before" time, kept only as long as such a token could still be
+ * unexpired (ttl).
+ */
+public final class SessionTokens {
+
+  private static final SecureRandom RNG = new SecureRandom();
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int SECRET_BYTES = 32;
+  private static final int NONCE_BYTES = 9;
+
+  private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder B64D = Base64.getUrlDecoder();
+
+  private static volatile SecretKeySpec key = new SecretKeySpec(randomBytes(SECRET_BYTES), ALGORITHM);
+  private static volatile long ttlMs = 15 * 60_000L;
+
+  // user -> tokens issued at or before this time are rejected
+  private static final ConcurrentHashMap<String, Long> NOT_BEFORE = new ConcurrentHashMap<>();
+
+  // Mac is not thread-safe and init() is not free: one per thread, re-made if the key changed
+  private static final class KeyedMac {
+    final SecretKeySpec key;
+    final Mac mac;
+
+    KeyedMac(SecretKeySpec key, Mac mac) {
+      this.key = key;
+      this.mac = mac;
+    }
+  }
+
+  private static final ThreadLocal<KeyedMac> MAC = new ThreadLocal<>();
+
+  private SessionTokens() {}
+
+  /** secret: shared by all nodes (empty = random per process); ttlSec <= 0 disables tokens. */
+  public static synchronized void configure(String secret, int ttlSec) {
+    ttlMs = Math.max(0, ttlSec) * 1000L;
+    if (secret != null && !secret.isBlank()) {
+      key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    } else if (ttlMs > 0) {
+      System.out.println("🔑 Session tokens use a random key (set CHAT_TOKEN_SECRET to keep them valid across restarts/nodes)");
+    }
+  }
+
+  public static boolean enabled() {
+    return ttlMs > 0;
+  }
+
+  public static long ttlMillis() {
+    return ttlMs;
+  }
+
+  /** New token for user, valid for the configured ttl (null when tokens are disabled). */
+  public static String issue(String user) {
+    if (!enabled() || user == null) return null;
+
+    String payload = user + "|" + (System.currentTimeMillis() + ttlMs) + "|" + B64.encodeToString(randomBytes(NONCE_BYTES));
+    byte[] raw = payload.getBytes(StandardCharsets.UTF_8);
+    return B64.encodeToString(raw) + "." + B64.encodeToString(sign(raw));
+  }
+
+  /** Reject the user's tokens issued until now (they must log in with the password again). */
+  public static void revoke(String user) {
+    if (user == null) return;
+    long now = System.currentTimeMillis();
+    NOT_BEFORE.put(user, now);
+    long horizon = now - ttlMs; // older marks cannot match an unexpired token any more
+    NOT_BEFORE.values().removeIf(t -> t < horizon);
+  }
+
+  /** User the token was issued to, or null (malformed, bad signature, expired, revoked, disabled). */
+  public static String verify(String token) {
+    if (!enabled() || token == null) return null;
+
+    int dot = token.indexOf('.');
+    if (dot <= 0 || dot == token.length() - 1) return null;
+
+    byte[] raw;
+    byte[] sig;
+    try {
+      raw = B64D.decode(token.substring(0, dot));
+      sig = B64D.decode(token.substring(dot + 1));
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+    if (!MessageDigest.isEqual(sign(raw), sig)) return null;
+
+    // user may itself contain '|': the two fixed fields are taken from the end
+    String payload = new String(raw, StandardCharsets.UTF_8);
+    int nonceSep = payload.lastIndexOf('|');
+    int expSep = nonceSep <= 0 ? -1 : payload.lastIndexOf('|', nonceSep - 1);
+    if (expSep <= 0) return null;
+
+    long expiresAt;
+    try {
+      expiresAt = Long.parseLong(payload.substring(expSep + 1, nonceSep));
+      if (expiresAt < System.currentTimeMillis()) return null;
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+    String user = payload.substring(0, expSep);
+    Long notBefore = NOT_BEFORE.get(user);
+    if (notBefore != null && expiresAt - ttlMs <= notBefore) return null; // issued before a revoke
+    return user;
+  }
+
+  private static byte[] sign(byte[] payload) {
+    SecretKeySpec k = key;
+    KeyedMac m = MAC.get();
+    try {
+      if (m == null || m.key != k) {
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(k);
+        m = new KeyedMac(k, mac);
+        MAC.set(m);
+      }
+      return m.mac.doFinal(payload);
+    } catch (Exception ex) {
+      throw new IllegalStateException("HMAC failed", ex);
+    }
+  }
+
+  private static byte[] randomBytes(int n) {
+    byte[] b = new byte[n];
+    RNG.nextBytes(b);
+    return b;
+  }
+}